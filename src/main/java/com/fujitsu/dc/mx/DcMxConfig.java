@@ -88,6 +88,175 @@ public class DcMxConfig {
      */
     public static final String WAIT_FOR_MEMCACHED = KEY_ROOT + "waitForMemcached";
 
+    /**
+     * Disk使用量をバックグラウンドで採取する間隔(ミリ秒).
+     */
+    public static final String SAMPLING_INTERVAL = KEY_ROOT + "sampling.interval";
+
+    /**
+     * ボリューム毎のディスク使用量採取の待ち時間(ミリ秒).
+     */
+    public static final String MX_VOLUME_TIMEOUT = KEY_ROOT + "volume.timeout";
+
+    /**
+     * ディスク使用量を並列に採取するスレッド数.
+     */
+    public static final String MX_VOLUME_THREADS = KEY_ROOT + "volume.threads";
+
+    /**
+     * ボリュームの一覧とディスク容量を取得する VolumeStatProviderの実装クラス.
+     */
+    public static final String MX_VOLUME_STAT_PROVIDER = KEY_ROOT + "volume.statProvider";
+
+    /**
+     * PCSの動作モードに変化がない場合に memcachedへ再設定する間隔(ミリ秒).
+     */
+    public static final String PCS_MODE_REASSERT_INTERVAL = KEY_ROOT + "pcsMode.reassertInterval";
+
+    /**
+     * /stats/stream でイベントがない場合に送信するハートビートの間隔(ミリ秒). 0の場合は送信しない.
+     */
+    public static final String STREAM_HEARTBEAT_INTERVAL = KEY_ROOT + "stream.heartbeatInterval";
+
+    /**
+     * /stats/stream の同時接続数の上限.
+     */
+    public static final String STREAM_MAX_CONNECTIONS = KEY_ROOT + "stream.maxConnections";
+
+    /**
+     * /stats/stream の一回の接続を維持する最大時間(ミリ秒).
+     */
+    public static final String STREAM_MAX_DURATION = KEY_ROOT + "stream.maxDuration";
+
+    /**
+     * リクエストの受付時と応答時にログを出力するかどうか.
+     */
+    public static final String ACCESS_LOG_ENABLED = KEY_ROOT + "accessLog.enabled";
+
+    /**
+     * 処理時間の内訳をログに出力するリクエストの処理時間の閾値(ミリ秒). 0以下の場合は出力しない.
+     */
+    public static final String SLOW_REQUEST_THRESHOLD = KEY_ROOT + "slowRequest.threshold";
+
+    /**
+     * ディスク使用量の履歴を1分単位で保持する区間の数.
+     */
+    public static final String HISTORY_MINUTES = KEY_ROOT + "history.minutes";
+
+    /**
+     * ディスク使用量の履歴を1時間単位で保持する区間の数.
+     */
+    public static final String HISTORY_HOURS = KEY_ROOT + "history.hours";
+
+    /**
+     * ディスク使用量の履歴を1日単位で保持する区間の数.
+     */
+    public static final String HISTORY_DAYS = KEY_ROOT + "history.days";
+
+    /**
+     * ディスク使用量の履歴を保持するボリューム数の上限.
+     */
+    public static final String HISTORY_MAX_VOLUMES = KEY_ROOT + "history.maxVolumes";
+
+    /**
+     * ディスク使用量の履歴を保存するディレクトリ. 空の場合は保存しない.
+     */
+    public static final String HISTORY_STORE_DIR = KEY_ROOT + "history.store.dir";
+
+    /**
+     * 履歴のセグメントファイル一つのレコード数.
+     */
+    public static final String HISTORY_STORE_SEGMENT_RECORDS = KEY_ROOT + "history.store.segmentRecords";
+
+    /**
+     * 圧縮せずに保持する履歴のセグメントファイル数の上限.
+     */
+    public static final String HISTORY_STORE_MAX_SEGMENTS = KEY_ROOT + "history.store.maxSegments";
+
+    /**
+     * 使用量の増加速度の推定に使用する採取結果の期間(ミリ秒).
+     */
+    public static final String FORECAST_WINDOW = KEY_ROOT + "forecast.window";
+
+    /**
+     * 使用量の増加速度の推定に必要な採取結果の数.
+     */
+    public static final String FORECAST_MIN_SAMPLES = KEY_ROOT + "forecast.minSamples";
+
+    /**
+     * 使用可能サイズに達するまでの推定時間がこれを下回った場合に ReadDeleteOnlyモードとする秒数. 0の場合は推定時間を使用しない.
+     */
+    public static final String FORECAST_HORIZON = KEY_ROOT + "forecast.horizon";
+
+    /**
+     * FULLとなったボリュームを OKに戻す使用率(低水位). MX_VOLUME_THRESHOLDとの差を幅として、各ボリュームのしきい値のルールの
+     * 使用可能サイズから差し引いたサイズを下回った場合に戻す. 空の場合は幅を 0とし、使用可能サイズを下回った場合に戻す.
+     */
+    public static final String MX_VOLUME_LOW_THRESHOLD = KEY_ROOT + "volume.lowThreshold";
+
+    /**
+     * ボリュームの状態を遷移させるために必要な、連続した採取結果の数.
+     */
+    public static final String PCS_MODE_DEBOUNCE_SAMPLES = KEY_ROOT + "pcsMode.debounceSamples";
+
+    /**
+     * ボリューム名またはそのパターンごとのしきい値. 空の場合は全ボリュームに MX_VOLUME_THRESHOLDを適用する.
+     * カンマ区切りの "ボリューム名またはパターン=しきい値" で指定する. しきい値は小数値、または "free:空き容量(バイト)".
+     */
+    public static final String MX_VOLUME_THRESHOLD_RULES = KEY_ROOT + "volume.thresholdRules";
+
+    /**
+     * ボリュームごとのキーに加えて、いずれかのボリュームが FULLの場合に全体のキー(PcsReadDeleteMode)を設定するかどうか.
+     */
+    public static final String PCS_MODE_GLOBAL_KEY = KEY_ROOT + "pcsMode.globalKey";
+
+    /**
+     * 全体のキーに状態を集約する際のこのノードのID. 空の場合はホスト名とする.
+     */
+    public static final String NODE_ID = KEY_ROOT + "node.id";
+
+    /**
+     * memcachedに設定するキーの有効期間(秒). 0の場合は失効しない. 有効期間の 1/3ごとに再設定して更新する.
+     * キーは採取のたびにのみ更新されるため、採取間隔の 3倍以上とする. cronから起動する場合は起動間隔の 3倍以上とすること.
+     */
+    public static final String PCS_MODE_LEASE_TTL = KEY_ROOT + "pcsMode.leaseTtl";
+
+    /**
+     * memcachedへの反映に失敗した場合に最初に再試行するまでの時間(ミリ秒). 再試行のたびに倍にする.
+     */
+    public static final String PCS_MODE_RETRY_INITIAL_INTERVAL = KEY_ROOT + "pcsMode.retry.initialInterval";
+
+    /**
+     * memcachedへの反映を再試行する間隔の上限(ミリ秒).
+     */
+    public static final String PCS_MODE_RETRY_MAX_INTERVAL = KEY_ROOT + "pcsMode.retry.maxInterval";
+
+    /**
+     * 反映したキーを memcachedから読み直して確認する間隔(ミリ秒). 0の場合は読み直さない.
+     */
+    public static final String PCS_MODE_VERIFY_INTERVAL = KEY_ROOT + "pcsMode.verifyInterval";
+
+    /**
+     * 採取のたびに memcachedの統計情報を採取するかどうか.
+     */
+    public static final String MEMCACHED_HEALTH_ENABLED = KEY_ROOT + "memcached.health.enabled";
+
+    /**
+     * キーが追い出される恐れがあると判定する、前回の採取以降に追い出されたキーの数. 0の場合は判定しない.
+     */
+    public static final String MEMCACHED_HEALTH_EVICTION_THRESHOLD = KEY_ROOT + "memcached.health.evictionThreshold";
+
+    /**
+     * キーが追い出される恐れがあると判定する、上限に対するメモリ使用量の割合(0～1の小数値). 0の場合は判定しない.
+     */
+    public static final String MEMCACHED_HEALTH_MEMORY_THRESHOLD = KEY_ROOT + "memcached.health.memoryThreshold";
+
+    /**
+     * キーが追い出される恐れがある場合にボリューム全体のStatusをERRORとするかどうか.
+     * falseの場合は memcachedの項目に evictionRiskとして返却するのみとする.
+     */
+    public static final String MEMCACHED_HEALTH_AFFECTS_STATUS = KEY_ROOT + "memcached.health.affectsStatus";
+
     /**
      * コンストラクタ.
      */
@@ -143,6 +312,270 @@ public class DcMxConfig {
         return Long.parseLong(get(WAIT_FOR_MEMCACHED));
     }
 
+    /**
+     * SAMPLING_INTERVALの値を取得する.
+     * @return mx-properties内の com.fujitsu.dc.mx.sampling.intervalの値
+     */
+    public static long getSamplingInterval() {
+        return Long.parseLong(get(SAMPLING_INTERVAL));
+    }
+
+    /**
+     * MX_VOLUME_TIMEOUTの値を取得する.
+     * @return mx-properties内の com.fujitsu.dc.mx.volume.timeoutの値
+     */
+    public static long getMxVolumeTimeout() {
+        return Long.parseLong(get(MX_VOLUME_TIMEOUT));
+    }
+
+    /**
+     * MX_VOLUME_THREADSの値を取得する.
+     * @return mx-properties内の com.fujitsu.dc.mx.volume.threadsの値
+     */
+    public static int getMxVolumeThreads() {
+        return Integer.parseInt(get(MX_VOLUME_THREADS));
+    }
+
+    /**
+     * MX_VOLUME_STAT_PROVIDERの値を取得する.
+     * @return mx-properties内の com.fujitsu.dc.mx.volume.statProviderの値
+     */
+    public static String getMxVolumeStatProvider() {
+        return get(MX_VOLUME_STAT_PROVIDER);
+    }
+
+    /**
+     * PCS_MODE_REASSERT_INTERVALの値を取得する.
+     * @return mx-properties内の com.fujitsu.dc.mx.pcsMode.reassertIntervalの値
+     */
+    public static long getPcsModeReassertInterval() {
+        return Long.parseLong(get(PCS_MODE_REASSERT_INTERVAL));
+    }
+
+    /**
+     * STREAM_HEARTBEAT_INTERVALの値を取得する.
+     * @return mx-properties内の com.fujitsu.dc.mx.stream.heartbeatIntervalの値
+     */
+    public static long getStreamHeartbeatInterval() {
+        return Long.parseLong(get(STREAM_HEARTBEAT_INTERVAL));
+    }
+
+    /**
+     * STREAM_MAX_CONNECTIONSの値を取得する.
+     * @return mx-properties内の com.fujitsu.dc.mx.stream.maxConnectionsの値
+     */
+    public static int getStreamMaxConnections() {
+        return Integer.parseInt(get(STREAM_MAX_CONNECTIONS));
+    }
+
+    /**
+     * STREAM_MAX_DURATIONの値を取得する.
+     * @return mx-properties内の com.fujitsu.dc.mx.stream.maxDurationの値
+     */
+    public static long getStreamMaxDuration() {
+        return Long.parseLong(get(STREAM_MAX_DURATION));
+    }
+
+    /**
+     * ACCESS_LOG_ENABLEDの値を取得する.
+     * @return mx-properties内の com.fujitsu.dc.mx.accessLog.enabledの値
+     */
+    public static boolean isAccessLogEnabled() {
+        return Boolean.parseBoolean(get(ACCESS_LOG_ENABLED));
+    }
+
+    /**
+     * SLOW_REQUEST_THRESHOLDの値を取得する.
+     * @return mx-properties内の com.fujitsu.dc.mx.slowRequest.thresholdの値
+     */
+    public static long getSlowRequestThreshold() {
+        return Long.parseLong(get(SLOW_REQUEST_THRESHOLD));
+    }
+
+    /**
+     * HISTORY_MINUTESの値を取得する.
+     * @return mx-properties内の com.fujitsu.dc.mx.history.minutesの値
+     */
+    public static int getHistoryMinutes() {
+        return Integer.parseInt(get(HISTORY_MINUTES));
+    }
+
+    /**
+     * HISTORY_HOURSの値を取得する.
+     * @return mx-properties内の com.fujitsu.dc.mx.history.hoursの値
+     */
+    public static int getHistoryHours() {
+        return Integer.parseInt(get(HISTORY_HOURS));
+    }
+
+    /**
+     * HISTORY_DAYSの値を取得する.
+     * @return mx-properties内の com.fujitsu.dc.mx.history.daysの値
+     */
+    public static int getHistoryDays() {
+        return Integer.parseInt(get(HISTORY_DAYS));
+    }
+
+    /**
+     * HISTORY_MAX_VOLUMESの値を取得する.
+     * @return mx-properties内の com.fujitsu.dc.mx.history.maxVolumesの値
+     */
+    public static int getHistoryMaxVolumes() {
+        return Integer.parseInt(get(HISTORY_MAX_VOLUMES));
+    }
+
+    /**
+     * HISTORY_STORE_DIRの値を取得する.
+     * @return mx-properties内の com.fujitsu.dc.mx.history.store.dirの値
+     */
+    public static String getHistoryStoreDir() {
+        return get(HISTORY_STORE_DIR);
+    }
+
+    /**
+     * HISTORY_STORE_SEGMENT_RECORDSの値を取得する.
+     * @return mx-properties内の com.fujitsu.dc.mx.history.store.segmentRecordsの値
+     */
+    public static int getHistoryStoreSegmentRecords() {
+        return Integer.parseInt(get(HISTORY_STORE_SEGMENT_RECORDS));
+    }
+
+    /**
+     * HISTORY_STORE_MAX_SEGMENTSの値を取得する.
+     * @return mx-properties内の com.fujitsu.dc.mx.history.store.maxSegmentsの値
+     */
+    public static int getHistoryStoreMaxSegments() {
+        return Integer.parseInt(get(HISTORY_STORE_MAX_SEGMENTS));
+    }
+
+    /**
+     * FORECAST_WINDOWの値を取得する.
+     * @return mx-properties内の com.fujitsu.dc.mx.forecast.windowの値
+     */
+    public static long getForecastWindow() {
+        return Long.parseLong(get(FORECAST_WINDOW));
+    }
+
+    /**
+     * FORECAST_MIN_SAMPLESの値を取得する.
+     * @return mx-properties内の com.fujitsu.dc.mx.forecast.minSamplesの値
+     */
+    public static int getForecastMinSamples() {
+        return Integer.parseInt(get(FORECAST_MIN_SAMPLES));
+    }
+
+    /**
+     * FORECAST_HORIZONの値を取得する.
+     * @return mx-properties内の com.fujitsu.dc.mx.forecast.horizonの値
+     */
+    public static long getForecastHorizon() {
+        return Long.parseLong(get(FORECAST_HORIZON));
+    }
+
+    /**
+     * MX_VOLUME_LOW_THRESHOLDの値を取得する.
+     * @return mx-properties内の com.fujitsu.dc.mx.volume.lowThresholdの値
+     */
+    public static String getMxVolumeLowThreshold() {
+        return get(MX_VOLUME_LOW_THRESHOLD);
+    }
+
+    /**
+     * PCS_MODE_DEBOUNCE_SAMPLESの値を取得する.
+     * @return mx-properties内の com.fujitsu.dc.mx.pcsMode.debounceSamplesの値
+     */
+    public static int getPcsModeDebounceSamples() {
+        return Integer.parseInt(get(PCS_MODE_DEBOUNCE_SAMPLES));
+    }
+
+    /**
+     * MX_VOLUME_THRESHOLD_RULESの値を取得する.
+     * @return mx-properties内の com.fujitsu.dc.mx.volume.thresholdRulesの値
+     */
+    public static String getMxVolumeThresholdRules() {
+        return get(MX_VOLUME_THRESHOLD_RULES);
+    }
+
+    /**
+     * PCS_MODE_GLOBAL_KEYの値を取得する.
+     * @return mx-properties内の com.fujitsu.dc.mx.pcsMode.globalKeyの値
+     */
+    public static boolean isPcsModeGlobalKey() {
+        return Boolean.parseBoolean(get(PCS_MODE_GLOBAL_KEY));
+    }
+
+    /**
+     * NODE_IDの値を取得する.
+     * @return mx-properties内の com.fujitsu.dc.mx.node.idの値
+     */
+    public static String getNodeId() {
+        return get(NODE_ID);
+    }
+
+    /**
+     * PCS_MODE_LEASE_TTLの値を取得する.
+     * @return mx-properties内の com.fujitsu.dc.mx.pcsMode.leaseTtlの値
+     */
+    public static int getPcsModeLeaseTtl() {
+        return Integer.parseInt(get(PCS_MODE_LEASE_TTL));
+    }
+
+    /**
+     * PCS_MODE_RETRY_INITIAL_INTERVALの値を取得する.
+     * @return mx-properties内の com.fujitsu.dc.mx.pcsMode.retry.initialIntervalの値
+     */
+    public static long getPcsModeRetryInitialInterval() {
+        return Long.parseLong(get(PCS_MODE_RETRY_INITIAL_INTERVAL));
+    }
+
+    /**
+     * PCS_MODE_RETRY_MAX_INTERVALの値を取得する.
+     * @return mx-properties内の com.fujitsu.dc.mx.pcsMode.retry.maxIntervalの値
+     */
+    public static long getPcsModeRetryMaxInterval() {
+        return Long.parseLong(get(PCS_MODE_RETRY_MAX_INTERVAL));
+    }
+
+    /**
+     * PCS_MODE_VERIFY_INTERVALの値を取得する.
+     * @return mx-properties内の com.fujitsu.dc.mx.pcsMode.verifyIntervalの値
+     */
+    public static long getPcsModeVerifyInterval() {
+        return Long.parseLong(get(PCS_MODE_VERIFY_INTERVAL));
+    }
+
+    /**
+     * MEMCACHED_HEALTH_ENABLEDの値を取得する.
+     * @return mx-properties内の com.fujitsu.dc.mx.memcached.health.enabledの値
+     */
+    public static boolean isMemcachedHealthEnabled() {
+        return Boolean.parseBoolean(get(MEMCACHED_HEALTH_ENABLED));
+    }
+
+    /**
+     * MEMCACHED_HEALTH_EVICTION_THRESHOLDの値を取得する.
+     * @return mx-properties内の com.fujitsu.dc.mx.memcached.health.evictionThresholdの値
+     */
+    public static long getMemcachedHealthEvictionThreshold() {
+        return Long.parseLong(get(MEMCACHED_HEALTH_EVICTION_THRESHOLD));
+    }
+
+    /**
+     * MEMCACHED_HEALTH_MEMORY_THRESHOLDの値を取得する.
+     * @return mx-properties内の com.fujitsu.dc.mx.memcached.health.memoryThresholdの値
+     */
+    public static String getMemcachedHealthMemoryThreshold() {
+        return get(MEMCACHED_HEALTH_MEMORY_THRESHOLD);
+    }
+
+    /**
+     * MEMCACHED_HEALTH_AFFECTS_STATUSの値を取得する.
+     * @return mx-properties内の com.fujitsu.dc.mx.memcached.health.affectsStatusの値
+     */
+    public static boolean isMemcachedHealthAffectsStatus() {
+        return Boolean.parseBoolean(get(MEMCACHED_HEALTH_AFFECTS_STATUS));
+    }
+
     /**
      * Key文字列を指定して設定情報を取得します.
      * @param key 設定キー
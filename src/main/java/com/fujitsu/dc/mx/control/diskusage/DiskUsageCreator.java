@@ -16,11 +16,25 @@
  */
 package com.fujitsu.dc.mx.control.diskusage;
 
-import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.fujitsu.dc.mx.DcMxConfig;
 import com.fujitsu.dc.mx.DcMxException;
 import com.fujitsu.dc.mx.DcMxMessageId;
 import com.fujitsu.dc.mx.model.diskusage.DiskUsage;
@@ -28,27 +42,100 @@ import com.fujitsu.dc.mx.model.diskusage.DiskUsages;
 
 /**
  * ディスク使用量の情報を採取するクラス.
+ * ボリュームの一覧とディスク容量の取得は VolumeStatProviderに委ねる。
+ * ボリューム毎の採取はスレッドプール上で並列に行い、ボリューム毎に採取を開始してからの待ち時間の上限を設ける。
+ * 採取の開始を待っている間は待ち時間に数えない。
+ * 待ち時間を超えた採取は中断するが、NFSの応答待ち等で中断できずにスレッドが残る場合は、
+ * その時点で残っているスレッドの数だけスレッドプールを拡張し、同じ採取の中でも他のボリュームの採取が滞らないようにする。
  */
 public class DiskUsageCreator {
 
     private static final String CONFIGURATION_INVALID_CODE = "MX500-SV-0001";
     private static final String FAILED_TO_READ_DISK_STATUS_CODE = "MX500-SV-0003";
+    private static final String TIMED_OUT_READING_DISK_STATUS_CODE = "MX500-SV-0004";
 
     static Logger log = LoggerFactory.getLogger(DiskUsageCreator.class);
 
-    private static final String UNMOUNTED_CHECK_FILE = ".unmounted";
+    private static final String THREAD_NAME_PREFIX = "dc-mx-volume-stat-";
+
+    /**
+     * 採取中のボリューム. 応答しないボリュームに対して採取処理を重ねて投入しないために使う.
+     */
+    private static final ConcurrentMap<String, VolumeTask> PENDING_VOLUMES =
+            new ConcurrentHashMap<String, VolumeTask>();
+
+    private static ThreadPoolExecutor executor = null;
+    private static int poolThreads = 0;
+
     private String volumePath;
     private double threshold;
-
-    private File volumes;
+    private ThresholdRules thresholdRules;
+    private long volumeTimeout;
+    private VolumeStatProvider provider;
 
     /**
      * コンストラクタ.
+     * ボリューム毎の待ち時間には設定値 com.fujitsu.dc.mx.volume.timeoutを、
+     * ボリュームのディスク容量の取得には設定値 com.fujitsu.dc.mx.volume.statProviderのクラスを使用する.
      * @param volumePath ディスク使用量採取対象のパス
      * @param threshold しきい値（小数値 例：0.9）
      * @throws DcMxException しきい値の数値が異常な場合
      */
     public DiskUsageCreator(String volumePath, String threshold) throws DcMxException {
+        this(volumePath, threshold, getConfiguredVolumeTimeout());
+    }
+
+    /**
+     * コンストラクタ.
+     * @param volumePath ディスク使用量採取対象のパス
+     * @param threshold しきい値（小数値 例：0.9）
+     * @param volumeTimeout ボリューム毎の待ち時間(ミリ秒)
+     * @throws DcMxException しきい値の数値が異常な場合
+     */
+    public DiskUsageCreator(String volumePath, String threshold, long volumeTimeout) throws DcMxException {
+        this(volumePath, threshold, volumeTimeout, createVolumeStatProvider());
+    }
+
+    /**
+     * コンストラクタ.
+     * @param volumePath ディスク使用量採取対象のパス
+     * @param threshold しきい値（小数値 例：0.9）
+     * @param volumeTimeout ボリューム毎の待ち時間(ミリ秒)
+     * @param provider ボリュームの一覧とディスク容量の取得に使用するクラス
+     * @throws DcMxException しきい値の数値が異常な場合
+     */
+    public DiskUsageCreator(String volumePath, String threshold, long volumeTimeout, VolumeStatProvider provider)
+            throws DcMxException {
+        this(volumePath, threshold, DcMxConfig.getMxVolumeThresholdRules(), volumeTimeout, provider);
+    }
+
+    /**
+     * コンストラクタ.
+     * @param volumePath ディスク使用量採取対象のパス
+     * @param threshold しきい値（小数値 例：0.9）
+     * @param thresholdRules ボリュームごとのしきい値（例：_ads=0.95,elasticsearch*=free:200G）
+     * @param volumeTimeout ボリューム毎の待ち時間(ミリ秒)
+     * @param provider ボリュームの一覧とディスク容量の取得に使用するクラス
+     * @throws DcMxException しきい値の数値が異常な場合
+     */
+    DiskUsageCreator(String volumePath, String threshold, String thresholdRules, long volumeTimeout,
+            VolumeStatProvider provider) throws DcMxException {
+        this(volumePath, threshold, thresholdRules, DcMxConfig.getMxVolumeLowThreshold(), volumeTimeout, provider);
+    }
+
+    /**
+     * コンストラクタ.
+     * @param volumePath ディスク使用量採取対象のパス
+     * @param threshold しきい値（小数値 例：0.9）
+     * @param thresholdRules ボリュームごとのしきい値（例：_ads=0.95,elasticsearch*=free:200G）
+     * @param lowThreshold FULLの状態を解除するしきい値（小数値 例：0.85）. nullまたは空の場合は検証しない
+     * @param volumeTimeout ボリューム毎の待ち時間(ミリ秒)
+     * @param provider ボリュームの一覧とディスク容量の取得に使用するクラス
+     * @throws DcMxException しきい値の数値が異常な場合
+     */
+    DiskUsageCreator(String volumePath, String threshold, String thresholdRules, String lowThreshold,
+            long volumeTimeout, VolumeStatProvider provider) throws DcMxException {
+        this.provider = provider;
         this.volumePath = volumePath;
         if (null == this.volumePath || this.volumePath.trim().isEmpty()) {
             throw new DcMxException(new DcMxMessageId(CONFIGURATION_INVALID_CODE));
@@ -61,28 +148,125 @@ public class DiskUsageCreator {
         if (this.threshold > 1.0d || this.threshold < 0.0d) {
             throw new DcMxException(new DcMxMessageId(CONFIGURATION_INVALID_CODE));
         }
+        if (volumeTimeout <= 0) {
+            throw new DcMxException(new DcMxMessageId(CONFIGURATION_INVALID_CODE));
+        }
+        this.volumeTimeout = volumeTimeout;
+        this.thresholdRules = ThresholdRules.parse(thresholdRules, this.threshold);
+        if (lowThreshold != null && !lowThreshold.isEmpty()) {
+            // 解除までの幅は既定のしきい値との差とし、各ボリュームのルールのしきい値から差し引く
+            double lowWatermark;
+            try {
+                lowWatermark = Double.valueOf(lowThreshold);
+            } catch (NumberFormatException e) {
+                throw new DcMxException(new DcMxMessageId(CONFIGURATION_INVALID_CODE));
+            }
+            if (lowWatermark > this.threshold || lowWatermark < 0.0d) {
+                throw new DcMxException(new DcMxMessageId(CONFIGURATION_INVALID_CODE));
+            }
+            this.thresholdRules.validateLowBand(this.threshold - lowWatermark);
+        }
+    }
+
+    private static long getConfiguredVolumeTimeout() throws DcMxException {
+        try {
+            return DcMxConfig.getMxVolumeTimeout();
+        } catch (NumberFormatException e) {
+            throw new DcMxException(new DcMxMessageId(CONFIGURATION_INVALID_CODE), e);
+        }
     }
 
     /**
-     * ディスク使用量の情報を採取する.
-     * @return ディスク使用量の情報
-     * @throws DcMxException ディスク使用量の採取に失敗
+     * 設定値 com.fujitsu.dc.mx.volume.statProviderのクラスのインスタンスを生成する.
+     * @return VolumeStatProvider
+     * @throws DcMxException クラスのインスタンスを生成できない場合
      */
-    public DiskUsages create() throws DcMxException {
+    static VolumeStatProvider createVolumeStatProvider() throws DcMxException {
+        try {
+            Class<?> clazz = Class.forName(DcMxConfig.getMxVolumeStatProvider());
+            return (VolumeStatProvider) clazz.newInstance();
+        } catch (ClassNotFoundException e) {
+            throw new DcMxException(new DcMxMessageId(CONFIGURATION_INVALID_CODE), e);
+        } catch (ClassCastException e) {
+            throw new DcMxException(new DcMxMessageId(CONFIGURATION_INVALID_CODE), e);
+        } catch (InstantiationException e) {
+            throw new DcMxException(new DcMxMessageId(CONFIGURATION_INVALID_CODE), e);
+        } catch (IllegalAccessException e) {
+            throw new DcMxException(new DcMxMessageId(CONFIGURATION_INVALID_CODE), e);
+        }
+    }
 
-        volumes = new File(volumePath);
-        if (!volumes.exists()) {
-            // ルートボリュームが存在しない場合
-            log.info(String.format("[%s]: Volume does not exist. [%s]", FAILED_TO_READ_DISK_STATUS_CODE, volumePath));
-            throw new DcMxException(new DcMxMessageId(FAILED_TO_READ_DISK_STATUS_CODE));
+    /**
+     * ボリューム毎の採取に使うスレッドプールを取得する.
+     * 中断後も応答を待ち続けているスレッドがある場合は、その数だけスレッド数を増やす.
+     * @return スレッドプール
+     */
+    private static synchronized ThreadPoolExecutor getExecutor() {
+        if (executor == null) {
+            int threads = DcMxConfig.getMxVolumeThreads();
+            final AtomicInteger count = new AtomicInteger();
+            executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, THREAD_NAME_PREFIX + count.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            poolThreads = threads;
         }
-        if (volumes.isFile()) {
-            // ルートボリュームがファイルの場合
-            log.info(String.format(
-                    "[%s]: Volume is not directory. [%s]", FAILED_TO_READ_DISK_STATUS_CODE, volumePath));
-            throw new DcMxException(new DcMxMessageId(FAILED_TO_READ_DISK_STATUS_CODE));
+        resizeExecutor();
+        return executor;
+    }
+
+    /**
+     * 中断後も応答を待ち続けているスレッドの数に合わせてスレッドプールのスレッド数を変更する.
+     * スレッド数を増やした場合、開始を待っている採取は直ちに新しいスレッドで開始される.
+     */
+    private static synchronized void resizeExecutor() {
+        if (executor == null) {
+            return;
+        }
+        int threads = DcMxConfig.getMxVolumeThreads();
+        int stuck = 0;
+        for (VolumeTask task : PENDING_VOLUMES.values()) {
+            if (task.isStuck()) {
+                stuck++;
+            }
+        }
+        int size = threads + stuck;
+        if (size > poolThreads) {
+            log.warn("Volume stat threads are not responding. Grow the thread pool. stuck=" + stuck
+                    + ", threads=" + size);
+            executor.setMaximumPoolSize(size);
+            executor.setCorePoolSize(size);
+            poolThreads = size;
+        } else if (size < poolThreads) {
+            log.info("Volume stat threads are recovered. threads=" + size);
+            executor.setCorePoolSize(size);
+            executor.setMaximumPoolSize(size);
+            poolThreads = size;
         }
+    }
 
+    /**
+     * ボリューム毎の採取に使うスレッドプールを停止する. 次回の採取では改めて作成する.
+     */
+    public static synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        PENDING_VOLUMES.clear();
+    }
+
+    /**
+     * ディスク使用量の情報を採取する.
+     * @return ディスク使用量の情報
+     * @throws DcMxException ディスク使用量の採取に失敗
+     */
+    public DiskUsages create() throws DcMxException {
         // ボリューム配下のディスク使用量情報を取得する
         DiskUsages diskUsages = getVolumes();
 
@@ -92,42 +276,173 @@ public class DiskUsageCreator {
     /**
      * ボリューム配下のディスク使用量情報を取得する.
      * @return ディスク使用量情報
+     * @throws DcMxException ボリュームの一覧が取得できない場合
      */
-    private DiskUsages getVolumes() {
-        DiskUsages diskUsages = new DiskUsages();
-        // ボリューム毎にコンテキスト作成
-        for (File volume : volumes.listFiles()) {
+    private DiskUsages getVolumes() throws DcMxException {
+        List<String> volumes = provider.listVolumes(volumePath);
 
-            // ファイルの場合は無視する
-            if (volume.isFile()) {
-                continue;
-            }
+        // ボリューム毎の採取をまとめて投入し、それぞれ採取を開始してから待ち時間の上限まで結果を待つ.
+        // 中断できないスレッドの分はその都度スレッドを増やすため、開始を待っている採取も必ず開始される
+        ThreadPoolExecutor pool = getExecutor();
+        List<VolumeTask> tasks = new ArrayList<VolumeTask>(volumes.size());
+        for (String volume : volumes) {
+            tasks.add(submit(pool, volume));
+        }
 
-            // ボリュームがマウントされていない場合はエラーをセットする
-            File unmounted = new File(volume.getPath() + File.separator + UNMOUNTED_CHECK_FILE);
-            if (unmounted.exists()) {
-                log.info(String.format(
-                        "[%s]: Volume is not mounted. [%s]", FAILED_TO_READ_DISK_STATUS_CODE,
-                        volume.getPath()));
-                DiskUsage diskUsage = DiskUsage.getErrorInstance(volume.getName(),
-                        new DcMxException(new DcMxMessageId(FAILED_TO_READ_DISK_STATUS_CODE)));
+        DiskUsages diskUsages = new DiskUsages();
+        for (int i = 0; i < volumes.size(); i++) {
+            DiskUsage diskUsage = await(pool, volumes.get(i), tasks.get(i));
+            if (diskUsage != null) {
                 diskUsages.add(diskUsage);
-                continue;
             }
+        }
+        return diskUsages;
+    }
 
-            DiskUsage diskUsage = getDiskUsage(volume);
-            diskUsages.add(diskUsage);
+    /**
+     * ボリュームの採取を投入する.
+     * @return 投入した採取. 前回の採取が中断後も応答していない場合は null
+     */
+    private VolumeTask submit(ThreadPoolExecutor pool, String volume) {
+        String key = volumePath + "/" + volume;
+        VolumeTask pending = PENDING_VOLUMES.get(key);
+        if (pending != null && pending.isStuck()) {
+            // 応答しないボリュームには再投入せず、スレッドを占有しないようにする
+            return null;
         }
+        VolumeTask task = new VolumeTask(key, volume);
+        PENDING_VOLUMES.put(key, task);
+        task.future = pool.submit(task);
+        return task;
+    }
 
-        return diskUsages;
+    private DiskUsage await(ThreadPoolExecutor pool, String volume, VolumeTask task) {
+        if (task == null) {
+            log.info(String.format("[%s]: Volume is still not responding. [%s]",
+                    TIMED_OUT_READING_DISK_STATUS_CODE, volume));
+            return DiskUsage.getErrorInstance(volume,
+                    new DcMxException(new DcMxMessageId(TIMED_OUT_READING_DISK_STATUS_CODE)));
+        }
+        long timeout = TimeUnit.MILLISECONDS.toNanos(volumeTimeout);
+        try {
+            while (true) {
+                // 待ち時間は採取を開始した時刻から数える. 開始を待っている間は開始したかどうかを確認し直す
+                if (!task.isStarted() && pool.isShutdown()) {
+                    // 停止したスレッドプールでは開始されない
+                    return timedOut(volume, task);
+                }
+                long remaining = timeout;
+                if (task.isStarted()) {
+                    remaining = Math.max(0L, task.getStartedAt() + timeout - System.nanoTime());
+                }
+                try {
+                    return task.future.get(remaining, TimeUnit.NANOSECONDS);
+                } catch (TimeoutException e) {
+                    if (task.isStarted() && task.getStartedAt() + timeout - System.nanoTime() <= 0) {
+                        return timedOut(volume, task);
+                    }
+                }
+            }
+        } catch (CancellationException e) {
+            return DiskUsage.getErrorInstance(volume,
+                    new DcMxException(new DcMxMessageId(TIMED_OUT_READING_DISK_STATUS_CODE), e));
+        } catch (ExecutionException e) {
+            log.info(String.format(
+                    "[%s]: Failed to read volume. [%s]", FAILED_TO_READ_DISK_STATUS_CODE, volume),
+                    e.getCause());
+            return DiskUsage.getErrorInstance(volume,
+                    new DcMxException(new DcMxMessageId(FAILED_TO_READ_DISK_STATUS_CODE), e.getCause()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return DiskUsage.getErrorInstance(volume,
+                    new DcMxException(new DcMxMessageId(TIMED_OUT_READING_DISK_STATUS_CODE), e));
+        }
     }
 
-    private DiskUsage getDiskUsage(File volume) {
-        String volumeName = volume.getName();
-        long volumeDiskSize = volume.getTotalSpace();
-        long usedDiskSize = volumeDiskSize - volume.getUsableSpace();
+    /**
+     * 待ち時間を超えた採取を中断する. 中断後もスレッドが残る場合は直ちにスレッドプールを拡張する.
+     * @param volume ボリューム名
+     * @param task 採取
+     * @return タイムアウトのエラー情報
+     */
+    private DiskUsage timedOut(String volume, VolumeTask task) {
+        task.future.cancel(true);
+        if (task.isStuck()) {
+            resizeExecutor();
+        }
+        log.info(String.format(
+                "[%s]: Timed out reading volume. [%s]", TIMED_OUT_READING_DISK_STATUS_CODE, volume));
+        return DiskUsage.getErrorInstance(volume,
+                new DcMxException(new DcMxMessageId(TIMED_OUT_READING_DISK_STATUS_CODE)));
+    }
+
+    /**
+     * 一つのボリュームのディスク使用量を取得する. スレッドプール上で実行される.
+     * @param volume ボリューム名
+     * @return ディスク使用量の情報
+     */
+    DiskUsage statVolume(String volume) {
+        VolumeStat stat;
+        try {
+            stat = provider.getVolumeStat(volumePath, volume);
+        } catch (DcMxException e) {
+            // ボリュームがマウントされていない場合等はエラーをセットする
+            return DiskUsage.getErrorInstance(volume, e);
+        }
+        return new DiskUsage(volume, stat.getTotalSpace(), stat.getUsedSpace(), thresholdRules.select(volume));
+    }
 
-        DiskUsage diskUsage = new DiskUsage(volumeName, volumeDiskSize, usedDiskSize, threshold);
-        return diskUsage;
+    /**
+     * 一つのボリュームの採取. 採取を開始した時刻と、中断後もスレッドが残っているかどうかを保持する.
+     */
+    private final class VolumeTask implements Callable<DiskUsage> {
+
+        private final String key;
+        private final String volume;
+        private volatile long startedAt;
+        private volatile boolean started = false;
+        private volatile boolean finished = false;
+        private volatile Future<DiskUsage> future;
+
+        VolumeTask(String key, String volume) {
+            this.key = key;
+            this.volume = volume;
+        }
+
+        @Override
+        public DiskUsage call() {
+            this.startedAt = System.nanoTime();
+            this.started = true;
+            try {
+                return statVolume(this.volume);
+            } finally {
+                this.finished = true;
+                PENDING_VOLUMES.remove(this.key, this);
+            }
+        }
+
+        /**
+         * 採取を開始したかどうかを判定する.
+         * @return true: 開始した false: 開始を待っている
+         */
+        boolean isStarted() {
+            return this.started;
+        }
+
+        /**
+         * 採取を開始した時刻を取得する.
+         * @return 採取を開始した時刻(System.nanoTime())
+         */
+        long getStartedAt() {
+            return this.startedAt;
+        }
+
+        /**
+         * 中断した後もスレッドが採取を続けているかどうかを判定する.
+         * @return true: スレッドが残っている false: 残っていない
+         */
+        boolean isStuck() {
+            return this.started && !this.finished && this.future != null && this.future.isCancelled();
+        }
     }
 }
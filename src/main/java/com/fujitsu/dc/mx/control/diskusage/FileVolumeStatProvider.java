@@ -0,0 +1,85 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.mx.control.diskusage;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fujitsu.dc.mx.DcMxException;
+import com.fujitsu.dc.mx.DcMxMessageId;
+
+/**
+ * java.io.Fileを使ってボリュームの一覧とディスク容量を取得するクラス.
+ * パス配下のディレクトリをボリュームとし、ファイルは無視する。
+ * ボリューム配下に .unmountedファイルが存在する場合はマウントされていないと判断する。
+ */
+public class FileVolumeStatProvider implements VolumeStatProvider {
+
+    private static final String FAILED_TO_READ_DISK_STATUS_CODE = "MX500-SV-0003";
+    private static final String UNMOUNTED_CHECK_FILE = ".unmounted";
+
+    static Logger log = LoggerFactory.getLogger(FileVolumeStatProvider.class);
+
+    @Override
+    public List<String> listVolumes(String volumePath) throws DcMxException {
+        File volumes = new File(volumePath);
+        if (!volumes.exists()) {
+            // ルートボリュームが存在しない場合
+            log.info(String.format("[%s]: Volume does not exist. [%s]", FAILED_TO_READ_DISK_STATUS_CODE, volumePath));
+            throw new DcMxException(new DcMxMessageId(FAILED_TO_READ_DISK_STATUS_CODE));
+        }
+        if (volumes.isFile()) {
+            // ルートボリュームがファイルの場合
+            log.info(String.format(
+                    "[%s]: Volume is not directory. [%s]", FAILED_TO_READ_DISK_STATUS_CODE, volumePath));
+            throw new DcMxException(new DcMxMessageId(FAILED_TO_READ_DISK_STATUS_CODE));
+        }
+        File[] volumeFiles = volumes.listFiles();
+        if (volumeFiles == null) {
+            log.info(String.format(
+                    "[%s]: Failed to list volumes. [%s]", FAILED_TO_READ_DISK_STATUS_CODE, volumePath));
+            throw new DcMxException(new DcMxMessageId(FAILED_TO_READ_DISK_STATUS_CODE));
+        }
+
+        List<String> names = new ArrayList<String>(volumeFiles.length);
+        for (File volume : volumeFiles) {
+            // ファイルの場合は無視する
+            if (!volume.isFile()) {
+                names.add(volume.getName());
+            }
+        }
+        return names;
+    }
+
+    @Override
+    public VolumeStat getVolumeStat(String volumePath, String volume) throws DcMxException {
+        File volumeFile = new File(volumePath, volume);
+
+        // ボリュームがマウントされていない場合はエラーとする
+        File unmounted = new File(volumeFile, UNMOUNTED_CHECK_FILE);
+        if (unmounted.exists()) {
+            log.info(String.format(
+                    "[%s]: Volume is not mounted. [%s]", FAILED_TO_READ_DISK_STATUS_CODE, volumeFile.getPath()));
+            throw new DcMxException(new DcMxMessageId(FAILED_TO_READ_DISK_STATUS_CODE));
+        }
+        return new VolumeStat(volumeFile.getTotalSpace(), volumeFile.getUsableSpace());
+    }
+}
@@ -0,0 +1,233 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.mx.control.diskusage;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fujitsu.dc.mx.DcMxConfig;
+import com.fujitsu.dc.mx.history.HistoryRecord;
+import com.fujitsu.dc.mx.history.HistoryRecordHandler;
+import com.fujitsu.dc.mx.history.HistoryStore;
+import com.fujitsu.dc.mx.model.diskusage.DiskUsage;
+import com.fujitsu.dc.mx.model.diskusage.DiskUsage.Status;
+import com.fujitsu.dc.mx.model.diskusage.DiskUsages;
+
+/**
+ * ボリュームごとのディスク使用量の増加速度を推定し、使用可能サイズに達するまでの秒数を求めるクラス.
+ * 直近の一定時間の採取結果に対して最小二乗法で使用量の増加速度を求める。
+ * cronから起動した場合など過去の採取結果を持たないときは、HistoryStoreに保存された採取結果を使用する.
+ */
+public class GrowthEstimator {
+
+    static Logger log = LoggerFactory.getLogger(GrowthEstimator.class);
+
+    /** ボリュームごとに保持する採取結果の上限. */
+    static final int MAX_SAMPLES = 128;
+
+    private static final double MILLIS_PER_SECOND = 1000d;
+
+    private static GrowthEstimator singleton = null;
+
+    private final long window;
+    private final int minSamples;
+    private final Map<String, SampleWindow> volumes = new HashMap<String, SampleWindow>();
+
+    /**
+     * コンストラクタ.
+     * @param window 推定に使用する採取結果の期間(ミリ秒)
+     * @param minSamples 推定に必要な採取結果の数
+     */
+    GrowthEstimator(long window, int minSamples) {
+        this.window = window;
+        this.minSamples = Math.max(2, minSamples);
+    }
+
+    /**
+     * インスタンスを取得する. HistoryStoreが設定されている場合は、初回の取得時に保存された採取結果を読み込む.
+     * @return GrowthEstimator
+     */
+    public static synchronized GrowthEstimator getInstance() {
+        if (singleton == null) {
+            GrowthEstimator estimator = new GrowthEstimator(DcMxConfig.getForecastWindow(),
+                    DcMxConfig.getForecastMinSamples());
+            HistoryStore store = HistoryStore.getInstance();
+            if (store != null) {
+                estimator.restore(store, System.currentTimeMillis());
+            }
+            singleton = estimator;
+        }
+        return singleton;
+    }
+
+    /**
+     * スナップショットの各ボリュームの採取結果を記録し、使用可能サイズに達するまでの秒数を設定する.
+     * freeze()の前のスナップショットに対して呼び出す.
+     * @param diskUsages スナップショット
+     */
+    public void estimate(DiskUsages diskUsages) {
+        estimate(diskUsages, diskUsages.getCollectedAt());
+    }
+
+    /**
+     * スナップショットの各ボリュームの採取結果を指定した時刻の値として記録し、使用可能サイズに達するまでの秒数を設定する.
+     * @param diskUsages スナップショット
+     * @param time 採取時刻(エポックミリ秒)
+     */
+    synchronized void estimate(DiskUsages diskUsages, long time) {
+        Set<String> present = new HashSet<String>();
+        for (DiskUsage usage : diskUsages) {
+            String volume = usage.getVolume();
+            if (volume == null) {
+                continue;
+            }
+            present.add(volume);
+            if (usage.getStatus() == Status.ERROR) {
+                continue;
+            }
+            SampleWindow samples = getSampleWindow(volume);
+            samples.add(time, usage.getUsedDiskSize(), this.window);
+            diskUsages.setSecondsToFull(usage, samples.getSecondsToFull(usage.getAllocatedDiskSize(), this.minSamples));
+        }
+        // 採取対象から外れたボリュームは破棄する
+        Iterator<String> it = this.volumes.keySet().iterator();
+        while (it.hasNext()) {
+            if (!present.contains(it.next())) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * HistoryStoreに保存された直近の採取結果を読み込む.
+     * 集計済みのレコードは区間の平均値を区間の開始時刻の値として扱う.
+     * @param store ストア
+     * @param now 現在時刻(エポックミリ秒)
+     * @return 読み込んだレコード数
+     */
+    synchronized int restore(HistoryStore store, long now) {
+        final int[] count = new int[1];
+        try {
+            store.read(now - this.window, now, new HistoryRecordHandler() {
+                @Override
+                public void handle(HistoryRecord record) {
+                    if (record.isTransition() || record.getStatus() == Status.ERROR || record.getCount() <= 0) {
+                        return;
+                    }
+                    getSampleWindow(record.getVolume()).add(record.getTime(),
+                            record.getSumUsedDiskSize() / record.getCount(), GrowthEstimator.this.window);
+                    count[0]++;
+                }
+            });
+        } catch (IOException e) {
+            log.warn("Failed to read usage history for growth estimation.", e);
+        }
+        return count[0];
+    }
+
+    private SampleWindow getSampleWindow(String volume) {
+        SampleWindow samples = this.volumes.get(volume);
+        if (samples == null) {
+            samples = new SampleWindow();
+            this.volumes.put(volume, samples);
+        }
+        return samples;
+    }
+
+    /**
+     * 一つのボリュームの直近の採取結果を保持するリングバッファ.
+     */
+    private static final class SampleWindow {
+
+        private final long[] times = new long[MAX_SAMPLES];
+        private final long[] used = new long[MAX_SAMPLES];
+        private int head = -1;
+        private int size = 0;
+
+        /**
+         * 採取結果を追加し、期間外の古い採取結果を破棄する. 最新のものより古い採取結果は追加しない.
+         */
+        void add(long time, long usedDiskSize, long window) {
+            if (this.size > 0 && time <= this.times[this.head]) {
+                return;
+            }
+            this.head = (this.head + 1) % MAX_SAMPLES;
+            this.times[this.head] = time;
+            this.used[this.head] = usedDiskSize;
+            if (this.size < MAX_SAMPLES) {
+                this.size++;
+            }
+            while (this.size > 1 && this.times[oldest()] < time - window) {
+                this.size--;
+            }
+        }
+
+        /**
+         * 使用可能サイズに達するまでの秒数を求める.
+         * @return 秒数. 採取結果が不足している場合と、使用量が増加していない場合は DiskUsage.UNKNOWN_SECONDS_TO_FULL
+         */
+        long getSecondsToFull(long allocatedDiskSize, int minSamples) {
+            long remaining = allocatedDiskSize - this.used[this.head];
+            if (remaining <= 0) {
+                return 0L;
+            }
+            if (this.size < minSamples) {
+                return DiskUsage.UNKNOWN_SECONDS_TO_FULL;
+            }
+            // 桁落ちを避けるため、時刻は最新の採取時刻からの秒数、使用量は平均からの差で計算する
+            long newest = this.times[this.head];
+            double meanTime = 0d;
+            double meanUsed = 0d;
+            for (int i = 0; i < this.size; i++) {
+                int slot = slot(i);
+                meanTime += (this.times[slot] - newest) / MILLIS_PER_SECOND;
+                meanUsed += this.used[slot];
+            }
+            meanTime /= this.size;
+            meanUsed /= this.size;
+            double sxx = 0d;
+            double sxy = 0d;
+            for (int i = 0; i < this.size; i++) {
+                int slot = slot(i);
+                double dt = (this.times[slot] - newest) / MILLIS_PER_SECOND - meanTime;
+                sxx += dt * dt;
+                sxy += dt * (this.used[slot] - meanUsed);
+            }
+            if (sxx <= 0d || sxy <= 0d) {
+                return DiskUsage.UNKNOWN_SECONDS_TO_FULL;
+            }
+            double bytesPerSecond = sxy / sxx;
+            // 使用可能サイズに達していないため、推定時間は 1秒以上とする
+            return Math.max(1L, Math.round(Math.min(remaining / bytesPerSecond, Long.MAX_VALUE)));
+        }
+
+        private int oldest() {
+            return slot(0);
+        }
+
+        private int slot(int index) {
+            return (this.head - this.size + 1 + index + MAX_SAMPLES) % MAX_SAMPLES;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.mx.control.diskusage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fujitsu.dc.mx.DcMxConfig;
+import com.fujitsu.dc.mx.DcMxException;
+import com.fujitsu.dc.mx.DcMxMessageId;
+
+/**
+ * 実際のボリュームを使わずに、設定に従った架空のボリュームの一覧とディスク容量を返却するクラス.
+ * 多数のボリュームや応答の遅いストレージを想定した負荷試験に使用する。
+ * 以下の設定値(キーの接頭辞は本クラスの完全修飾名)を参照する。
+ * <ul>
+ * <li>.volumes: ボリューム数</li>
+ * <li>.diskSize: 各ボリュームのディスクサイズ(バイト)</li>
+ * <li>.usedRatio: 各ボリュームの使用率(0～1)</li>
+ * <li>.fullVolumes: 使用率を 1とするボリューム数(先頭から)</li>
+ * <li>.latency: 一回の取得に要する時間(ミリ秒)</li>
+ * <li>.latencyJitter: 取得に要する時間に加えるゆらぎの最大値(ミリ秒)</li>
+ * <li>.failureRate: 取得に失敗する割合(0～1)</li>
+ * </ul>
+ */
+public class SyntheticVolumeStatProvider implements VolumeStatProvider {
+
+    private static final String CONFIG_KEY_PREFIX = SyntheticVolumeStatProvider.class.getName();
+    private static final String CONFIGURATION_INVALID_CODE = "MX500-SV-0001";
+    private static final String FAILED_TO_READ_DISK_STATUS_CODE = "MX500-SV-0003";
+    private static final String VOLUME_NAME_FORMAT = "volume%05d";
+
+    static Logger log = LoggerFactory.getLogger(SyntheticVolumeStatProvider.class);
+
+    private static final AtomicLong STAT_COUNT = new AtomicLong();
+    private static final AtomicLong FAILURE_COUNT = new AtomicLong();
+
+    private final Random random = new Random();
+    private int volumes;
+    private long diskSize;
+    private double usedRatio;
+    private int fullVolumes;
+    private long latency;
+    private long latencyJitter;
+    private double failureRate;
+
+    /**
+     * コンストラクタ.
+     * @throws DcMxException 設定値が不正な場合
+     */
+    public SyntheticVolumeStatProvider() throws DcMxException {
+        try {
+            this.volumes = Integer.parseInt(DcMxConfig.get(CONFIG_KEY_PREFIX + ".volumes"));
+            this.diskSize = Long.parseLong(DcMxConfig.get(CONFIG_KEY_PREFIX + ".diskSize"));
+            this.usedRatio = Double.parseDouble(DcMxConfig.get(CONFIG_KEY_PREFIX + ".usedRatio"));
+            this.fullVolumes = Integer.parseInt(DcMxConfig.get(CONFIG_KEY_PREFIX + ".fullVolumes"));
+            this.latency = Long.parseLong(DcMxConfig.get(CONFIG_KEY_PREFIX + ".latency"));
+            this.latencyJitter = Long.parseLong(DcMxConfig.get(CONFIG_KEY_PREFIX + ".latencyJitter"));
+            this.failureRate = Double.parseDouble(DcMxConfig.get(CONFIG_KEY_PREFIX + ".failureRate"));
+        } catch (NumberFormatException e) {
+            log.info("Synthetic volume configuration is invalid.");
+            throw new DcMxException(new DcMxMessageId(CONFIGURATION_INVALID_CODE), e);
+        }
+        if (this.volumes < 0 || this.diskSize < 0 || this.usedRatio < 0.0d || this.usedRatio > 1.0d
+                || this.latency < 0 || this.latencyJitter < 0 || this.failureRate < 0.0d || this.failureRate > 1.0d) {
+            log.info("Synthetic volume configuration is out of range.");
+            throw new DcMxException(new DcMxMessageId(CONFIGURATION_INVALID_CODE));
+        }
+    }
+
+    @Override
+    public List<String> listVolumes(String volumePath) throws DcMxException {
+        List<String> names = new ArrayList<String>(this.volumes);
+        for (int i = 0; i < this.volumes; i++) {
+            names.add(String.format(VOLUME_NAME_FORMAT, i));
+        }
+        return names;
+    }
+
+    @Override
+    public VolumeStat getVolumeStat(String volumePath, String volume) throws DcMxException {
+        STAT_COUNT.incrementAndGet();
+        sleep();
+        if (this.failureRate > 0.0d && nextDouble() < this.failureRate) {
+            FAILURE_COUNT.incrementAndGet();
+            log.info(String.format("[%s]: Injected failure. [%s]", FAILED_TO_READ_DISK_STATUS_CODE, volume));
+            throw new DcMxException(new DcMxMessageId(FAILED_TO_READ_DISK_STATUS_CODE));
+        }
+        double ratio = this.usedRatio;
+        if (getIndex(volume) < this.fullVolumes) {
+            ratio = 1.0d;
+        }
+        long used = (long) (this.diskSize * ratio);
+        return new VolumeStat(this.diskSize, this.diskSize - used);
+    }
+
+    private void sleep() {
+        long wait = this.latency;
+        if (this.latencyJitter > 0) {
+            wait += (long) (nextDouble() * this.latencyJitter);
+        }
+        if (wait <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(wait);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private double nextDouble() {
+        return this.random.nextDouble();
+    }
+
+    private static int getIndex(String volume) {
+        int index = volume.length();
+        while (index > 0 && Character.isDigit(volume.charAt(index - 1))) {
+            index--;
+        }
+        if (index == volume.length()) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(volume.substring(index));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * ディスク容量の取得回数の累計を取得する.
+     * @return 取得回数の累計
+     */
+    public static long getStatCount() {
+        return STAT_COUNT.get();
+    }
+
+    /**
+     * 失敗させた取得の累計を取得する.
+     * @return 失敗させた取得の累計
+     */
+    public static long getFailureCount() {
+        return FAILURE_COUNT.get();
+    }
+}
@@ -0,0 +1,202 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.mx.control.diskusage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fujitsu.dc.mx.DcMxException;
+import com.fujitsu.dc.mx.DcMxMessageId;
+import com.fujitsu.dc.mx.model.diskusage.ThresholdRule;
+
+/**
+ * ボリュームごとのしきい値のルールの一覧.
+ * 設定値はカンマ区切りの "ボリューム名またはパターン=しきい値" の並びとする。
+ * パターンには * (任意の文字列)と ? (任意の一文字)を使用できる。
+ * しきい値は 0～1の小数値、または "free:" に続けて残すべき空き容量をバイト数で指定する(K, M, G, Tの接尾辞を使用できる)。
+ * 例： "_ads=0.95,elasticsearch*=free:200G"
+ * ボリューム名が一致するルール、パターンが一致する最初のルール、既定のしきい値の順に適用する.
+ */
+final class ThresholdRules {
+
+    private static final String CONFIGURATION_INVALID_CODE = "MX500-SV-0001";
+
+    static Logger log = LoggerFactory.getLogger(ThresholdRules.class);
+
+    private static final String RULE_SEPARATOR = ",";
+    private static final String THRESHOLD_SEPARATOR = "=";
+    private static final String SIZE_UNITS = "KMGT";
+    private static final int UNIT_SHIFT = 10;
+
+    private final ThresholdRule defaultRule;
+    private final Map<String, ThresholdRule> volumeRules = new HashMap<String, ThresholdRule>();
+    private final List<Pattern> patterns = new ArrayList<Pattern>();
+    private final List<ThresholdRule> patternRules = new ArrayList<ThresholdRule>();
+
+    private ThresholdRules(double defaultThreshold) {
+        this.defaultRule = ThresholdRule.fraction(ThresholdRule.DEFAULT_SCOPE, defaultThreshold);
+    }
+
+    /**
+     * 設定値を解析する.
+     * @param rules 設定値. nullまたは空の場合は既定のしきい値のみとする
+     * @param defaultThreshold 既定のしきい値(小数値 例：0.9)
+     * @return ルールの一覧
+     * @throws DcMxException 設定値が異常な場合
+     */
+    static ThresholdRules parse(String rules, double defaultThreshold) throws DcMxException {
+        ThresholdRules result = new ThresholdRules(defaultThreshold);
+        if (rules == null || rules.trim().isEmpty()) {
+            return result;
+        }
+        for (String entry : rules.split(RULE_SEPARATOR)) {
+            if (entry.trim().isEmpty()) {
+                continue;
+            }
+            int index = entry.lastIndexOf(THRESHOLD_SEPARATOR);
+            String volume = "";
+            if (index > 0) {
+                volume = entry.substring(0, index).trim();
+            }
+            if (volume.isEmpty()) {
+                throw invalid(entry);
+            }
+            String threshold = entry.substring(index + 1).trim();
+            if (volume.indexOf('*') < 0 && volume.indexOf('?') < 0) {
+                if (!result.volumeRules.containsKey(volume)) {
+                    result.volumeRules.put(volume,
+                            parseRule(ThresholdRule.VOLUME_SCOPE_PREFIX + volume, threshold, entry));
+                }
+            } else {
+                result.patterns.add(toPattern(volume));
+                result.patternRules.add(parseRule(ThresholdRule.PATTERN_SCOPE_PREFIX + volume, threshold, entry));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * ボリュームに適用するルールを取得する.
+     * @param volume ボリューム名
+     * @return ルール
+     */
+    ThresholdRule select(String volume) {
+        ThresholdRule rule = this.volumeRules.get(volume);
+        if (rule != null) {
+            return rule;
+        }
+        for (int i = 0; i < this.patterns.size(); i++) {
+            if (this.patterns.get(i).matcher(volume).matches()) {
+                return this.patternRules.get(i);
+            }
+        }
+        return this.defaultRule;
+    }
+
+    /**
+     * FULLの状態を解除するまでの幅が、ディスクサイズに対する割合で表すいずれのルールのしきい値も超えないことを検証する.
+     * 空き容量で表すルールはディスクサイズにより使用可能サイズが決まるため検証しない.
+     * @param band 幅(0～1の小数値)
+     * @throws DcMxException 幅がいずれかのルールのしきい値を超える場合
+     */
+    void validateLowBand(double band) throws DcMxException {
+        List<ThresholdRule> rules = new ArrayList<ThresholdRule>(this.volumeRules.values());
+        rules.addAll(this.patternRules);
+        rules.add(this.defaultRule);
+        for (ThresholdRule rule : rules) {
+            if (!rule.isMinFreeBytes() && rule.getFraction() < band) {
+                throw invalid(rule.toString() + " lowThreshold band=" + band);
+            }
+        }
+    }
+
+    private static ThresholdRule parseRule(String scope, String threshold, String entry) throws DcMxException {
+        try {
+            if (threshold.startsWith(ThresholdRule.MIN_FREE_PREFIX)) {
+                long minFreeBytes = parseSize(threshold.substring(ThresholdRule.MIN_FREE_PREFIX.length()).trim());
+                if (minFreeBytes < 0) {
+                    throw invalid(entry);
+                }
+                return ThresholdRule.minFreeBytes(scope, minFreeBytes);
+            }
+            double fraction = Double.parseDouble(threshold);
+            if (fraction > 1.0d || fraction < 0.0d) {
+                throw invalid(entry);
+            }
+            return ThresholdRule.fraction(scope, fraction);
+        } catch (NumberFormatException e) {
+            throw invalid(entry);
+        }
+    }
+
+    /**
+     * K, M, G, Tの接尾辞(1024の累乗)を付けることのできるバイト数を解析する.
+     * @param size バイト数
+     * @return バイト数. 値が大きすぎる場合は -1
+     */
+    static long parseSize(String size) {
+        int shift = 0;
+        String digits = size;
+        if (!size.isEmpty()) {
+            int unit = SIZE_UNITS.indexOf(size.substring(size.length() - 1).toUpperCase(Locale.ENGLISH));
+            if (unit >= 0) {
+                shift = (unit + 1) * UNIT_SHIFT;
+                digits = size.substring(0, size.length() - 1).trim();
+            }
+        }
+        long value = Long.parseLong(digits);
+        if (value < 0 || value > (Long.MAX_VALUE >> shift)) {
+            return -1L;
+        }
+        return value << shift;
+    }
+
+    private static Pattern toPattern(String glob) {
+        StringBuilder regex = new StringBuilder();
+        int start = 0;
+        for (int i = 0; i < glob.length(); i++) {
+            char ch = glob.charAt(i);
+            if (ch == '*' || ch == '?') {
+                if (i > start) {
+                    regex.append(Pattern.quote(glob.substring(start, i)));
+                }
+                if (ch == '*') {
+                    regex.append(".*");
+                } else {
+                    regex.append('.');
+                }
+                start = i + 1;
+            }
+        }
+        if (start < glob.length()) {
+            regex.append(Pattern.quote(glob.substring(start)));
+        }
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+
+    private static DcMxException invalid(String entry) {
+        log.info("Invalid volume threshold rule. [" + entry + "]");
+        return new DcMxException(new DcMxMessageId(CONFIGURATION_INVALID_CODE));
+    }
+}
@@ -0,0 +1,60 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.mx.control.diskusage;
+
+/**
+ * 一つのボリュームのディスク容量を格納するクラス.
+ */
+public class VolumeStat {
+
+    private final long totalSpace;
+    private final long usableSpace;
+
+    /**
+     * コンストラクタ.
+     * @param totalSpace ディスクサイズ
+     * @param usableSpace 使用可能な空き領域のサイズ
+     */
+    public VolumeStat(long totalSpace, long usableSpace) {
+        this.totalSpace = totalSpace;
+        this.usableSpace = usableSpace;
+    }
+
+    /**
+     * ディスクサイズを取得.
+     * @return ディスクサイズ
+     */
+    public long getTotalSpace() {
+        return totalSpace;
+    }
+
+    /**
+     * 使用可能な空き領域のサイズを取得.
+     * @return 使用可能な空き領域のサイズ
+     */
+    public long getUsableSpace() {
+        return usableSpace;
+    }
+
+    /**
+     * 使用済みのサイズを取得.
+     * @return 使用済みのサイズ
+     */
+    public long getUsedSpace() {
+        return totalSpace - usableSpace;
+    }
+}
@@ -0,0 +1,46 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.mx.control.diskusage;
+
+import java.util.List;
+
+import com.fujitsu.dc.mx.DcMxException;
+
+/**
+ * ボリュームの一覧とディスク容量を取得するインターフェース.
+ * 実装クラスは設定値 com.fujitsu.dc.mx.volume.statProviderで指定し、引数なしのコンストラクタを持つ必要がある。
+ * getVolumeStat()は複数のスレッドから同時に呼び出される。
+ */
+public interface VolumeStatProvider {
+
+    /**
+     * ディスク使用量採取対象のパス配下のボリューム名の一覧を取得する.
+     * @param volumePath ディスク使用量採取対象のパス
+     * @return ボリューム名の一覧
+     * @throws DcMxException パスが存在しない等、一覧を取得できない場合
+     */
+    List<String> listVolumes(String volumePath) throws DcMxException;
+
+    /**
+     * 一つのボリュームのディスク容量を取得する.
+     * @param volumePath ディスク使用量採取対象のパス
+     * @param volume ボリューム名
+     * @return ディスク容量
+     * @throws DcMxException ボリュームがマウントされていない等、ディスク容量を取得できない場合
+     */
+    VolumeStat getVolumeStat(String volumePath, String volume) throws DcMxException;
+}
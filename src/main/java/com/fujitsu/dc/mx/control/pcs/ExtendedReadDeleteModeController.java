@@ -0,0 +1,100 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.mx.control.pcs;
+
+import java.util.Collection;
+import java.util.Map;
+
+import com.fujitsu.dc.mx.DcMxException;
+
+/**
+ * ReadDeleteModeControllerに、値の読み込み、CASによる更新、一括操作、統計情報の取得、接続の通知と停止を追加するインターフェース.
+ * 実装していない ReadDeleteModeControllerを指定した場合は、全体のキーの設定と削除のみを行う従来の動作となる。
+ */
+public interface ExtendedReadDeleteModeController extends ReadDeleteModeController {
+
+    /**
+     * memcachedから ReadDeleteModeの値を CAS値と共に取得する.
+     * @param key memcachedのキー
+     * @return 値と CAS値. 設定されていない場合は null
+     * @throws DcMxException DcMxException
+     */
+    ReadDeleteModeEntry getReadDeleteMode(String key) throws DcMxException;
+
+    /**
+     * CAS値が一致する場合のみ memcachedに ReadDeleteModeを設定する.
+     * @param key memcachedのキー
+     * @param cas getReadDeleteModeで取得した CAS値
+     * @param data memcachedの値
+     * @return true: 設定した false: 他の書き込みにより値が変更または削除されていた
+     * @throws DcMxException DcMxException
+     */
+    boolean compareAndSetReadDeleteMode(String key, long cas, Object data) throws DcMxException;
+
+    /**
+     * キーが存在しない場合のみ memcachedに ReadDeleteModeを設定する.
+     * @param key memcachedのキー
+     * @param data memcachedの値
+     * @return true: 設定した false: 既に設定されていた
+     * @throws DcMxException DcMxException
+     */
+    boolean addReadDeleteMode(String key, Object data) throws DcMxException;
+
+    /**
+     * memcachedから複数の ReadDeleteModeの値をまとめて取得する.
+     * @param keys memcachedのキー
+     * @return 設定されているキーと値
+     * @throws DcMxException DcMxException
+     */
+    Map<String, Object> getReadDeleteModes(Collection<String> keys) throws DcMxException;
+
+    /**
+     * memcachedに複数の ReadDeleteModeを設定する. 全ての設定をまとめて送信してから応答を待つ.
+     * @param entries memcachedのキーと値
+     * @throws DcMxException いずれかの設定に失敗した場合
+     */
+    void setReadDeleteModes(Map<String, Object> entries) throws DcMxException;
+
+    /**
+     * memcachedから複数の ReadDeleteModeを削除する. 全ての削除をまとめて送信してから応答を待つ.
+     * 存在しないキーの削除はエラーとしない.
+     * @param keys memcachedのキー
+     * @throws DcMxException いずれかの削除に失敗した場合
+     */
+    void removeReadDeleteModes(Collection<String> keys) throws DcMxException;
+
+    /**
+     * memcachedの統計情報を取得する.
+     * @param type 統計の種類(stats slabsの場合は "slabs"). nullの場合は基本の統計
+     * @return 統計の名前と値. 取得できない場合は空
+     * @throws DcMxException DcMxException
+     */
+    Map<String, String> getServerStats(String type) throws DcMxException;
+
+    /**
+     * memcachedとの接続が確立した場合に呼び出すリスナーを設定する.
+     * 接続の状態を通知できない実装では呼び出さなくてよい.
+     * @param listener リスナー
+     */
+    void setConnectionListener(Runnable listener);
+
+    /**
+     * memcachedとの接続を切断し、使用しているスレッドを停止する.
+     */
+    void shutdown();
+
+}
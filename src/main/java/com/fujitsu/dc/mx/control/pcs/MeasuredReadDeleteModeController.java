@@ -0,0 +1,228 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.mx.control.pcs;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.fujitsu.dc.mx.DcMxException;
+import com.fujitsu.dc.mx.control.pcs.PcsModeControlManager.Operation;
+
+/**
+ * ReadDeleteModeControllerに対する操作の数と所要時間を計測するクラス.
+ * 操作の数は PcsModeControlManagerの累計に加算し、所要時間はこのインスタンスに積算する.
+ * 計測対象が ExtendedReadDeleteModeControllerを実装していない場合、一括の設定と削除は一つずつの操作で代替し、
+ * 統計情報は空、接続の通知と停止は何もしない. 値の読み込みと条件付きの更新は代替できないため、
+ * 呼び出し元は isExtended()で確認してから使用する.
+ */
+final class MeasuredReadDeleteModeController implements ExtendedReadDeleteModeController {
+
+    private final ReadDeleteModeController delegate;
+    /** 計測対象が拡張の操作を実装していない場合は null. */
+    private final ExtendedReadDeleteModeController extended;
+    /** 操作に要した時間の積算(ナノ秒). */
+    private long elapsed = 0L;
+
+    /**
+     * コンストラクタ.
+     * @param delegate 計測対象
+     */
+    MeasuredReadDeleteModeController(ReadDeleteModeController delegate) {
+        this.delegate = delegate;
+        if (delegate instanceof ExtendedReadDeleteModeController) {
+            this.extended = (ExtendedReadDeleteModeController) delegate;
+        } else {
+            this.extended = null;
+        }
+    }
+
+    /**
+     * 計測対象が拡張の操作を実装しているかどうかを判定する.
+     * @return true: 実装している false: 設定と削除のみ
+     */
+    boolean isExtended() {
+        return this.extended != null;
+    }
+
+    private ExtendedReadDeleteModeController extended() {
+        if (this.extended == null) {
+            throw new UnsupportedOperationException(
+                    this.delegate.getClass().getName() + " does not implement ExtendedReadDeleteModeController.");
+        }
+        return this.extended;
+    }
+
+    /**
+     * 操作に要した時間の積算を取得する.
+     * @return 積算(ナノ秒)
+     */
+    long getElapsed() {
+        return this.elapsed;
+    }
+
+    @Override
+    public void setReadDeleteMode(String key, Object data) throws DcMxException {
+        long start = begin();
+        try {
+            this.delegate.setReadDeleteMode(key, data);
+            end(start, Operation.SET, 1, false);
+        } catch (DcMxException e) {
+            end(start, Operation.SET, 1, true);
+            throw e;
+        }
+    }
+
+    @Override
+    public void removeReadDeleteMode(String key) throws DcMxException {
+        long start = begin();
+        try {
+            this.delegate.removeReadDeleteMode(key);
+            end(start, Operation.DELETE, 1, false);
+        } catch (DcMxException e) {
+            end(start, Operation.DELETE, 1, true);
+            throw e;
+        }
+    }
+
+    @Override
+    public ReadDeleteModeEntry getReadDeleteMode(String key) throws DcMxException {
+        long start = begin();
+        try {
+            ReadDeleteModeEntry entry = extended().getReadDeleteMode(key);
+            end(start, Operation.GET, 1, false);
+            return entry;
+        } catch (DcMxException e) {
+            end(start, Operation.GET, 1, true);
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean compareAndSetReadDeleteMode(String key, long cas, Object data) throws DcMxException {
+        long start = begin();
+        try {
+            boolean result = extended().compareAndSetReadDeleteMode(key, cas, data);
+            end(start, Operation.CAS, 1, false);
+            return result;
+        } catch (DcMxException e) {
+            end(start, Operation.CAS, 1, true);
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean addReadDeleteMode(String key, Object data) throws DcMxException {
+        long start = begin();
+        try {
+            boolean result = extended().addReadDeleteMode(key, data);
+            end(start, Operation.ADD, 1, false);
+            return result;
+        } catch (DcMxException e) {
+            end(start, Operation.ADD, 1, true);
+            throw e;
+        }
+    }
+
+    @Override
+    public Map<String, Object> getReadDeleteModes(Collection<String> keys) throws DcMxException {
+        long start = begin();
+        try {
+            Map<String, Object> result = extended().getReadDeleteModes(keys);
+            end(start, Operation.GET, keys.size(), false);
+            return result;
+        } catch (DcMxException e) {
+            end(start, Operation.GET, keys.size(), true);
+            throw e;
+        }
+    }
+
+    @Override
+    public void setReadDeleteModes(Map<String, Object> entries) throws DcMxException {
+        long start = begin();
+        try {
+            if (this.extended != null) {
+                this.extended.setReadDeleteModes(entries);
+            } else {
+                for (Map.Entry<String, Object> entry : entries.entrySet()) {
+                    this.delegate.setReadDeleteMode(entry.getKey(), entry.getValue());
+                }
+            }
+            end(start, Operation.SET, entries.size(), false);
+        } catch (DcMxException e) {
+            end(start, Operation.SET, entries.size(), true);
+            throw e;
+        }
+    }
+
+    @Override
+    public void removeReadDeleteModes(Collection<String> keys) throws DcMxException {
+        long start = begin();
+        try {
+            if (this.extended != null) {
+                this.extended.removeReadDeleteModes(keys);
+            } else {
+                for (String key : keys) {
+                    this.delegate.removeReadDeleteMode(key);
+                }
+            }
+            end(start, Operation.DELETE, keys.size(), false);
+        } catch (DcMxException e) {
+            end(start, Operation.DELETE, keys.size(), true);
+            throw e;
+        }
+    }
+
+    @Override
+    public Map<String, String> getServerStats(String type) throws DcMxException {
+        if (this.extended == null) {
+            return new HashMap<String, String>();
+        }
+        long start = begin();
+        try {
+            Map<String, String> result = this.extended.getServerStats(type);
+            end(start, Operation.STATS, 1, false);
+            return result;
+        } catch (DcMxException e) {
+            end(start, Operation.STATS, 1, true);
+            throw e;
+        }
+    }
+
+    @Override
+    public void setConnectionListener(Runnable listener) {
+        if (this.extended != null) {
+            this.extended.setConnectionListener(listener);
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        if (this.extended != null) {
+            this.extended.shutdown();
+        }
+    }
+
+    private static long begin() {
+        return System.nanoTime();
+    }
+
+    private void end(long start, Operation operation, int count, boolean failed) {
+        this.elapsed += System.nanoTime() - start;
+        PcsModeControlManager.countOperation(operation, count, failed);
+    }
+}
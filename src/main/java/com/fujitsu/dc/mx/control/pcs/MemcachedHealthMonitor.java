@@ -0,0 +1,116 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.mx.control.pcs;
+
+import java.util.Map;
+
+import com.fujitsu.dc.mx.DcMxException;
+import com.fujitsu.dc.mx.model.diskusage.MemcachedHealth;
+
+/**
+ * PCSの動作モードを設定する memcachedの状態を採取するクラス.
+ * statsの値から接続数、追い出し数、ヒット率、メモリ使用量を求め、
+ * 前回の採取以降にキーが追い出された場合、または保持している値の合計(bytes)が上限に近い場合にキーが追い出される恐れがあると
+ * 判定する。slabに割り当て済みのメモリ(stats slabsの total_malloced)は解放されず、運用中の memcachedでは常に上限に近いため
+ * 判定に使用しない。
+ * ヒット率は前回の採取以降の getから算出し、その間に getがない場合は memcachedの起動以降の累計から算出する。
+ * スレッドセーフではない.
+ */
+final class MemcachedHealthMonitor {
+
+    private static final long UNKNOWN = -1L;
+
+    private final ExtendedReadDeleteModeController controller;
+    private final long evictionThreshold;
+    private final double memoryThreshold;
+    private long previousEvictions = UNKNOWN;
+    private long previousHits = UNKNOWN;
+    private long previousMisses = UNKNOWN;
+
+    /**
+     * コンストラクタ.
+     * @param controller memcachedの操作に使用するクラス
+     * @param evictionThreshold 恐れがあると判定する、前回の採取以降に追い出されたキーの数. 0以下の場合は判定しない
+     * @param memoryThreshold 恐れがあると判定する、上限に対するメモリ使用量の割合. 0以下の場合は判定しない
+     */
+    MemcachedHealthMonitor(ExtendedReadDeleteModeController controller, long evictionThreshold,
+            double memoryThreshold) {
+        this.controller = controller;
+        this.evictionThreshold = evictionThreshold;
+        this.memoryThreshold = memoryThreshold;
+    }
+
+    /**
+     * memcachedの状態を採取する.
+     * @return memcachedの状態. 統計情報を取得できない場合は null
+     * @throws DcMxException memcachedの操作に失敗した場合
+     */
+    MemcachedHealth collect() throws DcMxException {
+        Map<String, String> stats = this.controller.getServerStats(null);
+        if (stats.isEmpty()) {
+            return null;
+        }
+
+        long evictions = getLong(stats, "evictions");
+        long recentEvictions = 0L;
+        if (this.previousEvictions != UNKNOWN && evictions >= this.previousEvictions) {
+            recentEvictions = evictions - this.previousEvictions;
+        }
+        this.previousEvictions = evictions;
+
+        long hits = getLong(stats, "get_hits");
+        long misses = getLong(stats, "get_misses");
+        double hitRatio = MemcachedHealth.UNKNOWN_HIT_RATIO;
+        if (this.previousHits != UNKNOWN && hits >= this.previousHits && misses >= this.previousMisses
+                && hits + misses > this.previousHits + this.previousMisses) {
+            hitRatio = ratio(hits - this.previousHits, misses - this.previousMisses);
+        } else if (hits + misses > 0) {
+            hitRatio = ratio(hits, misses);
+        }
+        this.previousHits = hits;
+        this.previousMisses = misses;
+
+        long usedMemory = getLong(stats, "bytes");
+        long memoryLimit = getLong(stats, "limit_maxbytes");
+
+        boolean risk = false;
+        if (this.evictionThreshold > 0 && recentEvictions >= this.evictionThreshold) {
+            risk = true;
+        }
+        if (this.memoryThreshold > 0 && memoryLimit > 0 && usedMemory >= memoryLimit * this.memoryThreshold) {
+            risk = true;
+        }
+        return new MemcachedHealth(getLong(stats, "curr_connections"), evictions, recentEvictions, hitRatio,
+                usedMemory, memoryLimit, risk);
+    }
+
+    private static double ratio(long hits, long misses) {
+        return (double) hits / (hits + misses);
+    }
+
+    private static long getLong(Map<String, String> stats, String name) {
+        String value = stats.get(name);
+        if (value == null) {
+            return 0L;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return 0L;
+        }
+    }
+}
@@ -0,0 +1,230 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.mx.control.pcs;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fujitsu.dc.mx.DcMxException;
+import com.fujitsu.dc.mx.DcMxMessageId;
+
+/**
+ * 複数の mxノードの ReadDeleteOnlyモードを全体のキーに集約するクラス.
+ * 全体のキーの値は従来どおり FULLのノードの採取結果(JSON)とし、既存の読み手や旧版のノードとの互換性を保つ。
+ * 各ノードは自身の状態を "PcsReadDeleteMode.node:ノードID" のキーに設定し、FULLのノードの一覧
+ * (PcsReadDeleteMode.fullNodes. ノードIDのカンマ区切り)を gets/casで他のノードの書き込みと競合しないように更新してから、
+ * 全体のキーに自身の採取結果を設定する。全体のキーは FULLのノードの一覧が空となった場合にのみ削除する。
+ * memcachedには CAS値を指定した削除がないため、削除した後にノードの一覧(PcsReadDeleteMode.nodes)に登録された
+ * 各ノードのキーを読み直し、削除と競合して FULLとなったノードがあれば一覧と全体のキーに戻す。
+ * ノードは自身のキーを設定してから一覧と全体のキーを更新するため、この読み直しで取りこぼすことはない。スレッドセーフではない.
+ */
+final class NodeModeAggregator {
+
+    static Logger log = LoggerFactory.getLogger(NodeModeAggregator.class);
+
+    /** ノードごとのキーの接頭辞. 続けてノードIDを付ける. */
+    static final String NODE_KEY_PREFIX = "PcsReadDeleteMode.node:";
+    /** ノードIDの一覧を保持するキー. */
+    static final String NODES_KEY = "PcsReadDeleteMode.nodes";
+    /** FULLのノードIDの一覧を保持するキー. */
+    static final String FULL_NODES_KEY = "PcsReadDeleteMode.fullNodes";
+    /** ノードごとのハートビートのキーの接頭辞. 続けてノードIDを付ける. */
+    static final String HEARTBEAT_KEY_PREFIX = "PcsReadDeleteMode.heartbeat:";
+
+    private static final String FAILED_TO_SET_SYSTEM_STATUS_CODE = "MX500-SV-0002";
+    private static final String SEPARATOR = ",";
+    /** ノードIDとして扱う文字列. URLエンコードしたノードIDはこれに一致する. これ以外は無視する. */
+    private static final Pattern NODE_ID = Pattern.compile("[A-Za-z0-9._*%+-]+");
+    private static final int MAX_RETRIES = 16;
+
+    private final ExtendedReadDeleteModeController controller;
+    private final String globalKey;
+    private final String nodeId;
+
+    /**
+     * コンストラクタ.
+     * @param controller memcachedの操作に使用するクラス
+     * @param globalKey 全体のキー
+     * @param nodeId このノードのID(URLエンコード済み)
+     */
+    NodeModeAggregator(ExtendedReadDeleteModeController controller, String globalKey, String nodeId) {
+        this.controller = controller;
+        this.globalKey = globalKey;
+        this.nodeId = nodeId;
+    }
+
+    /**
+     * このノードの状態を設定し、全体のキーに反映する.
+     * @param full true: このノードに FULLとして扱うボリュームがある false: ない
+     * @param payload このノードのキーと全体のキーに設定する値
+     * @throws DcMxException memcachedの操作に失敗した場合
+     */
+    void publish(boolean full, String payload) throws DcMxException {
+        // ノードの一覧はリースが設定されている場合に失効するため、毎回登録して更新する
+        merge(NODES_KEY, Collections.singleton(this.nodeId), true);
+        String nodeKey = getNodeKey();
+        if (full) {
+            this.controller.setReadDeleteMode(nodeKey, payload);
+            merge(FULL_NODES_KEY, Collections.singleton(this.nodeId), true);
+            this.controller.setReadDeleteMode(this.globalKey, payload);
+            return;
+        }
+        this.controller.removeReadDeleteMode(nodeKey);
+        if (merge(FULL_NODES_KEY, Collections.singleton(this.nodeId), false)) {
+            // FULLのノードがなくなったため全体のキーを削除する
+            this.controller.removeReadDeleteMode(this.globalKey);
+            restoreFullNodes();
+        }
+    }
+
+    /**
+     * このノードのキーを取得する.
+     * @return このノードのキー
+     */
+    String getNodeKey() {
+        return NODE_KEY_PREFIX + this.nodeId;
+    }
+
+    /**
+     * FULLのノードの一覧にこのノードが含まれているかどうかを判定する.
+     * @param value FULL_NODES_KEYの値. 設定されていない場合は null
+     * @return true: 含まれている false: 含まれていない
+     */
+    boolean isMember(Object value) {
+        if (value == null) {
+            return false;
+        }
+        return split(value).contains(this.nodeId);
+    }
+
+    /**
+     * このノードのハートビートを設定する.
+     * @param value ハートビートの値
+     * @throws DcMxException memcachedの操作に失敗した場合
+     */
+    void heartbeat(String value) throws DcMxException {
+        this.controller.setReadDeleteMode(HEARTBEAT_KEY_PREFIX + this.nodeId, value);
+    }
+
+    /**
+     * キーの値のノードIDの集合にノードIDを追加または削除する. 削除により空となった場合はキーを削除する.
+     * @param key キー
+     * @param nodes ノードID
+     * @param add true: 追加 false: 削除
+     * @return true: 削除の結果キーが存在しない(追い出された場合を含む) false: キーが存在する
+     * @throws DcMxException memcachedの操作に失敗した場合、または他の書き込みとの競合が続いた場合
+     */
+    private boolean merge(String key, Collection<String> nodes, boolean add) throws DcMxException {
+        for (int i = 0; i < MAX_RETRIES; i++) {
+            ReadDeleteModeEntry current = this.controller.getReadDeleteMode(key);
+            if (current == null) {
+                if (!add) {
+                    return true;
+                }
+                if (this.controller.addReadDeleteMode(key, join(nodes))) {
+                    return false;
+                }
+                continue;
+            }
+            Set<String> members = split(current.getValue());
+            if (!add && members.isEmpty()) {
+                // ノードIDを含まない値は削除する
+                this.controller.removeReadDeleteMode(key);
+                return true;
+            }
+            if (add) {
+                // 変化がない場合も、リースを更新するために同じ値を設定する
+                members.addAll(nodes);
+            } else if (!members.removeAll(nodes)) {
+                return false;
+            }
+            if (members.isEmpty()) {
+                this.controller.removeReadDeleteMode(key);
+                return true;
+            }
+            if (this.controller.compareAndSetReadDeleteMode(key, current.getCas(), join(members))) {
+                return false;
+            }
+            log.debug("Key was changed by another node. Retry. key=" + key);
+        }
+        log.info("Failed to update the key due to conflicting writes. key=" + key);
+        throw new DcMxException(new DcMxMessageId(FAILED_TO_SET_SYSTEM_STATUS_CODE));
+    }
+
+    /**
+     * 全体のキーの削除と競合して FULLとなったノードを FULLのノードの一覧に戻し、そのノードの値を全体のキーに設定する.
+     * @throws DcMxException memcachedの操作に失敗した場合
+     */
+    private void restoreFullNodes() throws DcMxException {
+        ReadDeleteModeEntry nodes = this.controller.getReadDeleteMode(NODES_KEY);
+        if (nodes == null) {
+            return;
+        }
+        List<String> keys = new ArrayList<String>();
+        for (String node : split(nodes.getValue())) {
+            if (!node.equals(this.nodeId)) {
+                keys.add(NODE_KEY_PREFIX + node);
+            }
+        }
+        if (keys.isEmpty()) {
+            return;
+        }
+        Map<String, Object> values = this.controller.getReadDeleteModes(keys);
+        if (values.isEmpty()) {
+            return;
+        }
+        Set<String> fullNodes = new LinkedHashSet<String>();
+        Object payload = null;
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            fullNodes.add(entry.getKey().substring(NODE_KEY_PREFIX.length()));
+            payload = entry.getValue();
+        }
+        log.info("ReadDeleteOnly mode is restored for nodes. " + fullNodes);
+        merge(FULL_NODES_KEY, fullNodes, true);
+        this.controller.setReadDeleteMode(this.globalKey, payload);
+    }
+
+    private static Set<String> split(Object value) {
+        Set<String> members = new LinkedHashSet<String>();
+        for (String member : String.valueOf(value).split(SEPARATOR)) {
+            if (NODE_ID.matcher(member).matches()) {
+                members.add(member);
+            }
+        }
+        return members;
+    }
+
+    private static String join(Collection<String> members) {
+        StringBuilder builder = new StringBuilder();
+        for (String member : members) {
+            if (builder.length() > 0) {
+                builder.append(SEPARATOR);
+            }
+            builder.append(member);
+        }
+        return builder.toString();
+    }
+}
@@ -16,6 +16,21 @@
  */
 package com.fujitsu.dc.mx.control.pcs;
 
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.URLEncoder;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.json.simple.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -23,24 +38,161 @@ import com.fujitsu.dc.mx.DcMxConfig;
 import com.fujitsu.dc.mx.DcMxException;
 import com.fujitsu.dc.mx.DcMxMessageId;
 import com.fujitsu.dc.mx.model.diskusage.DiskUsage;
+import com.fujitsu.dc.mx.model.diskusage.DiskUsage.Status;
 import com.fujitsu.dc.mx.model.diskusage.DiskUsages;
+import com.fujitsu.dc.mx.model.diskusage.DiskUsages.Phase;
+import com.fujitsu.dc.mx.model.diskusage.MemcachedHealth;
 
 /**
  * PCSの動作モードを変更するクラス.
+ * 最後に memcachedへの反映を確認した動作モードを保持し、動作モードまたは各ボリュームのステータスが
+ * 変化した場合と、再設定間隔が経過した場合にのみ memcachedへ書き込む。
+ * 各ボリュームを FULLとして扱うかどうかは VolumeStatesで高水位と低水位、連続した採取結果の数により判定する。
+ * FULLとして扱うボリュームごとに "PcsReadDeleteMode:ボリューム名" のキーを設定し、書き込みを止めるのを
+ * そのボリュームのみに限定できるようにする。従来の全体のキー(PcsReadDeleteMode)も設定の指定により併せて設定する。
+ * 全体のキーは複数の mxノードが共有するため、NodeModeAggregatorによりいずれかのノードが FULLである間は設定を維持する。
+ * リースの有効期間が設定されている場合、各キーはその期間で失効するため、期間の 1/3ごとに再設定して更新する。
+ * また、採取のたびにこのノードのハートビートのキーを設定し、動作モードが現在も維持されているかを判別できるようにする。
+ * memcachedへの反映に失敗した場合や memcachedが再起動した場合は、次の採取を待たずに PcsModeReconcilerにより再設定する。
+ * 採取のたびに memcachedの状態も採取してディスク使用量とは別の項目に設定する。設定の指定がある場合のみ、
+ * キーが追い出される恐れがあるときにボリューム全体のStatusをERRORとする。
  */
 public class PcsModeControlManager {
 
     static Logger log = LoggerFactory.getLogger(PcsModeControlManager.class);
 
-    private ReadDeleteModeController lockController = null;
+    /**
+     * PCSの動作モード.
+     */
+    enum Mode {
+        /** ReadDeleteOnlyモード. */
+        READ_DELETE_ONLY,
+        /** 通常モード. */
+        NORMAL
+    }
+
+    /**
+     * ReadDeleteModeControllerに対する操作.
+     */
+    public enum Operation {
+        /** 値の取得. */
+        GET,
+        /** 値の設定. */
+        SET,
+        /** CAS値を指定した値の更新. */
+        CAS,
+        /** 値が存在しない場合のみの設定. */
+        ADD,
+        /** 値の削除. */
+        DELETE,
+        /** 統計情報の取得. */
+        STATS
+    }
+
+    static final int HASH_MULTIPLIER = 31;
+
+    private static final AtomicLongArray OPERATION_SUCCESSES = new AtomicLongArray(Operation.values().length);
+    private static final AtomicLongArray OPERATION_FAILURES = new AtomicLongArray(Operation.values().length);
+    private static final AtomicLong SKIPPED_WRITES = new AtomicLong();
+
+    private MeasuredReadDeleteModeController lockController = null;
+    private NodeModeAggregator aggregator = null;
     private static final String LOCK_KEY = "PcsReadDeleteMode";
-    private static PcsModeControlManager singleton = null;
+    /** ボリュームごとのキーの接頭辞. 続けてボリューム名を URLエンコードした文字列を付ける. */
+    static final String VOLUME_KEY_PREFIX = LOCK_KEY + ":";
+    private static final String KEY_ENCODING = "UTF-8";
+    private static final long MILLIS_PER_SECOND = 1000L;
+    /** リースの有効期間に対する更新間隔の比. */
+    private static final int LEASE_RENEWALS = 3;
+    private static final String EVICTION_RISK_CODE = "MX500-SV-0005";
+    private static volatile PcsModeControlManager singleton = null;
+    /** shutdown()の後は停止中の採取等から呼び出されても再び初期化しない. */
+    private static boolean closed = false;
+
+    /** このインスタンスを停止したかどうか. 停止後の判定は memcachedへ反映しない. */
+    private boolean stopped = false;
+    private long reassertInterval;
+    private boolean globalKey;
+    private String nodeId;
+    private int leaseTtl;
+    /** ボリュームごとのキーを設定したボリュームと設定した値. */
+    private Map<String, Object> publishedVolumes = new HashMap<String, Object>();
+    private VolumeStates volumeStates;
+    /** 以前の実行で FULLとして扱っていたボリュームを memcachedから引き継いだかどうか. */
+    private boolean volumeStatesRestored = false;
+    private Mode confirmedMode = null;
+    private int confirmedStatusHash;
+    private long confirmedAt;
+    /** 最後にハートビートを書き込んだ時刻と、その時点の動作モード. */
+    private long heartbeatAt = 0L;
+    private Mode heartbeatMode = null;
+    /** 最新の採取結果から判定した動作モード. ERRORのボリュームがあり判定できない場合は更新しない. */
+    private Mode desiredMode = null;
+    private DiskUsages desiredUsages;
+    private int desiredStatusHash;
+    private PcsModeReconciler reconciler;
+    /** memcachedの状態を採取しない場合は null. */
+    private MemcachedHealthMonitor healthMonitor = null;
+    private boolean healthAffectsStatus;
+    /** 判定中の memcachedの操作に要した時間(ナノ秒). */
+    private long memcachedTime;
 
     private void init() throws DcMxException {
         Class<?> clazz;
         try {
             clazz = Class.forName(DcMxConfig.getPcsModeController());
-            lockController = (ReadDeleteModeController) clazz.newInstance();
+            lockController = new MeasuredReadDeleteModeController((ReadDeleteModeController) clazz.newInstance());
+            nodeId = getNodeId();
+            aggregator = new NodeModeAggregator(lockController, LOCK_KEY, encodeKey(nodeId));
+            reassertInterval = DcMxConfig.getPcsModeReassertInterval();
+            leaseTtl = DcMxConfig.getPcsModeLeaseTtl();
+            if (leaseTtl > 0) {
+                // キーは採取のたびにのみ更新されるため、採取間隔に対して短すぎる有効期間は受け付けない
+                long samplingInterval = DcMxConfig.getSamplingInterval();
+                if (leaseTtl * MILLIS_PER_SECOND < samplingInterval * LEASE_RENEWALS) {
+                    log.info("Lease TTL is too short for the sampling interval. leaseTtl=" + leaseTtl
+                            + " samplingInterval=" + samplingInterval);
+                    throw new DcMxException(new DcMxMessageId("MX500-SV-0001"));
+                }
+                // リースが失効する前に更新する
+                reassertInterval = Math.min(reassertInterval, leaseTtl * MILLIS_PER_SECOND / LEASE_RENEWALS);
+            }
+            globalKey = DcMxConfig.isPcsModeGlobalKey();
+            double highWatermark = Double.parseDouble(DcMxConfig.getMxVolumeThreshold());
+            double lowWatermark = highWatermark;
+            String lowThreshold = DcMxConfig.getMxVolumeLowThreshold();
+            if (lowThreshold != null && !lowThreshold.isEmpty()) {
+                lowWatermark = Double.parseDouble(lowThreshold);
+            }
+            if (lowWatermark > highWatermark) {
+                log.info("Low threshold must not exceed threshold. lowThreshold=" + lowThreshold);
+                throw new DcMxException(new DcMxMessageId("MX500-SV-0001"));
+            }
+            // 低水位の設定がない場合は幅を 0とし、各ボリュームの使用可能サイズを下回った時点で解除する
+            volumeStates = new VolumeStates(highWatermark - lowWatermark, DcMxConfig.getPcsModeDebounceSamples(),
+                    DcMxConfig.getForecastHorizon());
+            long initialBackoff = DcMxConfig.getPcsModeRetryInitialInterval();
+            long maxBackoff = DcMxConfig.getPcsModeRetryMaxInterval();
+            if (initialBackoff <= 0 || maxBackoff < initialBackoff) {
+                log.info("Retry interval is invalid. initialInterval=" + initialBackoff
+                        + " maxInterval=" + maxBackoff);
+                throw new DcMxException(new DcMxMessageId("MX500-SV-0001"));
+            }
+            reconciler = new PcsModeReconciler(this, initialBackoff, maxBackoff,
+                    DcMxConfig.getPcsModeVerifyInterval());
+            // 統計情報を取得できない実装では memcachedの状態を採取しない
+            if (DcMxConfig.isMemcachedHealthEnabled() && lockController.isExtended()) {
+                healthMonitor = new MemcachedHealthMonitor(lockController,
+                        DcMxConfig.getMemcachedHealthEvictionThreshold(),
+                        Double.parseDouble(DcMxConfig.getMemcachedHealthMemoryThreshold()));
+                healthAffectsStatus = DcMxConfig.isMemcachedHealthAffectsStatus();
+            }
+            lockController.setConnectionListener(new Runnable() {
+                @Override
+                public void run() {
+                    reconciler.connectionEstablished();
+                }
+            });
         } catch (ClassNotFoundException e) {
             throw new DcMxException(new DcMxMessageId("MX500-SV-0001"), e);
         } catch (ClassCastException e) {
@@ -49,6 +201,8 @@ public class PcsModeControlManager {
             throw new DcMxException(new DcMxMessageId("MX500-SV-0001"), e);
         } catch (IllegalAccessException e) {
             throw new DcMxException(new DcMxMessageId("MX500-SV-0001"), e);
+        } catch (NumberFormatException e) {
+            throw new DcMxException(new DcMxMessageId("MX500-SV-0001"), e);
         }
     }
 
@@ -62,16 +216,84 @@ public class PcsModeControlManager {
      * @throws DcMxException DcMxException
      */
     public static void setPcsMode(DiskUsages diskUsages) throws DcMxException {
-        if (null == singleton) {
-            try {
-                singleton = new PcsModeControlManager();
-            } catch (DcMxException e) {
-                log.error(e.getMessage(), e);
-                diskUsages.setError(e);
-                return;
-            }
+        PcsModeControlManager manager;
+        try {
+            manager = getInstance();
+        } catch (DcMxException e) {
+            log.error(e.getMessage(), e);
+            diskUsages.setError(e);
+            return;
+        }
+        if (manager == null) {
+            log.info("PCS mode control is shut down. Skip setting PCS mode.");
+            return;
+        }
+        manager.setPcsModeInternal(diskUsages);
+    }
+
+    /**
+     * インスタンスを取得する. 初回の呼び出し時に初期化する.
+     * @return インスタンス. shutdown()の後は null
+     * @throws DcMxException 初期化に失敗した場合
+     */
+    private static synchronized PcsModeControlManager getInstance() throws DcMxException {
+        if (closed) {
+            return null;
+        }
+        if (singleton == null) {
+            singleton = new PcsModeControlManager();
+        }
+        return singleton;
+    }
+
+    /**
+     * 最後に反映を確認した動作モードを破棄し、次回の判定で必ず memcachedへ書き込むようにする.
+     */
+    public static void invalidate() {
+        PcsModeControlManager manager = singleton;
+        if (manager != null) {
+            manager.invalidateInternal();
+        }
+    }
+
+    private synchronized void invalidateInternal() {
+        this.confirmedMode = null;
+    }
+
+    /**
+     * 動作モードの再反映を停止し、memcachedとの接続を切断する. 以降の判定では初期化せず、何もしない.
+     */
+    public static void shutdown() {
+        PcsModeControlManager manager;
+        synchronized (PcsModeControlManager.class) {
+            closed = true;
+            manager = singleton;
+            singleton = null;
+        }
+        if (manager != null) {
+            manager.shutdownInternal();
+        }
+    }
+
+    /**
+     * インスタンスを停止して破棄する. shutdown()と異なり、次回の判定では改めて初期化する.
+     * cronからの起動や再デプロイにより別のインスタンスが判定する状況の再現に使用する.
+     */
+    static void discard() {
+        PcsModeControlManager manager;
+        synchronized (PcsModeControlManager.class) {
+            manager = singleton;
+            singleton = null;
+        }
+        if (manager != null) {
+            manager.shutdownInternal();
         }
-        singleton.setPcsModeInternal(diskUsages);
+    }
+
+    private synchronized void shutdownInternal() {
+        this.stopped = true;
+        this.reconciler.shutdown();
+        this.lockController.shutdown();
     }
 
     /**
@@ -79,44 +301,401 @@ public class PcsModeControlManager {
      * @param diskUsages 各ボリュームのディスク使用量のリスト
      * @throws DcMxException DcMxException
      */
-    private void setPcsModeInternal(DiskUsages diskUsages) throws DcMxException {
-        boolean allDisksOk = true;
-        for (DiskUsage usage : diskUsages) {
-            switch (usage.getStatus()) {
-            case FULL:
-                // ReadDeleteOnlyモードに移行する
-                log.info("Try to set ReadDeleteOnly mode to PCS.");
-                try {
-                lockController.setReadDeleteMode(LOCK_KEY, diskUsages.toJson().toJSONString());
-                log.info("Set ReadDeleteOnly.");
-                } catch (DcMxException e) {
-                    // memcachedに書き込みが失敗した場合、ボリューム全体のStatusをERRORに設定する
-                    log.error(e.getMessage(), e);
-                    diskUsages.setError(e);
-                }
-                log.info(diskUsages.toJson().toJSONString());
+    private synchronized void setPcsModeInternal(DiskUsages diskUsages) throws DcMxException {
+        if (this.stopped) {
+            // shutdown()の前にインスタンスを取得した採取からの呼び出し
+            log.info("PCS mode control is shut down. Skip setting PCS mode.");
+            return;
+        }
+        long start = System.nanoTime();
+        long memcachedStart = this.lockController.getElapsed();
+        try {
+            decideAndApply(diskUsages);
+            writeHeartbeat(diskUsages);
+            collectHealth(diskUsages);
+        } finally {
+            this.memcachedTime = this.lockController.getElapsed() - memcachedStart;
+            diskUsages.addPhaseTime(Phase.MEMCACHED, this.memcachedTime);
+            diskUsages.addPhaseTime(Phase.DECIDE, System.nanoTime() - start - this.memcachedTime);
+        }
+    }
+
+    /**
+     * あるべき動作モードを判定し、前回反映した動作モードから変化している場合に memcachedへ反映する.
+     * @param diskUsages 各ボリュームのディスク使用量のリスト
+     */
+    private void decideAndApply(DiskUsages diskUsages) {
+        restoreVolumeStates(diskUsages);
+        Mode desiredMode = this.volumeStates.update(diskUsages);
+        long now = System.currentTimeMillis();
+        if (desiredMode != null) {
+            this.desiredMode = desiredMode;
+            this.desiredUsages = diskUsages;
+            this.desiredStatusHash = this.volumeStates.getStateHash();
+        } else {
+            // ERRORのボリュームが存在する場合は動作モードを変更しない. ただし反映済みの動作モードは再設定間隔で再設定し、
+            // リースを更新する
+            if (this.confirmedMode == null || now - this.confirmedAt < this.reassertInterval) {
                 return;
-            case ERROR:
-                allDisksOk = false;
-                break;
-            case OK:
-                break;
-            default:
-                break;
             }
+            desiredMode = this.confirmedMode;
+        }
+        int statusHash = this.volumeStates.getStateHash();
+        if (desiredMode == this.confirmedMode && statusHash == this.confirmedStatusHash
+                && now - this.confirmedAt < this.reassertInterval) {
+            log.debug("PCS mode is unchanged. mode=" + desiredMode);
+            SKIPPED_WRITES.incrementAndGet();
+            return;
+        }
+
+        try {
+            apply(diskUsages, desiredMode, statusHash, now);
+            this.reconciler.succeeded();
+        } catch (DcMxException e) {
+            // memcachedに書き込みが失敗した場合、ボリューム全体のStatusをERRORに設定する
+            log.error(e.getMessage(), e);
+            diskUsages.setError(e);
+            this.confirmedMode = null;
+            this.reconciler.failed();
+        }
+    }
+
+    /**
+     * 以前の実行(cronの前回の起動や再デプロイ前のアプリケーション)が設定したボリュームごとのキーを読み、
+     * キーが残っているボリュームを FULLとして引き継ぐ. 高水位と低水位の間にあるボリュームが、
+     * 起動のたびに FULLではないと判定されることを防ぐ. 読み込みに失敗した場合は次回の判定で再試行する.
+     * @param diskUsages 各ボリュームのディスク使用量のリスト
+     */
+    private void restoreVolumeStates(DiskUsages diskUsages) {
+        if (this.volumeStatesRestored) {
+            return;
+        }
+        if (!this.lockController.isExtended()) {
+            // 値を読み込めない実装では引き継がない
+            this.volumeStatesRestored = true;
+            return;
+        }
+        Map<String, String> keys = new LinkedHashMap<String, String>();
+        for (DiskUsage usage : diskUsages) {
+            if (usage.getVolume() != null) {
+                keys.put(getVolumeKey(usage.getVolume()), usage.getVolume());
+            }
+        }
+        Map<String, Object> values;
+        try {
+            values = this.lockController.getReadDeleteModes(keys.keySet());
+        } catch (DcMxException e) {
+            log.info("Failed to read the volume keys to restore volume states. " + e.getMessage());
+            return;
+        }
+        List<String> restored = new ArrayList<String>();
+        for (Map.Entry<String, String> key : keys.entrySet()) {
+            if (values.containsKey(key.getKey())) {
+                restored.add(key.getValue());
+                // 削除の対象とするため、設定済みのキーとして扱う
+                this.publishedVolumes.put(key.getValue(), values.get(key.getKey()));
+            }
+        }
+        if (!restored.isEmpty()) {
+            log.info("Restore FULL volumes from the volume keys. " + restored);
+            this.volumeStates.restore(restored);
+        }
+        this.volumeStatesRestored = true;
+    }
+
+    /**
+     * 最新の採取結果から判定した動作モードを memcachedへ反映する. PcsModeReconcilerから呼び出す.
+     * 反映済みの場合は memcachedからキーを読み直し、失われているキーがあれば再設定する.
+     * @return true: 反映されている false: 反映に失敗した
+     */
+    synchronized boolean reconcile() {
+        if (this.desiredMode == null || this.stopped) {
+            return true;
+        }
+        try {
+            if (this.confirmedMode != null && isApplied()) {
+                return true;
+            }
+            log.info("Reconcile PCS mode. mode=" + this.desiredMode);
+            this.confirmedMode = null;
+            apply(this.desiredUsages, this.desiredMode, this.desiredStatusHash, System.currentTimeMillis());
+            log.info("PCS mode is reconciled.");
+            return true;
+        } catch (DcMxException e) {
+            log.info("Failed to reconcile PCS mode. " + e.getMessage());
+            this.confirmedMode = null;
+            return false;
         }
-        // ReadDeleteOnlyモードを削除する
-        if (allDisksOk) {
+    }
+
+    /**
+     * 反映済みのキーが memcachedに残っているかどうかを読み直して確認する.
+     * @return true: 全て残っている false: 失われたキーがある
+     * @throws DcMxException memcachedの操作に失敗した場合
+     */
+    private boolean isApplied() throws DcMxException {
+        if (!this.lockController.isExtended()) {
+            // 値を読み込めない実装では確認できないため、再設定間隔ごとの再設定に委ねる
+            return true;
+        }
+        List<String> keys = new ArrayList<String>();
+        for (String volume : this.publishedVolumes.keySet()) {
+            keys.add(getVolumeKey(volume));
+        }
+        boolean full = this.confirmedMode == Mode.READ_DELETE_ONLY && this.globalKey;
+        if (full) {
+            keys.add(this.aggregator.getNodeKey());
+            keys.add(NodeModeAggregator.FULL_NODES_KEY);
+            keys.add(LOCK_KEY);
+        }
+        if (keys.isEmpty()) {
+            return true;
+        }
+        Map<String, Object> values = this.lockController.getReadDeleteModes(keys);
+        for (String key : keys) {
+            if (!values.containsKey(key)) {
+                log.info("PCS mode key is lost. key=" + key);
+                return false;
+            }
+        }
+        if (full && !this.aggregator.isMember(values.get(NodeModeAggregator.FULL_NODES_KEY))) {
+            log.info("This node is not included in the FULL nodes key.");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 動作モードを memcachedへ反映する.
+     * @param diskUsages 各ボリュームのディスク使用量のリスト
+     * @param desiredMode 反映する動作モード
+     * @param statusHash 各ボリュームの状態のハッシュ値
+     * @param now 現在時刻
+     * @throws DcMxException memcachedへの書き込みに失敗した場合
+     */
+    private void apply(DiskUsages diskUsages, Mode desiredMode, int statusHash, long now) throws DcMxException {
+        applyVolumeModes(diskUsages);
+        if (desiredMode == Mode.READ_DELETE_ONLY && this.globalKey) {
+            // ReadDeleteOnlyモードに移行する
+            log.info("Try to set ReadDeleteOnly mode to PCS.");
+            if (diskUsages.getSystemStatus() == DiskUsage.Status.OK) {
+                log.info("No volume is FULL, but a volume is above the low threshold or forecast to be full.");
+            }
+            String payload = diskUsages.toJsonString();
+            publish(true, payload);
+            log.info("Set ReadDeleteOnly.");
+            log.info(payload);
+        } else {
+            // このノードの ReadDeleteOnlyモードを取り下げる. 全体のキーを使用しない場合は常に取り下げる.
+            // 全体のキーは他のノードが FULLでない場合にのみ削除される
             log.info("Try to release ReadDeleteOnly mode from PCS.");
-            try {
-                lockController.removeReadDeleteMode(LOCK_KEY);
-                log.info("Unset ReadDeleteOnly.");
-            } catch (DcMxException e) {
-                // memcachedに書き込みが失敗した場合、ボリューム全体のStatusをERRORに設定する
-                log.error(e.getMessage(), e);
-                diskUsages.setError(e);
+            publish(false, null);
+            log.info("Unset ReadDeleteOnly.");
+        }
+        this.confirmedMode = desiredMode;
+        this.confirmedStatusHash = statusHash;
+        this.confirmedAt = now;
+    }
+
+    /**
+     * このノードの ReadDeleteOnlyモードを全体のキーに反映する.
+     * ExtendedReadDeleteModeControllerを実装していない場合は、ノードを集約せずに全体のキーを直接設定または削除する.
+     * @param full true: このノードに FULLとして扱うボリュームがある false: ない
+     * @param payload 全体のキーに設定する値
+     * @throws DcMxException memcachedの操作に失敗した場合
+     */
+    private void publish(boolean full, String payload) throws DcMxException {
+        if (this.lockController.isExtended()) {
+            this.aggregator.publish(full, payload);
+        } else if (full) {
+            this.lockController.setReadDeleteMode(LOCK_KEY, payload);
+        } else {
+            this.lockController.removeReadDeleteMode(LOCK_KEY);
+        }
+    }
+
+    /**
+     * FULLとして扱うボリュームのキーを設定し、FULLではなくなったボリュームのキーを削除する.
+     * 前回の反映結果が不明な場合は、採取した全てのボリュームのキーを設定または削除する.
+     * ERRORのボリュームのキーは削除せず、FULLとして扱っている場合は前回と同じ値で再設定する.
+     * @param diskUsages 各ボリュームのディスク使用量のリスト
+     * @throws DcMxException memcachedへの書き込みに失敗した場合
+     */
+    private void applyVolumeModes(DiskUsages diskUsages) throws DcMxException {
+        Set<String> fullVolumes = this.volumeStates.getFullVolumes();
+        Map<String, Object> entries = new LinkedHashMap<String, Object>();
+        List<String> removals = new ArrayList<String>();
+        Set<String> present = new HashSet<String>();
+        for (DiskUsage usage : diskUsages) {
+            String volume = String.valueOf(usage.getVolume());
+            present.add(volume);
+            if (usage.getStatus() == Status.ERROR) {
+                Object previous = this.publishedVolumes.get(volume);
+                if (previous != null && fullVolumes.contains(volume)) {
+                    entries.put(volume, previous);
+                }
+                continue;
+            }
+            if (fullVolumes.contains(volume)) {
+                entries.put(volume, usage.toJson().toJSONString());
+            } else if (this.confirmedMode == null || this.publishedVolumes.containsKey(volume)) {
+                removals.add(getVolumeKey(volume));
+            }
+        }
+        for (String volume : this.publishedVolumes.keySet()) {
+            // 採取対象から外れたボリュームのキーは削除する
+            if (!present.contains(volume)) {
+                removals.add(getVolumeKey(volume));
             }
-            log.info(diskUsages.toJson().toJSONString());
         }
+        if (!entries.isEmpty()) {
+            log.info("Set ReadDeleteOnly to volumes. " + fullVolumes);
+            Map<String, Object> keys = new LinkedHashMap<String, Object>();
+            for (Map.Entry<String, Object> entry : entries.entrySet()) {
+                keys.put(getVolumeKey(entry.getKey()), entry.getValue());
+            }
+            this.lockController.setReadDeleteModes(keys);
+        }
+        if (!removals.isEmpty()) {
+            this.lockController.removeReadDeleteModes(removals);
+        }
+        this.publishedVolumes = entries;
+    }
+
+    /**
+     * このノードのハートビートを設定する. 動作モードを書き込んだ場合と、前回から再設定間隔が経過した場合にのみ書き込む.
+     * 失敗した場合もボリュームのステータスは変更しない.
+     * @param diskUsages 各ボリュームのディスク使用量のリスト
+     */
+    @SuppressWarnings("unchecked")
+    private void writeHeartbeat(DiskUsages diskUsages) {
+        long now = System.currentTimeMillis();
+        if (this.heartbeatAt > 0 && this.heartbeatAt >= this.confirmedAt && this.heartbeatMode == this.confirmedMode
+                && now - this.heartbeatAt < this.reassertInterval) {
+            return;
+        }
+        JSONObject json = new JSONObject();
+        json.put("node", this.nodeId);
+        json.put("time", now);
+        json.put("version", diskUsages.getVersion());
+        json.put("collectedAt", diskUsages.getCollectedAt());
+        if (this.confirmedMode == null) {
+            json.put("mode", null);
+        } else {
+            json.put("mode", this.confirmedMode.name());
+        }
+        json.put("leaseTtl", this.leaseTtl);
+        try {
+            this.aggregator.heartbeat(json.toJSONString());
+            this.heartbeatAt = now;
+            this.heartbeatMode = this.confirmedMode;
+        } catch (DcMxException e) {
+            log.info("Failed to write the heartbeat. " + e.getMessage());
+        }
+    }
+
+    /**
+     * memcachedの状態を採取して設定する. 設定の指定がある場合のみ、キーが追い出される恐れがあるときに
+     * ボリューム全体のStatusをERRORとする. 採取に失敗した場合はボリュームのステータスを変更しない.
+     * @param diskUsages 各ボリュームのディスク使用量のリスト
+     */
+    private void collectHealth(DiskUsages diskUsages) {
+        if (this.healthMonitor == null) {
+            return;
+        }
+        MemcachedHealth health;
+        try {
+            health = this.healthMonitor.collect();
+        } catch (DcMxException e) {
+            log.info("Failed to collect memcached stats. " + e.getMessage());
+            return;
+        }
+        if (health == null) {
+            return;
+        }
+        diskUsages.setMemcachedHealth(health);
+        if (!health.isEvictionRisk()) {
+            return;
+        }
+        log.info("PCS mode keys may be evicted from memcached. recentEvictions=" + health.getRecentEvictions()
+                + " usedMemory=" + health.getUsedMemory() + " memoryLimit=" + health.getMemoryLimit());
+        if (this.healthAffectsStatus && diskUsages.getSystemStatus() != Status.ERROR) {
+            diskUsages.setError(new DcMxException(new DcMxMessageId(EVICTION_RISK_CODE)));
+        }
+    }
+
+    /**
+     * ボリュームごとの ReadDeleteOnlyモードのキーを取得する.
+     * @param volume ボリューム名
+     * @return memcachedのキー
+     */
+    static String getVolumeKey(String volume) {
+        return VOLUME_KEY_PREFIX + encodeKey(volume);
+    }
+
+    /**
+     * このノードのIDを取得する. 設定されていない場合はホスト名とする.
+     * @return ノードID
+     * @throws DcMxException ホスト名を取得できない場合
+     */
+    private static String getNodeId() throws DcMxException {
+        String nodeId = DcMxConfig.getNodeId();
+        if (nodeId != null && !nodeId.trim().isEmpty()) {
+            return nodeId.trim();
+        }
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            log.info("Failed to get the host name for the node id.");
+            throw new DcMxException(new DcMxMessageId("MX500-SV-0001"), e);
+        }
+    }
+
+    /**
+     * memcachedのキーに使用できるように URLエンコードする.
+     * @param value 値
+     * @return URLエンコードした値
+     */
+    private static String encodeKey(String value) {
+        try {
+            return URLEncoder.encode(value, KEY_ENCODING);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * ReadDeleteModeControllerに対する操作の累計数に加算する.
+     * @param operation 操作
+     * @param count 操作したキーの数
+     * @param failed true: 失敗した操作 false: 成功した操作
+     */
+    static void countOperation(Operation operation, int count, boolean failed) {
+        if (failed) {
+            OPERATION_FAILURES.addAndGet(operation.ordinal(), count);
+        } else {
+            OPERATION_SUCCESSES.addAndGet(operation.ordinal(), count);
+        }
+    }
+
+    /**
+     * ReadDeleteModeControllerに対する操作の累計数を取得する.
+     * @param operation 操作
+     * @param failed true: 失敗した操作 false: 成功した操作
+     * @return 操作の累計数
+     */
+    public static long getOperationCount(Operation operation, boolean failed) {
+        if (failed) {
+            return OPERATION_FAILURES.get(operation.ordinal());
+        }
+        return OPERATION_SUCCESSES.get(operation.ordinal());
+    }
+
+    /**
+     * 動作モードに変化がないため memcachedへの書き込みを省略した累計数を取得する.
+     * @return 書き込みを省略した累計数
+     */
+    public static long getSkippedWriteCount() {
+        return SKIPPED_WRITES.get();
     }
 }
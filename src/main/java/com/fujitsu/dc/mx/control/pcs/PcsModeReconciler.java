@@ -0,0 +1,159 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.mx.control.pcs;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * PCSの動作モードを memcachedへ反映した状態に保つクラス.
+ * 反映に失敗した場合は間隔を倍にしながら再試行し、memcachedとの接続が確立した場合は直ちに再試行する。
+ * 反映に成功している間は確認間隔ごとにキーを読み直し、memcachedの再起動や追い出しでキーが失われていれば再設定する。
+ * 再試行では常に最新の採取結果から判定した動作モードを反映する.
+ */
+final class PcsModeReconciler {
+
+    static Logger log = LoggerFactory.getLogger(PcsModeReconciler.class);
+
+    private static final String THREAD_NAME = "dc-mx-pcs-mode-reconciler";
+    private static final int BACKOFF_MULTIPLIER = 2;
+
+    private final PcsModeControlManager manager;
+    private final long initialBackoff;
+    private final long maxBackoff;
+    private final long verifyInterval;
+    private final ScheduledExecutorService scheduler;
+    private long backoff;
+    private ScheduledFuture<?> pending = null;
+    /** 予定している処理が失敗による再試行かどうか. */
+    private boolean retrying = false;
+
+    /**
+     * コンストラクタ.
+     * @param manager 反映を行うクラス
+     * @param initialBackoff 最初の再試行までの時間(ミリ秒)
+     * @param maxBackoff 再試行の間隔の上限(ミリ秒)
+     * @param verifyInterval キーを読み直す間隔(ミリ秒). 0以下の場合は読み直さない
+     */
+    PcsModeReconciler(PcsModeControlManager manager, long initialBackoff, long maxBackoff, long verifyInterval) {
+        this.manager = manager;
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+        this.verifyInterval = verifyInterval;
+        this.backoff = initialBackoff;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, THREAD_NAME);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * 反映に成功したことを通知する. 再試行を取り消し、キーの読み直しを予定する.
+     */
+    synchronized void succeeded() {
+        this.backoff = this.initialBackoff;
+        if (this.pending != null && !this.retrying) {
+            // 予定済みの読み直しを維持する
+            return;
+        }
+        cancel();
+        if (this.verifyInterval > 0) {
+            schedule(this.verifyInterval, false);
+        }
+    }
+
+    /**
+     * 反映に失敗したことを通知する. 予定済みの処理がより早く行われる場合を除き、再試行を予定する.
+     */
+    synchronized void failed() {
+        long delay = this.backoff;
+        this.backoff = Math.min(this.backoff * BACKOFF_MULTIPLIER, this.maxBackoff);
+        if (this.pending != null && this.pending.getDelay(TimeUnit.MILLISECONDS) <= delay) {
+            this.retrying = true;
+            return;
+        }
+        cancel();
+        log.info("Retry to apply PCS mode in " + delay + "ms.");
+        schedule(delay, true);
+    }
+
+    /**
+     * memcachedとの接続が確立したことを通知する. 直ちに反映を試みる.
+     */
+    synchronized void connectionEstablished() {
+        this.backoff = this.initialBackoff;
+        cancel();
+        log.info("Memcached connection established. Reconcile PCS mode.");
+        schedule(0L, true);
+    }
+
+    /**
+     * 予定している処理を取り消し、スレッドを停止する. 以降の通知は無視する.
+     */
+    synchronized void shutdown() {
+        cancel();
+        this.scheduler.shutdownNow();
+    }
+
+    private void schedule(long delay, boolean retry) {
+        if (this.scheduler.isShutdown()) {
+            return;
+        }
+        this.retrying = retry;
+        this.pending = this.scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                reconcile();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void cancel() {
+        if (this.pending != null) {
+            this.pending.cancel(false);
+            this.pending = null;
+        }
+    }
+
+    private void reconcile() {
+        synchronized (this) {
+            this.pending = null;
+        }
+        boolean reconciled = false;
+        try {
+            reconciled = this.manager.reconcile();
+        } catch (RuntimeException e) {
+            // 例外でスケジュールが止まらないようにログ出力のみ行う
+            log.error("Failed to reconcile PCS mode.", e);
+        }
+        if (reconciled) {
+            succeeded();
+        } else {
+            failed();
+        }
+    }
+}
@@ -20,6 +20,8 @@ import com.fujitsu.dc.mx.DcMxException;
 
 /**
  * memcachedにReadDeleteModeを設定/解除するインターフェース.
+ * 設定 com.fujitsu.dc.mx.pcsModeControllerにクラス名を指定して差し替えられる。
+ * ノードごとの集約や反映の確認等に必要な操作は ExtendedReadDeleteModeControllerで追加する。
  */
 public interface ReadDeleteModeController {
 
@@ -0,0 +1,52 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.mx.control.pcs;
+
+/**
+ * memcachedに設定されている ReadDeleteModeの値と CAS値を保持するクラス.
+ */
+public class ReadDeleteModeEntry {
+
+    private final Object value;
+    private final long cas;
+
+    /**
+     * コンストラクタ.
+     * @param value memcachedの値
+     * @param cas CAS値
+     */
+    public ReadDeleteModeEntry(Object value, long cas) {
+        this.value = value;
+        this.cas = cas;
+    }
+
+    /**
+     * memcachedの値を取得する.
+     * @return memcachedの値
+     */
+    public Object getValue() {
+        return value;
+    }
+
+    /**
+     * CAS値を取得する.
+     * @return CAS値
+     */
+    public long getCas() {
+        return cas;
+    }
+}
@@ -0,0 +1,232 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.mx.control.pcs;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fujitsu.dc.mx.control.pcs.PcsModeControlManager.Mode;
+import com.fujitsu.dc.mx.model.diskusage.DiskUsage;
+import com.fujitsu.dc.mx.model.diskusage.DiskUsage.Status;
+import com.fujitsu.dc.mx.model.diskusage.DiskUsages;
+
+/**
+ * ボリュームごとに FULLとして扱うかどうかを判定する状態機械.
+ * 使用量が高水位(ボリュームのステータスが FULL)に達したボリュームは、低水位を下回るまで FULLとして扱う。
+ * 低水位はボリュームに適用したしきい値のルールの使用可能サイズから、指定した幅を差し引いたサイズとする。
+ * いずれの遷移も、遷移先の条件を満たす採取結果が指定回数連続した場合にのみ行う。
+ * 初めて採取したボリュームは、restore()で以前の実行から引き継いだ場合は FULLから、それ以外はその採取結果の状態から開始する。
+ * スレッドセーフではない.
+ */
+class VolumeStates {
+
+    static Logger log = LoggerFactory.getLogger(VolumeStates.class);
+
+    private final double lowBand;
+    private final int debounceSamples;
+    private final long forecastHorizon;
+    private final Map<String, State> states = new HashMap<String, State>();
+    private int stateHash;
+    private Set<String> fullVolumes = Collections.emptySet();
+    /** 以前の実行で FULLとして扱っていたボリュームのうち、まだ採取していないもの. */
+    private final Set<String> restoredVolumes = new HashSet<String>();
+
+    /**
+     * コンストラクタ.
+     * @param lowBand 使用可能サイズから低水位までの幅(ディスクサイズに対する割合). 0の場合は使用可能サイズを低水位とする
+     * @param debounceSamples 遷移に必要な連続した採取結果の数
+     * @param forecastHorizon 使用可能サイズに達するまでの推定時間により FULLとして扱う秒数. 0の場合は推定時間を使用しない
+     */
+    VolumeStates(double lowBand, int debounceSamples, long forecastHorizon) {
+        this.lowBand = lowBand;
+        this.debounceSamples = Math.max(1, debounceSamples);
+        this.forecastHorizon = forecastHorizon;
+    }
+
+    /**
+     * 採取結果により各ボリュームの状態を更新し、PCSのあるべき動作モードを判定する.
+     * @param diskUsages 各ボリュームのディスク使用量のリスト
+     * @return 動作モード. FULLとして扱うボリュームがなく、ERRORのボリュームが存在する場合は null
+     */
+    Mode update(DiskUsages diskUsages) {
+        boolean anyFull = false;
+        boolean anyError = false;
+        int hash = 1;
+        Set<String> full = new LinkedHashSet<String>();
+        Set<String> present = new HashSet<String>();
+        for (DiskUsage usage : diskUsages) {
+            String volume = String.valueOf(usage.getVolume());
+            present.add(volume);
+            State state = this.states.get(volume);
+            Status effective;
+            if (usage.getStatus() == Status.ERROR) {
+                // ERRORのボリュームは状態を変更しない
+                anyError = true;
+                effective = Status.ERROR;
+                boolean latched = this.restoredVolumes.contains(volume);
+                if (state != null) {
+                    latched = state.full;
+                }
+                if (latched) {
+                    anyFull = true;
+                    full.add(volume);
+                }
+            } else {
+                if (state == null) {
+                    state = new State(this.restoredVolumes.remove(volume) || isAboveHighWatermark(usage));
+                    this.states.put(volume, state);
+                }
+                boolean observedFull;
+                if (state.full) {
+                    observedFull = !isBelowLowWatermark(usage) || isForecastFull(usage);
+                } else {
+                    observedFull = isAboveHighWatermark(usage);
+                }
+                if (state.observe(observedFull, this.debounceSamples)) {
+                    log.info("Volume state changed. volume=" + volume + ", full=" + state.full + ", usedDiskSize="
+                            + usage.getUsedDiskSize() + ", volumeDiskSize=" + usage.getVolumeDiskSize());
+                }
+                effective = Status.OK;
+                if (state.full) {
+                    anyFull = true;
+                    full.add(volume);
+                    effective = Status.FULL;
+                }
+            }
+            hash = PcsModeControlManager.HASH_MULTIPLIER * hash + volume.hashCode();
+            hash = PcsModeControlManager.HASH_MULTIPLIER * hash + effective.ordinal();
+        }
+        // 採取対象から外れたボリュームの状態は破棄する
+        Iterator<String> it = this.states.keySet().iterator();
+        while (it.hasNext()) {
+            if (!present.contains(it.next())) {
+                it.remove();
+            }
+        }
+        this.stateHash = hash;
+        this.fullVolumes = Collections.unmodifiableSet(full);
+
+        if (anyFull) {
+            return Mode.READ_DELETE_ONLY;
+        }
+        if (anyError) {
+            return null;
+        }
+        return Mode.NORMAL;
+    }
+
+    /**
+     * 直前の update()で判定した各ボリュームの状態のハッシュ値を取得する.
+     * @return ハッシュ値
+     */
+    int getStateHash() {
+        return this.stateHash;
+    }
+
+    /**
+     * 直前の update()で FULLとして扱ったボリュームの一覧を取得する.
+     * @return ボリューム名の一覧
+     */
+    Set<String> getFullVolumes() {
+        return this.fullVolumes;
+    }
+
+    /**
+     * 状態を破棄する. 次回の採取結果の状態から再び開始する.
+     */
+    void clear() {
+        this.states.clear();
+        this.restoredVolumes.clear();
+    }
+
+    /**
+     * 以前の実行で FULLとして扱っていたボリュームを引き継ぐ.
+     * 引き継いだボリュームは、低水位を下回った採取結果が指定回数連続するまで FULLとして扱う.
+     * @param volumes ボリューム名の一覧
+     */
+    void restore(Collection<String> volumes) {
+        for (String volume : volumes) {
+            State state = this.states.get(volume);
+            if (state == null) {
+                this.restoredVolumes.add(volume);
+            } else if (!state.full) {
+                state.full = true;
+                state.pending = 0;
+            }
+        }
+    }
+
+    private boolean isAboveHighWatermark(DiskUsage usage) {
+        return usage.getStatus() == Status.FULL || isForecastFull(usage);
+    }
+
+    private boolean isBelowLowWatermark(DiskUsage usage) {
+        long lowDiskSize = usage.getThresholdRule().getLowDiskSize(usage.getVolumeDiskSize(), this.lowBand);
+        return usage.getUsedDiskSize() < lowDiskSize;
+    }
+
+    private boolean isForecastFull(DiskUsage usage) {
+        long secondsToFull = usage.getSecondsToFull();
+        if (this.forecastHorizon > 0 && secondsToFull != DiskUsage.UNKNOWN_SECONDS_TO_FULL
+                && secondsToFull < this.forecastHorizon) {
+            log.debug("Volume is forecast to be full. volume=" + usage.getVolume() + ", secondsToFull="
+                    + secondsToFull);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 一つのボリュームの状態.
+     */
+    private static final class State {
+
+        private boolean full;
+        private int pending = 0;
+
+        State(boolean full) {
+            this.full = full;
+        }
+
+        /**
+         * 採取結果の状態を反映する.
+         * @return true: 状態が遷移した false: 遷移していない
+         */
+        boolean observe(boolean observedFull, int debounceSamples) {
+            if (observedFull == this.full) {
+                this.pending = 0;
+                return false;
+            }
+            this.pending++;
+            if (this.pending < debounceSamples) {
+                return false;
+            }
+            this.full = observedFull;
+            this.pending = 0;
+            return true;
+        }
+    }
+}
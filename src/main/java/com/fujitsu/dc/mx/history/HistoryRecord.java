@@ -0,0 +1,150 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.mx.history;
+
+import java.nio.ByteBuffer;
+
+import com.fujitsu.dc.mx.model.diskusage.DiskUsage.Status;
+
+/**
+ * HistoryStoreのレコード.
+ * メモリマップしたセグメント上のレコードを直接参照し、値は取得の都度バッファから読み出す.
+ */
+public final class HistoryRecord {
+
+    private static final int BYTE_MASK = 0xff;
+
+    private ByteBuffer buffer;
+    private int offset;
+
+    /**
+     * コンストラクタ.
+     */
+    HistoryRecord() {
+    }
+
+    /**
+     * 参照するレコードを変更する.
+     * @param recordBuffer セグメントのバッファ
+     * @param recordOffset レコードの開始位置
+     */
+    void reset(ByteBuffer recordBuffer, int recordOffset) {
+        this.buffer = recordBuffer;
+        this.offset = recordOffset;
+    }
+
+    /**
+     * レコードの種別を取得する.
+     * @return HistoryStore.SAMPLE, HistoryStore.TRANSITION, HistoryStore.HEADER のいずれか. 未使用の場合は 0
+     */
+    byte getType() {
+        return this.buffer.get(this.offset + HistoryStore.TYPE);
+    }
+
+    /**
+     * ステータスの変化を表すレコードかどうかを返す.
+     * @return true: ステータスの変化 false: 採取結果
+     */
+    public boolean isTransition() {
+        return getType() == HistoryStore.TRANSITION;
+    }
+
+    /**
+     * ボリューム名を取得する.
+     * @return ボリューム名
+     */
+    public String getVolume() {
+        int length = this.buffer.get(this.offset + HistoryStore.NAME_LENGTH) & BYTE_MASK;
+        byte[] name = new byte[length];
+        for (int i = 0; i < length; i++) {
+            name[i] = this.buffer.get(this.offset + HistoryStore.NAME + i);
+        }
+        return new String(name, HistoryStore.UTF_8);
+    }
+
+    /**
+     * 時刻を取得する. 集計済みのレコードの場合は区間の開始時刻となる.
+     * @return 時刻(エポックミリ秒)
+     */
+    public long getTime() {
+        return this.buffer.getLong(this.offset + HistoryStore.TIME);
+    }
+
+    /**
+     * ステータスを取得する. ステータスの変化の場合は変化後のステータスとなる.
+     * @return ステータス
+     */
+    public Status getStatus() {
+        return HistoryStore.toStatus(this.buffer.get(this.offset + HistoryStore.STATUS));
+    }
+
+    /**
+     * 変化前のステータスを取得する.
+     * @return 変化前のステータス. 採取結果のレコードの場合は null
+     */
+    public Status getPreviousStatus() {
+        return HistoryStore.toStatus(this.buffer.get(this.offset + HistoryStore.PREVIOUS_STATUS));
+    }
+
+    /**
+     * 集計した採取結果の件数を取得する.
+     * @return 件数
+     */
+    public long getCount() {
+        return this.buffer.getInt(this.offset + HistoryStore.COUNT);
+    }
+
+    /**
+     * 使用済みディスクサイズの合計を取得する.
+     * @return 使用済みディスクサイズの合計
+     */
+    public long getSumUsedDiskSize() {
+        return this.buffer.getLong(this.offset + HistoryStore.SUM_USED);
+    }
+
+    /**
+     * 使用済みディスクサイズの最大値を取得する.
+     * @return 使用済みディスクサイズの最大値
+     */
+    public long getMaxUsedDiskSize() {
+        return this.buffer.getLong(this.offset + HistoryStore.MAX_USED);
+    }
+
+    /**
+     * 最後に記録した使用済みディスクサイズを取得する.
+     * @return 使用済みディスクサイズ
+     */
+    public long getLastUsedDiskSize() {
+        return this.buffer.getLong(this.offset + HistoryStore.LAST_USED);
+    }
+
+    /**
+     * ディスクサイズを取得する.
+     * @return ディスクサイズ
+     */
+    public long getVolumeDiskSize() {
+        return this.buffer.getLong(this.offset + HistoryStore.DISK_SIZE);
+    }
+
+    /**
+     * ディスクの使用可能サイズを取得する.
+     * @return ディスクの使用可能サイズ
+     */
+    public long getAllocatedDiskSize() {
+        return this.buffer.getLong(this.offset + HistoryStore.ALLOCATED_SIZE);
+    }
+}
@@ -0,0 +1,30 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.mx.history;
+
+/**
+ * HistoryStoreから読み出したレコードを受け取るハンドラ.
+ */
+public interface HistoryRecordHandler {
+
+    /**
+     * レコードを受け取る.
+     * 引数のインスタンスは次のレコードの読み出しに再利用されるため、呼出し後に参照してはならない.
+     * @param record レコード
+     */
+    void handle(HistoryRecord record);
+}
@@ -0,0 +1,163 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.mx.history;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+/**
+ * 一つのボリュームのディスク使用量の履歴の検索結果.
+ */
+public final class HistorySeries {
+
+    private final String volume;
+    private final long resolution;
+    private final UsageRing points;
+
+    /**
+     * コンストラクタ.
+     * @param volume ボリューム名
+     * @param resolution 集計元の区間の時間幅(ミリ秒)
+     * @param points step単位に集計した値
+     */
+    HistorySeries(String volume, long resolution, UsageRing points) {
+        this.volume = volume;
+        this.resolution = resolution;
+        this.points = points;
+    }
+
+    /**
+     * ボリューム名を取得する.
+     * @return ボリューム名
+     */
+    public String getVolume() {
+        return this.volume;
+    }
+
+    /**
+     * 集計元の区間の時間幅を取得する.
+     * @return 時間幅(ミリ秒)
+     */
+    public long getResolution() {
+        return this.resolution;
+    }
+
+    /**
+     * 各点の時間幅を取得する.
+     * @return 時間幅(ミリ秒)
+     */
+    public long getStep() {
+        return this.points.getResolution();
+    }
+
+    /**
+     * 点の数を取得する.
+     * @return 点の数
+     */
+    public int size() {
+        return this.points.size();
+    }
+
+    /**
+     * 点の開始時刻を取得する.
+     * @param index 点の位置
+     * @return 開始時刻(エポックミリ秒)
+     */
+    public long getTime(int index) {
+        return this.points.get(index, UsageRing.START);
+    }
+
+    /**
+     * 点に含まれる採取の数を取得する.
+     * @param index 点の位置
+     * @return 採取の数
+     */
+    public long getSamples(int index) {
+        return this.points.get(index, UsageRing.COUNT);
+    }
+
+    /**
+     * 点の使用済みディスクサイズの平均を取得する.
+     * @param index 点の位置
+     * @return 使用済みディスクサイズの平均
+     */
+    public long getUsedDiskSize(int index) {
+        return this.points.get(index, UsageRing.SUM_USED) / Math.max(1L, getSamples(index));
+    }
+
+    /**
+     * 点の使用済みディスクサイズの最大値を取得する.
+     * @param index 点の位置
+     * @return 使用済みディスクサイズの最大値
+     */
+    public long getMaxUsedDiskSize(int index) {
+        return this.points.get(index, UsageRing.MAX_USED);
+    }
+
+    /**
+     * 点の最後の使用済みディスクサイズを取得する.
+     * @param index 点の位置
+     * @return 使用済みディスクサイズ
+     */
+    public long getLastUsedDiskSize(int index) {
+        return this.points.get(index, UsageRing.LAST_USED);
+    }
+
+    /**
+     * 点のディスクサイズを取得する.
+     * @param index 点の位置
+     * @return ディスクサイズ
+     */
+    public long getVolumeDiskSize(int index) {
+        return this.points.get(index, UsageRing.DISK_SIZE);
+    }
+
+    /**
+     * 点のディスクの使用可能サイズを取得する.
+     * @param index 点の位置
+     * @return ディスクの使用可能サイズ
+     */
+    public long getAllocatedDiskSize(int index) {
+        return this.points.get(index, UsageRing.ALLOCATED_SIZE);
+    }
+
+    /**
+     * 履歴をJSON形式で取得する.
+     * @return 履歴
+     */
+    @SuppressWarnings("unchecked")
+    public JSONObject toJson() {
+        JSONObject json = new JSONObject();
+        json.put("volume", this.volume);
+        json.put("resolution", this.resolution);
+        json.put("step", getStep());
+        JSONArray pointsJson = new JSONArray();
+        for (int i = 0; i < size(); i++) {
+            JSONObject point = new JSONObject();
+            point.put("time", getTime(i));
+            point.put("samples", getSamples(i));
+            point.put("usedDiskSize", getUsedDiskSize(i));
+            point.put("maxUsedDiskSize", getMaxUsedDiskSize(i));
+            point.put("lastUsedDiskSize", getLastUsedDiskSize(i));
+            point.put("volumeDiskSize", getVolumeDiskSize(i));
+            point.put("allocatedDiskSize", getAllocatedDiskSize(i));
+            pointsJson.add(point);
+        }
+        json.put("points", pointsJson);
+        return json;
+    }
+}
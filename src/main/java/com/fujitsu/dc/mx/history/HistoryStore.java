@@ -0,0 +1,830 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.mx.history;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fujitsu.dc.mx.DcMxConfig;
+import com.fujitsu.dc.mx.history.UsageHistory.Resolution;
+import com.fujitsu.dc.mx.model.diskusage.DiskUsage;
+import com.fujitsu.dc.mx.model.diskusage.DiskUsage.Status;
+import com.fujitsu.dc.mx.model.diskusage.DiskUsages;
+import com.fujitsu.dc.mx.process.DiskUsageListener;
+
+/**
+ * ディスク使用量の採取結果とステータスの変化を保存する追記型のストア.
+ * 固定長のレコードをセグメントファイルに追記し、セグメントはメモリマップして読み書きする。
+ * 起動時はセグメントをマップするのみで解析を行わないため、再デプロイの直後から履歴を参照できる。
+ * 書き込みを終えたセグメントのマップと時刻の範囲は一度だけ求めて保持し、範囲外のセグメントは読み出さない。
+ * 各ボリュームの直前のステータスはメモリに保持し、他のプロセスが追記した場合にのみストアから読み直す。
+ * Webアプリケーションと cronから起動するプロセスが同じディレクトリを使用できるよう、読み書きはロックファイルで排他する.
+ * <p>
+ * セグメントの数が上限を超えた場合は、書き込み中のものを除くセグメントを一つに圧縮する。
+ * 圧縮では採取結果を経過時間に応じて UsageHistoryと同じ分、時間、日の区間に集計し、日単位の保持期間を過ぎたものは破棄する.
+ */
+public final class HistoryStore implements DiskUsageListener {
+
+    static Logger log = LoggerFactory.getLogger(HistoryStore.class);
+
+    /** レコードの長さ(バイト). */
+    static final int RECORD_SIZE = 96;
+
+    /** 採取結果のレコード. */
+    static final byte SAMPLE = 1;
+    /** ステータスの変化のレコード. */
+    static final byte TRANSITION = 2;
+    /** 圧縮したセグメントの先頭のレコード. 時刻の位置に圧縮元の最初のセグメントの番号を持つ. */
+    static final byte HEADER = 3;
+
+    /** レコードの種別の位置(byte). 書き込みの最後に設定し、0のレコードは未使用とする. */
+    static final int TYPE = 0;
+    /** ステータスの位置(byte). ordinal + 1を格納する. */
+    static final int STATUS = 1;
+    /** 変化前のステータスの位置(byte). */
+    static final int PREVIOUS_STATUS = 2;
+    /** ボリューム名の長さの位置(byte). */
+    static final int NAME_LENGTH = 3;
+    /** 集計した採取結果の件数の位置(int). */
+    static final int COUNT = 4;
+    /** 時刻の位置(long). */
+    static final int TIME = 8;
+    /** 使用済みディスクサイズの合計の位置(long). */
+    static final int SUM_USED = 16;
+    /** 使用済みディスクサイズの最大値の位置(long). */
+    static final int MAX_USED = 24;
+    /** 最後に記録した使用済みディスクサイズの位置(long). */
+    static final int LAST_USED = 32;
+    /** ディスクサイズの位置(long). */
+    static final int DISK_SIZE = 40;
+    /** ディスクの使用可能サイズの位置(long). */
+    static final int ALLOCATED_SIZE = 48;
+    /** ボリューム名(UTF-8)の位置. */
+    static final int NAME = 56;
+    /** ボリューム名の最大長(バイト). */
+    static final int MAX_NAME_BYTES = RECORD_SIZE - NAME;
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String SEGMENT_NAME_FORMAT = "%016d" + SEGMENT_SUFFIX;
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+    private static final String LOCK_FILE_NAME = "history.lock";
+    private static final int COMPACTION_BUFFER_RECORDS = 256;
+    /** 直前のステータスを探すために遡るセグメントの数. */
+    private static final int STATUS_LOOKBACK_SEGMENTS = 2;
+
+    /** 集計中の区間の時間幅の位置. UsageRingのフィールドに続けて格納する. */
+    private static final int PENDING_WIDTH = UsageRing.FIELDS;
+    /** 集計中の区間のステータスの位置. */
+    private static final int PENDING_STATUS = UsageRing.FIELDS + 1;
+    private static final int PENDING_FIELDS = UsageRing.FIELDS + 2;
+
+    /** FileLockはプロセス単位のロックのため、同じ JVM内の排他にはこのオブジェクトを使用する. */
+    private static final Object JVM_LOCK = new Object();
+
+    private static HistoryStore singleton = null;
+
+    private final File dir;
+    private final int segmentRecords;
+    private final int maxSegments;
+    private final long[] widths;
+    private final long[] horizons;
+    private long activeSequence = -1L;
+    private MappedByteBuffer active = null;
+    private int activeEnd = 0;
+    /** マップした書き込みを終えたセグメント. JVM_LOCKを取得した状態で参照する. */
+    private final Map<Long, SealedSegment> sealedSegments = new HashMap<Long, SealedSegment>();
+    /** 各ボリュームの直前のステータス. 最後に追記した直後の書き込み位置と一致する場合のみ使用する. */
+    private final Map<String, Status> lastStatuses = new HashMap<String, Status>();
+    private long statusSequence = -1L;
+    private int statusEnd = -1;
+    private volatile boolean failureLogged = false;
+    private volatile boolean nameLengthLogged = false;
+
+    /**
+     * コンストラクタ.
+     * @param dir セグメントを置くディレクトリ. 存在しない場合は作成する
+     * @param segmentRecords 一つのセグメントのレコード数
+     * @param maxSegments 圧縮せずに保持するセグメント数の上限
+     * @param minutes 1分単位に集計して保持する区間の数
+     * @param hours 1時間単位に集計して保持する区間の数
+     * @param days 1日単位に集計して保持する区間の数
+     * @throws IOException ディレクトリを作成できない場合
+     */
+    HistoryStore(File dir, int segmentRecords, int maxSegments, int minutes, int hours, int days)
+            throws IOException {
+        if (segmentRecords <= 0 || segmentRecords > Integer.MAX_VALUE / RECORD_SIZE || maxSegments <= 0) {
+            throw new IllegalArgumentException("segmentRecords=" + segmentRecords + ", maxSegments=" + maxSegments);
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Failed to create directory: " + dir);
+        }
+        this.dir = dir;
+        this.segmentRecords = segmentRecords;
+        this.maxSegments = maxSegments;
+        int[] capacities = {minutes, hours, days };
+        Resolution[] values = Resolution.values();
+        this.widths = new long[values.length];
+        this.horizons = new long[values.length];
+        for (Resolution resolution : values) {
+            this.widths[resolution.ordinal()] = resolution.getMillis();
+            this.horizons[resolution.ordinal()] = resolution.getMillis() * capacities[resolution.ordinal()];
+        }
+    }
+
+    /**
+     * インスタンスを取得する.
+     * @return HistoryStore. 保存先が設定されていない場合、または開けない場合は null
+     */
+    public static synchronized HistoryStore getInstance() {
+        if (singleton == null) {
+            String dir = DcMxConfig.getHistoryStoreDir();
+            if (dir == null || dir.isEmpty()) {
+                return null;
+            }
+            try {
+                singleton = new HistoryStore(new File(dir), DcMxConfig.getHistoryStoreSegmentRecords(),
+                        DcMxConfig.getHistoryStoreMaxSegments(), DcMxConfig.getHistoryMinutes(),
+                        DcMxConfig.getHistoryHours(), DcMxConfig.getHistoryDays());
+            } catch (IOException e) {
+                log.warn("Failed to open usage history store. dir=" + dir, e);
+            }
+        }
+        return singleton;
+    }
+
+    @Override
+    public void sampled(DiskUsages diskUsages) {
+        record(diskUsages);
+    }
+
+    /**
+     * スナップショットを保存する. 保存に失敗した場合はログを出力し、例外は投げない.
+     * @param diskUsages スナップショット
+     */
+    public void record(DiskUsages diskUsages) {
+        try {
+            append(diskUsages);
+            this.failureLogged = false;
+        } catch (IOException e) {
+            if (!this.failureLogged) {
+                this.failureLogged = true;
+                log.warn("Failed to write usage history store. dir=" + this.dir, e);
+            }
+        }
+    }
+
+    /**
+     * スナップショットの各ボリュームの採取結果を追記する.
+     * 同じボリュームの直前の記録とステータスが異なる場合は、ステータスの変化も追記する.
+     * @param diskUsages スナップショット
+     * @throws IOException 書き込みに失敗した場合
+     */
+    void append(DiskUsages diskUsages) throws IOException {
+        List<DiskUsage> usages = new ArrayList<DiskUsage>(diskUsages.size());
+        List<byte[]> names = new ArrayList<byte[]>(diskUsages.size());
+        Set<String> volumes = new HashSet<String>();
+        for (DiskUsage usage : diskUsages) {
+            if (usage.getVolume() == null) {
+                continue;
+            }
+            byte[] name = usage.getVolume().getBytes(UTF_8);
+            if (name.length > MAX_NAME_BYTES) {
+                if (!this.nameLengthLogged) {
+                    this.nameLengthLogged = true;
+                    log.warn("Volume name is too long to keep usage history. volume=" + usage.getVolume());
+                }
+                continue;
+            }
+            usages.add(usage);
+            names.add(name);
+            volumes.add(usage.getVolume());
+        }
+        if (usages.isEmpty()) {
+            return;
+        }
+
+        long time = diskUsages.getCollectedAt();
+        long[] values = new long[UsageRing.FIELDS];
+        synchronized (JVM_LOCK) {
+            FileLock lock = lock();
+            try {
+                long[] sequences = prepareActive();
+                Map<String, Status> statuses = findLastStatuses(sequences, volumes);
+                // 追記の途中で失敗した場合は、保持しているステータスを使用しない
+                this.statusSequence = -1L;
+                for (int i = 0; i < usages.size(); i++) {
+                    DiskUsage usage = usages.get(i);
+                    Status previous = statuses.get(usage.getVolume());
+                    if (previous != null && previous != usage.getStatus()) {
+                        Arrays.fill(values, 0L);
+                        values[UsageRing.START] = time;
+                        // reserve()でセグメントが切り替わるため、位置を先に確保する
+                        int offset = reserve();
+                        putRecord(this.active, offset, TRANSITION, names.get(i), values, usage.getStatus(), previous);
+                    }
+                    long used = usage.getUsedDiskSize();
+                    values[UsageRing.START] = time;
+                    values[UsageRing.COUNT] = 1L;
+                    values[UsageRing.SUM_USED] = used;
+                    values[UsageRing.MAX_USED] = used;
+                    values[UsageRing.LAST_USED] = used;
+                    values[UsageRing.DISK_SIZE] = usage.getVolumeDiskSize();
+                    values[UsageRing.ALLOCATED_SIZE] = usage.getAllocatedDiskSize();
+                    int offset = reserve();
+                    putRecord(this.active, offset, SAMPLE, names.get(i), values, usage.getStatus(), null);
+                    statuses.put(usage.getVolume(), usage.getStatus());
+                }
+                this.statusSequence = this.activeSequence;
+                this.statusEnd = this.activeEnd;
+            } finally {
+                release(lock);
+            }
+        }
+    }
+
+    /**
+     * 指定した範囲の時刻のレコードを読み出す.
+     * 同じボリュームのレコードは時刻の昇順に渡す. 読み出し中に追記されたレコードは対象としない.
+     * 書き込みを終えたセグメントのうち、時刻の範囲が指定した範囲と重ならないものは読み出さない.
+     * @param from 範囲の開始時刻(エポックミリ秒)
+     * @param to 範囲の終了時刻(エポックミリ秒)
+     * @param handler レコードを受け取るハンドラ
+     * @throws IOException 読み出しに失敗した場合
+     */
+    public void read(long from, long to, HistoryRecordHandler handler) throws IOException {
+        List<ByteBuffer> segments = new ArrayList<ByteBuffer>();
+        List<Integer> ends = new ArrayList<Integer>();
+        synchronized (JVM_LOCK) {
+            FileLock lock = lock();
+            try {
+                // マップしたセグメントは、ロックの解放後に圧縮で削除されても読み出せる
+                List<Long> live = liveSegments(listSegments(), null);
+                this.sealedSegments.keySet().retainAll(live);
+                for (int s = 0; s < live.size(); s++) {
+                    long sequence = live.get(s);
+                    if (s < live.size() - 1) {
+                        SealedSegment segment = getSealedSegment(sequence);
+                        if (segment.overlaps(from, to)) {
+                            segments.add(segment.buffer);
+                            ends.add(segment.end);
+                        }
+                        continue;
+                    }
+                    // 書き込み中のセグメント
+                    MappedByteBuffer segment = this.active;
+                    if (segment == null || this.activeSequence != sequence) {
+                        segment = map(segmentFile(sequence), MapMode.READ_ONLY);
+                    }
+                    segments.add(segment);
+                    ends.add(findEnd(segment));
+                }
+            } finally {
+                release(lock);
+            }
+        }
+        HistoryRecord record = new HistoryRecord();
+        for (int s = 0; s < segments.size(); s++) {
+            ByteBuffer segment = segments.get(s);
+            int end = ends.get(s);
+            for (int i = 0; i < end; i++) {
+                record.reset(segment, i * RECORD_SIZE);
+                byte type = record.getType();
+                if (type != SAMPLE && type != TRANSITION) {
+                    continue;
+                }
+                long time = record.getTime();
+                if (time >= from && time <= to) {
+                    handler.handle(record);
+                }
+            }
+        }
+    }
+
+    /**
+     * 指定した範囲の時刻のレコードをタブ区切りで一行ずつ出力する.
+     * 採取結果は "時刻, ボリューム名, sample, ステータス, 件数, 最後の使用済みサイズ, 最大の使用済みサイズ, ディスクサイズ, 使用可能サイズ"、
+     * ステータスの変化は "時刻, ボリューム名, transition, ステータス, 変化前のステータス" とする.
+     * @param from 範囲の開始時刻(エポックミリ秒)
+     * @param to 範囲の終了時刻(エポックミリ秒)
+     * @param out 出力先
+     * @return 出力したレコード数
+     * @throws IOException 読み出しに失敗した場合
+     */
+    public int print(long from, long to, final PrintStream out) throws IOException {
+        final int[] count = new int[1];
+        read(from, to, new HistoryRecordHandler() {
+            @Override
+            public void handle(HistoryRecord record) {
+                StringBuilder line = new StringBuilder();
+                line.append(record.getTime()).append('\t').append(record.getVolume()).append('\t');
+                if (record.isTransition()) {
+                    line.append("transition\t").append(record.getStatus()).append('\t')
+                            .append(record.getPreviousStatus());
+                } else {
+                    line.append("sample\t").append(record.getStatus()).append('\t').append(record.getCount())
+                            .append('\t').append(record.getLastUsedDiskSize())
+                            .append('\t').append(record.getMaxUsedDiskSize())
+                            .append('\t').append(record.getVolumeDiskSize())
+                            .append('\t').append(record.getAllocatedDiskSize());
+                }
+                out.println(line);
+                count[0]++;
+            }
+        });
+        out.flush();
+        return count[0];
+    }
+
+    /**
+     * ステータスの ordinal + 1の値をステータスに変換する.
+     * @param value 格納した値
+     * @return ステータス. 0の場合は null
+     */
+    static Status toStatus(byte value) {
+        if (value <= 0 || value > Status.values().length) {
+            return null;
+        }
+        return Status.values()[value - 1];
+    }
+
+    private static byte fromStatus(Status status) {
+        if (status == null) {
+            return 0;
+        }
+        return (byte) (status.ordinal() + 1);
+    }
+
+    private static void putRecord(ByteBuffer buffer, int offset, byte type, byte[] name, long[] values,
+            Status status, Status previous) {
+        buffer.put(offset + STATUS, fromStatus(status));
+        buffer.put(offset + PREVIOUS_STATUS, fromStatus(previous));
+        buffer.put(offset + NAME_LENGTH, (byte) name.length);
+        buffer.putInt(offset + COUNT, (int) Math.min(values[UsageRing.COUNT], Integer.MAX_VALUE));
+        buffer.putLong(offset + TIME, values[UsageRing.START]);
+        buffer.putLong(offset + SUM_USED, values[UsageRing.SUM_USED]);
+        buffer.putLong(offset + MAX_USED, values[UsageRing.MAX_USED]);
+        buffer.putLong(offset + LAST_USED, values[UsageRing.LAST_USED]);
+        buffer.putLong(offset + DISK_SIZE, values[UsageRing.DISK_SIZE]);
+        buffer.putLong(offset + ALLOCATED_SIZE, values[UsageRing.ALLOCATED_SIZE]);
+        for (int i = 0; i < MAX_NAME_BYTES; i++) {
+            byte b = 0;
+            if (i < name.length) {
+                b = name[i];
+            }
+            buffer.put(offset + NAME + i, b);
+        }
+        // 種別を最後に書き込み、書き込み途中のレコードを未使用として扱う
+        buffer.put(offset + TYPE, type);
+    }
+
+    /**
+     * 使用済みのレコード数を取得する. レコードは先頭から詰めて書き込むため二分探索で求める.
+     * @param segment セグメント
+     * @return 使用済みのレコード数
+     */
+    static int findEnd(ByteBuffer segment) {
+        int low = 0;
+        int high = segment.capacity() / RECORD_SIZE;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (segment.get(mid * RECORD_SIZE + TYPE) != 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * 書き込み中のセグメントをマップし、次に書き込む位置を求める. ロックを取得した状態で呼び出す.
+     * @return セグメントの番号(昇順)
+     */
+    private long[] prepareActive() throws IOException {
+        long[] sequences = listSegments();
+        if (sequences.length == 0) {
+            this.active = create(0L);
+            this.activeSequence = 0L;
+            sequences = new long[] {0L };
+        } else if (this.active == null || this.activeSequence != sequences[sequences.length - 1]) {
+            // 他のプロセスが新しいセグメントを作成した
+            this.activeSequence = sequences[sequences.length - 1];
+            this.active = map(segmentFile(this.activeSequence), MapMode.READ_WRITE);
+        }
+        this.activeEnd = findEnd(this.active);
+        return sequences;
+    }
+
+    /**
+     * 一件のレコードの領域を確保する. セグメントが一杯の場合は次のセグメントを作成する.
+     * @return レコードの開始位置
+     */
+    private int reserve() throws IOException {
+        if (this.activeEnd >= this.active.capacity() / RECORD_SIZE) {
+            long sequence = this.activeSequence + 1;
+            this.active = create(sequence);
+            this.activeSequence = sequence;
+            this.activeEnd = 0;
+            compactIfNeeded();
+        }
+        int offset = this.activeEnd * RECORD_SIZE;
+        this.activeEnd++;
+        return offset;
+    }
+
+    /**
+     * 各ボリュームの直前のステータスを取得する. ロックを取得した状態で呼び出す.
+     * 前回の追記の後に他のプロセスが追記していない場合は保持しているステータスを使用し、
+     * 保持していないボリュームのみストアから読み出す.
+     * @param sequences セグメントの番号(昇順)
+     * @param volumes ボリューム名
+     * @return ボリューム名とステータス. 呼び出し元で更新する
+     */
+    private Map<String, Status> findLastStatuses(long[] sequences, Set<String> volumes) throws IOException {
+        if (this.statusSequence != this.activeSequence || this.statusEnd != this.activeEnd) {
+            this.lastStatuses.clear();
+        }
+        Set<String> missing = new HashSet<String>(volumes);
+        missing.removeAll(this.lastStatuses.keySet());
+        HistoryRecord record = new HistoryRecord();
+        int oldest = Math.max(0, sequences.length - STATUS_LOOKBACK_SEGMENTS);
+        for (int s = sequences.length - 1; s >= oldest && !missing.isEmpty(); s--) {
+            ByteBuffer segment;
+            int end;
+            if (sequences[s] == this.activeSequence) {
+                segment = this.active;
+                end = this.activeEnd;
+            } else {
+                SealedSegment sealed = getSealedSegment(sequences[s]);
+                segment = sealed.buffer;
+                end = sealed.end;
+            }
+            for (int i = end - 1; i >= 0 && !missing.isEmpty(); i--) {
+                record.reset(segment, i * RECORD_SIZE);
+                byte type = record.getType();
+                if (type != SAMPLE && type != TRANSITION) {
+                    continue;
+                }
+                String volume = record.getVolume();
+                if (missing.remove(volume)) {
+                    this.lastStatuses.put(volume, record.getStatus());
+                }
+            }
+        }
+        return this.lastStatuses;
+    }
+
+    /**
+     * 書き込みを終えたセグメントのマップを取得する. 初めて参照する場合と、圧縮で置き換えられた場合にのみマップする.
+     * ロックを取得した状態で呼び出す.
+     * @param sequence セグメントの番号
+     * @return セグメント
+     */
+    private SealedSegment getSealedSegment(long sequence) throws IOException {
+        File file = segmentFile(sequence);
+        long length = file.length();
+        long modified = file.lastModified();
+        SealedSegment segment = this.sealedSegments.get(sequence);
+        if (segment == null || segment.length != length || segment.modified != modified) {
+            segment = new SealedSegment(map(file, MapMode.READ_ONLY), length, modified);
+            this.sealedSegments.put(sequence, segment);
+        }
+        return segment;
+    }
+
+    private void compactIfNeeded() throws IOException {
+        List<Long> stale = new ArrayList<Long>();
+        List<Long> sealed = liveSegments(listSegments(), stale);
+        sealed.remove(Long.valueOf(this.activeSequence));
+        if (sealed.size() > this.maxSegments) {
+            compact(sealed, stale);
+        }
+    }
+
+    /**
+     * セグメントを一つに圧縮する. 圧縮したセグメントは入力の最後のセグメントの番号で置き換える.
+     * @param inputs 圧縮するセグメントの番号(昇順)
+     * @param stale 以前の圧縮で不要になったセグメントの番号
+     */
+    private void compact(List<Long> inputs, List<Long> stale) throws IOException {
+        long now = System.currentTimeMillis();
+        long last = inputs.get(inputs.size() - 1);
+        MappedByteBuffer first = map(segmentFile(inputs.get(0)), MapMode.READ_ONLY);
+        long coveredFrom = inputs.get(0);
+        if (first.capacity() > 0 && first.get(TYPE) == HEADER) {
+            coveredFrom = first.getLong(TIME);
+        }
+
+        File temporary = new File(this.dir, String.format(SEGMENT_NAME_FORMAT, last) + TEMPORARY_SUFFIX);
+        SegmentWriter writer = new SegmentWriter(temporary);
+        int count = 0;
+        try {
+            long[] values = new long[UsageRing.FIELDS];
+            values[UsageRing.START] = coveredFrom;
+            writer.write(HEADER, new byte[0], values, null, null);
+
+            Map<String, long[]> pending = new HashMap<String, long[]>();
+            HistoryRecord record = new HistoryRecord();
+            for (long sequence : inputs) {
+                MappedByteBuffer segment = map(segmentFile(sequence), MapMode.READ_ONLY);
+                int end = findEnd(segment);
+                for (int i = 0; i < end; i++) {
+                    record.reset(segment, i * RECORD_SIZE);
+                    byte type = record.getType();
+                    long time = record.getTime();
+                    if (type == TRANSITION && bucketWidth(now - time) > 0) {
+                        Arrays.fill(values, 0L);
+                        values[UsageRing.START] = time;
+                        writer.write(TRANSITION, record.getVolume().getBytes(UTF_8), values, record.getStatus(),
+                                record.getPreviousStatus());
+                    } else if (type == SAMPLE) {
+                        aggregate(writer, pending, record, bucketWidth(now - time));
+                    }
+                }
+                count += end;
+            }
+            for (Map.Entry<String, long[]> entry : pending.entrySet()) {
+                flush(writer, entry.getKey(), entry.getValue());
+            }
+        } finally {
+            writer.close();
+        }
+
+        if (!temporary.renameTo(segmentFile(last))) {
+            throw new IOException("Failed to replace segment: " + segmentFile(last));
+        }
+        List<Long> obsolete = new ArrayList<Long>(inputs.subList(0, inputs.size() - 1));
+        obsolete.addAll(stale);
+        this.sealedSegments.keySet().removeAll(inputs);
+        this.sealedSegments.keySet().removeAll(stale);
+        for (long sequence : obsolete) {
+            if (!segmentFile(sequence).delete()) {
+                log.warn("Failed to delete usage history segment. file=" + segmentFile(sequence));
+            }
+        }
+        log.info("Compacted usage history segments. segments=" + inputs.size() + ", records=" + count + " -> "
+                + (writer.getCount() - 1));
+    }
+
+    private void aggregate(SegmentWriter writer, Map<String, long[]> pending, HistoryRecord record, long width)
+            throws IOException {
+        if (width <= 0) {
+            return;
+        }
+        String volume = record.getVolume();
+        long time = record.getTime();
+        long start = time - time % width;
+        long[] bucket = pending.get(volume);
+        if (bucket != null && (bucket[UsageRing.START] != start || bucket[PENDING_WIDTH] != width)) {
+            flush(writer, volume, bucket);
+            bucket = null;
+        }
+        if (bucket == null) {
+            bucket = new long[PENDING_FIELDS];
+            bucket[UsageRing.START] = start;
+            bucket[PENDING_WIDTH] = width;
+            bucket[UsageRing.MAX_USED] = Long.MIN_VALUE;
+            pending.put(volume, bucket);
+        }
+        bucket[UsageRing.COUNT] += record.getCount();
+        bucket[UsageRing.SUM_USED] += record.getSumUsedDiskSize();
+        bucket[UsageRing.MAX_USED] = Math.max(bucket[UsageRing.MAX_USED], record.getMaxUsedDiskSize());
+        bucket[UsageRing.LAST_USED] = record.getLastUsedDiskSize();
+        bucket[UsageRing.DISK_SIZE] = record.getVolumeDiskSize();
+        bucket[UsageRing.ALLOCATED_SIZE] = record.getAllocatedDiskSize();
+        bucket[PENDING_STATUS] = fromStatus(record.getStatus());
+    }
+
+    private static void flush(SegmentWriter writer, String volume, long[] bucket) throws IOException {
+        writer.write(SAMPLE, volume.getBytes(UTF_8), bucket, toStatus((byte) bucket[PENDING_STATUS]), null);
+    }
+
+    /**
+     * 経過時間に応じた集計の時間幅を取得する.
+     * @param age 経過時間(ミリ秒)
+     * @return 時間幅(ミリ秒). 保持期間を過ぎている場合は 0
+     */
+    private long bucketWidth(long age) {
+        for (int i = 0; i < this.horizons.length; i++) {
+            if (age < this.horizons[i]) {
+                return this.widths[i];
+            }
+        }
+        return 0L;
+    }
+
+    /**
+     * 以前の圧縮の途中で残ったセグメントを除いたセグメントの番号を取得する.
+     * 圧縮したセグメントは先頭のレコードに圧縮元の最初の番号を持ち、その番号から自身の番号までのセグメントは不要となる.
+     * @param sequences セグメントの番号(昇順)
+     * @param stale 不要なセグメントの番号を追加するリスト. 不要な場合は null
+     * @return セグメントの番号(昇順)
+     */
+    private List<Long> liveSegments(long[] sequences, List<Long> stale) throws IOException {
+        List<Long> live = new ArrayList<Long>();
+        long coveredFrom = Long.MAX_VALUE;
+        for (int s = sequences.length - 1; s >= 0; s--) {
+            long sequence = sequences[s];
+            if (sequence >= coveredFrom) {
+                if (stale != null) {
+                    stale.add(sequence);
+                }
+                continue;
+            }
+            live.add(0, sequence);
+            RandomAccessFile file = new RandomAccessFile(segmentFile(sequence), "r");
+            try {
+                if (file.length() >= RECORD_SIZE && file.readByte() == HEADER) {
+                    file.seek(TIME);
+                    coveredFrom = file.readLong();
+                }
+            } finally {
+                file.close();
+            }
+        }
+        return live;
+    }
+
+    private long[] listSegments() throws IOException {
+        String[] names = this.dir.list();
+        if (names == null) {
+            throw new IOException("Failed to list directory: " + this.dir);
+        }
+        long[] sequences = new long[names.length];
+        int count = 0;
+        for (String name : names) {
+            if (!name.endsWith(SEGMENT_SUFFIX)) {
+                continue;
+            }
+            try {
+                sequences[count] = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+                count++;
+            } catch (NumberFormatException e) {
+                log.debug("Ignored file in usage history store. file=" + name);
+            }
+        }
+        long[] result = Arrays.copyOf(sequences, count);
+        Arrays.sort(result);
+        return result;
+    }
+
+    private File segmentFile(long sequence) {
+        return new File(this.dir, String.format(SEGMENT_NAME_FORMAT, sequence));
+    }
+
+    private MappedByteBuffer create(long sequence) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(segmentFile(sequence), "rw");
+        try {
+            file.setLength((long) this.segmentRecords * RECORD_SIZE);
+            return file.getChannel().map(MapMode.READ_WRITE, 0L, file.length());
+        } finally {
+            file.close();
+        }
+    }
+
+    private static MappedByteBuffer map(File segment, MapMode mode) throws IOException {
+        String fileMode = "r";
+        if (mode == MapMode.READ_WRITE) {
+            fileMode = "rw";
+        }
+        RandomAccessFile file = new RandomAccessFile(segment, fileMode);
+        try {
+            // ファイルを閉じてもマップは有効
+            return file.getChannel().map(mode, 0L, file.length());
+        } finally {
+            file.close();
+        }
+    }
+
+    private FileLock lock() throws IOException {
+        RandomAccessFile file = new RandomAccessFile(new File(this.dir, LOCK_FILE_NAME), "rw");
+        try {
+            return file.getChannel().lock();
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    private static void release(FileLock lock) throws IOException {
+        try {
+            lock.release();
+        } finally {
+            lock.channel().close();
+        }
+    }
+
+    /**
+     * マップした書き込みを終えたセグメントと、そのレコード数および時刻の範囲.
+     */
+    private static final class SealedSegment {
+
+        private final MappedByteBuffer buffer;
+        private final long length;
+        private final long modified;
+        private final int end;
+        private long minTime = Long.MAX_VALUE;
+        private long maxTime = Long.MIN_VALUE;
+
+        SealedSegment(MappedByteBuffer buffer, long length, long modified) {
+            this.buffer = buffer;
+            this.length = length;
+            this.modified = modified;
+            this.end = findEnd(buffer);
+            HistoryRecord record = new HistoryRecord();
+            for (int i = 0; i < this.end; i++) {
+                record.reset(buffer, i * RECORD_SIZE);
+                byte type = record.getType();
+                if (type == SAMPLE || type == TRANSITION) {
+                    this.minTime = Math.min(this.minTime, record.getTime());
+                    this.maxTime = Math.max(this.maxTime, record.getTime());
+                }
+            }
+        }
+
+        boolean overlaps(long from, long to) {
+            return this.minTime <= to && this.maxTime >= from;
+        }
+    }
+
+    /**
+     * 圧縮したセグメントを書き出すクラス.
+     */
+    private static final class SegmentWriter {
+
+        private final FileOutputStream output;
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * COMPACTION_BUFFER_RECORDS);
+        private int count = 0;
+
+        SegmentWriter(File file) throws IOException {
+            this.output = new FileOutputStream(file);
+            this.channel = this.output.getChannel();
+        }
+
+        void write(byte type, byte[] name, long[] values, Status status, Status previous) throws IOException {
+            if (!this.buffer.hasRemaining()) {
+                flushBuffer();
+            }
+            putRecord(this.buffer, this.buffer.position(), type, name, values, status, previous);
+            this.buffer.position(this.buffer.position() + RECORD_SIZE);
+            this.count++;
+        }
+
+        int getCount() {
+            return this.count;
+        }
+
+        void close() throws IOException {
+            try {
+                flushBuffer();
+                this.channel.force(true);
+            } finally {
+                this.output.close();
+            }
+        }
+
+        private void flushBuffer() throws IOException {
+            this.buffer.flip();
+            while (this.buffer.hasRemaining()) {
+                this.channel.write(this.buffer);
+            }
+            this.buffer.clear();
+        }
+    }
+}
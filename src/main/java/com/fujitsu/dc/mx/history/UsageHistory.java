@@ -0,0 +1,317 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.mx.history;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fujitsu.dc.mx.DcMxConfig;
+import com.fujitsu.dc.mx.model.diskusage.DiskUsage;
+import com.fujitsu.dc.mx.model.diskusage.DiskUsage.Status;
+import com.fujitsu.dc.mx.model.diskusage.DiskUsages;
+import com.fujitsu.dc.mx.process.DiskUsageListener;
+
+/**
+ * 採取したディスク使用量をボリュームごとに保持するクラス.
+ * 分、時間、日の時間幅で集計し、それぞれ設定された区間数だけ保持する。
+ * メモリ使用量はボリューム数の上限と区間数により決まり、採取の回数によらず一定である.
+ */
+public final class UsageHistory implements DiskUsageListener {
+
+    static Logger log = LoggerFactory.getLogger(UsageHistory.class);
+
+    /**
+     * 集計の時間幅.
+     */
+    public enum Resolution {
+        /** 1分. */
+        MINUTE(60000L),
+        /** 1時間. */
+        HOUR(3600000L),
+        /** 1日. */
+        DAY(86400000L);
+
+        private final long millis;
+
+        Resolution(long millis) {
+            this.millis = millis;
+        }
+
+        /**
+         * 時間幅を取得する.
+         * @return 時間幅(ミリ秒)
+         */
+        public long getMillis() {
+            return this.millis;
+        }
+    }
+
+    private static final String RESTORE_THREAD_NAME = "dc-mx-history-restore";
+
+    private static UsageHistory singleton = null;
+
+    private final long[] resolutions;
+    private final int[] capacities;
+    private final int maxVolumes;
+    private final ConcurrentMap<String, VolumeHistory> volumes = new ConcurrentHashMap<String, VolumeHistory>();
+    private volatile boolean overflowLogged = false;
+
+    private final Object restoreLock = new Object();
+    /** 復元中に採取したスナップショット. 復元中でない場合は null. restoreLockを取得した状態で参照する. */
+    private List<DiskUsages> deferred = null;
+
+    /**
+     * コンストラクタ.
+     * @param minutes 1分単位の区間の数
+     * @param hours 1時間単位の区間の数
+     * @param days 1日単位の区間の数
+     * @param maxVolumes 保持するボリューム数の上限
+     */
+    UsageHistory(int minutes, int hours, int days, int maxVolumes) {
+        Resolution[] values = Resolution.values();
+        this.resolutions = new long[values.length];
+        for (Resolution resolution : values) {
+            this.resolutions[resolution.ordinal()] = resolution.getMillis();
+        }
+        this.capacities = new int[] {minutes, hours, days };
+        this.maxVolumes = maxVolumes;
+    }
+
+    /**
+     * インスタンスを取得する.
+     * @return UsageHistory
+     */
+    public static synchronized UsageHistory getInstance() {
+        if (singleton == null) {
+            singleton = new UsageHistory(DcMxConfig.getHistoryMinutes(), DcMxConfig.getHistoryHours(),
+                    DcMxConfig.getHistoryDays(), DcMxConfig.getHistoryMaxVolumes());
+        }
+        return singleton;
+    }
+
+    @Override
+    public void sampled(DiskUsages diskUsages) {
+        record(diskUsages);
+    }
+
+    /**
+     * スナップショットの各ボリュームのディスク使用量を記録する. ERRORのボリュームは記録しない.
+     * @param diskUsages スナップショット
+     */
+    public void record(DiskUsages diskUsages) {
+        synchronized (this.restoreLock) {
+            if (this.deferred != null) {
+                // 復元したレコードより新しい区間を先に作ると、古い区間のレコードを加えられなくなるため、復元後に記録する
+                this.deferred.add(diskUsages);
+                return;
+            }
+        }
+        recordNow(diskUsages);
+    }
+
+    private void recordNow(DiskUsages diskUsages) {
+        long time = diskUsages.getCollectedAt();
+        for (DiskUsage usage : diskUsages) {
+            if (usage.getStatus() == Status.ERROR || usage.getVolume() == null) {
+                continue;
+            }
+            VolumeHistory history = getVolumeHistory(usage.getVolume());
+            if (history != null) {
+                history.add(time, usage.getUsedDiskSize(), usage.getVolumeDiskSize(), usage.getAllocatedDiskSize());
+            }
+        }
+    }
+
+    /**
+     * HistoryStoreに保存された採取結果を読み込む. 日単位の保持期間より古いものは読み込まない.
+     * 読み込みに失敗した場合はログを出力し、読み込めた分のみを保持する.
+     * @param store ストア
+     * @return 読み込んだレコード数
+     */
+    public int restore(HistoryStore store) {
+        return restore(store, Long.MAX_VALUE);
+    }
+
+    /**
+     * HistoryStoreに保存された採取結果を別スレッドで読み込む.
+     * 読み込みを終えるまでの間に記録するスナップショットは保留し、読み込みを終えた後に記録する。
+     * 保留している間の検索結果には、読み込み済みの区間のみが含まれる.
+     * @param store ストア
+     * @return 読み込みを行うスレッド
+     */
+    public Thread restoreInBackground(final HistoryStore store) {
+        // 以降に採取したスナップショットは保留するため、この時刻より後のレコードは読み込まない
+        final long until = System.currentTimeMillis();
+        synchronized (this.restoreLock) {
+            if (this.deferred == null) {
+                this.deferred = new ArrayList<DiskUsages>();
+            }
+        }
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    restore(store, until);
+                } catch (RuntimeException e) {
+                    log.warn("Failed to restore usage history.", e);
+                } finally {
+                    endRestore();
+                }
+            }
+        }, RESTORE_THREAD_NAME);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * 保存された採取結果を読み込み中かどうかを取得する.
+     * @return true: 読み込み中のため、古い区間の履歴が欠けている場合がある
+     */
+    public boolean isRestoring() {
+        synchronized (this.restoreLock) {
+            return this.deferred != null;
+        }
+    }
+
+    private void endRestore() {
+        synchronized (this.restoreLock) {
+            if (this.deferred == null) {
+                return;
+            }
+            for (DiskUsages diskUsages : this.deferred) {
+                recordNow(diskUsages);
+            }
+            this.deferred = null;
+        }
+    }
+
+    private int restore(HistoryStore store, long until) {
+        long from = System.currentTimeMillis()
+                - Resolution.DAY.getMillis() * this.capacities[Resolution.DAY.ordinal()];
+        final int[] count = new int[1];
+        try {
+            store.read(from, until, new HistoryRecordHandler() {
+                @Override
+                public void handle(HistoryRecord record) {
+                    if (record.isTransition() || record.getStatus() == Status.ERROR) {
+                        return;
+                    }
+                    VolumeHistory history = getVolumeHistory(record.getVolume());
+                    if (history != null) {
+                        history.merge(record.getTime(), record.getCount(), record.getSumUsedDiskSize(),
+                                record.getMaxUsedDiskSize(), record.getLastUsedDiskSize(),
+                                record.getVolumeDiskSize(), record.getAllocatedDiskSize());
+                        count[0]++;
+                    }
+                }
+            });
+        } catch (IOException e) {
+            log.warn("Failed to restore usage history.", e);
+        }
+        log.info("Restored usage history. records=" + count[0]);
+        return count[0];
+    }
+
+    /**
+     * 履歴を保持しているボリューム名を取得する.
+     * @return ボリューム名のリスト(昇順)
+     */
+    public List<String> getVolumes() {
+        List<String> names = new ArrayList<String>(this.volumes.keySet());
+        Collections.sort(names);
+        return names;
+    }
+
+    /**
+     * ボリュームの履歴を検索する.
+     * stepに 0以下を指定した場合は、範囲の開始時刻を含む最も細かい時間幅で返却する。
+     * stepを指定した場合は、stepを超えない最も粗い時間幅から集計し、stepはその時間幅の倍数に切り上げる.
+     * @param volume ボリューム名
+     * @param from 範囲の開始時刻(エポックミリ秒)
+     * @param to 範囲の終了時刻(エポックミリ秒)
+     * @param step 各点の時間幅(ミリ秒)
+     * @return 検索結果. 履歴のないボリュームの場合は null
+     */
+    public HistorySeries query(String volume, long from, long to, long step) {
+        VolumeHistory history = this.volumes.get(volume);
+        if (history == null) {
+            return null;
+        }
+        Resolution resolution = selectResolution(from, System.currentTimeMillis(), step);
+        long width = resolution.getMillis();
+        long effectiveStep = width;
+        if (step > width) {
+            effectiveStep = (step + width - 1) / width * width;
+        }
+        UsageRing points = history.query(resolution.ordinal(), from, to, effectiveStep);
+        return new HistorySeries(volume, width, points);
+    }
+
+    /**
+     * 集計元の時間幅を選択する.
+     * @param from 範囲の開始時刻(エポックミリ秒)
+     * @param now 現在時刻(エポックミリ秒)
+     * @param step 各点の時間幅(ミリ秒). 0以下の場合は指定なし
+     * @return 時間幅
+     */
+    Resolution selectResolution(long from, long now, long step) {
+        Resolution[] values = Resolution.values();
+        if (step > 0) {
+            Resolution selected = values[0];
+            for (Resolution resolution : values) {
+                if (resolution.getMillis() <= step) {
+                    selected = resolution;
+                }
+            }
+            return selected;
+        }
+        for (Resolution resolution : values) {
+            if (resolution.getMillis() * this.capacities[resolution.ordinal()] >= now - from) {
+                return resolution;
+            }
+        }
+        return values[values.length - 1];
+    }
+
+    private VolumeHistory getVolumeHistory(String volume) {
+        VolumeHistory history = this.volumes.get(volume);
+        if (history != null) {
+            return history;
+        }
+        if (this.volumes.size() >= this.maxVolumes) {
+            if (!this.overflowLogged) {
+                this.overflowLogged = true;
+                log.warn("Too many volumes to keep usage history. max=" + this.maxVolumes);
+            }
+            return null;
+        }
+        VolumeHistory created = new VolumeHistory(this.resolutions, this.capacities);
+        history = this.volumes.putIfAbsent(volume, created);
+        if (history == null) {
+            history = created;
+        }
+        return history;
+    }
+}
@@ -0,0 +1,158 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.mx.history;
+
+/**
+ * 一定の時間幅ごとに集計したディスク使用量を保持する固定長のリングバッファ.
+ * 各区間の値は long配列に連続して格納し、記録の際にオブジェクトを生成しない。
+ * 容量を超えた場合は最も古い区間から上書きする。スレッドセーフではない.
+ */
+final class UsageRing {
+
+    /** 区間の開始時刻(エポックミリ秒). */
+    static final int START = 0;
+    /** 区間内の記録数. */
+    static final int COUNT = 1;
+    /** 使用済みディスクサイズの合計. */
+    static final int SUM_USED = 2;
+    /** 使用済みディスクサイズの最大値. */
+    static final int MAX_USED = 3;
+    /** 区間内で最後に記録した使用済みディスクサイズ. */
+    static final int LAST_USED = 4;
+    /** 区間内で最後に記録したディスクサイズ. */
+    static final int DISK_SIZE = 5;
+    /** 区間内で最後に記録したディスクの使用可能サイズ. */
+    static final int ALLOCATED_SIZE = 6;
+    /** 一つの区間のフィールド数. */
+    static final int FIELDS = 7;
+
+    private final long resolution;
+    private final int capacity;
+    private final long[] data;
+    private int head = -1;
+    private int size = 0;
+
+    /**
+     * コンストラクタ.
+     * @param resolution 区間の時間幅(ミリ秒)
+     * @param capacity 保持する区間の数
+     */
+    UsageRing(long resolution, int capacity) {
+        if (resolution <= 0 || capacity <= 0) {
+            throw new IllegalArgumentException("resolution=" + resolution + ", capacity=" + capacity);
+        }
+        this.resolution = resolution;
+        this.capacity = capacity;
+        this.data = new long[capacity * FIELDS];
+    }
+
+    /**
+     * 一件の記録を追加する.
+     * @param time 記録時刻(エポックミリ秒)
+     * @param used 使用済みディスクサイズ
+     * @param diskSize ディスクサイズ
+     * @param allocated ディスクの使用可能サイズ
+     * @return true: 追加した false: 最新の区間より古いため追加しなかった
+     */
+    boolean add(long time, long used, long diskSize, long allocated) {
+        return merge(time, 1L, used, used, used, diskSize, allocated);
+    }
+
+    /**
+     * 集計済みの値を時刻に対応する区間に加える.
+     * 最新の区間と同じ区間の場合は集計し、新しい区間の場合は次の位置に記録する.
+     * @param time 時刻(エポックミリ秒)
+     * @param count 記録数
+     * @param sumUsed 使用済みディスクサイズの合計
+     * @param maxUsed 使用済みディスクサイズの最大値
+     * @param lastUsed 最後に記録した使用済みディスクサイズ
+     * @param diskSize ディスクサイズ
+     * @param allocated ディスクの使用可能サイズ
+     * @return true: 加えた false: 最新の区間より古いため加えなかった
+     */
+    boolean merge(long time, long count, long sumUsed, long maxUsed, long lastUsed, long diskSize,
+            long allocated) {
+        long start = time - time % this.resolution;
+        if (this.size > 0) {
+            int offset = this.head * FIELDS;
+            long headStart = this.data[offset + START];
+            if (start < headStart) {
+                return false;
+            }
+            if (start == headStart) {
+                this.data[offset + COUNT] += count;
+                this.data[offset + SUM_USED] += sumUsed;
+                this.data[offset + MAX_USED] = Math.max(this.data[offset + MAX_USED], maxUsed);
+                this.data[offset + LAST_USED] = lastUsed;
+                this.data[offset + DISK_SIZE] = diskSize;
+                this.data[offset + ALLOCATED_SIZE] = allocated;
+                return true;
+            }
+        }
+        this.head = (this.head + 1) % this.capacity;
+        if (this.size < this.capacity) {
+            this.size++;
+        }
+        int offset = this.head * FIELDS;
+        this.data[offset + START] = start;
+        this.data[offset + COUNT] = count;
+        this.data[offset + SUM_USED] = sumUsed;
+        this.data[offset + MAX_USED] = maxUsed;
+        this.data[offset + LAST_USED] = lastUsed;
+        this.data[offset + DISK_SIZE] = diskSize;
+        this.data[offset + ALLOCATED_SIZE] = allocated;
+        return true;
+    }
+
+    /**
+     * 保持している区間の値を取得する.
+     * @param index 古いものから数えた区間の位置(0から size()-1)
+     * @param field フィールド
+     * @return 値
+     */
+    long get(int index, int field) {
+        if (index < 0 || index >= this.size) {
+            throw new IndexOutOfBoundsException("index=" + index + ", size=" + this.size);
+        }
+        int slot = (this.head - this.size + 1 + index + this.capacity) % this.capacity;
+        return this.data[slot * FIELDS + field];
+    }
+
+    /**
+     * 保持している区間の数を取得する.
+     * @return 区間の数
+     */
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * 保持できる区間の数を取得する.
+     * @return 区間の数
+     */
+    int capacity() {
+        return this.capacity;
+    }
+
+    /**
+     * 区間の時間幅を取得する.
+     * @return 時間幅(ミリ秒)
+     */
+    long getResolution() {
+        return this.resolution;
+    }
+}
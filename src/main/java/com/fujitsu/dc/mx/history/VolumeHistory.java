@@ -0,0 +1,101 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.mx.history;
+
+/**
+ * 一つのボリュームのディスク使用量の履歴.
+ * 分、時間、日の時間幅ごとにリングバッファを持ち、記録の都度それぞれの区間に集計する.
+ */
+final class VolumeHistory {
+
+    private final UsageRing[] rings;
+
+    /**
+     * コンストラクタ.
+     * @param resolutions 各リングバッファの区間の時間幅(ミリ秒)
+     * @param capacities 各リングバッファの区間の数
+     */
+    VolumeHistory(long[] resolutions, int[] capacities) {
+        this.rings = new UsageRing[resolutions.length];
+        for (int i = 0; i < resolutions.length; i++) {
+            this.rings[i] = new UsageRing(resolutions[i], capacities[i]);
+        }
+    }
+
+    /**
+     * 一件の記録を追加する.
+     * @param time 記録時刻(エポックミリ秒)
+     * @param used 使用済みディスクサイズ
+     * @param diskSize ディスクサイズ
+     * @param allocated ディスクの使用可能サイズ
+     */
+    synchronized void add(long time, long used, long diskSize, long allocated) {
+        for (UsageRing ring : this.rings) {
+            ring.add(time, used, diskSize, allocated);
+        }
+    }
+
+    /**
+     * 集計済みの値をそれぞれの区間に加える.
+     * @param time 時刻(エポックミリ秒)
+     * @param count 記録数
+     * @param sumUsed 使用済みディスクサイズの合計
+     * @param maxUsed 使用済みディスクサイズの最大値
+     * @param lastUsed 最後に記録した使用済みディスクサイズ
+     * @param diskSize ディスクサイズ
+     * @param allocated ディスクの使用可能サイズ
+     */
+    synchronized void merge(long time, long count, long sumUsed, long maxUsed, long lastUsed, long diskSize,
+            long allocated) {
+        for (UsageRing ring : this.rings) {
+            ring.merge(time, count, sumUsed, maxUsed, lastUsed, diskSize, allocated);
+        }
+    }
+
+    /**
+     * 指定した範囲の区間を step単位に集計して取得する.
+     * @param resolution 集計元のリングバッファの位置
+     * @param from 範囲の開始時刻(エポックミリ秒)
+     * @param to 範囲の終了時刻(エポックミリ秒)
+     * @param step 集計する時間幅(ミリ秒). 集計元の区間の時間幅の倍数
+     * @return 集計結果
+     */
+    synchronized UsageRing query(int resolution, long from, long to, long step) {
+        UsageRing source = this.rings[resolution];
+        long width = source.getResolution();
+        int count = 0;
+        for (int i = 0; i < source.size(); i++) {
+            if (isInRange(source.get(i, UsageRing.START), width, from, to)) {
+                count++;
+            }
+        }
+        UsageRing result = new UsageRing(step, Math.max(1, count));
+        for (int i = 0; i < source.size(); i++) {
+            long start = source.get(i, UsageRing.START);
+            if (isInRange(start, width, from, to)) {
+                result.merge(start, source.get(i, UsageRing.COUNT), source.get(i, UsageRing.SUM_USED),
+                        source.get(i, UsageRing.MAX_USED), source.get(i, UsageRing.LAST_USED),
+                        source.get(i, UsageRing.DISK_SIZE), source.get(i, UsageRing.ALLOCATED_SIZE));
+            }
+        }
+        return result;
+    }
+
+    private static boolean isInRange(long start, long width, long from, long to) {
+        return start + width > from && start <= to;
+    }
+}
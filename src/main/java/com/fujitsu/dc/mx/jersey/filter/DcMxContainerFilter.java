@@ -16,6 +16,9 @@
  */
 package com.fujitsu.dc.mx.jersey.filter;
 
+import java.io.IOException;
+import java.io.OutputStream;
+
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.core.Context;
 
@@ -27,36 +30,107 @@ import com.sun.jersey.spi.container.ContainerRequest;
 import com.sun.jersey.spi.container.ContainerRequestFilter;
 import com.sun.jersey.spi.container.ContainerResponse;
 import com.sun.jersey.spi.container.ContainerResponseFilter;
+import com.sun.jersey.spi.container.ContainerResponseWriter;
 
 /**
  * 本アプリのリクエスト及びレスポンスに対してかけるフィルター.
+ * リクエストのレイテンシを RequestLatenciesに記録する。受付時と応答時のログは設定により出力する.
+ * レスポンスのフィルターはエンティティの書き出し前に呼び出されるため、レイテンシはエンティティの書き出しを終えた時点で記録する.
  */
 public class DcMxContainerFilter implements ContainerRequestFilter, ContainerResponseFilter {
 
 
     static Logger log = LoggerFactory.getLogger(DcMxContainerFilter.class);
 
+    private static final long NANOS_PER_MILLI = 1000000L;
+
+    /**
+     * リクエストの受付時刻(System.nanoTime()). 0は未設定を表す.
+     * リクエストとレスポンスのフィルターは同じスレッドで呼び出されるため、スレッドごとに保持する.
+     */
+    private static ThreadLocal<long[]> requestTime = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[1];
+        }
+    };
+
     @Context
     private HttpServletRequest httpServletRequest;
 
+    private final boolean accessLogEnabled = DcMxConfig.isAccessLogEnabled();
+
     @Override
     public ContainerRequest filter(ContainerRequest req) {
         // リクエスト受付時のログを出力する。
-        requestLog(req);
+        if (this.accessLogEnabled && log.isInfoEnabled()) {
+            requestLog(req);
+        }
 
         // リクエストの時間を記録する
-        long requestTime = System.currentTimeMillis();
-        // リクエストの時間をセッションに保存する
-        this.httpServletRequest.setAttribute("requestTime", requestTime);
+        requestTime.get()[0] = System.nanoTime();
         return req;
     }
 
     @Override
     public ContainerResponse filter(ContainerRequest req, ContainerResponse resp) {
-        responseLog(resp);
+        long[] time = requestTime.get();
+        long startedAt = time[0];
+        time[0] = 0L;
+        if (startedAt == 0L) {
+            // リクエストのフィルターを経由していない場合は記録しない
+            return resp;
+        }
+        ContainerResponseWriter writer = resp.getContainerResponseWriter();
+        if (writer == null) {
+            completed(req.getPath(), resp, startedAt);
+            return resp;
+        }
+        // StreamingOutputや Server-Sent Eventsはエンティティの書き出しに時間がかかるため、書き出しの完了まで含める
+        resp.setContainerResponseWriter(new CompletionWriter(writer, req.getPath(), resp, startedAt));
         return resp;
     }
 
+    private void completed(String path, ContainerResponse resp, long startedAt) {
+        long elapsed = System.nanoTime() - startedAt;
+        RequestLatencies.record(path, resp.getStatus(), elapsed);
+        if (this.accessLogEnabled && log.isInfoEnabled()) {
+            responseLog(resp, elapsed);
+        }
+    }
+
+    /**
+     * エンティティの書き出しを終えた時点でレイテンシを記録する ContainerResponseWriter.
+     * 書き出しの途中で例外が発生し finishが呼び出されない場合は記録しない.
+     */
+    private final class CompletionWriter implements ContainerResponseWriter {
+        private final ContainerResponseWriter writer;
+        private final String path;
+        private final ContainerResponse response;
+        private final long startedAt;
+
+        CompletionWriter(ContainerResponseWriter writer, String path, ContainerResponse response, long startedAt) {
+            this.writer = writer;
+            this.path = path;
+            this.response = response;
+            this.startedAt = startedAt;
+        }
+
+        @Override
+        public OutputStream writeStatusAndHeaders(long contentLength, ContainerResponse resp) {
+            return this.writer.writeStatusAndHeaders(contentLength, resp);
+        }
+
+        @Override
+        public void finish() throws IOException {
+            try {
+                this.writer.finish();
+            } finally {
+                completed(this.path, this.response, this.startedAt);
+            }
+        }
+    }
+
     /**
      * リクエストログ出力.
      * @param request
@@ -76,19 +150,16 @@ public class DcMxContainerFilter implements ContainerRequestFilter, ContainerRes
     /**
      * レスポンスログ出力.
      * @param response
+     * @param elapsed リクエストの受付からの経過時間(ナノ秒)
      */
-    private void responseLog(final ContainerResponse response) {
+    private void responseLog(final ContainerResponse response, long elapsed) {
         StringBuilder sb = new StringBuilder();
         sb.append("[" + DcMxConfig.getMxVersion() + "] " + "Completed. ");
         sb.append(response.getStatus());
         sb.append(" ");
 
-        // レスポンスの時間を記録する
-        long responseTime = System.currentTimeMillis();
-        // セッションからリクエストの時間を取り出す
-        long requestTime = (Long) this.httpServletRequest.getAttribute("requestTime");
         // レスポンスとリクエストの時間差を出力する
-        sb.append((responseTime - requestTime) + "ms");
+        sb.append((elapsed / NANOS_PER_MILLI) + "ms");
         log.info(sb.toString());
     }
 
@@ -0,0 +1,135 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.mx.jersey.filter;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * ナノ秒単位のレイテンシを記録する固定サイズのヒストグラム.
+ * 2のべき乗ごとの区間をさらに 8等分したバケットに記録するため、パーセンタイルの誤差は 12.5%以内となる。
+ * 記録はロックを使用せず、メモリ使用量は記録した件数によらず一定である.
+ */
+public final class LatencyHistogram {
+
+    /** 2のべき乗ごとの区間を分割するビット数. */
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_MASK = SUB_BUCKETS - 1;
+    private static final int LONG_BITS = 64;
+    private static final int BUCKETS = (LONG_BITS - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * レイテンシを記録する.
+     * @param nanos レイテンシ(ナノ秒). 負の値は 0として記録する
+     */
+    public void record(long nanos) {
+        long value = Math.max(0L, nanos);
+        this.counts.incrementAndGet(indexOf(value));
+        this.count.incrementAndGet();
+        this.sum.addAndGet(value);
+        long current = this.max.get();
+        while (value > current && !this.max.compareAndSet(current, value)) {
+            current = this.max.get();
+        }
+    }
+
+    /**
+     * 記録した件数を取得する.
+     * @return 件数
+     */
+    public long getCount() {
+        return this.count.get();
+    }
+
+    /**
+     * 記録したレイテンシの合計を取得する.
+     * @return 合計(ナノ秒)
+     */
+    public long getSum() {
+        return this.sum.get();
+    }
+
+    /**
+     * 記録したレイテンシの最大値を取得する.
+     * @return 最大値(ナノ秒)
+     */
+    public long getMax() {
+        return this.max.get();
+    }
+
+    /**
+     * 指定したパーセンタイルのレイテンシを取得する. バケットの上限値を返却する.
+     * 記録と並行して呼び出した場合は、呼び出し中に記録された値を含む場合と含まない場合がある.
+     * @param percentile 0.0から1.0までの割合
+     * @return レイテンシ(ナノ秒). 記録がない場合は 0
+     */
+    public long getValueAtPercentile(double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0L;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = this.counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0L) {
+            return 0L;
+        }
+        long rank = Math.max(1L, (long) Math.ceil(percentile * total));
+        long seen = 0L;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * 値を記録するバケットの位置を求める.
+     * @param value 値(0以上)
+     * @return バケットの位置
+     */
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = LONG_BITS - 1 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) & SUB_BUCKET_MASK;
+        return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * バケットに記録される値の上限を求める.
+     * @param index バケットの位置
+     * @return 上限値
+     */
+    static long upperBoundOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long lower = (long) (SUB_BUCKETS + (index & SUB_BUCKET_MASK)) << shift;
+        return lower + (1L << shift) - 1L;
+    }
+}
@@ -0,0 +1,162 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.mx.jersey.filter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * リソースとステータスコードごとのリクエストのレイテンシを保持するクラス.
+ * 系列の数には上限があり、上限を超えたリソースは OTHER_RESOURCEにまとめて記録する.
+ */
+public final class RequestLatencies {
+
+    /** 系列の上限を超えた場合や、対応するリソースがない場合のリソース名. */
+    public static final String OTHER_RESOURCE = "other";
+
+    /** 保持するリソースの数の上限. */
+    static final int MAX_RESOURCES = 32;
+
+    private static final int NOT_FOUND = 404;
+    private static final int MIN_STATUS = 100;
+    private static final int MAX_STATUS = 599;
+
+    private static final ConcurrentMap<String, AtomicReferenceArray<LatencyHistogram>> RESOURCES =
+            new ConcurrentHashMap<String, AtomicReferenceArray<LatencyHistogram>>();
+
+    private RequestLatencies() {
+    }
+
+    /**
+     * ヒストグラムの系列.
+     */
+    public static final class Series {
+        private final String resource;
+        private final int status;
+        private final LatencyHistogram histogram;
+
+        Series(String resource, int status, LatencyHistogram histogram) {
+            this.resource = resource;
+            this.status = status;
+            this.histogram = histogram;
+        }
+
+        /**
+         * リソース名を取得する.
+         * @return リソース名
+         */
+        public String getResource() {
+            return this.resource;
+        }
+
+        /**
+         * ステータスコードを取得する.
+         * @return ステータスコード
+         */
+        public int getStatus() {
+            return this.status;
+        }
+
+        /**
+         * ヒストグラムを取得する.
+         * @return ヒストグラム
+         */
+        public LatencyHistogram getHistogram() {
+            return this.histogram;
+        }
+    }
+
+    /**
+     * リクエストのレイテンシを記録する.
+     * @param path リクエストのパス(アプリケーションのルートからの相対パス)
+     * @param status ステータスコード
+     * @param nanos レイテンシ(ナノ秒)
+     */
+    public static void record(String path, int status, long nanos) {
+        getHistogram(toResource(path, status), status).record(nanos);
+    }
+
+    /**
+     * 記録のある全ての系列を取得する.
+     * @return 系列のリスト
+     */
+    public static List<Series> getSeries() {
+        List<Series> series = new ArrayList<Series>();
+        for (Map.Entry<String, AtomicReferenceArray<LatencyHistogram>> entry : RESOURCES.entrySet()) {
+            AtomicReferenceArray<LatencyHistogram> histograms = entry.getValue();
+            for (int i = 0; i < histograms.length(); i++) {
+                LatencyHistogram histogram = histograms.get(i);
+                if (histogram != null) {
+                    series.add(new Series(entry.getKey(), MIN_STATUS + i, histogram));
+                }
+            }
+        }
+        return series;
+    }
+
+    /**
+     * 記録を全て破棄する.
+     */
+    static void clear() {
+        RESOURCES.clear();
+    }
+
+    private static String toResource(String path, int status) {
+        // 存在しないパスへのリクエストで系列が増えないようにする
+        if (path == null || status == NOT_FOUND) {
+            return OTHER_RESOURCE;
+        }
+        String resource = path;
+        if (!resource.startsWith("/")) {
+            resource = "/" + resource;
+        }
+        if (resource.length() > 1 && resource.endsWith("/")) {
+            resource = resource.substring(0, resource.length() - 1);
+        }
+        return resource;
+    }
+
+    private static LatencyHistogram getHistogram(String resource, int status) {
+        int index = Math.max(MIN_STATUS, Math.min(MAX_STATUS, status)) - MIN_STATUS;
+        AtomicReferenceArray<LatencyHistogram> histograms = RESOURCES.get(resource);
+        if (histograms == null) {
+            String key = resource;
+            if (RESOURCES.size() >= MAX_RESOURCES) {
+                key = OTHER_RESOURCE;
+            }
+            histograms = RESOURCES.get(key);
+            if (histograms == null) {
+                AtomicReferenceArray<LatencyHistogram> created =
+                        new AtomicReferenceArray<LatencyHistogram>(MAX_STATUS - MIN_STATUS + 1);
+                histograms = RESOURCES.putIfAbsent(key, created);
+                if (histograms == null) {
+                    histograms = created;
+                }
+            }
+        }
+        LatencyHistogram histogram = histograms.get(index);
+        if (histogram == null) {
+            histograms.compareAndSet(index, null, new LatencyHistogram());
+            histogram = histograms.get(index);
+        }
+        return histogram;
+    }
+}
@@ -18,8 +18,6 @@ package com.fujitsu.dc.mx.model.diskusage;
 
 import org.json.simple.JSONObject;
 
-import com.fujitsu.dc.mx.DcMxException;
-
 /**
  * 一つのボリュームに対するディスク使用量の情報を格納するクラス.
  */
@@ -37,12 +35,17 @@ public class DiskUsage {
         ERROR
     };
 
+    /** 使用可能サイズに達するまでの秒数が不明であることを表す値. */
+    public static final long UNKNOWN_SECONDS_TO_FULL = -1L;
+
     private String volume;
     private long volumeDiskSize;
     private long allocatedDiskSize;
     private long usedDiskSize;
     private Status status;
     private Exception error;
+    private long secondsToFull = UNKNOWN_SECONDS_TO_FULL;
+    private ThresholdRule thresholdRule;
 
     private DiskUsage(String volume, Exception error) {
         this.volume = volume;
@@ -68,11 +71,22 @@ public class DiskUsage {
      * @param threshold しきい値
      */
     public DiskUsage(String volume, long volumeDiskSize, long usedDiskSize, double threshold) {
+        this(volume, volumeDiskSize, usedDiskSize, ThresholdRule.fraction(ThresholdRule.DEFAULT_SCOPE, threshold));
+    }
+
+    /**
+     * コンストラクタ.
+     * @param volume ボリューム名
+     * @param volumeDiskSize ディスクサイズ
+     * @param usedDiskSize 使用済みディスクサイズ
+     * @param thresholdRule 適用するしきい値のルール
+     */
+    public DiskUsage(String volume, long volumeDiskSize, long usedDiskSize, ThresholdRule thresholdRule) {
         this.volume = volume;
         this.volumeDiskSize = volumeDiskSize;
         this.usedDiskSize = usedDiskSize;
-        Double realAllocatedDiskSize = volumeDiskSize * threshold;
-        this.allocatedDiskSize = realAllocatedDiskSize.longValue();
+        this.thresholdRule = thresholdRule;
+        this.allocatedDiskSize = thresholdRule.getAllocatedDiskSize(volumeDiskSize);
         this.status = getUsageStatus();
     }
 
@@ -108,6 +122,14 @@ public class DiskUsage {
         return usedDiskSize;
     }
 
+    /**
+     * 使用可能サイズの算出に適用したしきい値のルールを取得.
+     * @return ルール. エラーの場合は null
+     */
+    public ThresholdRule getThresholdRule() {
+        return thresholdRule;
+    }
+
     /**
      * ステータスを取得.
      * @return ステータス
@@ -116,6 +138,31 @@ public class DiskUsage {
         return this.status;
     }
 
+    /**
+     * 使用量の増加速度から推定した、使用可能サイズに達するまでの秒数を取得.
+     * @return 秒数. 既に達している場合は 0、不明の場合は UNKNOWN_SECONDS_TO_FULL
+     */
+    public long getSecondsToFull() {
+        return secondsToFull;
+    }
+
+    /**
+     * 使用可能サイズに達するまでの秒数を設定.
+     * 変更不可のチェックと JSONの変換結果の破棄を行うため、DiskUsages#setSecondsToFullから呼び出す.
+     * @param secondsToFull 秒数. 不明の場合は UNKNOWN_SECONDS_TO_FULL
+     */
+    void setSecondsToFull(long secondsToFull) {
+        this.secondsToFull = secondsToFull;
+    }
+
+    /**
+     * エラー情報を取得.
+     * @return エラー情報. エラーが発生していない場合は null
+     */
+    Exception getError() {
+        return error;
+    }
+
     private Status getUsageStatus() {
         if (this.allocatedDiskSize <= this.usedDiskSize) {
             return Status.FULL;
@@ -136,15 +183,17 @@ public class DiskUsage {
             json.put("volumeDiskSize", getVolumeDiskSize());
             json.put("allocatedDiskSize", getAllocatedDiskSize());
             json.put("usedDiskSize", getUsedDiskSize());
+            if (this.secondsToFull == UNKNOWN_SECONDS_TO_FULL) {
+                json.put("secondsToFull", null);
+            } else {
+                json.put("secondsToFull", this.secondsToFull);
+            }
+            json.put("thresholdRule", this.thresholdRule.toString());
         } else {
             this.status = Status.ERROR;
             JSONObject errorJson = new JSONObject();
             json.put("error", errorJson);
-            if (error instanceof DcMxException) {
-                errorJson.put("code", ((DcMxException) error).getMessageId());
-            } else {
-                errorJson.put("code", "MX500-SV-0999");
-            }
+            errorJson.put("code", DiskUsagesJsonWriter.getErrorCode(error));
             JSONObject errorMessageJson = new JSONObject();
             errorJson.put("message", errorMessageJson);
             errorMessageJson.put("lang", "en");
@@ -16,24 +16,49 @@
  */
 package com.fujitsu.dc.mx.model.diskusage;
 
+import java.nio.charset.Charset;
 import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 
-import com.fujitsu.dc.mx.DcMxException;
 import com.fujitsu.dc.mx.model.diskusage.DiskUsage.Status;
 
 /**
  * ディスク使用量の情報を格納するクラス.
+ * freeze()の呼び出し後は変更不可のスナップショットとして複数スレッドから参照できる。
+ * JSON形式への変換結果は変更されるまで保持し、レスポンス、memcachedの値、ログ出力で共有する。
  */
 public class DiskUsages extends AbstractList<DiskUsage> {
 
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final AtomicLong VERSION_SEQUENCE = new AtomicLong();
+
+    /**
+     * スナップショットを作成する処理の段階.
+     */
+    public enum Phase {
+        /** ディスク使用量の採取. */
+        COLLECT,
+        /** PCSの動作モードの判定. memcachedの操作を除く. */
+        DECIDE,
+        /** memcachedの操作. */
+        MEMCACHED
+    }
+
     private List<DiskUsage> diskUsages;
     private Status systemStatus;
     private Exception error = null;
+    private MemcachedHealth memcachedHealth = null;
+    private final long collectedAt;
+    private final long version;
+    private volatile boolean frozen = false;
+    private volatile byte[] jsonBytes = null;
+    private volatile String jsonString = null;
+    private final long[] phaseTimes = new long[Phase.values().length];
 
     /**
      * コンストラクタ.
@@ -41,6 +66,70 @@ public class DiskUsages extends AbstractList<DiskUsage> {
     public DiskUsages() {
         this.diskUsages = new ArrayList<DiskUsage>();
         this.systemStatus = Status.OK;
+        this.collectedAt = System.currentTimeMillis();
+        this.version = VERSION_SEQUENCE.incrementAndGet();
+    }
+
+    /**
+     * スナップショットのバージョンを取得する.
+     * 後に生成したスナップショットほど大きな値となる（プロセスの再起動で初期化される）.
+     * @return バージョン
+     */
+    public long getVersion() {
+        return this.version;
+    }
+
+    /**
+     * ディスク使用量の採取時刻を取得する.
+     * @return 採取時刻(エポックミリ秒)
+     */
+    public long getCollectedAt() {
+        return this.collectedAt;
+    }
+
+    /**
+     * スナップショットの作成に要した時間を加算する.
+     * 処理時間は付随情報のため、freeze()の前に記録する限り変更不可のチェックは行わない.
+     * @param phase 処理の段階
+     * @param nanos 処理時間(ナノ秒)
+     */
+    public void addPhaseTime(Phase phase, long nanos) {
+        this.phaseTimes[phase.ordinal()] += nanos;
+    }
+
+    /**
+     * スナップショットの作成に要した時間を取得する.
+     * @param phase 処理の段階
+     * @return 処理時間(ナノ秒). 処理を行っていない場合は 0
+     */
+    public long getPhaseTime(Phase phase) {
+        return this.phaseTimes[phase.ordinal()];
+    }
+
+    /**
+     * ディスク使用量の情報を変更不可にする.
+     */
+    public void freeze() {
+        this.frozen = true;
+    }
+
+    /**
+     * ディスク使用量の情報が変更不可かどうかを取得する.
+     * @return true: 変更不可 false: 変更可
+     */
+    public boolean isFrozen() {
+        return this.frozen;
+    }
+
+    private void checkModifiable() {
+        if (this.frozen) {
+            throw new UnsupportedOperationException("DiskUsages snapshot is frozen.");
+        }
+    }
+
+    private void invalidateJson() {
+        this.jsonBytes = null;
+        this.jsonString = null;
     }
 
     /**
@@ -66,6 +155,8 @@ public class DiskUsages extends AbstractList<DiskUsage> {
 
     @Override
     public boolean add(DiskUsage usage) {
+        checkModifiable();
+        invalidateJson();
         boolean res = this.diskUsages.add(usage);
         setStatus(usage.getStatus());
         return res;
@@ -76,10 +167,77 @@ public class DiskUsages extends AbstractList<DiskUsage> {
      * @param e Exception
      */
     public void setError(Exception e) {
+        checkModifiable();
+        invalidateJson();
         this.systemStatus = Status.ERROR;
         this.error = e;
     }
 
+    /**
+     * ボリュームの使用可能サイズに達するまでの秒数を設定する.
+     * @param usage このスナップショットに含まれるボリュームのディスク使用量の情報
+     * @param secondsToFull 秒数. 不明の場合は DiskUsage.UNKNOWN_SECONDS_TO_FULL
+     */
+    public void setSecondsToFull(DiskUsage usage, long secondsToFull) {
+        checkModifiable();
+        invalidateJson();
+        usage.setSecondsToFull(secondsToFull);
+    }
+
+    /**
+     * エラー情報を取得する.
+     * @return エラー情報. エラーが発生していない場合は null
+     */
+    Exception getError() {
+        return this.error;
+    }
+
+    /**
+     * PCSの動作モードを設定する memcachedの状態を設定する.
+     * @param health memcachedの状態
+     */
+    public void setMemcachedHealth(MemcachedHealth health) {
+        checkModifiable();
+        invalidateJson();
+        this.memcachedHealth = health;
+    }
+
+    /**
+     * PCSの動作モードを設定する memcachedの状態を取得する.
+     * @return memcachedの状態. 採取していない場合は null
+     */
+    public MemcachedHealth getMemcachedHealth() {
+        return this.memcachedHealth;
+    }
+
+    /**
+     * ボリューム全体のSystemStatusと各ボリュームのステータスが一致するかどうかを判定する.
+     * ディスクサイズや使用量の違いは考慮しない.
+     * @param other 比較するディスク使用量の情報
+     * @return true: 一致する false: 一致しない
+     */
+    public boolean hasSameStatus(DiskUsages other) {
+        if (other == null || this.systemStatus != other.systemStatus || size() != other.size()) {
+            return false;
+        }
+        for (int i = 0; i < size(); i++) {
+            DiskUsage usage = get(i);
+            DiskUsage otherUsage = other.get(i);
+            if (usage.getStatus() != otherUsage.getStatus()) {
+                return false;
+            }
+            String volume = usage.getVolume();
+            if (volume == null) {
+                if (otherUsage.getVolume() != null) {
+                    return false;
+                }
+            } else if (!volume.equals(otherUsage.getVolume())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * ディスク使用量の情報をJSON形式に変換する.
      * @return ディスク使用量の情報
@@ -96,15 +254,14 @@ public class DiskUsages extends AbstractList<DiskUsage> {
             volumeStatusesJson.add(volumeStatusJson);
         }
         statusJson.put("volumeStatus", volumeStatusesJson);
+        if (this.memcachedHealth != null) {
+            statusJson.put("memcached", this.memcachedHealth.toJson());
+        }
         if (this.error != null) {
             this.systemStatus = Status.ERROR;
             JSONObject errorJson = new JSONObject();
             statusJson.put("error", errorJson);
-            if (error instanceof DcMxException) {
-                errorJson.put("code", ((DcMxException) error).getMessageId());
-            } else {
-                errorJson.put("code", "MX500-SV-0999");
-            }
+            errorJson.put("code", DiskUsagesJsonWriter.getErrorCode(error));
             JSONObject errorMessageJson = new JSONObject();
             errorJson.put("message", errorMessageJson);
             errorMessageJson.put("lang", "en");
@@ -114,6 +271,34 @@ public class DiskUsages extends AbstractList<DiskUsage> {
         return responseJson;
     }
 
+    /**
+     * ディスク使用量の情報を UTF-8の JSONに変換する.
+     * 変換結果は情報が変更されるまで保持して共有するため、返却した配列を変更してはならない.
+     * @return UTF-8の JSON
+     */
+    public byte[] toJsonBytes() {
+        byte[] bytes = this.jsonBytes;
+        if (bytes == null) {
+            bytes = DiskUsagesJsonWriter.write(this);
+            this.jsonBytes = bytes;
+        }
+        return bytes;
+    }
+
+    /**
+     * ディスク使用量の情報を JSON形式の文字列に変換する.
+     * 変換結果は情報が変更されるまで保持して共有する.
+     * @return JSON形式の文字列
+     */
+    public String toJsonString() {
+        String string = this.jsonString;
+        if (string == null) {
+            string = new String(toJsonBytes(), UTF_8);
+            this.jsonString = string;
+        }
+        return string;
+    }
+
     @Override
     public DiskUsage get(int index) {
         return this.diskUsages.get(index);
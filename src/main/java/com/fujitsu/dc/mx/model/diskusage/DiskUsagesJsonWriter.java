@@ -0,0 +1,284 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.mx.model.diskusage;
+
+import java.util.Arrays;
+
+import com.fujitsu.dc.mx.DcMxException;
+
+/**
+ * ディスク使用量の情報を JSONObjectを経由せずに UTF-8の JSONへ直接書き出すクラス.
+ * 書き出しにはスレッドごとに再利用するバッファを使用し、結果のみを新たな配列にコピーする。
+ * 文字列のエスケープは json-simpleの JSONValue.escape()と同じ規則に従う。
+ */
+final class DiskUsagesJsonWriter {
+
+    private static final String UNEXPECTED_ERROR_CODE = "MX500-SV-0999";
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+    /** これを超える大きさのバッファはスレッドに保持しない. */
+    private static final int MAX_RETAINED_BUFFER_SIZE = 1024 * 1024;
+
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+    private static final int CONTROL_CHAR_END = 0x1F;
+    private static final int C1_CONTROL_START = 0x7F;
+    private static final int C1_CONTROL_END = 0x9F;
+    private static final int PUNCTUATION_START = 0x2000;
+    private static final int PUNCTUATION_END = 0x20FF;
+    private static final int HEX_SHIFT = 4;
+    private static final int HEX_MASK = 0x0F;
+    private static final int HEX_WIDTH = 4;
+
+    private static final int ONE_BYTE_LIMIT = 0x80;
+    private static final int TWO_BYTES_LIMIT = 0x800;
+    private static final int THREE_BYTES_LIMIT = 0x10000;
+    private static final int LEAD_TWO_BYTES = 0xC0;
+    private static final int LEAD_THREE_BYTES = 0xE0;
+    private static final int LEAD_FOUR_BYTES = 0xF0;
+    private static final int CONTINUATION = 0x80;
+    private static final int CONTINUATION_MASK = 0x3F;
+    private static final int SHIFT_6 = 6;
+    private static final int SHIFT_12 = 12;
+    private static final int SHIFT_18 = 18;
+    private static final byte REPLACEMENT = '?';
+
+    private static ThreadLocal<DiskUsagesJsonWriter> writers = new ThreadLocal<DiskUsagesJsonWriter>() {
+        @Override
+        protected DiskUsagesJsonWriter initialValue() {
+            return new DiskUsagesJsonWriter();
+        }
+    };
+
+    private byte[] buf = new byte[INITIAL_BUFFER_SIZE];
+    private int count = 0;
+
+    private DiskUsagesJsonWriter() {
+    }
+
+    /**
+     * ディスク使用量の情報を UTF-8の JSONに変換する.
+     * @param diskUsages ディスク使用量の情報
+     * @return UTF-8の JSON
+     */
+    static byte[] write(DiskUsages diskUsages) {
+        DiskUsagesJsonWriter writer = writers.get();
+        try {
+            writer.writeDiskUsages(diskUsages);
+            return Arrays.copyOf(writer.buf, writer.count);
+        } finally {
+            writer.count = 0;
+            if (writer.buf.length > MAX_RETAINED_BUFFER_SIZE) {
+                writer.buf = new byte[INITIAL_BUFFER_SIZE];
+            }
+        }
+    }
+
+    private void writeDiskUsages(DiskUsages diskUsages) {
+        writeAscii("{\"status\":{\"volumeStatus\":[");
+        for (int i = 0; i < diskUsages.size(); i++) {
+            if (i > 0) {
+                writeByte(',');
+            }
+            writeDiskUsage(diskUsages.get(i));
+        }
+        writeByte(']');
+        MemcachedHealth health = diskUsages.getMemcachedHealth();
+        if (health != null) {
+            writeAscii(",\"memcached\":");
+            writeMemcachedHealth(health);
+        }
+        Exception error = diskUsages.getError();
+        if (error != null) {
+            writeAscii(",\"error\":");
+            writeError(error);
+        }
+        writeAscii(",\"systemStatus\":");
+        writeString(diskUsages.getSystemStatus().name());
+        writeAscii("}}");
+    }
+
+    private void writeDiskUsage(DiskUsage diskUsage) {
+        writeAscii("{\"volume\":");
+        writeString(diskUsage.getVolume());
+        Exception error = diskUsage.getError();
+        if (error == null) {
+            writeAscii(",\"volumeDiskSize\":");
+            writeAscii(Long.toString(diskUsage.getVolumeDiskSize()));
+            writeAscii(",\"allocatedDiskSize\":");
+            writeAscii(Long.toString(diskUsage.getAllocatedDiskSize()));
+            writeAscii(",\"usedDiskSize\":");
+            writeAscii(Long.toString(diskUsage.getUsedDiskSize()));
+            writeAscii(",\"secondsToFull\":");
+            if (diskUsage.getSecondsToFull() == DiskUsage.UNKNOWN_SECONDS_TO_FULL) {
+                writeAscii("null");
+            } else {
+                writeAscii(Long.toString(diskUsage.getSecondsToFull()));
+            }
+            writeAscii(",\"thresholdRule\":");
+            writeString(diskUsage.getThresholdRule().toString());
+        } else {
+            writeAscii(",\"error\":");
+            writeError(error);
+        }
+        writeAscii(",\"status\":");
+        writeString(diskUsage.getStatus().name());
+        writeByte('}');
+    }
+
+    private void writeMemcachedHealth(MemcachedHealth health) {
+        writeAscii("{\"currConnections\":");
+        writeAscii(Long.toString(health.getCurrConnections()));
+        writeAscii(",\"evictions\":");
+        writeAscii(Long.toString(health.getEvictions()));
+        writeAscii(",\"recentEvictions\":");
+        writeAscii(Long.toString(health.getRecentEvictions()));
+        writeAscii(",\"hitRatio\":");
+        if (health.getHitRatio() == MemcachedHealth.UNKNOWN_HIT_RATIO) {
+            writeAscii("null");
+        } else {
+            writeAscii(Double.toString(health.getHitRatio()));
+        }
+        writeAscii(",\"usedMemory\":");
+        writeAscii(Long.toString(health.getUsedMemory()));
+        writeAscii(",\"memoryLimit\":");
+        writeAscii(Long.toString(health.getMemoryLimit()));
+        writeAscii(",\"evictionRisk\":");
+        writeAscii(Boolean.toString(health.isEvictionRisk()));
+        writeByte('}');
+    }
+
+    private void writeError(Exception error) {
+        writeAscii("{\"code\":");
+        writeString(getErrorCode(error));
+        writeAscii(",\"message\":{\"lang\":\"en\",\"value\":");
+        writeString(error.getMessage());
+        writeAscii("}}");
+    }
+
+    /**
+     * 例外に対応するエラーコードを取得する.
+     * @param error 例外
+     * @return エラーコード
+     */
+    static String getErrorCode(Exception error) {
+        if (error instanceof DcMxException) {
+            return ((DcMxException) error).getMessageId();
+        }
+        return UNEXPECTED_ERROR_CODE;
+    }
+
+    private void writeString(String value) {
+        if (value == null) {
+            writeAscii("null");
+            return;
+        }
+        writeByte('"');
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char ch = value.charAt(i);
+            switch (ch) {
+            case '"':
+                writeAscii("\\\"");
+                break;
+            case '\\':
+                writeAscii("\\\\");
+                break;
+            case '/':
+                writeAscii("\\/");
+                break;
+            case '\b':
+                writeAscii("\\b");
+                break;
+            case '\f':
+                writeAscii("\\f");
+                break;
+            case '\n':
+                writeAscii("\\n");
+                break;
+            case '\r':
+                writeAscii("\\r");
+                break;
+            case '\t':
+                writeAscii("\\t");
+                break;
+            default:
+                if (ch <= CONTROL_CHAR_END || (ch >= C1_CONTROL_START && ch <= C1_CONTROL_END)
+                        || (ch >= PUNCTUATION_START && ch <= PUNCTUATION_END)) {
+                    writeUnicodeEscape(ch);
+                } else if (Character.isHighSurrogate(ch) && i + 1 < length
+                        && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    writeCodePoint(Character.toCodePoint(ch, value.charAt(i + 1)));
+                    i++;
+                } else if (Character.isSurrogate(ch)) {
+                    // 対になっていないサロゲートは String.getBytes()と同様に置換文字とする
+                    writeByte(REPLACEMENT);
+                } else {
+                    writeCodePoint(ch);
+                }
+                break;
+            }
+        }
+        writeByte('"');
+    }
+
+    private void writeUnicodeEscape(char ch) {
+        ensureCapacity(2 + HEX_WIDTH);
+        buf[count++] = '\\';
+        buf[count++] = 'u';
+        for (int shift = (HEX_WIDTH - 1) * HEX_SHIFT; shift >= 0; shift -= HEX_SHIFT) {
+            buf[count++] = (byte) HEX_DIGITS[(ch >> shift) & HEX_MASK];
+        }
+    }
+
+    private void writeCodePoint(int codePoint) {
+        ensureCapacity(HEX_WIDTH);
+        if (codePoint < ONE_BYTE_LIMIT) {
+            buf[count++] = (byte) codePoint;
+        } else if (codePoint < TWO_BYTES_LIMIT) {
+            buf[count++] = (byte) (LEAD_TWO_BYTES | (codePoint >> SHIFT_6));
+            buf[count++] = (byte) (CONTINUATION | (codePoint & CONTINUATION_MASK));
+        } else if (codePoint < THREE_BYTES_LIMIT) {
+            buf[count++] = (byte) (LEAD_THREE_BYTES | (codePoint >> SHIFT_12));
+            buf[count++] = (byte) (CONTINUATION | ((codePoint >> SHIFT_6) & CONTINUATION_MASK));
+            buf[count++] = (byte) (CONTINUATION | (codePoint & CONTINUATION_MASK));
+        } else {
+            buf[count++] = (byte) (LEAD_FOUR_BYTES | (codePoint >> SHIFT_18));
+            buf[count++] = (byte) (CONTINUATION | ((codePoint >> SHIFT_12) & CONTINUATION_MASK));
+            buf[count++] = (byte) (CONTINUATION | ((codePoint >> SHIFT_6) & CONTINUATION_MASK));
+            buf[count++] = (byte) (CONTINUATION | (codePoint & CONTINUATION_MASK));
+        }
+    }
+
+    private void writeAscii(String value) {
+        int length = value.length();
+        ensureCapacity(length);
+        for (int i = 0; i < length; i++) {
+            buf[count++] = (byte) value.charAt(i);
+        }
+    }
+
+    private void writeByte(int b) {
+        ensureCapacity(1);
+        buf[count++] = (byte) b;
+    }
+
+    private void ensureCapacity(int additional) {
+        int required = count + additional;
+        if (required > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(required, buf.length * 2));
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.mx.model.diskusage;
+
+import org.json.simple.JSONObject;
+
+/**
+ * PCSの動作モードを設定する memcachedの状態.
+ * memcachedの statsから採取し、ディスク使用量とは別の memcachedの項目として返却する。
+ * キーが追い出される恐れがある場合は evictionRiskを trueとする。
+ */
+public final class MemcachedHealth {
+
+    /** ヒット率を算出できない場合の値. */
+    public static final double UNKNOWN_HIT_RATIO = -1.0d;
+
+    private final long currConnections;
+    private final long evictions;
+    private final long recentEvictions;
+    private final double hitRatio;
+    private final long usedMemory;
+    private final long memoryLimit;
+    private final boolean evictionRisk;
+
+    /**
+     * コンストラクタ.
+     * @param currConnections 接続数
+     * @param evictions memcachedの起動以降に追い出されたキーの数
+     * @param recentEvictions 前回の採取以降に追い出されたキーの数
+     * @param hitRatio getのヒット率(0～1). 算出できない場合は UNKNOWN_HIT_RATIO
+     * @param usedMemory 保持している値の合計(バイト)
+     * @param memoryLimit 使用できるメモリの上限(バイト)
+     * @param evictionRisk true: キーが追い出される恐れがある false: ない
+     */
+    public MemcachedHealth(long currConnections, long evictions, long recentEvictions, double hitRatio,
+            long usedMemory, long memoryLimit, boolean evictionRisk) {
+        this.currConnections = currConnections;
+        this.evictions = evictions;
+        this.recentEvictions = recentEvictions;
+        this.hitRatio = hitRatio;
+        this.usedMemory = usedMemory;
+        this.memoryLimit = memoryLimit;
+        this.evictionRisk = evictionRisk;
+    }
+
+    /**
+     * 接続数を取得.
+     * @return 接続数
+     */
+    public long getCurrConnections() {
+        return currConnections;
+    }
+
+    /**
+     * memcachedの起動以降に追い出されたキーの数を取得.
+     * @return 追い出されたキーの数
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * 前回の採取以降に追い出されたキーの数を取得.
+     * @return 追い出されたキーの数
+     */
+    public long getRecentEvictions() {
+        return recentEvictions;
+    }
+
+    /**
+     * getのヒット率を取得.
+     * @return ヒット率(0～1). 算出できない場合は UNKNOWN_HIT_RATIO
+     */
+    public double getHitRatio() {
+        return hitRatio;
+    }
+
+    /**
+     * 保持している値の合計を取得.
+     * @return 保持している値の合計(バイト)
+     */
+    public long getUsedMemory() {
+        return usedMemory;
+    }
+
+    /**
+     * 使用できるメモリの上限を取得.
+     * @return 使用できるメモリの上限(バイト)
+     */
+    public long getMemoryLimit() {
+        return memoryLimit;
+    }
+
+    /**
+     * キーが追い出される恐れがあるかどうかを取得.
+     * @return true: 恐れがある false: ない
+     */
+    public boolean isEvictionRisk() {
+        return evictionRisk;
+    }
+
+    /**
+     * memcachedの状態をJSON形式に変換する.
+     * @return memcachedの状態
+     */
+    @SuppressWarnings("unchecked")
+    public JSONObject toJson() {
+        JSONObject json = new JSONObject();
+        json.put("currConnections", currConnections);
+        json.put("evictions", evictions);
+        json.put("recentEvictions", recentEvictions);
+        if (hitRatio == UNKNOWN_HIT_RATIO) {
+            json.put("hitRatio", null);
+        } else {
+            json.put("hitRatio", hitRatio);
+        }
+        json.put("usedMemory", usedMemory);
+        json.put("memoryLimit", memoryLimit);
+        json.put("evictionRisk", evictionRisk);
+        return json;
+    }
+}
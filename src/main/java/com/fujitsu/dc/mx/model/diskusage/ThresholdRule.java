@@ -0,0 +1,134 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.mx.model.diskusage;
+
+/**
+ * ボリュームの使用可能サイズを決めるしきい値のルール.
+ * しきい値はディスクサイズに対する割合、または残すべき空き容量(バイト)のいずれかで表す。
+ */
+public final class ThresholdRule {
+
+    /** 全ボリュームに適用するルールの適用範囲. */
+    public static final String DEFAULT_SCOPE = "default";
+    /** ボリューム名を指定したルールの適用範囲の接頭辞. */
+    public static final String VOLUME_SCOPE_PREFIX = "volume:";
+    /** ボリューム名のパターンを指定したルールの適用範囲の接頭辞. */
+    public static final String PATTERN_SCOPE_PREFIX = "pattern:";
+    /** 空き容量で表すしきい値の接頭辞. */
+    public static final String MIN_FREE_PREFIX = "free:";
+
+    private static final long NOT_MIN_FREE = -1L;
+
+    private final String scope;
+    private final double fraction;
+    private final long minFreeBytes;
+
+    private ThresholdRule(String scope, double fraction, long minFreeBytes) {
+        this.scope = scope;
+        this.fraction = fraction;
+        this.minFreeBytes = minFreeBytes;
+    }
+
+    /**
+     * ディスクサイズに対する割合で表すルールを生成する.
+     * @param scope 適用範囲
+     * @param fraction しきい値(0～1の小数値 例：0.9)
+     * @return ルール
+     */
+    public static ThresholdRule fraction(String scope, double fraction) {
+        return new ThresholdRule(scope, fraction, NOT_MIN_FREE);
+    }
+
+    /**
+     * 残すべき空き容量で表すルールを生成する.
+     * @param scope 適用範囲
+     * @param minFreeBytes 空き容量(バイト)
+     * @return ルール
+     */
+    public static ThresholdRule minFreeBytes(String scope, long minFreeBytes) {
+        return new ThresholdRule(scope, 0.0d, minFreeBytes);
+    }
+
+    /**
+     * 適用範囲を取得. "default", "volume:ボリューム名", "pattern:パターン" のいずれか.
+     * @return 適用範囲
+     */
+    public String getScope() {
+        return scope;
+    }
+
+    /**
+     * 空き容量で表すルールかどうかを取得.
+     * @return true: 空き容量 false: ディスクサイズに対する割合
+     */
+    public boolean isMinFreeBytes() {
+        return minFreeBytes != NOT_MIN_FREE;
+    }
+
+    /**
+     * ディスクの使用可能サイズを算出する.
+     * @param volumeDiskSize ディスクサイズ
+     * @return ディスクの使用可能サイズ
+     */
+    public long getAllocatedDiskSize(long volumeDiskSize) {
+        if (isMinFreeBytes()) {
+            return Math.max(0L, volumeDiskSize - minFreeBytes);
+        }
+        Double realAllocatedDiskSize = volumeDiskSize * fraction;
+        return realAllocatedDiskSize.longValue();
+    }
+
+    /**
+     * ディスクサイズに対する割合を取得.
+     * @return しきい値. 空き容量で表すルールの場合は 0
+     */
+    public double getFraction() {
+        return fraction;
+    }
+
+    /**
+     * FULLの状態を解除する使用済みディスクサイズを算出する.
+     * 使用可能サイズから、ディスクサイズに対する割合で表した幅を差し引いたサイズとする.
+     * @param volumeDiskSize ディスクサイズ
+     * @param band 幅(0～1の小数値). 0の場合は使用可能サイズ
+     * @return 使用済みディスクサイズ
+     */
+    public long getLowDiskSize(long volumeDiskSize, double band) {
+        Double realBand = volumeDiskSize * band;
+        return Math.max(0L, getAllocatedDiskSize(volumeDiskSize) - realBand.longValue());
+    }
+
+    /**
+     * しきい値を設定値と同じ形式の文字列で取得. 例： "0.9", "free:107374182400"
+     * @return しきい値
+     */
+    public String getThreshold() {
+        if (isMinFreeBytes()) {
+            return MIN_FREE_PREFIX + minFreeBytes;
+        }
+        return Double.toString(fraction);
+    }
+
+    /**
+     * 適用範囲としきい値を "適用範囲=しきい値" の形式で取得. 例： "pattern:es*=free:107374182400"
+     * @return 適用範囲としきい値
+     */
+    @Override
+    public String toString() {
+        return scope + "=" + getThreshold();
+    }
+}
@@ -0,0 +1,32 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.mx.process;
+
+import com.fujitsu.dc.mx.model.diskusage.DiskUsages;
+
+/**
+ * Disk使用量の採取完了を受け取るリスナー.
+ */
+public interface DiskUsageListener {
+
+    /**
+     * Disk使用量の採取が完了した際に採取スレッドから呼び出される.
+     * 採取を遅らせないよう、時間のかかる処理を行ってはならない.
+     * @param diskUsages 採取したスナップショット（変更不可）
+     */
+    void sampled(DiskUsages diskUsages);
+}
@@ -16,6 +16,8 @@
  */
 package com.fujitsu.dc.mx.process;
 
+import java.io.IOException;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -23,8 +25,11 @@ import com.fujitsu.dc.mx.DcMxConfig;
 import com.fujitsu.dc.mx.DcMxException;
 import com.fujitsu.dc.mx.DcMxMessageId;
 import com.fujitsu.dc.mx.control.diskusage.DiskUsageCreator;
+import com.fujitsu.dc.mx.control.diskusage.GrowthEstimator;
 import com.fujitsu.dc.mx.control.pcs.PcsModeControlManager;
+import com.fujitsu.dc.mx.history.HistoryStore;
 import com.fujitsu.dc.mx.model.diskusage.DiskUsages;
+import com.fujitsu.dc.mx.model.diskusage.DiskUsages.Phase;
 
 /**
  * Disk使用量APIのメイン処理クラス.
@@ -34,6 +39,10 @@ public class DiskUsageMainProcess {
     static Logger log = LoggerFactory.getLogger(DiskUsageMainProcess.class);
 
     private static final String UNKNOWN_ERROR_MESSAGE_ID = "MX500-SV-0999";
+    private static final String CONFIGURATION_INVALID_CODE = "MX500-SV-0001";
+
+    /** 保存した履歴を出力するモードを指定する引数. */
+    static final String HISTORY_COMMAND = "history";
 
     /**
      * デフォルトコンストラクタ.
@@ -50,9 +59,14 @@ public class DiskUsageMainProcess {
     public DiskUsages collectDiskUsages() throws DcMxException {
         // 各ボリュームのディスク使用量を取得する
         log.info("Collecting disk usages.");
+        long start = System.nanoTime();
         DiskUsageCreator diskUsageCreator = new DiskUsageCreator(DcMxConfig.getMxVolumePath(),
                 DcMxConfig.getMxVolumeThreshold());
-        return diskUsageCreator.create();
+        DiskUsages diskUsages = diskUsageCreator.create();
+        diskUsages.addPhaseTime(Phase.COLLECT, System.nanoTime() - start);
+        // 使用量の増加速度から使用可能サイズに達するまでの時間を推定する
+        GrowthEstimator.getInstance().estimate(diskUsages);
+        return diskUsages;
     }
 
     /**
@@ -70,15 +84,26 @@ public class DiskUsageMainProcess {
 
     /**
      * cron等からの呼び出しポイント.
-     * @param args 引数：不要
+     * 引数に "history [開始時刻 [終了時刻]]" を指定した場合は、採取を行わずに HistoryStoreに保存した履歴を標準出力に出力する.
+     * 時刻はエポックミリ秒で指定し、省略した場合は全ての範囲とする.
+     * @param args 引数：採取する場合は不要
      * @throws DcMxException 処理中にエラーが発生した場合
      */
     public static void main(String[] args) throws DcMxException {
+        if (args != null && args.length > 0 && HISTORY_COMMAND.equals(args[0])) {
+            printHistory(args);
+            return;
+        }
         log.info("DiskUsageMainProcess#main is called.");
         try {
             DiskUsageMainProcess processor = new DiskUsageMainProcess();
             DiskUsages usages = processor.collectDiskUsages();
             processor.handlePCSMode(usages);
+            // Webアプリケーションと同じストアに採取結果を保存する
+            HistoryStore store = HistoryStore.getInstance();
+            if (store != null) {
+                store.record(usages);
+            }
             log.info("DiskUsageMainProcess#main is completed.");
         } catch (DcMxException e) {
             log.info(e.getMessage());
@@ -89,4 +114,32 @@ public class DiskUsageMainProcess {
             throw e2;
         }
     }
+
+    private static void printHistory(String[] args) throws DcMxException {
+        HistoryStore store = HistoryStore.getInstance();
+        if (store == null) {
+            log.info("Usage history store is not configured.");
+            throw new DcMxException(new DcMxMessageId(CONFIGURATION_INVALID_CODE));
+        }
+        long from = 0L;
+        long to = Long.MAX_VALUE;
+        try {
+            if (args.length > 1) {
+                from = Long.parseLong(args[1]);
+            }
+            if (args.length > 2) {
+                to = Long.parseLong(args[2]);
+            }
+        } catch (NumberFormatException e) {
+            log.info("Usage: history [from [to]] (epoch milliseconds)");
+            throw new DcMxException(new DcMxMessageId(CONFIGURATION_INVALID_CODE), e);
+        }
+        try {
+            store.print(from, to, System.out);
+        } catch (IOException e) {
+            DcMxException e2 = new DcMxException(new DcMxMessageId(UNKNOWN_ERROR_MESSAGE_ID), e);
+            log.info(e2.getMessage());
+            throw e2;
+        }
+    }
 }
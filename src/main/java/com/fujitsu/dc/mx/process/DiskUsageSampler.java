@@ -0,0 +1,296 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.mx.process;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fujitsu.dc.mx.DcMxRuntimeException;
+import com.fujitsu.dc.mx.model.diskusage.DiskUsages;
+
+/**
+ * Disk使用量を定期的に採取し、最新のスナップショットを保持するクラス.
+ * 採取の都度 PCSの ReadDeleteOnly modeの判定も行う。
+ * 同時に要求された採取は実行中の一回の採取にまとめ、その結果を共有する。
+ */
+public class DiskUsageSampler {
+
+    static Logger log = LoggerFactory.getLogger(DiskUsageSampler.class);
+
+    private static final String THREAD_NAME = "dc-mx-disk-usage-sampler";
+
+    /**
+     * スナップショットが古いと判断する採取間隔の倍数.
+     */
+    private static final int STALE_FACTOR = 2;
+
+    /**
+     * 停止時に実行中の採取の完了を待つ時間の上限(ミリ秒).
+     */
+    private static final long STOP_TIMEOUT_MILLIS = 30000L;
+
+    private static DiskUsageSampler singleton = new DiskUsageSampler();
+
+    private volatile DiskUsages latest = null;
+    private volatile long intervalMillis = 0L;
+    private ScheduledExecutorService scheduler = null;
+    private final AtomicReference<FutureTask<DiskUsages>> inFlight = new AtomicReference<FutureTask<DiskUsages>>();
+    private final AtomicLong coalescedCount = new AtomicLong();
+    private final AtomicLong sampleCount = new AtomicLong();
+    private volatile long lastSampleDuration = 0L;
+    private final CopyOnWriteArrayList<DiskUsageListener> listeners = new CopyOnWriteArrayList<DiskUsageListener>();
+
+    private DiskUsageSampler() {
+    }
+
+    /**
+     * インスタンスを取得する.
+     * @return DiskUsageSampler
+     */
+    public static DiskUsageSampler getInstance() {
+        return singleton;
+    }
+
+    /**
+     * 定期採取を開始する. 既に開始済みの場合は何もしない.
+     * @param intervalMillis 採取間隔(ミリ秒)
+     */
+    public synchronized void start(long intervalMillis) {
+        if (this.scheduler != null) {
+            return;
+        }
+        if (intervalMillis <= 0) {
+            throw new IllegalArgumentException("Sampling interval must be positive: " + intervalMillis);
+        }
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, THREAD_NAME);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    sample();
+                } catch (RuntimeException e) {
+                    // 例外でスケジュールが止まらないようにログ出力のみ行う
+                    log.error("Failed to sample disk usages.", e);
+                }
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        this.intervalMillis = intervalMillis;
+        log.info("Disk usage sampler started. interval=" + intervalMillis + "ms");
+    }
+
+    /**
+     * 定期採取を停止する. 実行中の採取を中断し、PCSの動作モードの判定を終えるまで待つ.
+     */
+    public void stop() {
+        ScheduledExecutorService stopping;
+        synchronized (this) {
+            if (this.scheduler == null) {
+                return;
+            }
+            stopping = this.scheduler;
+            this.scheduler.shutdownNow();
+            this.scheduler = null;
+            this.intervalMillis = 0L;
+        }
+        long deadline = System.currentTimeMillis() + STOP_TIMEOUT_MILLIS;
+        try {
+            if (!stopping.awaitTermination(STOP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                log.warn("Disk usage sampler did not stop in " + STOP_TIMEOUT_MILLIS + "ms.");
+                return;
+            }
+            // 要求ごとの採取が実行中の場合はその完了も待つ
+            FutureTask<DiskUsages> current = this.inFlight.get();
+            if (current != null) {
+                current.get(Math.max(0L, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            log.info("Sampling failed while stopping. " + e.getCause());
+        } catch (TimeoutException e) {
+            log.warn("Sampling did not complete in " + STOP_TIMEOUT_MILLIS + "ms.");
+        }
+        log.info("Disk usage sampler stopped.");
+    }
+
+    /**
+     * Disk使用量を採取し、PCSの ReadDeleteOnly modeを設定した上で最新のスナップショットとして保持する.
+     * 既に採取中の場合は新たに採取せず、実行中の採取の完了を待ってその結果を返却する.
+     * @return 採取したスナップショット（変更不可）
+     */
+    public DiskUsages sample() {
+        while (true) {
+            FutureTask<DiskUsages> current = this.inFlight.get();
+            if (current != null) {
+                this.coalescedCount.incrementAndGet();
+                return await(current);
+            }
+            FutureTask<DiskUsages> task = new FutureTask<DiskUsages>(new Callable<DiskUsages>() {
+                @Override
+                public DiskUsages call() {
+                    return doSample();
+                }
+            });
+            if (this.inFlight.compareAndSet(null, task)) {
+                try {
+                    task.run();
+                } finally {
+                    this.inFlight.set(null);
+                }
+                return await(task);
+            }
+        }
+    }
+
+    private DiskUsages await(FutureTask<DiskUsages> task) {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            DiskUsages diskUsages = new DiskUsages();
+            diskUsages.setError(e);
+            diskUsages.freeze();
+            return diskUsages;
+        } catch (ExecutionException e) {
+            throw new DcMxRuntimeException(e.getCause());
+        }
+    }
+
+    private DiskUsages doSample() {
+        long start = System.currentTimeMillis();
+        DiskUsages diskUsages = new DiskUsages();
+        try {
+            DiskUsageMainProcess processor = new DiskUsageMainProcess();
+            // Disk使用量の取得
+            diskUsages = processor.collectDiskUsages();
+            if (Thread.currentThread().isInterrupted()) {
+                // 停止により中断された採取の結果では PCSの動作モードを変更しない
+                log.info("Sampling is interrupted. Skip setting PCS mode.");
+                diskUsages.setError(new InterruptedException("Sampling is interrupted."));
+            } else {
+                // 上記で取得された Disk使用量情報を基に、PCS ReadDeleteOnlyモードを設定
+                processor.handlePCSMode(diskUsages);
+            }
+        } catch (Exception e) {
+            log.error(e.getMessage(), e);
+            diskUsages.setError(e);
+        }
+        diskUsages.freeze();
+        this.latest = diskUsages;
+        long duration = System.currentTimeMillis() - start;
+        this.lastSampleDuration = duration;
+        this.sampleCount.incrementAndGet();
+        log.info("Sampling completed in " + duration + "ms. coalesced requests: " + this.coalescedCount.get());
+        for (DiskUsageListener listener : this.listeners) {
+            try {
+                listener.sampled(diskUsages);
+            } catch (RuntimeException e) {
+                log.warn("Disk usage listener failed.", e);
+            }
+        }
+        return diskUsages;
+    }
+
+    /**
+     * 採取完了を通知するリスナーを登録する. 登録済みのリスナーは重複して登録しない.
+     * @param listener リスナー
+     */
+    public void addListener(DiskUsageListener listener) {
+        this.listeners.addIfAbsent(listener);
+    }
+
+    /**
+     * 登録したリスナーを削除する.
+     * @param listener リスナー
+     */
+    public void removeListener(DiskUsageListener listener) {
+        this.listeners.remove(listener);
+    }
+
+    /**
+     * 最新のスナップショットを取得する.
+     * @return 最新のスナップショット. 一度も採取していない場合は null
+     */
+    public DiskUsages getLatest() {
+        return this.latest;
+    }
+
+    /**
+     * スナップショットが採取間隔に比べて古くなっているかどうかを判定する.
+     * 定期採取が停止している場合は更新されないため、常に古いと判定して要求ごとの採取に切り替える.
+     * @param diskUsages スナップショット
+     * @return true: 古い false: 古くない
+     */
+    public boolean isStale(DiskUsages diskUsages) {
+        long interval = this.intervalMillis;
+        if (interval <= 0) {
+            return true;
+        }
+        return System.currentTimeMillis() - diskUsages.getCollectedAt() > interval * STALE_FACTOR;
+    }
+
+    /**
+     * 実行中の採取にまとめられた採取要求の累計数を取得する.
+     * @return 採取要求の累計数
+     */
+    public long getCoalescedCount() {
+        return this.coalescedCount.get();
+    }
+
+    /**
+     * 採取の累計数を取得する.
+     * @return 採取の累計数
+     */
+    public long getSampleCount() {
+        return this.sampleCount.get();
+    }
+
+    /**
+     * 採取を実行中かどうかを判定する.
+     * @return true: 実行中 false: 実行していない
+     */
+    boolean isSampling() {
+        return this.inFlight.get() != null;
+    }
+
+    /**
+     * 直近の採取に要した時間を取得する.
+     * @return 直近の採取に要した時間(ミリ秒)
+     */
+    public long getLastSampleDuration() {
+        return this.lastSampleDuration;
+    }
+}
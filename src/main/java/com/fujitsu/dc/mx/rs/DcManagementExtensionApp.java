@@ -26,9 +26,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.fujitsu.dc.mx.DcMxConfig;
-import com.fujitsu.dc.mx.model.diskusage.DiskUsages;
-import com.fujitsu.dc.mx.process.DiskUsageMainProcess;
+import com.fujitsu.dc.mx.control.pcs.PcsModeControlManager;
+import com.fujitsu.dc.mx.history.HistoryStore;
+import com.fujitsu.dc.mx.history.UsageHistory;
+import com.fujitsu.dc.mx.process.DiskUsageSampler;
+import com.fujitsu.dc.mx.rs.diskusage.DiskUsageHistoryResource;
 import com.fujitsu.dc.mx.rs.diskusage.DiskUsageResource;
+import com.fujitsu.dc.mx.rs.diskusage.DiskUsageStreamResource;
+import com.fujitsu.dc.mx.rs.metrics.MetricsResource;
 
 /**
  * DC-MXのJAX-RSのApplication.
@@ -42,6 +47,10 @@ public class DcManagementExtensionApp extends Application {
         Set<Class<?>> classes = new HashSet<Class<?>>();
         /* Disk使用量APIの JAX-RSリソース */
         classes.add(DiskUsageResource.class);
+        classes.add(DiskUsageStreamResource.class);
+        classes.add(DiskUsageHistoryResource.class);
+        /* メトリクスAPIの JAX-RSリソース */
+        classes.add(MetricsResource.class);
         return classes;
     }
 
@@ -55,16 +64,32 @@ public class DcManagementExtensionApp extends Application {
         DcMxConfig.getMxVersion();
 
         // Disk使用量チェックを呼出し、Read-Delete-Onlyモードを設定する.
+        // 以降は定期採取に任せ、/statsは最新のスナップショットを返却する.
+        DiskUsageSampler sampler = DiskUsageSampler.getInstance();
         try {
-            DiskUsageMainProcess processor = new DiskUsageMainProcess();
-            // Disk使用量の取得
-            DiskUsages diskUsages = processor.collectDiskUsages();
-            // 上記で取得された Disk使用量情報を基に、PCS ReadDeleteOnlyモードを設定
-            processor.handlePCSMode(diskUsages);
+            // 起動時は前回の反映状態に関わらず memcachedへ動作モードを書き込む
+            PcsModeControlManager.invalidate();
+            // 採取したディスク使用量を履歴に記録する. ストアがある場合は前回までの履歴を読み込み、以降の採取結果も保存する.
+            // 保持期間分の読み込みには時間がかかるため、起動を待たせないよう別スレッドで読み込む
+            UsageHistory history = UsageHistory.getInstance();
+            HistoryStore store = HistoryStore.getInstance();
+            if (store != null) {
+                history.restoreInBackground(store);
+                sampler.addListener(store);
+            }
+            sampler.addListener(history);
+            sampler.sample();
         } catch (Exception e) {
             log.error("Failed to initialize dc-mx application.", e);
             // 設定エラーがあった場合でもRESTサービスは継続させるため、例外は投げない
         }
+        // 初期化の途中で失敗した場合でも定期採取は開始する.
+        // 開始できない場合は /statsの要求ごとに採取する
+        try {
+            sampler.start(DcMxConfig.getSamplingInterval());
+        } catch (Exception e) {
+            log.error("Failed to start disk usage sampler.", e);
+        }
 
     }
 }
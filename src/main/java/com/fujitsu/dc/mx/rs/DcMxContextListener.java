@@ -0,0 +1,63 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.mx.rs;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fujitsu.dc.mx.control.diskusage.DiskUsageCreator;
+import com.fujitsu.dc.mx.control.pcs.PcsModeControlManager;
+import com.fujitsu.dc.mx.process.DiskUsageSampler;
+
+/**
+ * DC-MXの Webアプリケーションの終了を受けて、バックグラウンドの処理を停止するリスナー.
+ * 再デプロイ時にスレッドや memcachedとの接続が残らないよう、定期採取、ボリューム毎の採取、
+ * 動作モードの再反映、memcachedクライアントの順に停止する.
+ */
+public class DcMxContextListener implements ServletContextListener {
+
+    private static Logger log = LoggerFactory.getLogger(DcMxContextListener.class);
+
+    @Override
+    public void contextInitialized(ServletContextEvent event) {
+        // 初期化は DcManagementExtensionAppで行う
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent event) {
+        // 停止に失敗した場合も後続の停止は行う
+        try {
+            DiskUsageSampler.getInstance().stop();
+        } catch (RuntimeException e) {
+            log.warn("Failed to stop disk usage sampler.", e);
+        }
+        try {
+            DiskUsageCreator.shutdown();
+        } catch (RuntimeException e) {
+            log.warn("Failed to stop volume stat threads.", e);
+        }
+        try {
+            PcsModeControlManager.shutdown();
+        } catch (RuntimeException e) {
+            log.warn("Failed to stop PCS mode control.", e);
+        }
+        log.info("dc-mx application stopped.");
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.mx.rs.diskusage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Response;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import com.fujitsu.dc.mx.DcMxConfig;
+import com.fujitsu.dc.mx.DcMxException;
+import com.fujitsu.dc.mx.DcMxMessageId;
+import com.fujitsu.dc.mx.history.HistorySeries;
+import com.fujitsu.dc.mx.history.UsageHistory;
+
+/**
+ * DC-MX Disk使用量の履歴APIのリソースクラス.
+ */
+@Path("/stats/history")
+public class DiskUsageHistoryResource {
+
+    private static final String CONTENT_TYPE_HEADER = "Content-Type";
+    private static final String MX_HEADER = "X-Mx-Version";
+    private static final String INVALID_PARAMETER_CODE = "MX400-RQ-0001";
+    private static final int HTTP_RESPONSE_STATUS = 200;
+    private static final int HTTP_BAD_REQUEST = 400;
+    /** fromを省略した場合の範囲(ミリ秒). */
+    private static final long DEFAULT_RANGE = 3600000L;
+
+    /**
+     * リソースパス /stats/history に対する GETメソッドの処理.
+     * @param volume ボリューム名. 省略した場合は全てのボリューム
+     * @param from 範囲の開始時刻(エポックミリ秒). 省略した場合は toの1時間前
+     * @param to 範囲の終了時刻(エポックミリ秒). 省略した場合は現在時刻
+     * @param step 各点の時間幅(ミリ秒). 省略した場合は範囲に応じて選択する
+     * @return JSON形式のレスポンス
+     */
+    @GET
+    public Response getHistory(@QueryParam("volume") String volume, @QueryParam("from") String from,
+            @QueryParam("to") String to, @QueryParam("step") String step) {
+        long toTime;
+        long fromTime;
+        long stepMillis;
+        try {
+            toTime = parseLong(to, System.currentTimeMillis());
+            fromTime = parseLong(from, toTime - DEFAULT_RANGE);
+            stepMillis = parseLong(step, 0L);
+        } catch (NumberFormatException e) {
+            return badRequest();
+        }
+        if (fromTime > toTime || stepMillis < 0) {
+            return badRequest();
+        }
+
+        UsageHistory history = UsageHistory.getInstance();
+        List<String> volumes;
+        if (volume == null || volume.length() == 0) {
+            volumes = history.getVolumes();
+        } else {
+            volumes = new ArrayList<String>();
+            volumes.add(volume);
+        }
+        return Response.status(HTTP_RESPONSE_STATUS)
+                .header(CONTENT_TYPE_HEADER, "application/json")
+                .header(MX_HEADER, DcMxConfig.getMxVersion())
+                .entity(getHistoryBody(history, volumes, fromTime, toTime, stepMillis).toJSONString())
+                .build();
+    }
+
+    /**
+     * 履歴のレスポンスボディを生成する. 履歴のないボリュームは含めない.
+     * 起動時に保存された履歴を読み込んでいる間は、古い区間が欠けている可能性があるため partialを trueとする.
+     * @param history 履歴
+     * @param volumes ボリューム名のリスト
+     * @param from 範囲の開始時刻(エポックミリ秒)
+     * @param to 範囲の終了時刻(エポックミリ秒)
+     * @param step 各点の時間幅(ミリ秒)
+     * @return レスポンスボディ
+     */
+    @SuppressWarnings("unchecked")
+    static JSONObject getHistoryBody(UsageHistory history, List<String> volumes, long from, long to, long step) {
+        JSONArray seriesJson = new JSONArray();
+        for (String name : volumes) {
+            HistorySeries series = history.query(name, from, to, step);
+            if (series != null) {
+                seriesJson.add(series.toJson());
+            }
+        }
+        JSONObject json = new JSONObject();
+        json.put("from", from);
+        json.put("to", to);
+        json.put("partial", history.isRestoring());
+        json.put("history", seriesJson);
+        return json;
+    }
+
+    private static long parseLong(String value, long defaultValue) {
+        if (value == null || value.length() == 0) {
+            return defaultValue;
+        }
+        return Long.parseLong(value);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Response badRequest() {
+        DcMxException e = new DcMxException(new DcMxMessageId(INVALID_PARAMETER_CODE));
+        JSONObject errorJson = new JSONObject();
+        errorJson.put("code", e.getMessageId());
+        JSONObject messageJson = new JSONObject();
+        messageJson.put("lang", "en");
+        messageJson.put("value", e.getMessage());
+        errorJson.put("message", messageJson);
+        JSONObject json = new JSONObject();
+        json.put("error", errorJson);
+        return Response.status(HTTP_BAD_REQUEST)
+                .header(CONTENT_TYPE_HEADER, "application/json")
+                .header(MX_HEADER, DcMxConfig.getMxVersion())
+                .entity(json.toJSONString())
+                .build();
+    }
+}
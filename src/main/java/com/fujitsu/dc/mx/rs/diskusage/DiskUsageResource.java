@@ -16,17 +16,23 @@
  */
 package com.fujitsu.dc.mx.rs.diskusage;
 
+import java.util.Date;
+
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
 
-import org.json.simple.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.fujitsu.dc.mx.DcMxConfig;
 import com.fujitsu.dc.mx.model.diskusage.DiskUsages;
-import com.fujitsu.dc.mx.process.DiskUsageMainProcess;
+import com.fujitsu.dc.mx.process.DiskUsageSampler;
 
 /**
  * DC-MX Disk使用量APIのリソースクラス.
@@ -38,32 +44,100 @@ public class DiskUsageResource {
 
     private static final String CONTENT_TYPE_HEADER = "Content-Type";
     private static final String MX_HEADER = "X-Mx-Version";
+    private static final String SNAPSHOT_AGE_HEADER = "X-Mx-Snapshot-Age";
     private static final int HTTP_RESPONSE_STATUS = 200;
+    private static final long MILLIS_PER_SECOND = 1000L;
+    private static final long NANOS_PER_MILLI = 1000000L;
+
+    /**
+     * プロセスの起動ごとに異なる ETagの接頭辞. スナップショットのバージョンは再起動で初期化されるため付与する.
+     */
+    private static final String BOOT_ID = Long.toHexString(System.currentTimeMillis());
 
     /**
      * リソースパス /stats に対する GETメソッドの処理.
+     * バックグラウンドで採取された最新のスナップショットを返却する.
+     * If-None-Match / If-Modified-Since が最新のスナップショットと一致する場合は 304を返却する.
+     * 処理時間の内訳を Server-Timingヘッダで返却し、閾値を超えた場合はログに出力する.
+     * @param request リクエスト
      * @return JSON形式のレスポンス
      */
     @GET
-    public Response getStats() {
-        DiskUsages diskUsages = new DiskUsages();
-        try {
-            DiskUsageMainProcess processor = new DiskUsageMainProcess();
-            // Disk使用量の取得
-            diskUsages = processor.collectDiskUsages();
-            // 上記で取得された Disk使用量情報を基に、PCS ReadDeleteOnlyモードを設定
-            processor.handlePCSMode(diskUsages);
-        } catch (Exception e) {
-            log.error(e.getMessage(), e);
-            diskUsages.setError(e);
+    public Response getStats(@Context Request request) {
+        long start = System.nanoTime();
+        DiskUsageSampler sampler = DiskUsageSampler.getInstance();
+        DiskUsages diskUsages = sampler.getLatest();
+        boolean sampled = false;
+        if (diskUsages == null || sampler.isStale(diskUsages)) {
+            // まだ一度も採取されていない場合や定期採取が遅れている場合はその場で採取する
+            // 同時に受け付けたリクエストは一回の採取にまとめられる
+            diskUsages = sampler.sample();
+            sampled = true;
         }
+        long age = Math.max(0L, System.currentTimeMillis() - diskUsages.getCollectedAt());
+        EntityTag entityTag = getEntityTag(diskUsages);
+        Date lastModified = new Date(diskUsages.getCollectedAt());
 
-        // レスポンスボディの生成
-        JSONObject response = ResponseBodyBuilder.getDiskUsage(diskUsages);
-        return Response.status(HTTP_RESPONSE_STATUS)
+        ResponseBuilder builder = request.evaluatePreconditions(lastModified, entityTag);
+        long serializeTime = 0L;
+        if (builder == null) {
+            // スナップショットごとに一度だけ変換した結果をそのまま返却する
+            long serializeStart = System.nanoTime();
+            byte[] response = ResponseBodyBuilder.getDiskUsageBody(diskUsages);
+            serializeTime = System.nanoTime() - serializeStart;
+            builder = Response.status(HTTP_RESPONSE_STATUS)
+                    .header(CONTENT_TYPE_HEADER, "application/json")
+                    .entity(response);
+        }
+        ServerTiming timing = new ServerTiming(diskUsages, serializeTime, System.nanoTime() - start);
+        logSlowRequest(timing, diskUsages, sampled, DcMxConfig.getSlowRequestThreshold());
+        return builder.tag(entityTag)
+                .lastModified(lastModified)
+                .cacheControl(getCacheControl(DcMxConfig.getSamplingInterval(), age))
                 .header(MX_HEADER, DcMxConfig.getMxVersion())
-                .header(CONTENT_TYPE_HEADER, "application/json")
-                .entity(response.toJSONString())
+                .header(SNAPSHOT_AGE_HEADER, String.valueOf(age))
+                .header(ServerTiming.HEADER, timing.toHeaderValue())
                 .build();
     }
+
+    /**
+     * 処理時間が閾値を超えた場合に内訳をログに出力する.
+     * @param timing 処理時間の内訳
+     * @param diskUsages 返却したスナップショット
+     * @param sampled true: リクエストの処理中に採取した false: 採取済みのスナップショットを返却した
+     * @param threshold 閾値(ミリ秒). 0以下の場合は出力しない
+     * @return true: 出力した false: 出力しなかった
+     */
+    static boolean logSlowRequest(ServerTiming timing, DiskUsages diskUsages, boolean sampled, long threshold) {
+        if (threshold <= 0 || timing.getTotal() < threshold * NANOS_PER_MILLI) {
+            return false;
+        }
+        log.warn("Slow request. resource=/stats version=" + diskUsages.getVersion()
+                + " systemStatus=" + diskUsages.getSystemStatus() + " sampled=" + sampled + " "
+                + timing.toLogString());
+        return true;
+    }
+
+    /**
+     * スナップショットに対応する ETagを取得する.
+     * @param diskUsages スナップショット
+     * @return ETag
+     */
+    static EntityTag getEntityTag(DiskUsages diskUsages) {
+        return new EntityTag(BOOT_ID + "-" + diskUsages.getVersion());
+    }
+
+    /**
+     * 次回の定期採取までの残り時間を max-ageとする Cache-Controlを取得する.
+     * @param samplingInterval 採取間隔(ミリ秒)
+     * @param age スナップショットの経過時間(ミリ秒)
+     * @return Cache-Control
+     */
+    static CacheControl getCacheControl(long samplingInterval, long age) {
+        CacheControl cacheControl = new CacheControl();
+        cacheControl.setMustRevalidate(true);
+        long remaining = Math.max(0L, samplingInterval - age);
+        cacheControl.setMaxAge((int) Math.min(Integer.MAX_VALUE, remaining / MILLIS_PER_SECOND));
+        return cacheControl;
+    }
 }
@@ -0,0 +1,181 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.mx.rs.diskusage;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fujitsu.dc.mx.model.diskusage.DiskUsages;
+import com.fujitsu.dc.mx.process.DiskUsageListener;
+import com.fujitsu.dc.mx.process.DiskUsageSampler;
+
+/**
+ * ディスクのステータスの変化を Server-Sent Eventsとして書き出すクラス.
+ * 接続時に現在のスナップショットを送信し、以降は systemStatusまたはいずれかのボリュームのステータスが
+ * 変化した場合にのみイベントを送信する。イベントがない間はハートビートのコメント行を送信する。
+ */
+class DiskUsageStream implements StreamingOutput, DiskUsageListener {
+
+    static Logger log = LoggerFactory.getLogger(DiskUsageStream.class);
+
+    /** イベント名. */
+    static final String EVENT_NAME = "status";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final byte[] DATA_PREFIX = "data: ".getBytes(UTF_8);
+    private static final byte[] EVENT_END = "\n\n".getBytes(UTF_8);
+
+    private final DiskUsageSampler sampler;
+    private final DiskUsages initial;
+    private final long heartbeatInterval;
+    private final long maxDuration;
+    private final long retry;
+    private final Slot slot;
+
+    private final Object lock = new Object();
+    private DiskUsages pending = null;
+
+    /**
+     * コンストラクタ.
+     * @param sampler 採取完了の通知元
+     * @param initial 接続時に送信するスナップショット
+     * @param heartbeatInterval ハートビートの間隔(ミリ秒). 0以下の場合は送信しない
+     * @param maxDuration 接続を維持する最大時間(ミリ秒)
+     * @param retry クライアントに通知する再接続までの待ち時間(ミリ秒)
+     * @param slot 書き出しの間だけ確保する同時接続数の枠. nullの場合は確保しない
+     */
+    DiskUsageStream(DiskUsageSampler sampler, DiskUsages initial, long heartbeatInterval, long maxDuration,
+            long retry, Slot slot) {
+        this.sampler = sampler;
+        this.initial = initial;
+        this.heartbeatInterval = heartbeatInterval;
+        this.maxDuration = maxDuration;
+        this.retry = retry;
+        this.slot = slot;
+    }
+
+    /**
+     * 同時接続数の枠.
+     */
+    interface Slot {
+        /**
+         * 枠を確保する.
+         * @throws WebApplicationException 枠を確保できない場合. 書き出し前のため、そのままレスポンスとして返却される
+         */
+        void acquire();
+
+        /**
+         * 確保した枠を解放する.
+         */
+        void release();
+    }
+
+    @Override
+    public void sampled(DiskUsages diskUsages) {
+        synchronized (this.lock) {
+            // 未送信のスナップショットは最新のもので置き換える
+            this.pending = diskUsages;
+            this.lock.notifyAll();
+        }
+    }
+
+    @Override
+    public void write(OutputStream output) throws IOException {
+        // エンティティが書き出される場合にのみ枠を確保し、同じ処理の中で必ず解放する
+        if (this.slot != null) {
+            this.slot.acquire();
+        }
+        try {
+            this.sampler.addListener(this);
+            long deadline = System.currentTimeMillis() + this.maxDuration;
+            output.write(("retry: " + this.retry + "\n\n").getBytes(UTF_8));
+            DiskUsages lastSent = this.initial;
+            writeEvent(output, lastSent);
+            // 採取の通知の有無に関わらず、最後に書き出してからの経過時間でハートビートを送信する
+            long lastWrite = System.currentTimeMillis();
+            while (true) {
+                long now = System.currentTimeMillis();
+                long remaining = deadline - now;
+                if (remaining <= 0) {
+                    // クライアントに再接続させるため接続を終了する
+                    break;
+                }
+                long timeout = remaining;
+                if (this.heartbeatInterval > 0) {
+                    long untilHeartbeat = lastWrite + this.heartbeatInterval - now;
+                    if (untilHeartbeat <= 0) {
+                        writeHeartbeat(output);
+                        lastWrite = now;
+                        continue;
+                    }
+                    timeout = Math.min(timeout, untilHeartbeat);
+                }
+                DiskUsages next = awaitNext(timeout);
+                if (next != null && !next.hasSameStatus(lastSent)) {
+                    writeEvent(output, next);
+                    lastSent = next;
+                    lastWrite = System.currentTimeMillis();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            // クライアントが切断した場合
+            log.debug("Disk status stream closed by client.", e);
+        } finally {
+            this.sampler.removeListener(this);
+            if (this.slot != null) {
+                this.slot.release();
+            }
+        }
+    }
+
+    private DiskUsages awaitNext(long timeout) throws InterruptedException {
+        synchronized (this.lock) {
+            long until = System.currentTimeMillis() + timeout;
+            long wait = timeout;
+            while (this.pending == null && wait > 0) {
+                this.lock.wait(wait);
+                wait = until - System.currentTimeMillis();
+            }
+            DiskUsages next = this.pending;
+            this.pending = null;
+            return next;
+        }
+    }
+
+    private void writeEvent(OutputStream output, DiskUsages diskUsages) throws IOException {
+        // JSONは改行を含まないため、一行の dataフィールドとして送信できる
+        output.write(("id: " + diskUsages.getVersion() + "\nevent: " + EVENT_NAME + "\n").getBytes(UTF_8));
+        output.write(DATA_PREFIX);
+        output.write(diskUsages.toJsonBytes());
+        output.write(EVENT_END);
+        output.flush();
+    }
+
+    private void writeHeartbeat(OutputStream output) throws IOException {
+        output.write((": heartbeat " + System.currentTimeMillis() + "\n\n").getBytes(UTF_8));
+        output.flush();
+    }
+}
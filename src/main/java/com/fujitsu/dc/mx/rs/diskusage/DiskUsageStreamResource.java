@@ -0,0 +1,117 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.mx.rs.diskusage;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fujitsu.dc.mx.DcMxConfig;
+import com.fujitsu.dc.mx.model.diskusage.DiskUsages;
+import com.fujitsu.dc.mx.process.DiskUsageSampler;
+
+/**
+ * DC-MX Disk使用量のステータス変化を Server-Sent Eventsで配信するリソースクラス.
+ */
+@Path("/stats/stream")
+public class DiskUsageStreamResource {
+
+    static Logger log = LoggerFactory.getLogger(DiskUsageStreamResource.class);
+
+    private static final String CONTENT_TYPE_HEADER = "Content-Type";
+    private static final String CACHE_CONTROL_HEADER = "Cache-Control";
+    private static final String RETRY_AFTER_HEADER = "Retry-After";
+    private static final String MX_HEADER = "X-Mx-Version";
+    private static final String EVENT_STREAM = "text/event-stream";
+    private static final int HTTP_RESPONSE_STATUS = 200;
+    private static final int HTTP_SERVICE_UNAVAILABLE = 503;
+    private static final long MILLIS_PER_SECOND = 1000L;
+
+    private static final AtomicInteger ACTIVE_STREAMS = new AtomicInteger();
+
+    /**
+     * 同時接続数の枠.
+     * エンティティが書き出されない場合(HEADやクライアントの切断など)に枠が残らないよう、
+     * 枠の確保と解放はいずれも DiskUsageStream#writeの中で行う.
+     */
+    static final DiskUsageStream.Slot SLOT = new DiskUsageStream.Slot() {
+        @Override
+        public void acquire() {
+            int maxConnections = DcMxConfig.getStreamMaxConnections();
+            if (ACTIVE_STREAMS.incrementAndGet() > maxConnections) {
+                ACTIVE_STREAMS.decrementAndGet();
+                throw new WebApplicationException(unavailable(maxConnections));
+            }
+        }
+
+        @Override
+        public void release() {
+            ACTIVE_STREAMS.decrementAndGet();
+        }
+    };
+
+    /**
+     * リソースパス /stats/stream に対する GETメソッドの処理.
+     * 同時接続数が上限に達している場合は 503を返却する.
+     * @return text/event-stream形式のレスポンス
+     */
+    @GET
+    public Response getStream() {
+        // 枠はここでは確保せず、上限に達している場合にスナップショットの取得を省くためだけに確認する
+        int maxConnections = DcMxConfig.getStreamMaxConnections();
+        if (ACTIVE_STREAMS.get() >= maxConnections) {
+            return unavailable(maxConnections);
+        }
+
+        DiskUsageSampler sampler = DiskUsageSampler.getInstance();
+        DiskUsages diskUsages = sampler.getLatest();
+        if (diskUsages == null) {
+            diskUsages = sampler.sample();
+        }
+        DiskUsageStream stream = new DiskUsageStream(sampler, diskUsages, DcMxConfig.getStreamHeartbeatInterval(),
+                DcMxConfig.getStreamMaxDuration(), DcMxConfig.getSamplingInterval(), SLOT);
+        return Response.status(HTTP_RESPONSE_STATUS)
+                .header(CONTENT_TYPE_HEADER, EVENT_STREAM)
+                .header(CACHE_CONTROL_HEADER, "no-cache")
+                .header(MX_HEADER, DcMxConfig.getMxVersion())
+                .entity(stream)
+                .build();
+    }
+
+    private static Response unavailable(int maxConnections) {
+        log.info("Too many disk status streams. max=" + maxConnections);
+        long samplingInterval = DcMxConfig.getSamplingInterval();
+        return Response.status(HTTP_SERVICE_UNAVAILABLE)
+                .header(RETRY_AFTER_HEADER, String.valueOf(Math.max(1L, samplingInterval / MILLIS_PER_SECOND)))
+                .header(MX_HEADER, DcMxConfig.getMxVersion())
+                .build();
+    }
+
+    /**
+     * 接続中のストリーム数を取得する.
+     * @return 接続中のストリーム数
+     */
+    public static int getActiveStreams() {
+        return ACTIVE_STREAMS.get();
+    }
+}
@@ -36,4 +36,14 @@ public class ResponseBodyBuilder {
     public static JSONObject getDiskUsage(DiskUsages diskUsages) {
         return diskUsages.toJson();
     }
+
+    /**
+     * 各ボリュームのディスク使用量を UTF-8の JSONで返却する.
+     * 返却する配列はスナップショットが保持する変換結果を共有しているため、変更してはならない.
+     * @param diskUsages 各ボリュームのディスク使用量のリスト
+     * @return UTF-8の JSON形式のレスポンスボディ
+     */
+    public static byte[] getDiskUsageBody(DiskUsages diskUsages) {
+        return diskUsages.toJsonBytes();
+    }
 }
@@ -0,0 +1,111 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.mx.rs.diskusage;
+
+import java.util.Locale;
+
+import com.fujitsu.dc.mx.model.diskusage.DiskUsages;
+import com.fujitsu.dc.mx.model.diskusage.DiskUsages.Phase;
+
+/**
+ * /stats の処理時間の内訳.
+ * collect, decide, memcachedは返却するスナップショットの作成時の処理時間で、
+ * serializeと totalはリクエストごとの処理時間である.
+ */
+final class ServerTiming {
+
+    /** Server-Timingヘッダの名前. */
+    static final String HEADER = "Server-Timing";
+
+    private static final long NANOS_PER_MICRO = 1000L;
+    private static final long MICROS_PER_MILLI = 1000L;
+    private static final int MICROS_DIGITS = 3;
+
+    private final String[] names;
+    private final long[] nanos;
+
+    /**
+     * コンストラクタ.
+     * @param diskUsages 返却するスナップショット
+     * @param serializeNanos レスポンスボディの作成に要した時間(ナノ秒)
+     * @param totalNanos リクエストの処理に要した時間(ナノ秒)
+     */
+    ServerTiming(DiskUsages diskUsages, long serializeNanos, long totalNanos) {
+        Phase[] phases = Phase.values();
+        this.names = new String[phases.length + 2];
+        this.nanos = new long[phases.length + 2];
+        for (Phase phase : phases) {
+            this.names[phase.ordinal()] = phase.name().toLowerCase(Locale.ENGLISH);
+            this.nanos[phase.ordinal()] = diskUsages.getPhaseTime(phase);
+        }
+        this.names[phases.length] = "serialize";
+        this.nanos[phases.length] = serializeNanos;
+        this.names[phases.length + 1] = "total";
+        this.nanos[phases.length + 1] = totalNanos;
+    }
+
+    /**
+     * Server-Timingヘッダの値を取得する. 例: collect;dur=12.345, decide;dur=0.021, ...
+     * @return ヘッダの値
+     */
+    String toHeaderValue() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < this.names.length; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(this.names[i]).append(";dur=");
+            appendMillis(sb, this.nanos[i]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * ログ出力用の文字列を取得する. 例: collect=12.345ms decide=0.021ms ...
+     * @return ログ出力用の文字列
+     */
+    String toLogString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < this.names.length; i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            sb.append(this.names[i]).append('=');
+            appendMillis(sb, this.nanos[i]);
+            sb.append("ms");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * リクエストの処理に要した時間を取得する.
+     * @return 処理時間(ナノ秒)
+     */
+    long getTotal() {
+        return this.nanos[this.nanos.length - 1];
+    }
+
+    private static void appendMillis(StringBuilder sb, long nanos) {
+        long micros = Math.max(0L, nanos) / NANOS_PER_MICRO;
+        sb.append(micros / MICROS_PER_MILLI).append('.');
+        String fraction = Long.toString(micros % MICROS_PER_MILLI);
+        for (int i = fraction.length(); i < MICROS_DIGITS; i++) {
+            sb.append('0');
+        }
+        sb.append(fraction);
+    }
+}
@@ -0,0 +1,228 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.mx.rs.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Locale;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+import com.fujitsu.dc.mx.DcMxConfig;
+import com.fujitsu.dc.mx.control.pcs.PcsModeControlManager;
+import com.fujitsu.dc.mx.control.pcs.PcsModeControlManager.Operation;
+import com.fujitsu.dc.mx.jersey.filter.LatencyHistogram;
+import com.fujitsu.dc.mx.jersey.filter.RequestLatencies;
+import com.fujitsu.dc.mx.model.diskusage.DiskUsage;
+import com.fujitsu.dc.mx.model.diskusage.DiskUsage.Status;
+import com.fujitsu.dc.mx.model.diskusage.DiskUsages;
+import com.fujitsu.dc.mx.model.diskusage.MemcachedHealth;
+import com.fujitsu.dc.mx.process.DiskUsageSampler;
+import com.fujitsu.dc.mx.rs.diskusage.DiskUsageStreamResource;
+
+/**
+ * DC-MX メトリクスAPIのリソースクラス.
+ * 最新のスナップショットを Prometheusのテキスト形式で返却する.
+ */
+@Path("/metrics")
+public class MetricsResource {
+
+    private static final String CONTENT_TYPE_HEADER = "Content-Type";
+    private static final String MX_HEADER = "X-Mx-Version";
+    private static final String TEXT_FORMAT = "text/plain; version=0.0.4; charset=utf-8";
+    private static final int HTTP_RESPONSE_STATUS = 200;
+    private static final String GAUGE = "gauge";
+    private static final String COUNTER = "counter";
+    private static final String SUMMARY = "summary";
+    private static final String[] QUANTILES = {"0.5", "0.9", "0.99", "0.999" };
+
+    /**
+     * リソースパス /metrics に対する GETメソッドの処理.
+     * @return Prometheusのテキスト形式のレスポンス
+     */
+    @GET
+    public Response getMetrics() {
+        DiskUsageSampler sampler = DiskUsageSampler.getInstance();
+        DiskUsages latest = sampler.getLatest();
+        if (latest == null) {
+            latest = sampler.sample();
+        }
+        final DiskUsages diskUsages = latest;
+        StreamingOutput entity = new StreamingOutput() {
+            @Override
+            public void write(OutputStream output) throws IOException {
+                MetricsWriter writer = MetricsWriter.get();
+                writeMetrics(writer, diskUsages, DiskUsageSampler.getInstance());
+                writer.writeTo(output);
+            }
+        };
+        return Response.status(HTTP_RESPONSE_STATUS)
+                .header(CONTENT_TYPE_HEADER, TEXT_FORMAT)
+                .header(MX_HEADER, DcMxConfig.getMxVersion())
+                .entity(entity)
+                .build();
+    }
+
+    /**
+     * メトリクスを書き出す.
+     * @param writer ライター
+     * @param diskUsages スナップショット
+     * @param sampler 採取の統計情報の取得元
+     */
+    static void writeMetrics(MetricsWriter writer, DiskUsages diskUsages, DiskUsageSampler sampler) {
+        writeVolumeSizes(writer, diskUsages);
+
+        writer.family("dc_mx_volume_status", GAUGE, "Status of the volume (1 for the current status).");
+        for (DiskUsage usage : diskUsages) {
+            for (Status status : Status.values()) {
+                writer.sample().label("volume", usage.getVolume()).label("status", status.name())
+                        .value(toFlag(usage.getStatus() == status));
+            }
+        }
+        writer.family("dc_mx_system_status", GAUGE, "Status of the whole system (1 for the current status).");
+        for (Status status : Status.values()) {
+            writer.sample().label("status", status.name()).value(toFlag(diskUsages.getSystemStatus() == status));
+        }
+
+        writer.family("dc_mx_snapshot_version", GAUGE, "Version of the latest disk usage snapshot.");
+        writer.sample().value(diskUsages.getVersion());
+        writer.family("dc_mx_snapshot_age_seconds", GAUGE, "Age of the latest disk usage snapshot.");
+        writer.sample().seconds(Math.max(0L, System.currentTimeMillis() - diskUsages.getCollectedAt()));
+        writer.family("dc_mx_sample_duration_seconds", GAUGE, "Duration of the latest disk usage sampling.");
+        writer.sample().seconds(sampler.getLastSampleDuration());
+        writer.family("dc_mx_samples_total", COUNTER, "Number of disk usage samplings.");
+        writer.sample().value(sampler.getSampleCount());
+        writer.family("dc_mx_sample_coalesced_total", COUNTER,
+                "Number of sampling requests coalesced into a running sampling.");
+        writer.sample().value(sampler.getCoalescedCount());
+
+        writer.family("dc_mx_memcached_operations_total", COUNTER,
+                "Number of operations on the PCS ReadDeleteOnly mode key.");
+        for (Operation operation : Operation.values()) {
+            String name = operation.name().toLowerCase(Locale.ENGLISH);
+            writer.sample().label("operation", name).label("result", "success")
+                    .value(PcsModeControlManager.getOperationCount(operation, false));
+            writer.sample().label("operation", name).label("result", "failure")
+                    .value(PcsModeControlManager.getOperationCount(operation, true));
+        }
+        writer.family("dc_mx_memcached_writes_skipped_total", COUNTER,
+                "Number of memcached writes skipped because the PCS mode was unchanged.");
+        writer.sample().value(PcsModeControlManager.getSkippedWriteCount());
+        writeMemcachedHealth(writer, diskUsages.getMemcachedHealth());
+
+        writer.family("dc_mx_stream_connections", GAUGE, "Number of connected /stats/stream clients.");
+        writer.sample().value(DiskUsageStreamResource.getActiveStreams());
+
+        writeRequestDurations(writer, RequestLatencies.getSeries());
+    }
+
+    /**
+     * リソースとステータスコードごとのリクエストのレイテンシを書き出す.
+     * @param writer ライター
+     * @param series レイテンシの系列
+     */
+    static void writeRequestDurations(MetricsWriter writer, List<RequestLatencies.Series> series) {
+        writer.family("dc_mx_request_duration_seconds", SUMMARY, "Latency of the requests.");
+        for (RequestLatencies.Series s : series) {
+            LatencyHistogram histogram = s.getHistogram();
+            String status = String.valueOf(s.getStatus());
+            for (String quantile : QUANTILES) {
+                writer.sample().label("resource", s.getResource()).label("status", status)
+                        .label("quantile", quantile)
+                        .nanoSeconds(histogram.getValueAtPercentile(Double.parseDouble(quantile)));
+            }
+        }
+        writer.member("dc_mx_request_duration_seconds_sum");
+        for (RequestLatencies.Series s : series) {
+            writer.sample().label("resource", s.getResource()).label("status", String.valueOf(s.getStatus()))
+                    .nanoSeconds(s.getHistogram().getSum());
+        }
+        writer.member("dc_mx_request_duration_seconds_count");
+        for (RequestLatencies.Series s : series) {
+            writer.sample().label("resource", s.getResource()).label("status", String.valueOf(s.getStatus()))
+                    .value(s.getHistogram().getCount());
+        }
+        writer.family("dc_mx_request_duration_max_seconds", GAUGE, "Maximum latency of the requests.");
+        for (RequestLatencies.Series s : series) {
+            writer.sample().label("resource", s.getResource()).label("status", String.valueOf(s.getStatus()))
+                    .nanoSeconds(s.getHistogram().getMax());
+        }
+    }
+
+    private static void writeVolumeSizes(MetricsWriter writer, DiskUsages diskUsages) {
+        // ERRORのボリュームはサイズを取得できていないため出力しない
+        writer.family("dc_mx_volume_disk_size_bytes", GAUGE, "Disk size of the volume.");
+        for (DiskUsage usage : diskUsages) {
+            if (usage.getStatus() != Status.ERROR) {
+                writer.sample().label("volume", usage.getVolume()).value(usage.getVolumeDiskSize());
+            }
+        }
+        writer.family("dc_mx_volume_allocated_disk_size_bytes", GAUGE,
+                "Disk size available to users before the volume is regarded as FULL.");
+        for (DiskUsage usage : diskUsages) {
+            if (usage.getStatus() != Status.ERROR) {
+                writer.sample().label("volume", usage.getVolume()).value(usage.getAllocatedDiskSize());
+            }
+        }
+        writer.family("dc_mx_volume_used_disk_size_bytes", GAUGE, "Used disk size of the volume.");
+        for (DiskUsage usage : diskUsages) {
+            if (usage.getStatus() != Status.ERROR) {
+                writer.sample().label("volume", usage.getVolume()).value(usage.getUsedDiskSize());
+            }
+        }
+        writer.family("dc_mx_volume_seconds_to_full", GAUGE,
+                "Forecast time until the volume is regarded as FULL (omitted while unknown).");
+        for (DiskUsage usage : diskUsages) {
+            if (usage.getStatus() != Status.ERROR && usage.getSecondsToFull() != DiskUsage.UNKNOWN_SECONDS_TO_FULL) {
+                writer.sample().label("volume", usage.getVolume()).value(usage.getSecondsToFull());
+            }
+        }
+    }
+
+    private static void writeMemcachedHealth(MetricsWriter writer, MemcachedHealth health) {
+        // memcachedの状態を採取していない場合は出力しない
+        if (health == null) {
+            return;
+        }
+        writer.family("dc_mx_memcached_curr_connections", GAUGE, "Number of open connections to memcached.");
+        writer.sample().value(health.getCurrConnections());
+        writer.family("dc_mx_memcached_evictions_total", COUNTER, "Number of items evicted by memcached.");
+        writer.sample().value(health.getEvictions());
+        writer.family("dc_mx_memcached_used_memory_bytes", GAUGE, "Memory used by memcached.");
+        writer.sample().value(health.getUsedMemory());
+        writer.family("dc_mx_memcached_memory_limit_bytes", GAUGE, "Memory limit of memcached.");
+        writer.sample().value(health.getMemoryLimit());
+        if (health.getHitRatio() != MemcachedHealth.UNKNOWN_HIT_RATIO) {
+            writer.family("dc_mx_memcached_hit_ratio", GAUGE, "Hit ratio of memcached gets since the last sampling.");
+            writer.sample().ratio(health.getHitRatio());
+        }
+        writer.family("dc_mx_memcached_eviction_risk", GAUGE,
+                "Whether the PCS mode keys may be evicted from memcached (1 for at risk).");
+        writer.sample().value(toFlag(health.isEvictionRisk()));
+    }
+
+    private static long toFlag(boolean value) {
+        if (value) {
+            return 1L;
+        }
+        return 0L;
+    }
+}
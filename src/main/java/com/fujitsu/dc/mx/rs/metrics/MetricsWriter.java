@@ -0,0 +1,280 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.mx.rs.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Prometheusのテキスト形式でメトリクスを書き出すクラス.
+ * 書き出しにはスレッドごとに再利用するバッファを使用し、中間の文字列を生成せずに出力ストリームへ書き込む。
+ */
+final class MetricsWriter {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int INITIAL_BUFFER_SIZE = 8192;
+    /** これを超える大きさのバッファはスレッドに保持しない. */
+    private static final int MAX_RETAINED_BUFFER_SIZE = 1024 * 1024;
+    private static final long MILLIS_PER_SECOND = 1000L;
+    private static final int MILLIS_DIGITS = 3;
+    private static final long NANOS_PER_SECOND = 1000000000L;
+    private static final int NANOS_DIGITS = 9;
+    private static final int ASCII_LIMIT = 0x80;
+
+    private static ThreadLocal<MetricsWriter> writers = new ThreadLocal<MetricsWriter>() {
+        @Override
+        protected MetricsWriter initialValue() {
+            return new MetricsWriter();
+        }
+    };
+
+    private byte[] buf = new byte[INITIAL_BUFFER_SIZE];
+    private int count = 0;
+    private String currentName = null;
+    private boolean hasLabel = false;
+
+    private MetricsWriter() {
+    }
+
+    /**
+     * 現在のスレッドのライターを取得する. 以前の内容は破棄される.
+     * @return ライター
+     */
+    static MetricsWriter get() {
+        MetricsWriter writer = writers.get();
+        writer.reset();
+        return writer;
+    }
+
+    private void reset() {
+        this.count = 0;
+        this.currentName = null;
+        if (this.buf.length > MAX_RETAINED_BUFFER_SIZE) {
+            this.buf = new byte[INITIAL_BUFFER_SIZE];
+        }
+    }
+
+    /**
+     * HELPと TYPEの行を書き出す.
+     * @param name メトリクス名
+     * @param type gauge, counterなどの種別
+     * @param help 説明
+     * @return this
+     */
+    MetricsWriter family(String name, String type, String help) {
+        writeAscii("# HELP ");
+        writeAscii(name);
+        writeByte(' ');
+        writeAscii(help);
+        writeAscii("\n# TYPE ");
+        writeAscii(name);
+        writeByte(' ');
+        writeAscii(type);
+        writeByte('\n');
+        this.currentName = name;
+        return this;
+    }
+
+    /**
+     * 以降のサンプルの名前を変更する. summaryの _sum, _countなど、同じファミリーに属するサンプルに使用する.
+     * @param name メトリクス名
+     * @return this
+     */
+    MetricsWriter member(String name) {
+        this.currentName = name;
+        return this;
+    }
+
+    /**
+     * 直前の family()で指定したメトリクスのサンプルを開始する.
+     * @return this
+     */
+    MetricsWriter sample() {
+        writeAscii(this.currentName);
+        this.hasLabel = false;
+        return this;
+    }
+
+    /**
+     * サンプルにラベルを追加する.
+     * @param name ラベル名
+     * @param value ラベル値
+     * @return this
+     */
+    MetricsWriter label(String name, String value) {
+        if (this.hasLabel) {
+            writeByte(',');
+        } else {
+            writeByte('{');
+            this.hasLabel = true;
+        }
+        writeAscii(name);
+        writeAscii("=\"");
+        writeLabelValue(value);
+        writeByte('"');
+        return this;
+    }
+
+    /**
+     * サンプルの値を書き出して行を終える.
+     * @param value 値
+     * @return this
+     */
+    MetricsWriter value(long value) {
+        endLabels();
+        writeAscii(Long.toString(value));
+        writeByte('\n');
+        return this;
+    }
+
+    /**
+     * ミリ秒の値を秒に換算して書き出し、行を終える.
+     * @param millis ミリ秒の値
+     * @return this
+     */
+    MetricsWriter seconds(long millis) {
+        endLabels();
+        writeFixed(millis, MILLIS_PER_SECOND, MILLIS_DIGITS);
+        writeByte('\n');
+        return this;
+    }
+
+    /**
+     * ナノ秒の値を秒に換算して書き出し、行を終える.
+     * @param nanos ナノ秒の値
+     * @return this
+     */
+    MetricsWriter nanoSeconds(long nanos) {
+        endLabels();
+        writeFixed(nanos, NANOS_PER_SECOND, NANOS_DIGITS);
+        writeByte('\n');
+        return this;
+    }
+
+    /**
+     * 小数の値を書き出して行を終える.
+     * @param value 値
+     * @return this
+     */
+    MetricsWriter ratio(double value) {
+        endLabels();
+        writeAscii(Double.toString(value));
+        writeByte('\n');
+        return this;
+    }
+
+    /**
+     * 書き出した内容を出力ストリームへ書き込む.
+     * @param output 出力ストリーム
+     * @throws IOException 書き込みに失敗した場合
+     */
+    void writeTo(OutputStream output) throws IOException {
+        output.write(this.buf, 0, this.count);
+    }
+
+    /**
+     * 書き出した内容を文字列として取得する.
+     * @return 書き出した内容
+     */
+    @Override
+    public String toString() {
+        return new String(this.buf, 0, this.count, UTF_8);
+    }
+
+    private void writeFixed(long value, long unit, int digits) {
+        if (value < 0) {
+            writeByte('-');
+        }
+        long abs = Math.abs(value);
+        writeAscii(Long.toString(abs / unit));
+        writeByte('.');
+        String fraction = Long.toString(abs % unit);
+        for (int i = fraction.length(); i < digits; i++) {
+            writeByte('0');
+        }
+        writeAscii(fraction);
+    }
+
+    private void endLabels() {
+        if (this.hasLabel) {
+            writeByte('}');
+            this.hasLabel = false;
+        }
+        writeByte(' ');
+    }
+
+    private void writeLabelValue(String value) {
+        if (value == null) {
+            return;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            switch (ch) {
+            case '\\':
+                writeAscii("\\\\");
+                break;
+            case '"':
+                writeAscii("\\\"");
+                break;
+            case '\n':
+                writeAscii("\\n");
+                break;
+            default:
+                if (ch < ASCII_LIMIT) {
+                    writeByte(ch);
+                } else {
+                    // ASCII以外はまれなため、その文字(サロゲートペアを含む)のみ変換する
+                    int end = i + 1;
+                    if (Character.isHighSurrogate(ch) && end < value.length()) {
+                        end++;
+                    }
+                    writeBytes(value.substring(i, end).getBytes(UTF_8));
+                    i = end - 1;
+                }
+                break;
+            }
+        }
+    }
+
+    private void writeAscii(String value) {
+        int length = value.length();
+        ensureCapacity(length);
+        for (int i = 0; i < length; i++) {
+            this.buf[this.count++] = (byte) value.charAt(i);
+        }
+    }
+
+    private void writeBytes(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, this.buf, this.count, bytes.length);
+        this.count += bytes.length;
+    }
+
+    private void writeByte(int b) {
+        ensureCapacity(1);
+        this.buf[this.count++] = (byte) b;
+    }
+
+    private void ensureCapacity(int additional) {
+        int required = this.count + additional;
+        if (required > this.buf.length) {
+            this.buf = Arrays.copyOf(this.buf, Math.max(required, this.buf.length * 2));
+        }
+    }
+}
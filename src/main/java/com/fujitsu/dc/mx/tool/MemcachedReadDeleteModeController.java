@@ -19,8 +19,27 @@ package com.fujitsu.dc.mx.tool;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import net.spy.memcached.CASResponse;
+import net.spy.memcached.CASValue;
 import net.spy.memcached.ConnectionObserver;
+import net.spy.memcached.internal.BulkFuture;
 import net.spy.memcached.internal.OperationFuture;
 
 import org.slf4j.Logger;
@@ -29,20 +48,56 @@ import org.slf4j.LoggerFactory;
 import com.fujitsu.dc.mx.DcMxConfig;
 import com.fujitsu.dc.mx.DcMxException;
 import com.fujitsu.dc.mx.DcMxMessageId;
-import com.fujitsu.dc.mx.control.pcs.ReadDeleteModeController;
+import com.fujitsu.dc.mx.control.pcs.ExtendedReadDeleteModeController;
+import com.fujitsu.dc.mx.control.pcs.ReadDeleteModeEntry;
 
 /**
  * memcachedにReadDeleteModeを設定/解除するクラス.
+ * memcachedへの接続は接続状態の通知を待ち合わせ、各操作は設定された時間で打ち切る。
+ * memcachedの停止を検知した場合は一定時間 memcachedへの操作を行わずに即座にエラーを返却する。
+ * 設定する値には com.fujitsu.dc.mx.pcsMode.leaseTtlの有効期間を付け、mxが停止した場合に失効させる。
+ * memcachedとの接続が確立した場合は設定されたリスナーに通知し、再起動した memcachedへ直ちに再設定できるようにする。
  */
-public class MemcachedReadDeleteModeController implements ReadDeleteModeController {
+public class MemcachedReadDeleteModeController implements ExtendedReadDeleteModeController {
 
     private static final int PORT_MAX = 65535;
     private static final int PORT_MIN = 0;
+    /** これより大きい有効期間は memcachedが UNIX時刻として扱う. */
+    private static final int MAX_RELATIVE_EXPIRATION = 60 * 60 * 24 * 30;
+
+    private static final String CONFIG_KEY_PREFIX = MemcachedReadDeleteModeController.class.getName();
+    private static final String FAILED_TO_SET_SYSTEM_STATUS_CODE = "MX500-SV-0002";
+    private static final String NOT_FOUND = "NOT_FOUND";
+    private static final String NOT_STORED = "NOT_STORED";
 
     static Logger log = LoggerFactory.getLogger(MemcachedReadDeleteModeController.class);
 
+    private static final String BACKGROUND_THREAD_NAME = "dc-mx-memcached-background";
+    /** サーキットの開放期間を過ぎた後に memcachedの応答を確認するためのキー. 存在しなくてよい. */
+    private static final String PROBE_KEY = CONFIG_KEY_PREFIX + ".probe";
+
     net.spy.memcached.MemcachedClient spyClient = null;
     private volatile boolean isConnected = false;
+    private final Object connectionLock = new Object();
+
+    private long waitForMemcached;
+    private long operationTimeout;
+    private int failureThreshold;
+    private long circuitOpenTime;
+    private int leaseTtl;
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private volatile long circuitOpenUntil = 0L;
+    private final AtomicBoolean probing = new AtomicBoolean(false);
+    private volatile Runnable connectionListener = null;
+    /** spymemcachedの同期 APIを操作タイムアウトで打ち切るために使用するスレッド. */
+    private final ExecutorService background = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, BACKGROUND_THREAD_NAME);
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
 
     /**
      * コンストラクタ.
@@ -50,14 +105,23 @@ public class MemcachedReadDeleteModeController implements ReadDeleteModeControll
      */
     public MemcachedReadDeleteModeController() throws DcMxException {
         try {
-            String host = DcMxConfig.get(MemcachedReadDeleteModeController.class.getName() + ".host");
-            String port = DcMxConfig.get(MemcachedReadDeleteModeController.class.getName() + ".port");
+            String host = DcMxConfig.get(CONFIG_KEY_PREFIX + ".host");
+            String port = DcMxConfig.get(CONFIG_KEY_PREFIX + ".port");
             int iPort = Integer.valueOf(port);
             if (iPort > PORT_MAX || iPort < PORT_MIN) {
                 // memcachedのポート番号に対して、ポート番号の範囲外の値が指定された
                 log.info("Memcached port number is out of range.");
                 throw new DcMxException(new DcMxMessageId("MX500-SV-0001"));
             }
+            this.waitForMemcached = DcMxConfig.getWaitForMemcached();
+            this.operationTimeout = Long.valueOf(DcMxConfig.get(CONFIG_KEY_PREFIX + ".operationTimeout"));
+            this.failureThreshold = Integer.valueOf(DcMxConfig.get(CONFIG_KEY_PREFIX + ".circuitBreaker.threshold"));
+            this.circuitOpenTime = Long.valueOf(DcMxConfig.get(CONFIG_KEY_PREFIX + ".circuitBreaker.openTime"));
+            this.leaseTtl = DcMxConfig.getPcsModeLeaseTtl();
+            if (this.leaseTtl > MAX_RELATIVE_EXPIRATION || this.leaseTtl < 0) {
+                log.info("Lease TTL is out of range.");
+                throw new DcMxException(new DcMxMessageId("MX500-SV-0001"));
+            }
             this.spyClient = new net.spy.memcached.MemcachedClient(new InetSocketAddress(host, iPort));
             this.spyClient.addObserver(new ConnectionObserver() {
 
@@ -69,7 +133,7 @@ public class MemcachedReadDeleteModeController implements ReadDeleteModeControll
                 @Override
                 public void connectionEstablished(SocketAddress sa,
                         int reconnectCount) {
-                    isConnected = true;
+                    onConnectionEstablished();
                 }
             });
         } catch (NumberFormatException e) {
@@ -82,51 +146,398 @@ public class MemcachedReadDeleteModeController implements ReadDeleteModeControll
     }
 
     @Override
-    public synchronized void setReadDeleteMode(String key, Object data) throws DcMxException {
+    public void setReadDeleteMode(String key, Object data) throws DcMxException {
         // memcachedに接続出来るさサーバがない場合はエラーを返却する
-        if (!isConnectedMemcached()) {
-            throw new DcMxException(new DcMxMessageId("MX500-SV-0002"));
-        }
+        checkAvailable();
         OperationFuture<Boolean> response = null;
         try {
-            response = this.spyClient.set(key, 0, data);
+            response = this.spyClient.set(key, this.leaseTtl, data);
         } catch (Exception e) {
+            recordFailure();
             log.info("Failed to set ReadDelete mode to memcached.");
-            throw new DcMxException(new DcMxMessageId("MX500-SV-0002"), e);
+            throw new DcMxException(new DcMxMessageId(FAILED_TO_SET_SYSTEM_STATUS_CODE), e);
         }
-        if (response != null && !response.getStatus().isSuccess()) {
-            throw new DcMxException(new DcMxMessageId("MX500-SV-0002"));
+        awaitOperation(response);
+        if (!response.getStatus().isSuccess()) {
+            throw new DcMxException(new DcMxMessageId(FAILED_TO_SET_SYSTEM_STATUS_CODE));
         }
     }
 
     @Override
-    public synchronized void removeReadDeleteMode(String key) throws DcMxException {
+    public void removeReadDeleteMode(String key) throws DcMxException {
         // memcachedに接続出来るさサーバがない場合はエラーを返却する
-        if (!isConnectedMemcached()) {
-            throw new DcMxException(new DcMxMessageId("MX500-SV-0002"));
-        }
+        checkAvailable();
         OperationFuture<Boolean> response = null;
         try {
             response = this.spyClient.delete(key);
         } catch (Exception e) {
+            recordFailure();
             log.info("Failed to release ReadDelete mode from memcached.");
-            throw new DcMxException(new DcMxMessageId("MX500-SV-0002"), e);
+            throw new DcMxException(new DcMxMessageId(FAILED_TO_SET_SYSTEM_STATUS_CODE), e);
+        }
+        awaitOperation(response);
+        if (!response.getStatus().isSuccess()
+                && !NOT_FOUND.equals(response.getStatus().getMessage())) {
+            throw new DcMxException(new DcMxMessageId(FAILED_TO_SET_SYSTEM_STATUS_CODE));
+        }
+    }
+
+    @Override
+    public ReadDeleteModeEntry getReadDeleteMode(String key) throws DcMxException {
+        checkAvailable();
+        Future<CASValue<Object>> response = null;
+        try {
+            response = this.spyClient.asyncGets(key);
+        } catch (Exception e) {
+            recordFailure();
+            log.info("Failed to get ReadDelete mode from memcached.");
+            throw new DcMxException(new DcMxMessageId(FAILED_TO_SET_SYSTEM_STATUS_CODE), e);
+        }
+        CASValue<Object> value = awaitOperation(response);
+        if (value == null) {
+            return null;
+        }
+        return new ReadDeleteModeEntry(value.getValue(), value.getCas());
+    }
+
+    @Override
+    public boolean compareAndSetReadDeleteMode(String key, long cas, Object data) throws DcMxException {
+        checkAvailable();
+        Future<CASResponse> response = null;
+        try {
+            response = this.spyClient.asyncCAS(key, cas, this.leaseTtl, data, this.spyClient.getTranscoder());
+        } catch (Exception e) {
+            recordFailure();
+            log.info("Failed to set ReadDelete mode to memcached.");
+            throw new DcMxException(new DcMxMessageId(FAILED_TO_SET_SYSTEM_STATUS_CODE), e);
+        }
+        CASResponse result = awaitOperation(response);
+        if (CASResponse.OK.equals(result)) {
+            return true;
+        }
+        if (CASResponse.EXISTS.equals(result) || CASResponse.NOT_FOUND.equals(result)) {
+            return false;
         }
-        if (response != null && !response.getStatus().isSuccess()
-                && !response.getStatus().getMessage().equals("NOT_FOUND")) {
-            throw new DcMxException(new DcMxMessageId("MX500-SV-0002"));
+        throw new DcMxException(new DcMxMessageId(FAILED_TO_SET_SYSTEM_STATUS_CODE));
+    }
+
+    @Override
+    public boolean addReadDeleteMode(String key, Object data) throws DcMxException {
+        checkAvailable();
+        OperationFuture<Boolean> response = null;
+        try {
+            response = this.spyClient.add(key, this.leaseTtl, data);
+        } catch (Exception e) {
+            recordFailure();
+            log.info("Failed to set ReadDelete mode to memcached.");
+            throw new DcMxException(new DcMxMessageId(FAILED_TO_SET_SYSTEM_STATUS_CODE), e);
+        }
+        Boolean result = awaitOperation(response);
+        if (Boolean.TRUE.equals(result)) {
+            return true;
+        }
+        if (NOT_STORED.equals(response.getStatus().getMessage())) {
+            return false;
+        }
+        throw new DcMxException(new DcMxMessageId(FAILED_TO_SET_SYSTEM_STATUS_CODE));
+    }
+
+    @Override
+    public Map<String, Object> getReadDeleteModes(Collection<String> keys) throws DcMxException {
+        checkAvailable();
+        BulkFuture<Map<String, Object>> response = null;
+        try {
+            response = this.spyClient.asyncGetBulk(keys);
+        } catch (Exception e) {
+            recordFailure();
+            log.info("Failed to get ReadDelete mode from memcached.");
+            throw new DcMxException(new DcMxMessageId(FAILED_TO_SET_SYSTEM_STATUS_CODE), e);
+        }
+        return awaitOperation(response);
+    }
+
+    @Override
+    public void setReadDeleteModes(Map<String, Object> entries) throws DcMxException {
+        if (entries.isEmpty()) {
+            return;
+        }
+        checkAvailable();
+        // 全ての setを送信してから応答を待つことで、キーの数によらず往復一回分の時間で完了させる
+        List<OperationFuture<Boolean>> responses = new ArrayList<OperationFuture<Boolean>>(entries.size());
+        try {
+            for (Map.Entry<String, Object> entry : entries.entrySet()) {
+                responses.add(this.spyClient.set(entry.getKey(), this.leaseTtl, entry.getValue()));
+            }
+        } catch (Exception e) {
+            recordFailure();
+            log.info("Failed to set ReadDelete mode to memcached.");
+            throw new DcMxException(new DcMxMessageId(FAILED_TO_SET_SYSTEM_STATUS_CODE), e);
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.operationTimeout);
+        for (OperationFuture<Boolean> response : responses) {
+            awaitOperation(response, deadline);
+            if (!response.getStatus().isSuccess()) {
+                throw new DcMxException(new DcMxMessageId(FAILED_TO_SET_SYSTEM_STATUS_CODE));
+            }
+        }
+    }
+
+    @Override
+    public void removeReadDeleteModes(Collection<String> keys) throws DcMxException {
+        if (keys.isEmpty()) {
+            return;
+        }
+        checkAvailable();
+        List<OperationFuture<Boolean>> responses = new ArrayList<OperationFuture<Boolean>>(keys.size());
+        try {
+            for (String key : keys) {
+                responses.add(this.spyClient.delete(key));
+            }
+        } catch (Exception e) {
+            recordFailure();
+            log.info("Failed to release ReadDelete mode from memcached.");
+            throw new DcMxException(new DcMxMessageId(FAILED_TO_SET_SYSTEM_STATUS_CODE), e);
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.operationTimeout);
+        for (OperationFuture<Boolean> response : responses) {
+            awaitOperation(response, deadline);
+            if (!response.getStatus().isSuccess()
+                    && !NOT_FOUND.equals(response.getStatus().getMessage())) {
+                throw new DcMxException(new DcMxMessageId(FAILED_TO_SET_SYSTEM_STATUS_CODE));
+            }
+        }
+    }
+
+    @Override
+    public Map<String, String> getServerStats(final String type) throws DcMxException {
+        checkAvailable();
+        // spymemcachedの statsは同期 APIのみのため、別スレッドで実行して他の操作と同じく操作タイムアウトで打ち切る
+        Future<Map<SocketAddress, Map<String, String>>> response = null;
+        try {
+            response = this.background.submit(new Callable<Map<SocketAddress, Map<String, String>>>() {
+                @Override
+                public Map<SocketAddress, Map<String, String>> call() {
+                    if (type == null) {
+                        return spyClient.getStats();
+                    }
+                    return spyClient.getStats(type);
+                }
+            });
+        } catch (Exception e) {
+            recordFailure();
+            log.info("Failed to get stats from memcached.");
+            throw new DcMxException(new DcMxMessageId(FAILED_TO_SET_SYSTEM_STATUS_CODE), e);
+        }
+        Map<SocketAddress, Map<String, String>> stats = awaitOperation(response);
+        // 接続先は 1台のため、応答したサーバの統計をそのまま返却する. 時間内に応答がない場合は空となる
+        for (Map<String, String> values : stats.values()) {
+            if (!values.isEmpty()) {
+                return values;
+            }
         }
+        return Collections.emptyMap();
     }
 
+    @Override
+    public void setConnectionListener(Runnable listener) {
+        this.connectionListener = listener;
+    }
+
+    @Override
+    public void shutdown() {
+        this.background.shutdownNow();
+        this.spyClient.shutdown();
+    }
+
+    /**
+     * memcachedに操作可能かどうかを確認する.
+     * サーキットが開いている場合は接続を待たずにエラーとする.
+     * 開放期間を過ぎた場合も呼び出し元は待たせず、memcachedの応答の確認を別スレッドで開始してエラーとする.
+     * @throws DcMxException memcachedに操作できない場合
+     */
+    private void checkAvailable() throws DcMxException {
+        if (this.probing.get() || isCircuitOpen()) {
+            log.debug("Memcached is known to be unavailable. Skip the operation.");
+            throw new DcMxException(new DcMxMessageId(FAILED_TO_SET_SYSTEM_STATUS_CODE));
+        }
+        if (this.circuitOpenUntil != 0L) {
+            startProbe();
+            throw new DcMxException(new DcMxMessageId(FAILED_TO_SET_SYSTEM_STATUS_CODE));
+        }
+        if (!isConnectedMemcached()) {
+            openCircuit();
+            throw new DcMxException(new DcMxMessageId(FAILED_TO_SET_SYSTEM_STATUS_CODE));
+        }
+    }
+
+    /**
+     * memcachedの操作の完了を待つ. 操作タイムアウトを超えた場合は操作を取り消す.
+     * @param future 操作のFuture
+     * @param <T> 操作結果の型
+     * @return 操作結果
+     * @throws DcMxException 操作が完了しなかった場合
+     */
+    <T> T awaitOperation(Future<T> future) throws DcMxException {
+        return awaitOperation(future, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.operationTimeout));
+    }
+
+    /**
+     * memcachedの操作の完了を待つ. 期限を過ぎた場合は操作を取り消す.
+     * @param future 操作のFuture
+     * @param deadline 期限(System.nanoTime()の値)
+     * @param <T> 操作結果の型
+     * @return 操作結果
+     * @throws DcMxException 操作が完了しなかった場合
+     */
+    private <T> T awaitOperation(Future<T> future, long deadline) throws DcMxException {
+        try {
+            T result = future.get(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            recordSuccess();
+            return result;
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            recordFailure();
+            log.info("Memcached operation timed out.");
+            throw new DcMxException(new DcMxMessageId(FAILED_TO_SET_SYSTEM_STATUS_CODE), e);
+        } catch (ExecutionException e) {
+            recordFailure();
+            log.info("Memcached operation failed.");
+            throw new DcMxException(new DcMxMessageId(FAILED_TO_SET_SYSTEM_STATUS_CODE), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DcMxException(new DcMxMessageId(FAILED_TO_SET_SYSTEM_STATUS_CODE), e);
+        }
+    }
+
+    /**
+     * memcachedの応答の確認を別スレッドで開始する. 確認中の場合は何もしない.
+     */
+    private void startProbe() {
+        if (!this.probing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            this.background.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        probe();
+                    } finally {
+                        probing.set(false);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // 停止済みの場合は確認しない
+            this.probing.set(false);
+        }
+    }
+
+    /**
+     * memcachedの応答を確認中かどうかを取得する.
+     * @return true: 確認中
+     */
+    boolean isProbing() {
+        return this.probing.get();
+    }
+
+    /**
+     * memcachedの応答を確認する. 応答があればサーキットを閉じて接続リスナに通知し、なければサーキットを開き直す.
+     */
+    private void probe() {
+        log.info("Probe memcached.");
+        if (!isConnectedMemcached()) {
+            openCircuit();
+            return;
+        }
+        try {
+            awaitOperation(this.spyClient.asyncGet(PROBE_KEY));
+        } catch (DcMxException e) {
+            // 失敗の記録でサーキットが開き直されていない場合(割り込み等)も開き直す
+            if (!isCircuitOpen()) {
+                openCircuit();
+            }
+            return;
+        }
+        log.info("Memcached circuit closed.");
+        closeCircuit();
+        notifyConnectionListener();
+    }
+
+    /**
+     * memcachedとの接続を待ち合わせる. 接続の通知がない場合は設定された時間で打ち切る.
+     * @return true: 接続済み false: 未接続
+     */
     private boolean isConnectedMemcached() {
         if (isConnected) {
             return isConnected;
         }
-        try {
-            Thread.sleep(DcMxConfig.getWaitForMemcached());
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+        long deadline = System.currentTimeMillis() + this.waitForMemcached;
+        synchronized (this.connectionLock) {
+            while (!isConnected) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    break;
+                }
+                try {
+                    this.connectionLock.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
         }
         return isConnected;
     }
+
+    private void onConnectionEstablished() {
+        synchronized (this.connectionLock) {
+            isConnected = true;
+            this.connectionLock.notifyAll();
+        }
+        closeCircuit();
+        notifyConnectionListener();
+    }
+
+    private void notifyConnectionListener() {
+        Runnable listener = this.connectionListener;
+        if (listener != null) {
+            try {
+                listener.run();
+            } catch (RuntimeException e) {
+                // memcachedクライアントや応答確認のスレッドを止めないようにログ出力のみ行う
+                log.warn("Connection listener failed.", e);
+            }
+        }
+    }
+
+    private boolean isCircuitOpen() {
+        long openUntil = this.circuitOpenUntil;
+        // 開放期間を過ぎた場合は応答の確認を許可する
+        return openUntil != 0L && System.currentTimeMillis() < openUntil;
+    }
+
+    private void openCircuit() {
+        this.circuitOpenUntil = System.currentTimeMillis() + this.circuitOpenTime;
+        log.info("Memcached circuit opened for " + this.circuitOpenTime + "ms.");
+    }
+
+    private void closeCircuit() {
+        this.consecutiveFailures.set(0);
+        if (this.circuitOpenUntil != 0L) {
+            this.circuitOpenUntil = 0L;
+            log.info("Memcached circuit closed.");
+        }
+    }
+
+    private void recordSuccess() {
+        this.consecutiveFailures.set(0);
+        this.circuitOpenUntil = 0L;
+    }
+
+    private void recordFailure() {
+        if (this.consecutiveFailures.incrementAndGet() >= this.failureThreshold) {
+            openCircuit();
+        }
+    }
 }
@@ -34,6 +34,7 @@ import com.fujitsu.dc.mx.DcMxException;
 import com.fujitsu.dc.mx.control.pcs.PcsModeControlManager;
 import com.fujitsu.dc.mx.model.diskusage.DiskUsages;
 import com.fujitsu.dc.mx.process.DiskUsageMainProcess;
+import com.fujitsu.dc.mx.process.DiskUsageSampler;
 import com.fujitsu.dc.mx.rs.DcManagementExtensionApp;
 
 /**
@@ -70,6 +71,9 @@ public class DcManagementExtensionAppTest {
      */
     @After
     public void after() {
+        // 定期採取がテスト間で動作しないように停止する
+        DiskUsageSampler.getInstance().stop();
+
         File testDir = new File(rootPath + File.separator + volumeName);
         testDir.delete();
         testDir = new File(rootPath);
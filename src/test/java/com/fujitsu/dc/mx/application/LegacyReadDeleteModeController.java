@@ -0,0 +1,66 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.mx.application;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.fujitsu.dc.mx.DcMxException;
+import com.fujitsu.dc.mx.control.pcs.ReadDeleteModeController;
+
+/**
+ * 設定と削除のみを実装した ReadDeleteModeControllerのモッククラス.
+ * ExtendedReadDeleteModeControllerを実装していない既存の実装を再現する.
+ */
+public class LegacyReadDeleteModeController implements ReadDeleteModeController {
+
+    private static final Map<String, Object> VALUES = new HashMap<String, Object>();
+
+    @Override
+    public void setReadDeleteMode(String key, Object data) throws DcMxException {
+        synchronized (VALUES) {
+            VALUES.put(key, data);
+        }
+    }
+
+    @Override
+    public void removeReadDeleteMode(String key) throws DcMxException {
+        synchronized (VALUES) {
+            VALUES.remove(key);
+        }
+    }
+
+    /**
+     * 設定された値を取得する.
+     * @param key キー
+     * @return 値. 設定されていない場合は null
+     */
+    public static Object getValue(String key) {
+        synchronized (VALUES) {
+            return VALUES.get(key);
+        }
+    }
+
+    /**
+     * 設定された値を全て削除する.
+     */
+    public static void clear() {
+        synchronized (VALUES) {
+            VALUES.clear();
+        }
+    }
+}
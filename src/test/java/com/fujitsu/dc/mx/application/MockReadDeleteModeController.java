@@ -16,16 +16,32 @@
  */
 package com.fujitsu.dc.mx.application;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
 import com.fujitsu.dc.mx.DcMxException;
-import com.fujitsu.dc.mx.control.pcs.ReadDeleteModeController;
+import com.fujitsu.dc.mx.DcMxMessageId;
+import com.fujitsu.dc.mx.control.pcs.ExtendedReadDeleteModeController;
+import com.fujitsu.dc.mx.control.pcs.ReadDeleteModeEntry;
 
 /**
  * ReadDeleteModeControllerのモッククラス.
+ * 全てのインスタンスで値を共有し、複数の mxノードが同じ memcachedを使う状態を再現する.
  */
-public class MockReadDeleteModeController implements ReadDeleteModeController {
+public class MockReadDeleteModeController implements ExtendedReadDeleteModeController {
+
+    private static final String LOCK_KEY = "PcsReadDeleteMode";
 
     private static MockReadDeleteModeController singleton = null;
-    private boolean locked = false;
+    private long delay = 0L;
+    private Map<String, Object> values = new HashMap<String, Object>();
+    private Map<String, Long> casValues = new HashMap<String, Long>();
+    private long cas = 0L;
+    private int writeCount = 0;
+    private boolean available = true;
+    private Runnable connectionListener = null;
+    private Map<String, Map<String, String>> serverStats = new HashMap<String, Map<String, String>>();
 
     /**
      * コンストラクタ.
@@ -49,12 +65,159 @@ public class MockReadDeleteModeController implements ReadDeleteModeController {
 
     @Override
     public void setReadDeleteMode(String key, Object data) throws DcMxException {
-        setMode(true);
+        checkAvailable();
+        sleep();
+        countWrite(key);
+        put(key, data);
     }
 
     @Override
     public void removeReadDeleteMode(String key) throws DcMxException {
-        setMode(false);
+        checkAvailable();
+        sleep();
+        countWrite(key);
+        remove(key);
+    }
+
+    @Override
+    public ReadDeleteModeEntry getReadDeleteMode(String key) throws DcMxException {
+        checkAvailable();
+        synchronized (singleton) {
+            if (!singleton.values.containsKey(key)) {
+                return null;
+            }
+            return new ReadDeleteModeEntry(singleton.values.get(key), singleton.casValues.get(key));
+        }
+    }
+
+    @Override
+    public boolean compareAndSetReadDeleteMode(String key, long casValue, Object value) throws DcMxException {
+        checkAvailable();
+        synchronized (singleton) {
+            Long current = singleton.casValues.get(key);
+            if (current == null || current != casValue) {
+                return false;
+            }
+            setReadDeleteMode(key, value);
+            return true;
+        }
+    }
+
+    @Override
+    public boolean addReadDeleteMode(String key, Object data) throws DcMxException {
+        checkAvailable();
+        synchronized (singleton) {
+            if (singleton.values.containsKey(key)) {
+                return false;
+            }
+            setReadDeleteMode(key, data);
+            return true;
+        }
+    }
+
+    @Override
+    public Map<String, Object> getReadDeleteModes(Collection<String> keys) throws DcMxException {
+        checkAvailable();
+        Map<String, Object> result = new HashMap<String, Object>();
+        synchronized (singleton) {
+            for (String key : keys) {
+                if (singleton.values.containsKey(key)) {
+                    result.put(key, singleton.values.get(key));
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void setReadDeleteModes(Map<String, Object> entries) throws DcMxException {
+        checkAvailable();
+        sleep();
+        for (Map.Entry<String, Object> entry : entries.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public void removeReadDeleteModes(Collection<String> keys) throws DcMxException {
+        checkAvailable();
+        sleep();
+        for (String key : keys) {
+            remove(key);
+        }
+    }
+
+    @Override
+    public Map<String, String> getServerStats(String type) throws DcMxException {
+        checkAvailable();
+        synchronized (singleton) {
+            Map<String, String> stats = singleton.serverStats.get(String.valueOf(type));
+            if (stats == null) {
+                return new HashMap<String, String>();
+            }
+            return new HashMap<String, String>(stats);
+        }
+    }
+
+    @Override
+    public void setConnectionListener(Runnable listener) {
+        synchronized (singleton) {
+            singleton.connectionListener = listener;
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        // テスト間で状態を共有するため何もしない
+    }
+
+    private void checkAvailable() throws DcMxException {
+        synchronized (singleton) {
+            if (!singleton.available) {
+                throw new DcMxException(new DcMxMessageId("MX500-SV-0002"));
+            }
+        }
+    }
+
+    private void put(String key, Object data) {
+        synchronized (singleton) {
+            singleton.values.put(key, data);
+            singleton.casValues.put(key, ++singleton.cas);
+        }
+    }
+
+    private void remove(String key) {
+        synchronized (singleton) {
+            singleton.values.remove(key);
+            singleton.casValues.remove(key);
+        }
+    }
+
+    private void countWrite(String key) {
+        if (LOCK_KEY.equals(key)) {
+            synchronized (singleton) {
+                singleton.writeCount++;
+            }
+        }
+    }
+
+    private void sleep() {
+        if (singleton.delay <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(singleton.delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * モックの応答遅延を設定するメソッド.
+     * @param delay 応答遅延(ミリ秒)
+     */
+    public void setDelay(long delay) {
+        singleton.delay = delay;
     }
 
     /**
@@ -62,7 +225,29 @@ public class MockReadDeleteModeController implements ReadDeleteModeController {
      * @return true: ロック中 false:ロック中ではない
      */
     public boolean isLocked() {
-        return singleton.locked;
+        return isLocked(LOCK_KEY);
+    }
+
+    /**
+     * 指定したキーのロック状態を返却するメソッド.
+     * @param key キー
+     * @return true: ロック中 false:ロック中ではない
+     */
+    public boolean isLocked(String key) {
+        synchronized (singleton) {
+            return singleton.values.containsKey(key);
+        }
+    }
+
+    /**
+     * 指定したキーの値を返却するメソッド.
+     * @param key キー
+     * @return 値. 設定されていない場合は null
+     */
+    public Object getValue(String key) {
+        synchronized (singleton) {
+            return singleton.values.get(key);
+        }
     }
 
     /**
@@ -70,7 +255,52 @@ public class MockReadDeleteModeController implements ReadDeleteModeController {
      * @param mode ロック状態
      */
     public void setMode(boolean mode) {
-        singleton.locked = mode;
+        if (mode) {
+            put(LOCK_KEY, "");
+        } else {
+            remove(LOCK_KEY);
+        }
+    }
+
+    /**
+     * モックが返却する統計情報を設定するメソッド.
+     * @param type 統計の種類. 基本の統計の場合は null
+     * @param stats 統計の名前と値
+     */
+    public void setServerStats(String type, Map<String, String> stats) {
+        synchronized (singleton) {
+            singleton.serverStats.put(String.valueOf(type), stats);
+        }
+    }
+
+    /**
+     * memcachedの停止と再起動を再現するメソッド. 再起動した場合は全てのキーを破棄し、接続の確立を通知する.
+     * @param value true: 起動 false: 停止
+     */
+    public void setAvailable(boolean value) {
+        Runnable listener;
+        synchronized (singleton) {
+            singleton.available = value;
+            if (!value) {
+                return;
+            }
+            singleton.values.clear();
+            singleton.casValues.clear();
+            listener = singleton.connectionListener;
+        }
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    /**
+     * モックへの全体のキーの書き込み回数を返却するメソッド.
+     * @return 書き込み回数
+     */
+    public int getWriteCount() {
+        synchronized (singleton) {
+            return singleton.writeCount;
+        }
     }
 
 }
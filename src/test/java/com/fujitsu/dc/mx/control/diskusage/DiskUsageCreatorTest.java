@@ -19,11 +19,15 @@ package com.fujitsu.dc.mx.control.diskusage;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
 
 import org.junit.After;
 import org.junit.Before;
@@ -307,4 +311,300 @@ public class DiskUsageCreatorTest {
             new DiskUsageCreator(" ", "0.9");
     }
 
+    /**
+     * 応答しないボリュームが存在する場合該当ボリュームのみタイムアウトのエラー情報が格納されること.
+     * @throws Exception エラー
+     */
+    @Test
+    public void 応答しないボリュームが存在する場合該当ボリュームのみタイムアウトのエラー情報が格納されること() throws Exception {
+        File testDir = new File(rootPath + File.separator + "_ads");
+        try {
+            testDir.mkdir();
+
+            DiskUsageCreator diskUsageCreator = new DiskUsageCreator(rootPath, "0.9", 500L) {
+                @Override
+                DiskUsage statVolume(String volume) {
+                    if ("_ads".equals(volume)) {
+                        try {
+                            Thread.sleep(3000L);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                    return super.statVolume(volume);
+                }
+            };
+            long start = System.currentTimeMillis();
+            DiskUsages diskUsages = diskUsageCreator.create();
+            long elapsed = System.currentTimeMillis() - start;
+
+            assertTrue(elapsed < 3000L);
+            assertEquals(2, diskUsages.size());
+            assertEquals(DiskUsage.Status.ERROR, diskUsages.getSystemStatus());
+            for (DiskUsage diskUsage : diskUsages) {
+                if ("_ads".equals(diskUsage.getVolume())) {
+                    DiskUsage expected = DiskUsage.getErrorInstance("_ads",
+                            new DcMxException(new DcMxMessageId("MX500-SV-0004")));
+                    assertEquals(expected.toJson(), diskUsage.toJson());
+                } else {
+                    assertEquals("elasticsearch1", diskUsage.getVolume());
+                    assertEquals(DiskUsage.Status.OK, diskUsage.getStatus());
+                }
+            }
+        } finally {
+            testDir.delete();
+        }
+    }
+
+    /**
+     * 待ち時間がボリューム毎に採取を開始してから数えられること.
+     * @throws DcMxException エラー
+     */
+    @Test
+    public void 待ち時間がボリューム毎に採取を開始してから数えられること() throws DcMxException {
+        VolumeStatProvider provider = new VolumeStatProvider() {
+            @Override
+            public List<String> listVolumes(String volumePath) {
+                List<String> volumes = new ArrayList<String>();
+                for (int i = 0; i < 12; i++) {
+                    volumes.add("volume" + i);
+                }
+                return volumes;
+            }
+
+            @Override
+            public VolumeStat getVolumeStat(String volumePath, String volume) throws DcMxException {
+                try {
+                    Thread.sleep(300L);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return new VolumeStat(10000000L, 3000000L);
+            }
+        };
+        // 12ボリュームを4スレッドで採取すると全体では900ms程度かかるが、ボリューム毎には500ms以内に終わる
+        DiskUsageCreator diskUsageCreator = new DiskUsageCreator("/synthetic", "0.9", 500L, provider);
+        DiskUsages diskUsages = diskUsageCreator.create();
+
+        assertEquals(12, diskUsages.size());
+        assertEquals(DiskUsage.Status.OK, diskUsages.getSystemStatus());
+    }
+
+    /**
+     * 採取の開始を待っている間は待ち時間に数えないこと.
+     * @throws DcMxException エラー
+     */
+    @Test
+    public void 採取の開始を待っている間は待ち時間に数えないこと() throws DcMxException {
+        VolumeStatProvider provider = new VolumeStatProvider() {
+            @Override
+            public List<String> listVolumes(String volumePath) {
+                List<String> volumes = new ArrayList<String>();
+                for (int i = 0; i < 200; i++) {
+                    volumes.add("volume" + i);
+                }
+                return volumes;
+            }
+
+            @Override
+            public VolumeStat getVolumeStat(String volumePath, String volume) throws DcMxException {
+                try {
+                    Thread.sleep(5L);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return new VolumeStat(10000000L, 3000000L);
+            }
+        };
+        // 200ボリュームを4スレッドで採取すると全体では250ms以上かかるが、ボリューム毎には100ms以内に終わる
+        DiskUsageCreator diskUsageCreator = new DiskUsageCreator("/queued", "0.9", 100L, provider);
+        DiskUsages diskUsages = diskUsageCreator.create();
+
+        assertEquals(200, diskUsages.size());
+        assertEquals(DiskUsage.Status.OK, diskUsages.getSystemStatus());
+    }
+
+    /**
+     * 中断後も応答しないボリュームが他のボリュームの採取を妨げないこと.
+     * @throws DcMxException エラー
+     */
+    @Test
+    public void 中断後も応答しないボリュームが他のボリュームの採取を妨げないこと() throws DcMxException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        VolumeStatProvider provider = new VolumeStatProvider() {
+            @Override
+            public List<String> listVolumes(String volumePath) {
+                List<String> volumes = new ArrayList<String>();
+                for (int i = 0; i < 4; i++) {
+                    volumes.add("stuck" + i);
+                }
+                volumes.add("volume");
+                return volumes;
+            }
+
+            @Override
+            public VolumeStat getVolumeStat(String volumePath, String volume) throws DcMxException {
+                if (volume.startsWith("stuck")) {
+                    // 割り込みに応答しないNFSの応答待ちを模擬する
+                    boolean released = false;
+                    while (!released) {
+                        try {
+                            latch.await();
+                            released = true;
+                        } catch (InterruptedException e) {
+                            released = false;
+                        }
+                    }
+                }
+                return new VolumeStat(10000000L, 3000000L);
+            }
+        };
+        try {
+            DiskUsageCreator diskUsageCreator = new DiskUsageCreator("/stuck", "0.9", 300L, provider);
+            // 全スレッドが応答しないボリュームに占有されても、中断した時点でスレッドを増やして採取する
+            long start = System.currentTimeMillis();
+            DiskUsages diskUsages = diskUsageCreator.create();
+            long elapsed = System.currentTimeMillis() - start;
+
+            assertTrue(elapsed < 1000L);
+            assertEquals(5, diskUsages.size());
+            for (int i = 0; i < 4; i++) {
+                assertEquals(DiskUsage.Status.ERROR, diskUsages.get(i).getStatus());
+            }
+            assertEquals("volume", diskUsages.get(4).getVolume());
+            assertEquals(DiskUsage.Status.OK, diskUsages.get(4).getStatus());
+
+            // 応答しないボリュームには再投入せず、待たずにエラーとする
+            start = System.currentTimeMillis();
+            diskUsages = diskUsageCreator.create();
+            elapsed = System.currentTimeMillis() - start;
+
+            assertTrue(elapsed < 300L);
+            assertEquals(5, diskUsages.size());
+            for (int i = 0; i < 4; i++) {
+                assertEquals(DiskUsage.Status.ERROR, diskUsages.get(i).getStatus());
+            }
+            assertEquals(DiskUsage.Status.OK, diskUsages.get(4).getStatus());
+        } finally {
+            latch.countDown();
+        }
+    }
+
+    /**
+     * ボリューム毎の待ち時間が0以下の場合例外がスローされること.
+     * @throws Exception ボリューム毎の待ち時間が不正
+     */
+    @Test (expected = DcMxException.class)
+    public void ボリューム毎の待ち時間が0以下の場合例外がスローされること() throws Exception {
+            new DiskUsageCreator(rootPath, "0.9", 0L);
+    }
+
+    /**
+     * 指定したVolumeStatProviderからディスク使用量の情報を取得できること.
+     * @throws DcMxException エラー
+     */
+    @Test
+    public void 指定したVolumeStatProviderからディスク使用量の情報を取得できること() throws DcMxException {
+        VolumeStatProvider provider = new VolumeStatProvider() {
+            @Override
+            public List<String> listVolumes(String volumePath) {
+                List<String> volumes = new ArrayList<String>();
+                for (int i = 0; i < 1000; i++) {
+                    volumes.add("volume" + i);
+                }
+                return volumes;
+            }
+
+            @Override
+            public VolumeStat getVolumeStat(String volumePath, String volume) throws DcMxException {
+                if ("volume999".equals(volume)) {
+                    throw new DcMxException(new DcMxMessageId("MX500-SV-0003"));
+                }
+                return new VolumeStat(10000000L, 3000000L);
+            }
+        };
+        DiskUsageCreator diskUsageCreator = new DiskUsageCreator("/synthetic", "0.9", 5000L, provider);
+        DiskUsages diskUsages = diskUsageCreator.create();
+
+        assertEquals(1000, diskUsages.size());
+        assertEquals("volume0", diskUsages.get(0).getVolume());
+        assertEquals(7000000L, diskUsages.get(0).getUsedDiskSize());
+        assertEquals(DiskUsage.Status.ERROR, diskUsages.get(999).getStatus());
+        assertEquals(DiskUsage.Status.ERROR, diskUsages.getSystemStatus());
+    }
+
+    /**
+     * ボリュームごとのしきい値のルールが適用されること.
+     * @throws DcMxException エラー
+     */
+    @Test
+    public void ボリュームごとのしきい値のルールが適用されること() throws DcMxException {
+        VolumeStatProvider provider = new VolumeStatProvider() {
+            @Override
+            public List<String> listVolumes(String volumePath) {
+                List<String> volumes = new ArrayList<String>();
+                volumes.add("_ads");
+                volumes.add("elasticsearch1");
+                volumes.add("elasticsearch2");
+                volumes.add("webdav");
+                return volumes;
+            }
+
+            @Override
+            public VolumeStat getVolumeStat(String volumePath, String volume) throws DcMxException {
+                return new VolumeStat(10L * 1024 * 1024, 3L * 1024 * 1024);
+            }
+        };
+        DiskUsageCreator diskUsageCreator = new DiskUsageCreator("/synthetic", "0.9",
+                "elasticsearch?=free:9M, _ads=0.5, elasticsearch2=free:1048576", 5000L, provider);
+        DiskUsages diskUsages = diskUsageCreator.create();
+
+        assertEquals(4, diskUsages.size());
+        assertEquals(5L * 1024 * 1024, diskUsages.get(0).getAllocatedDiskSize());
+        assertEquals("volume:_ads=0.5", diskUsages.get(0).getThresholdRule().toString());
+        assertEquals(1L * 1024 * 1024, diskUsages.get(1).getAllocatedDiskSize());
+        assertEquals(DiskUsage.Status.FULL, diskUsages.get(1).getStatus());
+        assertEquals("pattern:elasticsearch?=free:9437184", diskUsages.get(1).getThresholdRule().toString());
+        assertEquals(9L * 1024 * 1024, diskUsages.get(2).getAllocatedDiskSize());
+        assertEquals("volume:elasticsearch2=free:1048576", diskUsages.get(2).getThresholdRule().toString());
+        assertEquals(9L * 1024 * 1024, diskUsages.get(3).getAllocatedDiskSize());
+        assertEquals("default=0.9", diskUsages.get(3).getThresholdRule().toString());
+        assertTrue(diskUsages.toJsonString().contains("\"thresholdRule\":\"default=0.9\""));
+    }
+
+    /**
+     * ボリュームごとのしきい値のルールが不正な場合例外がスローされること.
+     * @throws Exception ボリュームごとのしきい値のルールが不正
+     */
+    @Test
+    public void ボリュームごとのしきい値のルールが不正な場合例外がスローされること() throws Exception {
+        String[] invalidRules = {"_ads", "=0.9", "_ads=1.1", "_ads=free:", "_ads=free:-1", "_ads=free:9999999999T" };
+        for (String rules : invalidRules) {
+            try {
+                new DiskUsageCreator("/synthetic", "0.9", rules, 5000L, null);
+                fail(rules);
+            } catch (DcMxException e) {
+                assertEquals("MX500-SV-0001", e.getMessageId());
+            }
+        }
+    }
+
+    /**
+     * 低水位までの幅がボリュームごとのしきい値を超える場合例外がスローされること.
+     * @throws Exception 低水位が不正
+     */
+    @Test
+    public void 低水位までの幅がボリュームごとのしきい値を超える場合例外がスローされること() throws Exception {
+        // 幅 0.1はいずれのルールのしきい値も超えない
+        new DiskUsageCreator("/synthetic", "0.9", "_ads=0.5,es*=free:1G", "0.8", 5000L, null);
+        String[][] invalids = {{"_ads=0.05", "0.8" }, {"es*=0.3", "0.5" }, {"", "0.95" }, {"", "abc" } };
+        for (String[] invalid : invalids) {
+            try {
+                new DiskUsageCreator("/synthetic", "0.9", invalid[0], invalid[1], 5000L, null);
+                fail(invalid[0] + " " + invalid[1]);
+            } catch (DcMxException e) {
+                assertEquals("MX500-SV-0001", e.getMessageId());
+            }
+        }
+    }
 }
@@ -0,0 +1,85 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.mx.control.diskusage;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import com.fujitsu.dc.mx.model.diskusage.DiskUsage;
+import com.fujitsu.dc.mx.model.diskusage.DiskUsages;
+
+/**
+ * GrowthEstimatorのテスト.
+ */
+public class GrowthEstimatorTest {
+
+    private static final long INTERVAL = 10000L;
+
+    private static DiskUsage estimate(GrowthEstimator estimator, long time, long usedDiskSize) {
+        DiskUsages diskUsages = new DiskUsages();
+        DiskUsage usage = new DiskUsage("vol1", 10000000L, usedDiskSize, 0.9);
+        diskUsages.add(usage);
+        estimator.estimate(diskUsages, time);
+        return usage;
+    }
+
+    /**
+     * 一定の速度で増加する場合に使用可能サイズに達するまでの秒数が求められること.
+     */
+    @Test
+    public void 一定の速度で増加する場合に使用可能サイズに達するまでの秒数が求められること() {
+        GrowthEstimator estimator = new GrowthEstimator(600000L, 3);
+        // 10秒ごとに 1000バイト(100バイト/秒)増加する
+        assertEquals(DiskUsage.UNKNOWN_SECONDS_TO_FULL, estimate(estimator, 0L, 7000000L).getSecondsToFull());
+        assertEquals(DiskUsage.UNKNOWN_SECONDS_TO_FULL, estimate(estimator, INTERVAL, 7001000L).getSecondsToFull());
+        assertEquals(19980L, estimate(estimator, 2 * INTERVAL, 7002000L).getSecondsToFull());
+        assertEquals(19970L, estimate(estimator, 3 * INTERVAL, 7003000L).getSecondsToFull());
+
+        // 使用可能サイズに達している場合は 0
+        assertEquals(0L, estimate(estimator, 4 * INTERVAL, 9500000L).getSecondsToFull());
+    }
+
+    /**
+     * 使用量が増加していない場合は推定時間が不明となること.
+     */
+    @Test
+    public void 使用量が増加していない場合は推定時間が不明となること() {
+        GrowthEstimator estimator = new GrowthEstimator(600000L, 3);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(DiskUsage.UNKNOWN_SECONDS_TO_FULL,
+                    estimate(estimator, i * INTERVAL, 7000000L - i * 1000L).getSecondsToFull());
+        }
+    }
+
+    /**
+     * 期間を過ぎた採取結果は推定に使用しないこと.
+     */
+    @Test
+    public void 期間を過ぎた採取結果は推定に使用しないこと() {
+        GrowthEstimator estimator = new GrowthEstimator(3 * INTERVAL, 3);
+        // 急増した後は横ばいとなる
+        estimate(estimator, 0L, 5000000L);
+        estimate(estimator, INTERVAL, 6000000L);
+        estimate(estimator, 2 * INTERVAL, 7000000L);
+        for (int i = 3; i < 6; i++) {
+            estimate(estimator, i * INTERVAL, 7000000L + i);
+        }
+        // 直近 30秒の 4件のみを使用し、0.1バイト/秒の増加となる
+        assertEquals(19999940L, estimate(estimator, 6 * INTERVAL, 7000006L).getSecondsToFull());
+    }
+}
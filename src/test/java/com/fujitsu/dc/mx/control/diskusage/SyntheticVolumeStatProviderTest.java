@@ -0,0 +1,108 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.mx.control.diskusage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import com.fujitsu.dc.mx.DcMxConfig;
+import com.fujitsu.dc.mx.DcMxException;
+
+/**
+ * SyntheticVolumeStatProviderのテスト.
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({DcMxConfig.class })
+public class SyntheticVolumeStatProviderTest {
+
+    private static final String PREFIX = SyntheticVolumeStatProvider.class.getName();
+
+    private static void setConfig(String key, String value) throws Exception {
+        PowerMockito.when(DcMxConfig.class, "get", PREFIX + key).thenReturn(value);
+    }
+
+    /**
+     * 設定したボリューム数とディスク使用量が返却されること.
+     * @throws Exception エラー
+     */
+    @Test
+    public void 設定したボリューム数とディスク使用量が返却されること() throws Exception {
+        PowerMockito.spy(DcMxConfig.class);
+        setConfig(".volumes", "5000");
+        setConfig(".diskSize", "1000");
+        setConfig(".usedRatio", "0.25");
+        setConfig(".fullVolumes", "2");
+
+        SyntheticVolumeStatProvider provider = new SyntheticVolumeStatProvider();
+        List<String> volumes = provider.listVolumes("/synthetic");
+        assertEquals(5000, volumes.size());
+        assertEquals("volume00000", volumes.get(0));
+
+        assertEquals(1000L, provider.getVolumeStat("/synthetic", volumes.get(1)).getUsedSpace());
+        VolumeStat stat = provider.getVolumeStat("/synthetic", volumes.get(2));
+        assertEquals(1000L, stat.getTotalSpace());
+        assertEquals(250L, stat.getUsedSpace());
+    }
+
+    /**
+     * 失敗率が1の場合に取得に失敗すること.
+     * @throws Exception エラー
+     */
+    @Test
+    public void 失敗率が1の場合に取得に失敗すること() throws Exception {
+        PowerMockito.spy(DcMxConfig.class);
+        setConfig(".failureRate", "1");
+        setConfig(".latency", "10");
+
+        SyntheticVolumeStatProvider provider = new SyntheticVolumeStatProvider();
+        long failures = SyntheticVolumeStatProvider.getFailureCount();
+        long start = System.currentTimeMillis();
+        try {
+            provider.getVolumeStat("/synthetic", "volume00000");
+            fail();
+        } catch (DcMxException e) {
+            assertEquals("MX500-SV-0003", e.getMessageId());
+        }
+        assertEquals(true, System.currentTimeMillis() - start >= 10L);
+        assertEquals(failures + 1, SyntheticVolumeStatProvider.getFailureCount());
+    }
+
+    /**
+     * 使用率が範囲外の場合に設定エラーとなること.
+     * @throws Exception エラー
+     */
+    @Test
+    public void 使用率が範囲外の場合に設定エラーとなること() throws Exception {
+        PowerMockito.spy(DcMxConfig.class);
+        setConfig(".usedRatio", "1.5");
+
+        try {
+            new SyntheticVolumeStatProvider();
+            fail();
+        } catch (DcMxException e) {
+            assertEquals("MX500-SV-0001", e.getMessageId());
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.mx.control.pcs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.fujitsu.dc.mx.application.MockReadDeleteModeController;
+import com.fujitsu.dc.mx.model.diskusage.MemcachedHealth;
+
+/**
+ * MemcachedHealthMonitorのテスト.
+ */
+public class MemcachedHealthMonitorTest {
+
+    private MockReadDeleteModeController mock = MockReadDeleteModeController.getInstance();
+
+    private void setStats(long evictions, long hits, long misses, long bytes, long limit) {
+        Map<String, String> stats = new HashMap<String, String>();
+        stats.put("curr_connections", "10");
+        stats.put("evictions", String.valueOf(evictions));
+        stats.put("get_hits", String.valueOf(hits));
+        stats.put("get_misses", String.valueOf(misses));
+        stats.put("bytes", String.valueOf(bytes));
+        stats.put("limit_maxbytes", String.valueOf(limit));
+        this.mock.setServerStats(null, stats);
+    }
+
+    /**
+     * テストケースの事後処理.
+     */
+    @After
+    public void after() {
+        this.mock.setServerStats(null, new HashMap<String, String>());
+        this.mock.setServerStats("slabs", new HashMap<String, String>());
+    }
+
+    /**
+     * 統計情報を取得できない場合はnullを返却すること.
+     * @throws Exception エラー
+     */
+    @Test
+    public void 統計情報を取得できない場合はnullを返却すること() throws Exception {
+        MemcachedHealthMonitor monitor = new MemcachedHealthMonitor(this.mock, 1L, 0.95);
+        assertNull(monitor.collect());
+    }
+
+    /**
+     * 前回の採取以降にキーが追い出された場合に追い出しの恐れがあると判定すること.
+     * @throws Exception エラー
+     */
+    @Test
+    public void 前回の採取以降にキーが追い出された場合に追い出しの恐れがあると判定すること() throws Exception {
+        MemcachedHealthMonitor monitor = new MemcachedHealthMonitor(this.mock, 1L, 0.95);
+        // 起動以降の追い出しは最初の採取では判定に使用しない
+        setStats(5L, 0L, 0L, 1000L, 10000L);
+        MemcachedHealth health = monitor.collect();
+        assertEquals(5L, health.getEvictions());
+        assertEquals(0L, health.getRecentEvictions());
+        assertFalse(health.isEvictionRisk());
+        assertEquals(MemcachedHealth.UNKNOWN_HIT_RATIO, health.getHitRatio(), 0.0);
+
+        setStats(7L, 0L, 0L, 1000L, 10000L);
+        health = monitor.collect();
+        assertEquals(2L, health.getRecentEvictions());
+        assertTrue(health.isEvictionRisk());
+        assertEquals(10L, health.getCurrConnections());
+
+        setStats(7L, 0L, 0L, 1000L, 10000L);
+        assertFalse(monitor.collect().isEvictionRisk());
+    }
+
+    /**
+     * メモリ使用量が上限に近い場合に追い出しの恐れがあると判定すること.
+     * @throws Exception エラー
+     */
+    @Test
+    public void メモリ使用量が上限に近い場合に追い出しの恐れがあると判定すること() throws Exception {
+        MemcachedHealthMonitor monitor = new MemcachedHealthMonitor(this.mock, 1L, 0.95);
+        // slabに割り当て済みのメモリは判定に使用しない
+        Map<String, String> slabs = new HashMap<String, String>();
+        slabs.put("total_malloced", "10000");
+        this.mock.setServerStats("slabs", slabs);
+        setStats(0L, 0L, 0L, 9000L, 10000L);
+        assertFalse(monitor.collect().isEvictionRisk());
+
+        setStats(0L, 0L, 0L, 9500L, 10000L);
+        MemcachedHealth health = monitor.collect();
+        assertEquals(9500L, health.getUsedMemory());
+        assertEquals(10000L, health.getMemoryLimit());
+        assertTrue(health.isEvictionRisk());
+
+        // 0の場合は判定しない
+        monitor = new MemcachedHealthMonitor(this.mock, 1L, 0.0);
+        assertFalse(monitor.collect().isEvictionRisk());
+    }
+
+    /**
+     * ヒット率を前回の採取以降のgetから算出すること.
+     * @throws Exception エラー
+     */
+    @Test
+    public void ヒット率を前回の採取以降のgetから算出すること() throws Exception {
+        MemcachedHealthMonitor monitor = new MemcachedHealthMonitor(this.mock, 1L, 0.95);
+        setStats(0L, 90L, 10L, 0L, 10000L);
+        assertEquals(0.9, monitor.collect().getHitRatio(), 0.0001);
+
+        setStats(0L, 100L, 40L, 0L, 10000L);
+        assertEquals(0.25, monitor.collect().getHitRatio(), 0.0001);
+
+        // 前回の採取以降に getがない場合は累計から算出する
+        assertEquals(100.0 / 140.0, monitor.collect().getHitRatio(), 0.0001);
+    }
+}
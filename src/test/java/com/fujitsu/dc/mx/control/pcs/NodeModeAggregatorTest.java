@@ -0,0 +1,139 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.mx.control.pcs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import com.fujitsu.dc.mx.DcMxConfig;
+import com.fujitsu.dc.mx.tool.FakeMemcachedServer;
+import com.fujitsu.dc.mx.tool.MemcachedReadDeleteModeController;
+
+/**
+ * NodeModeAggregatorのテスト.
+ * ノードごとに MemcachedReadDeleteModeControllerを作成し、一つの FakeMemcachedServerを共有する.
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(DcMxConfig.class)
+public class NodeModeAggregatorTest {
+
+    private static final String LOCK_KEY = "PcsReadDeleteMode";
+
+    private FakeMemcachedServer server;
+    private MemcachedReadDeleteModeController controllerA;
+    private MemcachedReadDeleteModeController controllerB;
+
+    /**
+     * テストケースの事前準備.
+     * @throws Exception エラー
+     */
+    @Before
+    public void before() throws Exception {
+        this.server = new FakeMemcachedServer().start();
+        PowerMockito.spy(DcMxConfig.class);
+        PowerMockito.when(DcMxConfig.class, "get", MemcachedReadDeleteModeController.class.getName() + ".host")
+        .thenReturn(this.server.getHost());
+        PowerMockito.when(DcMxConfig.class, "get", MemcachedReadDeleteModeController.class.getName() + ".port")
+        .thenReturn(String.valueOf(this.server.getPort()));
+        this.controllerA = new MemcachedReadDeleteModeController();
+        this.controllerB = new MemcachedReadDeleteModeController();
+    }
+
+    /**
+     * テストケースの事後処理.
+     */
+    @After
+    public void after() {
+        this.controllerA.shutdown();
+        this.controllerB.shutdown();
+        this.server.stop();
+    }
+
+    /**
+     * いずれかのノードがFULLである間は全体のキーが維持されること.
+     * @throws Exception エラー
+     */
+    @Test
+    public void いずれかのノードがFULLである間は全体のキーが維持されること() throws Exception {
+        NodeModeAggregator nodeA = new NodeModeAggregator(this.controllerA, LOCK_KEY, "nodeA");
+        NodeModeAggregator nodeB = new NodeModeAggregator(this.controllerB, LOCK_KEY, "nodeB");
+
+        nodeA.publish(true, "a");
+        // 全体のキーの値は従来どおり採取結果とする
+        assertEquals("a", this.server.getValue(LOCK_KEY));
+        assertEquals("nodeA", this.server.getValue(NodeModeAggregator.FULL_NODES_KEY));
+        assertEquals("a", this.server.getValue(NodeModeAggregator.NODE_KEY_PREFIX + "nodeA"));
+
+        // FULLではないノードが全体のキーを削除しないこと
+        nodeB.publish(false, null);
+        assertEquals("a", this.server.getValue(LOCK_KEY));
+
+        nodeB.publish(true, "b");
+        assertEquals("b", this.server.getValue(LOCK_KEY));
+        assertEquals("nodeA,nodeB", this.server.getValue(NodeModeAggregator.FULL_NODES_KEY));
+        nodeA.publish(false, null);
+        assertEquals("b", this.server.getValue(LOCK_KEY));
+        assertEquals("nodeB", this.server.getValue(NodeModeAggregator.FULL_NODES_KEY));
+        assertNull(this.server.getValue(NodeModeAggregator.NODE_KEY_PREFIX + "nodeA"));
+
+        nodeB.publish(false, null);
+        assertNull(this.server.getValue(LOCK_KEY));
+        assertNull(this.server.getValue(NodeModeAggregator.FULL_NODES_KEY));
+        assertEquals("nodeA,nodeB", this.server.getValue(NodeModeAggregator.NODES_KEY));
+    }
+
+    /**
+     * 全体のキーの削除と競合してFULLとなったノードが全体のキーに戻されること.
+     * @throws Exception エラー
+     */
+    @Test
+    public void 全体のキーの削除と競合してFULLとなったノードが全体のキーに戻されること() throws Exception {
+        NodeModeAggregator nodeA = new NodeModeAggregator(this.controllerA, LOCK_KEY, "nodeA");
+        NodeModeAggregator nodeB = new NodeModeAggregator(this.controllerB, LOCK_KEY, "nodeB");
+        nodeA.publish(false, null);
+        nodeB.publish(true, "b");
+
+        // nodeAが自身のキーを設定した直後に、nodeBが全体のキーを読み出した状態を再現する
+        this.server.putValue(NodeModeAggregator.NODE_KEY_PREFIX + "nodeA", "a");
+        nodeB.publish(false, null);
+
+        assertEquals("a", this.server.getValue(LOCK_KEY));
+        assertEquals("nodeA", this.server.getValue(NodeModeAggregator.FULL_NODES_KEY));
+    }
+
+    /**
+     * FULLのノードの一覧がない場合に旧版が設定した全体のキーは削除されること.
+     * @throws Exception エラー
+     */
+    @Test
+    public void 旧版が設定した全体のキーは削除されること() throws Exception {
+        this.server.putValue(LOCK_KEY, "{\"status\":{\"systemStatus\":\"FULL\"}}");
+        NodeModeAggregator nodeA = new NodeModeAggregator(this.controllerA, LOCK_KEY, "nodeA");
+
+        nodeA.publish(false, null);
+
+        assertNull(this.server.getValue(LOCK_KEY));
+    }
+}
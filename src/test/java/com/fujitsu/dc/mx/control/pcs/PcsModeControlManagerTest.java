@@ -17,8 +17,11 @@
 package com.fujitsu.dc.mx.control.pcs;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.junit.After;
 import org.junit.Before;
@@ -30,6 +33,8 @@ import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
 import com.fujitsu.dc.mx.DcMxConfig;
+import com.fujitsu.dc.mx.application.LegacyReadDeleteModeController;
+import com.fujitsu.dc.mx.application.MockReadDeleteModeController;
 import com.fujitsu.dc.mx.model.diskusage.DiskUsage;
 import com.fujitsu.dc.mx.model.diskusage.DiskUsages;
 import com.fujitsu.dc.mx.tool.MemcachedReadDeleteModeController;
@@ -180,4 +185,357 @@ public class PcsModeControlManagerTest {
         PcsModeControlManager.setPcsMode(usages);
         assertEquals(DiskUsage.Status.OK, usages.getSystemStatus());
     }
+
+    /**
+     * 動作モードとボリュームのステータスが変化しない場合にmemcachedへ書き込まないこと.
+     * @throws Exception エラー
+     */
+    @Test
+    @PrepareForTest({DcMxConfig.class, PcsModeControlManager.class })
+    public void 動作モードとボリュームのステータスが変化しない場合にmemcachedへ書き込まないこと() throws Exception {
+        PowerMockito.spy(DcMxConfig.class);
+        PowerMockito.when(DcMxConfig.class, "getPcsModeController").thenReturn(
+                "com.fujitsu.dc.mx.application.MockReadDeleteModeController");
+        PcsModeControlManager.invalidate();
+
+        DiskUsages usages = new DiskUsages();
+        usages.add(new DiskUsage("elasticsearch1", 10000000L, 7000000L, 0.9));
+        usages.add(new DiskUsage("_ads", 10000000L, 9500000L, 0.9));
+        PcsModeControlManager.setPcsMode(usages);
+        MockReadDeleteModeController mock = MockReadDeleteModeController.getInstance();
+        assertEquals(true, mock.isLocked());
+        int writeCount = mock.getWriteCount();
+
+        // 使用量のみが変化した場合は書き込まない
+        usages = new DiskUsages();
+        usages.add(new DiskUsage("elasticsearch1", 10000000L, 7100000L, 0.9));
+        usages.add(new DiskUsage("_ads", 10000000L, 9600000L, 0.9));
+        PcsModeControlManager.setPcsMode(usages);
+        assertEquals(writeCount, mock.getWriteCount());
+        assertEquals(DiskUsage.Status.FULL, usages.getSystemStatus());
+    }
+
+    /**
+     * ボリュームのステータスが変化した場合にmemcachedへ書き込むこと.
+     * @throws Exception エラー
+     */
+    @Test
+    @PrepareForTest({DcMxConfig.class, PcsModeControlManager.class })
+    public void ボリュームのステータスが変化した場合にmemcachedへ書き込むこと() throws Exception {
+        PowerMockito.spy(DcMxConfig.class);
+        PowerMockito.when(DcMxConfig.class, "getPcsModeController").thenReturn(
+                "com.fujitsu.dc.mx.application.MockReadDeleteModeController");
+        PcsModeControlManager.invalidate();
+
+        DiskUsages usages = new DiskUsages();
+        usages.add(new DiskUsage("elasticsearch1", 10000000L, 9500000L, 0.9));
+        PcsModeControlManager.setPcsMode(usages);
+        MockReadDeleteModeController mock = MockReadDeleteModeController.getInstance();
+        assertEquals(true, mock.isLocked());
+        int writeCount = mock.getWriteCount();
+
+        usages = new DiskUsages();
+        usages.add(new DiskUsage("elasticsearch1", 10000000L, 7000000L, 0.9));
+        PcsModeControlManager.setPcsMode(usages);
+        assertEquals(writeCount + 1, mock.getWriteCount());
+        assertEquals(false, mock.isLocked());
+    }
+
+    /**
+     * FULLのボリュームのキーのみが設定されること.
+     * @throws Exception エラー
+     */
+    @Test
+    @PrepareForTest({DcMxConfig.class, PcsModeControlManager.class })
+    public void FULLのボリュームのキーのみが設定されること() throws Exception {
+        PowerMockito.spy(DcMxConfig.class);
+        PowerMockito.when(DcMxConfig.class, "getPcsModeController").thenReturn(
+                "com.fujitsu.dc.mx.application.MockReadDeleteModeController");
+        PcsModeControlManager.invalidate();
+
+        DiskUsages usages = new DiskUsages();
+        usages.add(new DiskUsage("elasticsearch1", 10000000L, 7000000L, 0.9));
+        usages.add(new DiskUsage("_ads", 10000000L, 9500000L, 0.9));
+        PcsModeControlManager.setPcsMode(usages);
+        MockReadDeleteModeController mock = MockReadDeleteModeController.getInstance();
+        assertEquals(true, mock.isLocked());
+        assertEquals(true, mock.isLocked("PcsReadDeleteMode:_ads"));
+        assertEquals(false, mock.isLocked("PcsReadDeleteMode:elasticsearch1"));
+
+        usages = new DiskUsages();
+        usages.add(new DiskUsage("elasticsearch1", 10000000L, 9500000L, 0.9));
+        usages.add(new DiskUsage("_ads", 10000000L, 7000000L, 0.9));
+        PcsModeControlManager.setPcsMode(usages);
+        assertEquals(true, mock.isLocked());
+        assertEquals(false, mock.isLocked("PcsReadDeleteMode:_ads"));
+        assertEquals(true, mock.isLocked("PcsReadDeleteMode:elasticsearch1"));
+
+        usages = new DiskUsages();
+        usages.add(new DiskUsage("elasticsearch1", 10000000L, 7000000L, 0.9));
+        usages.add(new DiskUsage("_ads", 10000000L, 7000000L, 0.9));
+        PcsModeControlManager.setPcsMode(usages);
+        assertEquals(false, mock.isLocked());
+        assertEquals(false, mock.isLocked("PcsReadDeleteMode:elasticsearch1"));
+    }
+
+    /**
+     * 以前の実行でFULLとして扱ったボリュームが高水位と低水位の間にある場合にFULLとして引き継がれること.
+     * @throws Exception エラー
+     */
+    @Test
+    @PrepareForTest({DcMxConfig.class, PcsModeControlManager.class })
+    public void 以前の実行でFULLとして扱ったボリュームが高水位と低水位の間にある場合にFULLとして引き継がれること()
+            throws Exception {
+        PowerMockito.spy(DcMxConfig.class);
+        PowerMockito.when(DcMxConfig.class, "getPcsModeController").thenReturn(
+                "com.fujitsu.dc.mx.application.MockReadDeleteModeController");
+        PowerMockito.when(DcMxConfig.class, "getMxVolumeLowThreshold").thenReturn("0.8");
+        PcsModeControlManager.invalidate();
+
+        DiskUsages usages = new DiskUsages();
+        usages.add(new DiskUsage("_ads", 10000000L, 9500000L, 0.9));
+        usages.add(new DiskUsage("elasticsearch1", 10000000L, 8500000L, 0.9));
+        PcsModeControlManager.setPcsMode(usages);
+        MockReadDeleteModeController mock = MockReadDeleteModeController.getInstance();
+        assertEquals(true, mock.isLocked("PcsReadDeleteMode:_ads"));
+        assertEquals(false, mock.isLocked("PcsReadDeleteMode:elasticsearch1"));
+
+        // cronの次回の起動や再デプロイにより、別のインスタンスが判定する
+        PcsModeControlManager.discard();
+        usages = new DiskUsages();
+        usages.add(new DiskUsage("_ads", 10000000L, 8500000L, 0.9));
+        usages.add(new DiskUsage("elasticsearch1", 10000000L, 8500000L, 0.9));
+        PcsModeControlManager.setPcsMode(usages);
+        assertEquals(true, mock.isLocked());
+        assertEquals(true, mock.isLocked("PcsReadDeleteMode:_ads"));
+        assertEquals(false, mock.isLocked("PcsReadDeleteMode:elasticsearch1"));
+
+        // 低水位を下回った場合は解除する
+        PcsModeControlManager.discard();
+        usages = new DiskUsages();
+        usages.add(new DiskUsage("_ads", 10000000L, 7000000L, 0.9));
+        usages.add(new DiskUsage("elasticsearch1", 10000000L, 8500000L, 0.9));
+        PcsModeControlManager.setPcsMode(usages);
+        assertEquals(false, mock.isLocked());
+        assertEquals(false, mock.isLocked("PcsReadDeleteMode:_ads"));
+    }
+
+    /**
+     * 設定と削除のみを実装したReadDeleteModeControllerで全体のキーが設定と削除されること.
+     * @throws Exception エラー
+     */
+    @Test
+    @PrepareForTest({DcMxConfig.class, PcsModeControlManager.class })
+    public void 設定と削除のみを実装したReadDeleteModeControllerで全体のキーが設定と削除されること() throws Exception {
+        PowerMockito.spy(DcMxConfig.class);
+        PowerMockito.when(DcMxConfig.class, "getPcsModeController").thenReturn(
+                "com.fujitsu.dc.mx.application.LegacyReadDeleteModeController");
+        PowerMockito.when(DcMxConfig.class, "getNodeId").thenReturn("node1");
+        LegacyReadDeleteModeController.clear();
+
+        DiskUsages usages = new DiskUsages();
+        usages.add(new DiskUsage("_ads", 10000000L, 9500000L, 0.9));
+        usages.add(new DiskUsage("elasticsearch1", 10000000L, 7000000L, 0.9));
+        PcsModeControlManager.setPcsMode(usages);
+        assertEquals(DiskUsage.Status.FULL, usages.getSystemStatus());
+        assertEquals(usages.toJsonString(), LegacyReadDeleteModeController.getValue("PcsReadDeleteMode"));
+        assertTrue(LegacyReadDeleteModeController.getValue("PcsReadDeleteMode:_ads") != null);
+
+        usages = new DiskUsages();
+        usages.add(new DiskUsage("_ads", 10000000L, 7000000L, 0.9));
+        usages.add(new DiskUsage("elasticsearch1", 10000000L, 7000000L, 0.9));
+        PcsModeControlManager.setPcsMode(usages);
+        assertEquals(DiskUsage.Status.OK, usages.getSystemStatus());
+        assertEquals(null, LegacyReadDeleteModeController.getValue("PcsReadDeleteMode"));
+        assertEquals(null, LegacyReadDeleteModeController.getValue("PcsReadDeleteMode:_ads"));
+    }
+
+    /**
+     * 停止した後に判定を要求された場合にインスタンスを再び作成しないこと.
+     * @throws Exception エラー
+     */
+    @Test
+    @PrepareForTest({DcMxConfig.class, PcsModeControlManager.class })
+    public void 停止した後に判定を要求された場合にインスタンスを再び作成しないこと() throws Exception {
+        PowerMockito.spy(DcMxConfig.class);
+        PowerMockito.when(DcMxConfig.class, "getPcsModeController").thenReturn(
+                "com.fujitsu.dc.mx.application.MockReadDeleteModeController");
+        MockReadDeleteModeController mock = MockReadDeleteModeController.getInstance();
+        mock.setMode(false);
+
+        PcsModeControlManager.shutdown();
+        DiskUsages usages = new DiskUsages();
+        usages.add(new DiskUsage("_ads", 10000000L, 9500000L, 0.9));
+        PcsModeControlManager.setPcsMode(usages);
+        assertEquals(false, mock.isLocked());
+        assertEquals(false, mock.isLocked("PcsReadDeleteMode:_ads"));
+    }
+
+    /**
+     * 動作モードの書き込み時と再設定間隔ごとにハートビートが設定されること.
+     * @throws Exception エラー
+     */
+    @Test
+    @PrepareForTest({DcMxConfig.class, PcsModeControlManager.class })
+    public void 動作モードの書き込み時と再設定間隔ごとにハートビートが設定されること() throws Exception {
+        PowerMockito.spy(DcMxConfig.class);
+        PowerMockito.when(DcMxConfig.class, "getPcsModeController").thenReturn(
+                "com.fujitsu.dc.mx.application.MockReadDeleteModeController");
+        PowerMockito.when(DcMxConfig.class, "getNodeId").thenReturn("node1");
+        PowerMockito.when(DcMxConfig.class, "getPcsModeReassertInterval").thenReturn(300L);
+        PcsModeControlManager.invalidate();
+
+        DiskUsages usages = new DiskUsages();
+        usages.add(new DiskUsage("elasticsearch1", 10000000L, 9500000L, 0.9));
+        PcsModeControlManager.setPcsMode(usages);
+        MockReadDeleteModeController mock = MockReadDeleteModeController.getInstance();
+        String heartbeat = String.valueOf(mock.getValue("PcsReadDeleteMode.heartbeat:node1"));
+        assertTrue(heartbeat, heartbeat.contains("\"version\":" + usages.getVersion()));
+        assertTrue(heartbeat, heartbeat.contains("\"mode\":\"READ_DELETE_ONLY\""));
+
+        // 書き込みを省略した場合はハートビートも更新しない
+        long firstVersion = usages.getVersion();
+        usages = new DiskUsages();
+        usages.add(new DiskUsage("elasticsearch1", 10000000L, 9600000L, 0.9));
+        PcsModeControlManager.setPcsMode(usages);
+        heartbeat = String.valueOf(mock.getValue("PcsReadDeleteMode.heartbeat:node1"));
+        assertTrue(heartbeat, heartbeat.contains("\"version\":" + firstVersion));
+
+        // 再設定間隔が経過した場合は更新する. 経過するまで採取を繰り返す
+        long deadline = System.currentTimeMillis() + 5000L;
+        do {
+            Thread.sleep(10L);
+            usages = new DiskUsages();
+            usages.add(new DiskUsage("elasticsearch1", 10000000L, 9600000L, 0.9));
+            PcsModeControlManager.setPcsMode(usages);
+            heartbeat = String.valueOf(mock.getValue("PcsReadDeleteMode.heartbeat:node1"));
+        } while (!heartbeat.contains("\"version\":" + usages.getVersion()) && System.currentTimeMillis() < deadline);
+        assertTrue(heartbeat, heartbeat.contains("\"version\":" + usages.getVersion()));
+    }
+
+    /**
+     * memcachedが再起動した場合に次の採取を待たずに動作モードを再設定すること.
+     * @throws Exception エラー
+     */
+    @Test
+    @PrepareForTest({DcMxConfig.class, PcsModeControlManager.class })
+    public void memcachedが再起動した場合に次の採取を待たずに動作モードを再設定すること() throws Exception {
+        PowerMockito.spy(DcMxConfig.class);
+        PowerMockito.when(DcMxConfig.class, "getPcsModeController").thenReturn(
+                "com.fujitsu.dc.mx.application.MockReadDeleteModeController");
+        PcsModeControlManager.invalidate();
+
+        DiskUsages usages = new DiskUsages();
+        usages.add(new DiskUsage("_ads", 10000000L, 9500000L, 0.9));
+        PcsModeControlManager.setPcsMode(usages);
+        MockReadDeleteModeController mock = MockReadDeleteModeController.getInstance();
+        assertEquals(true, mock.isLocked());
+
+        // 再起動によりキーが失われる
+        mock.setAvailable(false);
+        mock.setAvailable(true);
+        waitForLocked(mock, "PcsReadDeleteMode");
+        waitForLocked(mock, "PcsReadDeleteMode:_ads");
+    }
+
+    /**
+     * memcachedへの反映に失敗した場合に再試行すること.
+     * @throws Exception エラー
+     */
+    @Test
+    @PrepareForTest({DcMxConfig.class, PcsModeControlManager.class })
+    public void memcachedへの反映に失敗した場合に再試行すること() throws Exception {
+        PowerMockito.spy(DcMxConfig.class);
+        PowerMockito.when(DcMxConfig.class, "getPcsModeController").thenReturn(
+                "com.fujitsu.dc.mx.application.MockReadDeleteModeController");
+        PowerMockito.when(DcMxConfig.class, "getPcsModeRetryInitialInterval").thenReturn(50L);
+        PcsModeControlManager.invalidate();
+        MockReadDeleteModeController mock = MockReadDeleteModeController.getInstance();
+        mock.setAvailable(false);
+
+        DiskUsages usages = new DiskUsages();
+        usages.add(new DiskUsage("_ads", 10000000L, 9500000L, 0.9));
+        PcsModeControlManager.setPcsMode(usages);
+        assertEquals(DiskUsage.Status.ERROR, usages.getSystemStatus());
+
+        // 接続の確立を通知しない場合も再試行により反映される
+        mock.setConnectionListener(null);
+        mock.setAvailable(true);
+        waitForLocked(mock, "PcsReadDeleteMode");
+    }
+
+    /**
+     * memcachedのキーが追い出される恐れがある場合にmemcachedの項目にのみ返却されること.
+     * @throws Exception エラー
+     */
+    @Test
+    @PrepareForTest({DcMxConfig.class, PcsModeControlManager.class })
+    public void memcachedのキーが追い出される恐れがある場合にmemcachedの項目にのみ返却されること() throws Exception {
+        PowerMockito.spy(DcMxConfig.class);
+        PowerMockito.when(DcMxConfig.class, "getPcsModeController").thenReturn(
+                "com.fujitsu.dc.mx.application.MockReadDeleteModeController");
+        PcsModeControlManager.invalidate();
+        MockReadDeleteModeController mock = MockReadDeleteModeController.getInstance();
+        Map<String, String> stats = new HashMap<String, String>();
+        stats.put("bytes", "9900");
+        stats.put("limit_maxbytes", "10000");
+        mock.setServerStats(null, stats);
+
+        DiskUsages usages = new DiskUsages();
+        usages.add(new DiskUsage("elasticsearch1", 10000000L, 7000000L, 0.9));
+        PcsModeControlManager.setPcsMode(usages);
+        assertEquals(DiskUsage.Status.OK, usages.getSystemStatus());
+        assertTrue(usages.toJsonString(), usages.toJsonString().contains("\"evictionRisk\":true"));
+    }
+
+    /**
+     * 設定の指定がある場合にmemcachedのキーが追い出される恐れがあるときボリューム全体のStatusがERRORとなること.
+     * @throws Exception エラー
+     */
+    @Test
+    @PrepareForTest({DcMxConfig.class, PcsModeControlManager.class })
+    public void 設定の指定がある場合にmemcachedのキーが追い出される恐れがあるときボリューム全体のStatusがERRORとなること()
+            throws Exception {
+        PowerMockito.spy(DcMxConfig.class);
+        PowerMockito.when(DcMxConfig.class, "getPcsModeController").thenReturn(
+                "com.fujitsu.dc.mx.application.MockReadDeleteModeController");
+        PowerMockito.when(DcMxConfig.class, "isMemcachedHealthAffectsStatus").thenReturn(true);
+        PcsModeControlManager.invalidate();
+        MockReadDeleteModeController mock = MockReadDeleteModeController.getInstance();
+        Map<String, String> stats = new HashMap<String, String>();
+        stats.put("bytes", "1000");
+        stats.put("limit_maxbytes", "10000");
+        mock.setServerStats(null, stats);
+
+        DiskUsages usages = new DiskUsages();
+        usages.add(new DiskUsage("elasticsearch1", 10000000L, 7000000L, 0.9));
+        PcsModeControlManager.setPcsMode(usages);
+        assertEquals(DiskUsage.Status.OK, usages.getSystemStatus());
+        assertTrue(usages.toJsonString(), usages.toJsonString().contains("\"evictionRisk\":false"));
+
+        stats.put("bytes", "9900");
+        mock.setServerStats(null, stats);
+        usages = new DiskUsages();
+        usages.add(new DiskUsage("elasticsearch1", 10000000L, 7000000L, 0.9));
+        PcsModeControlManager.setPcsMode(usages);
+        assertEquals(DiskUsage.Status.ERROR, usages.getSystemStatus());
+        assertTrue(usages.toJsonString(), usages.toJsonString().contains("MX500-SV-0005"));
+    }
+
+    private static void waitForLocked(MockReadDeleteModeController mock, String key) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (!mock.isLocked(key) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertTrue(key, mock.isLocked(key));
+    }
+
+    /**
+     * ボリュームごとのキーにはボリューム名をURLエンコードした文字列を使用すること.
+     */
+    @Test
+    public void ボリュームごとのキーにはボリューム名をURLエンコードした文字列を使用すること() {
+        assertEquals("PcsReadDeleteMode:_ads", PcsModeControlManager.getVolumeKey("_ads"));
+        assertEquals("PcsReadDeleteMode:vol+1%25", PcsModeControlManager.getVolumeKey("vol 1%"));
+    }
 }
@@ -0,0 +1,163 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.mx.control.pcs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+import com.fujitsu.dc.mx.control.pcs.PcsModeControlManager.Mode;
+import com.fujitsu.dc.mx.model.diskusage.DiskUsage;
+import com.fujitsu.dc.mx.model.diskusage.DiskUsages;
+import com.fujitsu.dc.mx.model.diskusage.ThresholdRule;
+
+/**
+ * VolumeStatesのテスト.
+ */
+public class VolumeStatesTest {
+
+    private static DiskUsages createDiskUsages(long... usedDiskSizes) {
+        DiskUsages diskUsages = new DiskUsages();
+        for (int i = 0; i < usedDiskSizes.length; i++) {
+            diskUsages.add(new DiskUsage("vol" + i, 10000000L, usedDiskSizes[i], 0.9));
+        }
+        return diskUsages;
+    }
+
+    /**
+     * 高水位と低水位の間では直前の状態が維持されること.
+     */
+    @Test
+    public void 高水位と低水位の間では直前の状態が維持されること() {
+        VolumeStates states = new VolumeStates(0.1, 1, 0L);
+        assertEquals(Mode.NORMAL, states.update(createDiskUsages(8500000L)));
+        assertEquals(Mode.READ_DELETE_ONLY, states.update(createDiskUsages(9000000L)));
+        assertEquals(Mode.READ_DELETE_ONLY, states.update(createDiskUsages(8500000L)));
+        assertEquals(Mode.READ_DELETE_ONLY, states.update(createDiskUsages(8000000L)));
+        assertEquals(Mode.NORMAL, states.update(createDiskUsages(7999999L)));
+        assertEquals(Mode.NORMAL, states.update(createDiskUsages(8999999L)));
+    }
+
+    /**
+     * 以前の実行から引き継いだボリュームは低水位を下回るまでFULLとして扱うこと.
+     */
+    @Test
+    public void 以前の実行から引き継いだボリュームは低水位を下回るまでFULLとして扱うこと() {
+        VolumeStates states = new VolumeStates(0.1, 1, 0L);
+        states.restore(Collections.singleton("vol0"));
+        assertEquals(Mode.READ_DELETE_ONLY, states.update(createDiskUsages(8500000L, 8500000L)));
+        assertEquals(Collections.singleton("vol0"), states.getFullVolumes());
+        assertEquals(Mode.NORMAL, states.update(createDiskUsages(7999999L, 8500000L)));
+
+        // 採取済みのボリュームも FULLとして引き継ぐ
+        states.restore(Collections.singleton("vol1"));
+        assertEquals(Mode.READ_DELETE_ONLY, states.update(createDiskUsages(7999999L, 8500000L)));
+        assertEquals(Collections.singleton("vol1"), states.getFullVolumes());
+
+        // ERRORのボリュームも引き継いだ状態を維持する
+        VolumeStates errorStates = new VolumeStates(0.1, 1, 0L);
+        errorStates.restore(Collections.singleton("vol0"));
+        DiskUsages error = new DiskUsages();
+        error.add(DiskUsage.getErrorInstance("vol0", new Exception("error")));
+        assertEquals(Mode.READ_DELETE_ONLY, errorStates.update(error));
+    }
+
+    /**
+     * 遷移先の条件を満たす採取結果が指定回数連続するまで遷移しないこと.
+     */
+    @Test
+    public void 遷移先の条件を満たす採取結果が指定回数連続するまで遷移しないこと() {
+        VolumeStates states = new VolumeStates(0.0, 3, 0L);
+        // 初めて採取したボリュームはその状態から開始する
+        assertEquals(Mode.READ_DELETE_ONLY, states.update(createDiskUsages(9500000L, 7000000L)));
+        assertEquals(Collections.singleton("vol0"), states.getFullVolumes());
+        int fullHash = states.getStateHash();
+        assertEquals(Mode.READ_DELETE_ONLY, states.update(createDiskUsages(8900000L, 7000000L)));
+        assertEquals(Mode.READ_DELETE_ONLY, states.update(createDiskUsages(8900000L, 7000000L)));
+        // 途中で条件を満たさなくなった場合は数え直す
+        assertEquals(Mode.READ_DELETE_ONLY, states.update(createDiskUsages(9100000L, 7000000L)));
+        assertEquals(Mode.READ_DELETE_ONLY, states.update(createDiskUsages(8900000L, 7000000L)));
+        assertEquals(Mode.READ_DELETE_ONLY, states.update(createDiskUsages(8900000L, 7000000L)));
+        assertEquals(fullHash, states.getStateHash());
+        assertEquals(Mode.NORMAL, states.update(createDiskUsages(8900000L, 7000000L)));
+    }
+
+    /**
+     * ERRORのボリュームは直前の状態を維持すること.
+     */
+    @Test
+    public void ERRORのボリュームは直前の状態を維持すること() {
+        VolumeStates states = new VolumeStates(0.1, 1, 0L);
+        DiskUsages error = new DiskUsages();
+        error.add(DiskUsage.getErrorInstance("vol0", new Exception("error")));
+
+        states.update(createDiskUsages(9500000L));
+        assertEquals(Mode.READ_DELETE_ONLY, states.update(error));
+        states.update(createDiskUsages(7000000L));
+        assertNull(states.update(error));
+    }
+
+    /**
+     * 使用可能サイズに達するまでの推定時間が設定値を下回る場合にFULLとして扱うこと.
+     */
+    @Test
+    public void 使用可能サイズに達するまでの推定時間が設定値を下回る場合にFULLとして扱うこと() {
+        DiskUsages usages = createDiskUsages(7000000L, 7000000L);
+        // 推定できない場合は通常モード
+        assertEquals(Mode.NORMAL, new VolumeStates(0.0, 1, 3600L).update(usages));
+
+        usages.setSecondsToFull(usages.get(0), 600L);
+        assertEquals(Mode.NORMAL, new VolumeStates(0.0, 1, 0L).update(usages));
+        assertEquals(Mode.NORMAL, new VolumeStates(0.0, 1, 600L).update(usages));
+        assertEquals(Mode.READ_DELETE_ONLY, new VolumeStates(0.0, 1, 3600L).update(usages));
+        assertEquals(DiskUsage.Status.OK, usages.getSystemStatus());
+    }
+
+    /**
+     * 低水位がボリュームごとのしきい値のルールから算出されること.
+     */
+    @Test
+    public void 低水位がボリュームごとのしきい値のルールから算出されること() {
+        ThresholdRule loose = ThresholdRule.fraction(ThresholdRule.VOLUME_SCOPE_PREFIX + "vol0", 0.95);
+        ThresholdRule minFree = ThresholdRule.minFreeBytes(ThresholdRule.VOLUME_SCOPE_PREFIX + "vol0", 1000000L);
+
+        // 幅が 0の場合は使用可能サイズを下回った時点で解除する
+        VolumeStates states = new VolumeStates(0.0, 1, 0L);
+        assertEquals(Mode.READ_DELETE_ONLY, states.update(createDiskUsages(loose, 9500000L)));
+        assertEquals(Mode.NORMAL, states.update(createDiskUsages(loose, 9499999L)));
+
+        // 幅はルールの使用可能サイズから差し引く
+        states = new VolumeStates(0.1, 1, 0L);
+        assertEquals(Mode.READ_DELETE_ONLY, states.update(createDiskUsages(loose, 9500000L)));
+        assertEquals(Mode.READ_DELETE_ONLY, states.update(createDiskUsages(loose, 8500000L)));
+        assertEquals(Mode.NORMAL, states.update(createDiskUsages(loose, 8499999L)));
+
+        states = new VolumeStates(0.1, 1, 0L);
+        assertEquals(Mode.READ_DELETE_ONLY, states.update(createDiskUsages(minFree, 9000000L)));
+        assertEquals(Mode.READ_DELETE_ONLY, states.update(createDiskUsages(minFree, 8000000L)));
+        assertEquals(Mode.NORMAL, states.update(createDiskUsages(minFree, 7999999L)));
+    }
+
+    private static DiskUsages createDiskUsages(ThresholdRule rule, long usedDiskSize) {
+        DiskUsages diskUsages = new DiskUsages();
+        diskUsages.add(new DiskUsage("vol0", 10000000L, usedDiskSize, rule));
+        return diskUsages;
+    }
+}
@@ -0,0 +1,224 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.mx.history;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fujitsu.dc.mx.history.UsageHistory.Resolution;
+import com.fujitsu.dc.mx.model.diskusage.DiskUsage;
+import com.fujitsu.dc.mx.model.diskusage.DiskUsages;
+
+/**
+ * HistoryStoreのテスト.
+ */
+public class HistoryStoreTest {
+
+    private File dir;
+
+    /**
+     * テスト用のディレクトリを作成する.
+     * @throws IOException エラー
+     */
+    @Before
+    public void before() throws IOException {
+        this.dir = File.createTempFile("dc-mx-history", "");
+        this.dir.delete();
+        this.dir.mkdirs();
+    }
+
+    /**
+     * テスト用のディレクトリを削除する.
+     */
+    @After
+    public void after() {
+        File[] files = this.dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        this.dir.delete();
+    }
+
+    private static DiskUsages createDiskUsages(long usedDiskSize) {
+        DiskUsages diskUsages = new DiskUsages();
+        diskUsages.add(new DiskUsage("vol1", 10000000L, usedDiskSize, 0.9));
+        diskUsages.freeze();
+        return diskUsages;
+    }
+
+    private static List<String> readAll(HistoryStore store) throws IOException {
+        final List<String> records = new ArrayList<String>();
+        store.read(0L, Long.MAX_VALUE, new HistoryRecordHandler() {
+            @Override
+            public void handle(HistoryRecord record) {
+                if (record.isTransition()) {
+                    records.add(record.getVolume() + " " + record.getPreviousStatus() + "->" + record.getStatus());
+                } else {
+                    records.add(record.getVolume() + " " + record.getStatus() + " " + record.getCount() + " "
+                            + record.getLastUsedDiskSize());
+                }
+            }
+        });
+        return records;
+    }
+
+    private static long countSamples(HistoryStore store) throws IOException {
+        final long[] count = new long[1];
+        store.read(0L, Long.MAX_VALUE, new HistoryRecordHandler() {
+            @Override
+            public void handle(HistoryRecord record) {
+                if (!record.isTransition()) {
+                    count[0] += record.getCount();
+                }
+            }
+        });
+        return count[0];
+    }
+
+    /**
+     * 追記した採取結果とステータスの変化を別のインスタンスから読み出せること.
+     * @throws Exception エラー
+     */
+    @Test
+    public void 追記した採取結果とステータスの変化を別のインスタンスから読み出せること() throws Exception {
+        HistoryStore webapp = new HistoryStore(this.dir, 100, 4, 60, 24, 7);
+        webapp.append(createDiskUsages(7000000L));
+        webapp.append(createDiskUsages(9500000L));
+        // cronなど別のプロセスからの追記でも、直前のステータスはストアから判断する
+        HistoryStore cron = new HistoryStore(this.dir, 100, 4, 60, 24, 7);
+        cron.append(createDiskUsages(9600000L));
+        cron.append(createDiskUsages(7100000L));
+
+        List<String> records = readAll(new HistoryStore(this.dir, 100, 4, 60, 24, 7));
+        assertEquals(6, records.size());
+        assertEquals("vol1 OK 1 7000000", records.get(0));
+        assertEquals("vol1 OK->FULL", records.get(1));
+        assertEquals("vol1 FULL 1 9500000", records.get(2));
+        assertEquals("vol1 FULL 1 9600000", records.get(3));
+        assertEquals("vol1 FULL->OK", records.get(4));
+        assertEquals("vol1 OK 1 7100000", records.get(5));
+    }
+
+    /**
+     * セグメント数が上限を超えた場合に圧縮され採取数が保たれること.
+     * @throws Exception エラー
+     */
+    @Test
+    public void セグメント数が上限を超えた場合に圧縮され採取数が保たれること() throws Exception {
+        HistoryStore store = new HistoryStore(this.dir, 4, 2, 60, 24, 7);
+        for (int i = 0; i < 30; i++) {
+            store.append(createDiskUsages(7000000L + i));
+        }
+
+        assertEquals(30L, countSamples(store));
+        List<String> records = readAll(store);
+        assertTrue(records.toString(), records.size() < 30);
+        assertEquals("vol1 OK 1 7000029", records.get(records.size() - 1));
+        // 書き込み中のセグメントと、上限以下の圧縮前のセグメントのみが残る
+        assertTrue(this.dir.list().length <= 2 + 2);
+    }
+
+    /**
+     * ストアに保存した採取結果から履歴を復元できること.
+     * @throws Exception エラー
+     */
+    @Test
+    public void ストアに保存した採取結果から履歴を復元できること() throws Exception {
+        HistoryStore store = new HistoryStore(this.dir, 4, 2, 60, 24, 7);
+        for (int i = 0; i < 10; i++) {
+            store.append(createDiskUsages(7000000L + i));
+        }
+
+        UsageHistory history = new UsageHistory(60, 24, 7, 10);
+        assertTrue(history.restore(store) > 0);
+        HistorySeries series = history.query("vol1", 0L, Long.MAX_VALUE, Resolution.MINUTE.getMillis());
+        long samples = 0L;
+        for (int i = 0; i < series.size(); i++) {
+            samples += series.getSamples(i);
+        }
+        assertEquals(10L, samples);
+        assertEquals(7000009L, series.getLastUsedDiskSize(series.size() - 1));
+    }
+
+    /**
+     * 別スレッドで復元している間に採取した結果が復元後に記録されること.
+     * @throws Exception エラー
+     */
+    @Test
+    public void 別スレッドで復元している間に採取した結果が復元後に記録されること() throws Exception {
+        HistoryStore store = new HistoryStore(this.dir, 4, 2, 60, 24, 7);
+        for (int i = 0; i < 10; i++) {
+            store.append(createDiskUsages(7000000L + i));
+        }
+
+        UsageHistory history = new UsageHistory(60, 24, 7, 10);
+        Thread thread = history.restoreInBackground(store);
+        assertTrue(history.isRestoring());
+        history.record(createDiskUsages(8000000L));
+        thread.join(5000L);
+
+        assertFalse(history.isRestoring());
+        HistorySeries series = history.query("vol1", 0L, Long.MAX_VALUE, Resolution.MINUTE.getMillis());
+        long samples = 0L;
+        for (int i = 0; i < series.size(); i++) {
+            samples += series.getSamples(i);
+        }
+        assertEquals(11L, samples);
+        assertEquals(8000000L, series.getLastUsedDiskSize(series.size() - 1));
+    }
+
+    /**
+     * 書き込みを終えたセグメントを含めて指定した範囲のレコードのみ出力されること.
+     * @throws Exception エラー
+     */
+    @Test
+    public void 書き込みを終えたセグメントを含めて指定した範囲のレコードのみ出力されること() throws Exception {
+        HistoryStore store = new HistoryStore(this.dir, 4, 100, 60, 24, 7);
+        store.append(createDiskUsages(7000000L));
+        Thread.sleep(20L);
+        long from = System.currentTimeMillis();
+        for (int i = 1; i < 10; i++) {
+            store.append(createDiskUsages(7000000L + i));
+        }
+        store.append(createDiskUsages(9500000L));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes, true, "UTF-8");
+        assertEquals(11, store.print(from, Long.MAX_VALUE, out));
+        String[] lines = bytes.toString("UTF-8").split("\n");
+        assertEquals(11, lines.length);
+        assertTrue(lines[0], lines[0].endsWith("\tvol1\tsample\tOK\t1\t7000001\t7000001\t10000000\t9000000"));
+        assertTrue(lines[9], lines[9].endsWith("\tvol1\ttransition\tFULL\tOK"));
+
+        // 二回目以降の読み出しでも同じ結果となること
+        assertEquals(12, readAll(store).size());
+    }
+}
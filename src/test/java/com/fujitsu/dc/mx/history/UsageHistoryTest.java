@@ -0,0 +1,130 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.mx.history;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import com.fujitsu.dc.mx.DcMxException;
+import com.fujitsu.dc.mx.DcMxMessageId;
+import com.fujitsu.dc.mx.history.UsageHistory.Resolution;
+import com.fujitsu.dc.mx.model.diskusage.DiskUsage;
+import com.fujitsu.dc.mx.model.diskusage.DiskUsages;
+
+/**
+ * UsageHistoryのテスト.
+ */
+public class UsageHistoryTest {
+
+    private static final long MINUTE = 60000L;
+    private static final long HOUR = 3600000L;
+
+    /**
+     * リングバッファが容量を超えた場合に古い区間から上書きされること.
+     */
+    @Test
+    public void リングバッファが容量を超えた場合に古い区間から上書きされること() {
+        UsageRing ring = new UsageRing(MINUTE, 3);
+        for (long i = 0; i < 5; i++) {
+            ring.add(i * MINUTE + 1000L, i, 100L, 90L);
+        }
+        // 同じ区間への記録は集計される
+        ring.add(4 * MINUTE + 2000L, 10L, 100L, 90L);
+        // 最新の区間より古い記録は追加しない
+        assertFalse(ring.add(MINUTE, 1L, 100L, 90L));
+
+        assertEquals(3, ring.size());
+        assertEquals(2 * MINUTE, ring.get(0, UsageRing.START));
+        assertEquals(4 * MINUTE, ring.get(2, UsageRing.START));
+        assertEquals(2L, ring.get(2, UsageRing.COUNT));
+        assertEquals(14L, ring.get(2, UsageRing.SUM_USED));
+        assertEquals(10L, ring.get(2, UsageRing.MAX_USED));
+        assertEquals(10L, ring.get(2, UsageRing.LAST_USED));
+    }
+
+    /**
+     * 採取したディスク使用量が分と時間の単位で集計されること.
+     */
+    @Test
+    public void 採取したディスク使用量が分と時間の単位で集計されること() {
+        UsageHistory history = new UsageHistory(60, 24, 7, 10);
+        for (int i = 0; i < 120; i++) {
+            history.record(createDiskUsages(1000L * i));
+        }
+        // 採取時刻は現在時刻のため、120件は 1分または 2分の区間に収まる
+        HistorySeries series = history.query("vol1", 0L, Long.MAX_VALUE, MINUTE);
+        long samples = 0L;
+        for (int i = 0; i < series.size(); i++) {
+            samples += series.getSamples(i);
+        }
+        assertEquals(120L, samples);
+        assertEquals(MINUTE, series.getResolution());
+        assertEquals(119000L, series.getLastUsedDiskSize(series.size() - 1));
+        assertEquals(10000000L, series.getVolumeDiskSize(0));
+        assertEquals(9000000L, series.getAllocatedDiskSize(0));
+
+        HistorySeries hours = history.query("vol1", 0L, Long.MAX_VALUE, HOUR);
+        assertEquals(HOUR, hours.getResolution());
+        assertEquals(119000L, hours.getMaxUsedDiskSize(hours.size() - 1));
+        // ERRORのボリュームは記録しない
+        assertNull(history.query("_ads", 0L, Long.MAX_VALUE, MINUTE));
+    }
+
+    /**
+     * stepが集計元の時間幅の倍数に切り上げて集計されること.
+     */
+    @Test
+    public void stepが集計元の時間幅の倍数に切り上げて集計されること() {
+        VolumeHistory volume = new VolumeHistory(new long[] {MINUTE, HOUR }, new int[] {60, 24 });
+        for (long i = 0; i < 10; i++) {
+            volume.add(i * MINUTE, i * 10L, 1000L, 900L);
+        }
+        UsageRing points = volume.query(0, 2 * MINUTE, 8 * MINUTE, 3 * MINUTE);
+        // 0-3分(2分のみ), 3-6分, 6-9分の区間
+        assertEquals(3, points.size());
+        assertEquals(0L, points.get(0, UsageRing.START));
+        assertEquals(1L, points.get(0, UsageRing.COUNT));
+        assertEquals(3L, points.get(1, UsageRing.COUNT));
+        assertEquals(30L + 40L + 50L, points.get(1, UsageRing.SUM_USED));
+        assertEquals(80L, points.get(2, UsageRing.MAX_USED));
+    }
+
+    /**
+     * stepを省略した場合に範囲の開始時刻を含む最も細かい時間幅が選択されること.
+     */
+    @Test
+    public void stepを省略した場合に範囲の開始時刻を含む最も細かい時間幅が選択されること() {
+        UsageHistory history = new UsageHistory(60, 24, 7, 10);
+        long now = 100L * 24L * HOUR;
+        assertEquals(Resolution.MINUTE, history.selectResolution(now - HOUR, now, 0L));
+        assertEquals(Resolution.HOUR, history.selectResolution(now - 2 * HOUR, now, 0L));
+        assertEquals(Resolution.DAY, history.selectResolution(now - 2 * 24 * HOUR, now, 0L));
+        assertEquals(Resolution.DAY, history.selectResolution(0L, now, 0L));
+        assertEquals(Resolution.MINUTE, history.selectResolution(0L, now, 1000L));
+        assertEquals(Resolution.HOUR, history.selectResolution(0L, now, 2 * HOUR));
+    }
+
+    private static DiskUsages createDiskUsages(long used) {
+        DiskUsages diskUsages = new DiskUsages();
+        diskUsages.add(new DiskUsage("vol1", 10000000L, used, 0.9));
+        diskUsages.add(DiskUsage.getErrorInstance("_ads", new DcMxException(new DcMxMessageId("MX500-SV-0003"))));
+        return diskUsages;
+    }
+}
@@ -0,0 +1,128 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.mx.jersey.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.net.URI;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import com.sun.jersey.spi.container.ContainerRequest;
+import com.sun.jersey.spi.container.ContainerResponse;
+import com.sun.jersey.spi.container.ContainerResponseWriter;
+
+/**
+ * DcMxContainerFilterのテスト.
+ */
+public class DcMxContainerFilterTest {
+
+    private static final long NANOS_PER_MILLI = 1000000L;
+
+    /**
+     * 記録したレイテンシを消去する.
+     */
+    @After
+    public void after() {
+        RequestLatencies.clear();
+    }
+
+    private static LatencyHistogram getHistogram(String resource) {
+        List<RequestLatencies.Series> series = RequestLatencies.getSeries();
+        for (RequestLatencies.Series s : series) {
+            if (resource.equals(s.getResource())) {
+                return s.getHistogram();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * エンティティの書き出しを終えるまでの時間がレイテンシとして記録されること.
+     * @throws Exception エラー
+     */
+    @Test
+    public void エンティティの書き出しを終えるまでの時間がレイテンシとして記録されること() throws Exception {
+        RequestLatencies.clear();
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        ContainerResponseWriter original = new ContainerResponseWriter() {
+            @Override
+            public OutputStream writeStatusAndHeaders(long contentLength, ContainerResponse response) {
+                return body;
+            }
+
+            @Override
+            public void finish() throws IOException {
+            }
+        };
+        HttpServletRequest httpServletRequest = Mockito.mock(HttpServletRequest.class);
+        Mockito.when(httpServletRequest.getRemoteAddr()).thenReturn("127.0.0.1");
+        ContainerRequest request = Mockito.mock(ContainerRequest.class);
+        Mockito.when(request.getMethod()).thenReturn("GET");
+        Mockito.when(request.getRequestUri()).thenReturn(URI.create("http://localhost/__mx/metrics"));
+        Mockito.when(request.getPath()).thenReturn("metrics");
+        ContainerResponse response = Mockito.mock(ContainerResponse.class);
+        Mockito.when(response.getStatus()).thenReturn(200);
+        Mockito.when(response.getContainerResponseWriter()).thenReturn(original);
+
+        DcMxContainerFilter filter = new DcMxContainerFilter();
+        Field field = DcMxContainerFilter.class.getDeclaredField("httpServletRequest");
+        field.setAccessible(true);
+        field.set(filter, httpServletRequest);
+        filter.filter(request);
+        filter.filter(request, response);
+        ArgumentCaptor<ContainerResponseWriter> captor = ArgumentCaptor.forClass(ContainerResponseWriter.class);
+        Mockito.verify(response).setContainerResponseWriter(captor.capture());
+        ContainerResponseWriter writer = captor.getValue();
+
+        // レスポンスのフィルターを通過した時点では記録しない
+        assertNull(getHistogram("/metrics"));
+
+        // Jerseyと同様に、ステータスとヘッダの書き出し、エンティティの書き出し、終了の順に呼び出す
+        StreamingOutput slow = new StreamingOutput() {
+            @Override
+            public void write(OutputStream output) throws IOException {
+                try {
+                    Thread.sleep(300L);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                output.write("ok".getBytes("UTF-8"));
+            }
+        };
+        slow.write(writer.writeStatusAndHeaders(-1L, response));
+        writer.finish();
+
+        assertEquals("ok", body.toString("UTF-8"));
+        LatencyHistogram histogram = getHistogram("/metrics");
+        assertEquals(1L, histogram.getCount());
+        assertTrue(String.valueOf(histogram.getMax()), histogram.getMax() >= 300L * NANOS_PER_MILLI);
+    }
+}
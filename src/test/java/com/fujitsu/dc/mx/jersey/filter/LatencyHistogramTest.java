@@ -0,0 +1,88 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.mx.jersey.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * LatencyHistogramと RequestLatenciesのテスト.
+ */
+public class LatencyHistogramTest {
+
+    /**
+     * バケットの上限値が記録した値以上で誤差が8分の1以内であること.
+     */
+    @Test
+    public void バケットの上限値が記録した値以上で誤差が8分の1以内であること() {
+        long[] values = {0L, 1L, 7L, 8L, 15L, 16L, 17L, 1000L, 123456789L, Long.MAX_VALUE };
+        for (long value : values) {
+            long upper = LatencyHistogram.upperBoundOf(LatencyHistogram.indexOf(value));
+            assertTrue(value + ", " + upper, upper >= value);
+            assertTrue(value + ", " + upper, upper - value <= value / 8);
+        }
+    }
+
+    /**
+     * 記録した値からパーセンタイルと最大値を取得できること.
+     */
+    @Test
+    public void 記録した値からパーセンタイルと最大値を取得できること() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0L, histogram.getValueAtPercentile(0.99d));
+        for (long i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+
+        assertEquals(1000L, histogram.getCount());
+        assertEquals(500500000L, histogram.getSum());
+        assertEquals(1000000L, histogram.getMax());
+        long p50 = histogram.getValueAtPercentile(0.5d);
+        assertTrue(String.valueOf(p50), p50 >= 500000L && p50 <= 500000L * 9 / 8);
+        long p99 = histogram.getValueAtPercentile(0.99d);
+        assertTrue(String.valueOf(p99), p99 >= 990000L && p99 <= 1000000L);
+        assertEquals(1000000L, histogram.getValueAtPercentile(1.0d));
+    }
+
+    /**
+     * 存在しないパスへのリクエストがotherにまとめて記録されること.
+     */
+    @Test
+    public void 存在しないパスへのリクエストがotherにまとめて記録されること() {
+        RequestLatencies.clear();
+        RequestLatencies.record("stats", 200, 1000L);
+        RequestLatencies.record("/stats", 200, 2000L);
+        RequestLatencies.record("no/such/path", 404, 3000L);
+
+        List<RequestLatencies.Series> series = RequestLatencies.getSeries();
+        assertEquals(2, series.size());
+        for (RequestLatencies.Series s : series) {
+            if ("/stats".equals(s.getResource())) {
+                assertEquals(200, s.getStatus());
+                assertEquals(2L, s.getHistogram().getCount());
+            } else {
+                assertEquals(RequestLatencies.OTHER_RESOURCE, s.getResource());
+                assertEquals(404, s.getStatus());
+            }
+        }
+        RequestLatencies.clear();
+    }
+}
@@ -17,6 +17,7 @@
 package com.fujitsu.dc.mx.model.diskusage;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import org.junit.Test;
 
@@ -134,4 +135,66 @@ public class DiskUsagesTest {
 
         assertEquals(DiskUsage.Status.ERROR, usages.getSystemStatus());
     }
+
+    /**
+     * 変更不可にしたディスク使用量の情報に要素を追加した場合に例外がスローされること.
+     */
+    @Test(expected = UnsupportedOperationException.class)
+    public void 変更不可にしたディスク使用量の情報に要素を追加した場合に例外がスローされること() {
+        DiskUsages usages = new DiskUsages();
+        usages.add(new DiskUsage("elasticsearch1", 10000000L, 7000000L, 0.9));
+        usages.freeze();
+
+        usages.add(new DiskUsage("_ads", 10000000L, 7000000L, 0.9));
+    }
+
+    /**
+     * 変更不可にしたディスク使用量の情報にエラーを設定した場合に例外がスローされること.
+     */
+    @Test(expected = UnsupportedOperationException.class)
+    public void 変更不可にしたディスク使用量の情報にエラーを設定した場合に例外がスローされること() {
+        DiskUsages usages = new DiskUsages();
+        usages.freeze();
+
+        usages.setError(new DcMxException(new DcMxMessageId("MX500-SV-0002")));
+    }
+
+    /**
+     * 変更不可にしたディスク使用量の情報に使用可能サイズに達するまでの秒数を設定した場合に例外がスローされること.
+     */
+    @Test(expected = UnsupportedOperationException.class)
+    public void 変更不可にしたディスク使用量の情報に使用可能サイズに達するまでの秒数を設定した場合に例外がスローされること() {
+        DiskUsages usages = new DiskUsages();
+        DiskUsage usage = new DiskUsage("elasticsearch1", 10000000L, 7000000L, 0.9);
+        usages.add(usage);
+        usages.freeze();
+
+        usages.setSecondsToFull(usage, 600L);
+    }
+
+    /**
+     * 使用可能サイズに達するまでの秒数を設定した場合にJSONの変換結果が更新されること.
+     */
+    @Test
+    public void 使用可能サイズに達するまでの秒数を設定した場合にJSONの変換結果が更新されること() {
+        DiskUsages usages = new DiskUsages();
+        DiskUsage usage = new DiskUsage("elasticsearch1", 10000000L, 7000000L, 0.9);
+        usages.add(usage);
+        assertTrue(usages.toJsonString().contains("\"secondsToFull\":null"));
+
+        usages.setSecondsToFull(usage, 600L);
+        assertTrue(usages.toJsonString().contains("\"secondsToFull\":600"));
+    }
+
+    /**
+     * 後に生成したディスク使用量の情報ほどバージョンが大きくなること.
+     */
+    @Test
+    public void 後に生成したディスク使用量の情報ほどバージョンが大きくなること() {
+        DiskUsages first = new DiskUsages();
+        DiskUsages second = new DiskUsages();
+
+        assertTrue(first.getVersion() < second.getVersion());
+        assertTrue(first.getCollectedAt() <= second.getCollectedAt());
+    }
 }
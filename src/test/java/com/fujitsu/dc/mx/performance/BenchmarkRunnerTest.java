@@ -0,0 +1,76 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.mx.performance;
+
+import java.io.File;
+import java.net.URL;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+import com.fujitsu.dc.mx.categories.Performance;
+
+/**
+ * performanceパッケージの JMHベンチマークを実行し、結果を JSON形式で出力する.
+ * PerformanceTestプロファイルで実行する。以下のシステムプロパティで実行条件を変更できる。
+ * <ul>
+ * <li>com.fujitsu.dc.mx.benchmark.include: 実行するベンチマークの正規表現</li>
+ * <li>com.fujitsu.dc.mx.benchmark.result: 結果の出力先(既定値 target/jmh-result.json)</li>
+ * <li>com.fujitsu.dc.mx.benchmark.forks, .warmupIterations, .measurementIterations, .iterationTime(ミリ秒)</li>
+ * </ul>
+ */
+@Category({Performance.class })
+public class BenchmarkRunnerTest {
+
+    private static final String KEY_ROOT = "com.fujitsu.dc.mx.benchmark.";
+
+    /**
+     * ベンチマークを実行する.
+     * @throws Exception エラー
+     */
+    @Test
+    public void ベンチマークを実行する() throws Exception {
+        String result = System.getProperty(KEY_ROOT + "result", "target" + File.separator + "jmh-result.json");
+        File resultFile = new File(result);
+        if (resultFile.getParentFile() != null) {
+            resultFile.getParentFile().mkdirs();
+        }
+        long iterationTime = Long.getLong(KEY_ROOT + "iterationTime", 1000L);
+
+        ChainedOptionsBuilder builder = new OptionsBuilder()
+                .include(System.getProperty(KEY_ROOT + "include", ".*\\.performance\\..*Benchmark.*"))
+                .forks(Integer.getInteger(KEY_ROOT + "forks", 1))
+                .warmupIterations(Integer.getInteger(KEY_ROOT + "warmupIterations", 3))
+                .measurementIterations(Integer.getInteger(KEY_ROOT + "measurementIterations", 5))
+                .warmupTime(TimeValue.milliseconds(iterationTime))
+                .measurementTime(TimeValue.milliseconds(iterationTime))
+                .resultFormat(ResultFormatType.JSON)
+                .result(resultFile.getPath())
+                .shouldFailOnError(true);
+        // ログ出力のコストで結果が揺らがないよう、ベンチマーク用のログ設定を使用する
+        URL logConfig = getClass().getClassLoader().getResource("logback-performance.xml");
+        if (logConfig != null) {
+            builder = builder.jvmArgsAppend("-Dlogback.configurationFile=" + logConfig.toExternalForm());
+        }
+        new Runner(builder.build()).run();
+    }
+}
@@ -0,0 +1,130 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.mx.performance;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import com.fujitsu.dc.mx.model.diskusage.DiskUsage;
+import com.fujitsu.dc.mx.model.diskusage.DiskUsages;
+
+/**
+ * ベンチマークと負荷テストで共通に使用する処理.
+ */
+public final class BenchmarkSupport {
+
+    /** 設定ファイルのパスを指定するシステムプロパティ. */
+    static final String KEY_CONFIG_FILE = "com.fujitsu.dc.mx.configurationFile";
+
+    private static final String MOCK_CONTROLLER = "com.fujitsu.dc.mx.application.MockReadDeleteModeController";
+
+    private BenchmarkSupport() {
+    }
+
+    /**
+     * 指定数のボリュームディレクトリを持つ一時ディレクトリを作成する.
+     * @param volumes ボリューム数
+     * @return 作成したディレクトリ
+     * @throws IOException 作成に失敗した場合
+     */
+    public static File createVolumes(int volumes) throws IOException {
+        File root = File.createTempFile("dc-mx-volumes", "");
+        if (!root.delete() || !root.mkdir()) {
+            throw new IOException("Failed to create " + root);
+        }
+        for (int i = 0; i < volumes; i++) {
+            File volume = new File(root, "volume" + i);
+            if (!volume.mkdir()) {
+                throw new IOException("Failed to create " + volume);
+            }
+        }
+        return root;
+    }
+
+    /**
+     * ディレクトリを配下のファイルごと削除する.
+     * @param file 削除するファイル
+     */
+    public static void delete(File file) {
+        if (file == null) {
+            return;
+        }
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        if (!file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    /**
+     * テスト用の ReadDeleteModeControllerを使用する設定ファイルを作成し、システムプロパティに設定する.
+     * DcMxConfigが初期化される前に呼び出す必要がある.
+     * @param volumePath ボリュームのパス
+     * @throws IOException 作成に失敗した場合
+     */
+    public static void useMockController(String volumePath) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("com.fujitsu.dc.mx.volume.path", volumePath);
+        useConfiguration(properties);
+    }
+
+    /**
+     * テスト用の ReadDeleteModeControllerと指定したプロパティを使用する設定ファイルを作成し、システムプロパティに設定する.
+     * DcMxConfigが初期化される前に呼び出す必要がある.
+     * @param properties 設定するプロパティ
+     * @throws IOException 作成に失敗した場合
+     */
+    public static void useConfiguration(Properties properties) throws IOException {
+        if (!properties.containsKey("com.fujitsu.dc.mx.pcsModeController")) {
+            properties.setProperty("com.fujitsu.dc.mx.pcsModeController", MOCK_CONTROLLER);
+        }
+        File file = File.createTempFile("dc-mx-benchmark", ".properties");
+        file.deleteOnExit();
+        OutputStream output = new FileOutputStream(file);
+        try {
+            properties.store(output, null);
+        } finally {
+            output.close();
+        }
+        System.setProperty(KEY_CONFIG_FILE, file.getAbsolutePath());
+    }
+
+    /**
+     * 指定数のボリュームを持つディスク使用量の情報を作成する.
+     * @param volumes ボリューム数
+     * @param full true: 最後のボリュームをFULLにする false: 全てOKにする
+     * @return ディスク使用量の情報
+     */
+    public static DiskUsages createDiskUsages(int volumes, boolean full) {
+        DiskUsages diskUsages = new DiskUsages();
+        for (int i = 0; i < volumes; i++) {
+            long used = 5000000000L + i;
+            if (full && i == volumes - 1) {
+                used = 9900000000L;
+            }
+            diskUsages.add(new DiskUsage("volume" + i, 10000000000L, used, 0.9));
+        }
+        return diskUsages;
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.mx.performance;
+
+import java.lang.reflect.Field;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.fujitsu.dc.mx.jersey.filter.DcMxContainerFilter;
+import com.sun.jersey.spi.container.ContainerRequest;
+import com.sun.jersey.spi.container.ContainerResponse;
+
+/**
+ * DcMxContainerFilterのオーバーヘッドのベンチマーク.
+ * リクエストとレスポンスは Mockitoのモックのため、その呼び出しのコストも含まれる.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DcMxContainerFilterBenchmark {
+
+    DcMxContainerFilter filter;
+    ContainerRequest request;
+    ContainerResponse response;
+
+    /**
+     * フィルターとモックを作成する.
+     * @throws Exception エラー
+     */
+    @Setup
+    public void setUp() throws Exception {
+        HttpServletRequest httpServletRequest = Mockito.mock(HttpServletRequest.class);
+        Mockito.when(httpServletRequest.getRemoteAddr()).thenReturn("127.0.0.1");
+
+        this.request = Mockito.mock(ContainerRequest.class);
+        Mockito.when(this.request.getMethod()).thenReturn("GET");
+        Mockito.when(this.request.getRequestUri()).thenReturn(URI.create("http://localhost/__mx/stats"));
+        Mockito.when(this.request.getPath()).thenReturn("stats");
+        this.response = Mockito.mock(ContainerResponse.class);
+        Mockito.when(this.response.getStatus()).thenReturn(200);
+
+        this.filter = new DcMxContainerFilter();
+        Field field = DcMxContainerFilter.class.getDeclaredField("httpServletRequest");
+        field.setAccessible(true);
+        field.set(this.filter, httpServletRequest);
+    }
+
+    /**
+     * リクエストとレスポンスのフィルター処理.
+     * @return レスポンス
+     */
+    @Benchmark
+    public ContainerResponse roundTrip() {
+        this.filter.filter(this.request);
+        return this.filter.filter(this.request, this.response);
+    }
+}
@@ -0,0 +1,79 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.mx.performance;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.fujitsu.dc.mx.DcMxException;
+import com.fujitsu.dc.mx.control.diskusage.DiskUsageCreator;
+import com.fujitsu.dc.mx.model.diskusage.DiskUsages;
+
+/**
+ * DiskUsageCreator.create()のベンチマーク.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DiskUsageCreatorBenchmark {
+
+    /** ボリューム数. */
+    @Param({"10", "100", "1000", "10000" })
+    public int volumes;
+
+    File root;
+    DiskUsageCreator creator;
+
+    /**
+     * ボリュームのディレクトリを作成する.
+     * @throws Exception エラー
+     */
+    @Setup
+    public void setUp() throws Exception {
+        this.root = BenchmarkSupport.createVolumes(this.volumes);
+        BenchmarkSupport.useMockController(this.root.getPath());
+        this.creator = new DiskUsageCreator(this.root.getPath(), "0.9");
+    }
+
+    /**
+     * ボリュームのディレクトリを削除する.
+     */
+    @TearDown
+    public void tearDown() {
+        BenchmarkSupport.delete(this.root);
+    }
+
+    /**
+     * 全ボリュームのディスク使用量を採取する.
+     * @return ディスク使用量の情報
+     * @throws DcMxException エラー
+     */
+    @Benchmark
+    public DiskUsages create() throws DcMxException {
+        return this.creator.create();
+    }
+}
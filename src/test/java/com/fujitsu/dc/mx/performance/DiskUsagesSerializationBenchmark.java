@@ -0,0 +1,104 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.mx.performance;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.fujitsu.dc.mx.model.diskusage.DiskUsage;
+import com.fujitsu.dc.mx.model.diskusage.DiskUsages;
+
+/**
+ * DiskUsagesの JSON変換のベンチマーク.
+ * 変換結果のキャッシュの影響を除くため、キャッシュを使用するもの以外は呼び出しごとにスナップショットを作成する.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DiskUsagesSerializationBenchmark {
+
+    /** ボリューム数. */
+    @Param({"10", "1000", "10000" })
+    public int volumes;
+
+    List<DiskUsage> usages;
+    DiskUsages cached;
+
+    /**
+     * ディスク使用量の情報を作成する.
+     */
+    @Setup
+    public void setUp() {
+        this.cached = BenchmarkSupport.createDiskUsages(this.volumes, true);
+        this.usages = new ArrayList<DiskUsage>(this.cached);
+        this.cached.toJsonBytes();
+    }
+
+    private DiskUsages newDiskUsages() {
+        DiskUsages diskUsages = new DiskUsages();
+        for (DiskUsage usage : this.usages) {
+            diskUsages.add(usage);
+        }
+        return diskUsages;
+    }
+
+    /**
+     * json-simpleのオブジェクトツリーを経由して文字列に変換する.
+     * @return JSON形式の文字列
+     */
+    @Benchmark
+    public String jsonSimpleTree() {
+        return newDiskUsages().toJson().toJSONString();
+    }
+
+    /**
+     * ストリーミングで UTF-8のバイト列に変換する.
+     * @return UTF-8の JSON
+     */
+    @Benchmark
+    public byte[] streaming() {
+        return newDiskUsages().toJsonBytes();
+    }
+
+    /**
+     * ストリーミングで変換し、memcachedの値やログのための文字列も取得する.
+     * @return JSON形式の文字列
+     */
+    @Benchmark
+    public String streamingString() {
+        return newDiskUsages().toJsonString();
+    }
+
+    /**
+     * 変換済みのスナップショットから取得する.
+     * @return UTF-8の JSON
+     */
+    @Benchmark
+    public byte[] cached() {
+        return this.cached.toJsonBytes();
+    }
+}
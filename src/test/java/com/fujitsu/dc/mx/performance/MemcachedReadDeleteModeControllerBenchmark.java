@@ -0,0 +1,111 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.mx.performance;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.fujitsu.dc.mx.DcMxException;
+import com.fujitsu.dc.mx.control.pcs.ReadDeleteModeEntry;
+import com.fujitsu.dc.mx.tool.FakeMemcachedServer;
+import com.fujitsu.dc.mx.tool.MemcachedReadDeleteModeController;
+
+/**
+ * MemcachedReadDeleteModeControllerのスループットとレイテンシの分布のベンチマーク.
+ * 接続先は FakeMemcachedServerで、応答の遅延と障害の種類を切り替えて計測する。
+ * 障害時はサーキットブレーカーにより即座にエラーとなる経路を計測する。
+ * 設定ファイルを差し替えるため、フォークした JVMで実行する必要がある.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MemcachedReadDeleteModeControllerBenchmark {
+
+    private static final String KEY = "PcsReadDeleteMode";
+    private static final String VALUE = "{\"status\":{\"volumeStatus\":[],\"systemStatus\":\"OK\"}}";
+
+    /** 応答の遅延(ミリ秒). */
+    @Param({"0", "1" })
+    public long latency;
+
+    /** 障害の種類. none: 正常 serverError: SERVER_ERRORを応答 drop: 接続を切断 */
+    @Param({"none", "serverError", "drop" })
+    public String fault;
+
+    FakeMemcachedServer server;
+    MemcachedReadDeleteModeController controller;
+
+    /**
+     * FakeMemcachedServerを起動し、接続するコントローラを作成する.
+     * @throws Exception エラー
+     */
+    @Setup
+    public void setUp() throws Exception {
+        this.server = new FakeMemcachedServer().start();
+        Properties properties = new Properties();
+        String prefix = MemcachedReadDeleteModeController.class.getName();
+        properties.setProperty(prefix + ".host", this.server.getHost());
+        properties.setProperty(prefix + ".port", String.valueOf(this.server.getPort()));
+        BenchmarkSupport.useConfiguration(properties);
+        this.controller = new MemcachedReadDeleteModeController();
+        this.controller.setReadDeleteMode(KEY, VALUE);
+
+        this.server.setLatency(this.latency);
+        if ("serverError".equals(this.fault)) {
+            this.server.setFault("gets", "SERVER_ERROR injected");
+            this.server.setFault("cas", "SERVER_ERROR injected");
+        } else if ("drop".equals(this.fault)) {
+            this.server.setFault("gets", FakeMemcachedServer.DROP_CONNECTION);
+            this.server.setFault("cas", FakeMemcachedServer.DROP_CONNECTION);
+        }
+    }
+
+    /**
+     * サーバを停止する.
+     */
+    @TearDown
+    public void tearDown() {
+        this.server.stop();
+    }
+
+    /**
+     * PcsModeControlManagerが動作モードの更新に使用する gets と cas.
+     * @return 更新できた場合は true
+     */
+    @Benchmark
+    public boolean getsAndCas() {
+        try {
+            ReadDeleteModeEntry entry = this.controller.getReadDeleteMode(KEY);
+            if (entry == null) {
+                return false;
+            }
+            return this.controller.compareAndSetReadDeleteMode(KEY, entry.getCas(), VALUE);
+        } catch (DcMxException e) {
+            return false;
+        }
+    }
+}
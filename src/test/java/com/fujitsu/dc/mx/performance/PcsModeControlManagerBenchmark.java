@@ -0,0 +1,96 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.mx.performance;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.fujitsu.dc.mx.DcMxException;
+import com.fujitsu.dc.mx.control.pcs.PcsModeControlManager;
+import com.fujitsu.dc.mx.model.diskusage.DiskUsages;
+
+/**
+ * PcsModeControlManagerの動作モード判定のベンチマーク.
+ * memcachedの代わりに MockReadDeleteModeControllerを使用する.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PcsModeControlManagerBenchmark {
+
+    /** ボリューム数. */
+    @Param({"10", "1000", "10000" })
+    public int volumes;
+
+    File root;
+    DiskUsages normal;
+    DiskUsages full;
+    boolean toggle;
+
+    /**
+     * テスト用の ReadDeleteModeControllerを設定する.
+     * @throws Exception エラー
+     */
+    @Setup
+    public void setUp() throws Exception {
+        this.root = BenchmarkSupport.createVolumes(0);
+        BenchmarkSupport.useMockController(this.root.getPath());
+        this.normal = BenchmarkSupport.createDiskUsages(this.volumes, false);
+        this.full = BenchmarkSupport.createDiskUsages(this.volumes, true);
+    }
+
+    /**
+     * 一時ディレクトリを削除する.
+     */
+    @TearDown
+    public void tearDown() {
+        BenchmarkSupport.delete(this.root);
+    }
+
+    /**
+     * 動作モードが変化しない場合の判定.
+     * @throws DcMxException エラー
+     */
+    @Benchmark
+    public void unchanged() throws DcMxException {
+        PcsModeControlManager.setPcsMode(this.normal);
+    }
+
+    /**
+     * 毎回動作モードが変化する場合の判定と書き込み.
+     * @throws DcMxException エラー
+     */
+    @Benchmark
+    public void transition() throws DcMxException {
+        this.toggle = !this.toggle;
+        if (this.toggle) {
+            PcsModeControlManager.setPcsMode(this.full);
+        } else {
+            PcsModeControlManager.setPcsMode(this.normal);
+        }
+    }
+}
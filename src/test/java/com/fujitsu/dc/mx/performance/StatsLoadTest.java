@@ -0,0 +1,322 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.mx.performance;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import com.fujitsu.dc.mx.DcMxConfig;
+import com.fujitsu.dc.mx.categories.Performance;
+import com.fujitsu.dc.mx.control.diskusage.SyntheticVolumeStatProvider;
+import com.fujitsu.dc.mx.process.DiskUsageSampler;
+import com.sun.jersey.test.framework.JerseyTest;
+
+/**
+ * /stats の負荷テスト.
+ * 組み込みの Grizzlyでアプリを起動し、架空のボリュームとメモリ上の ReadDeleteModeControllerを使って
+ * 指定した並列度で /stats を呼び出し、スループット、レイテンシのパーセンタイル、メモリ割り当て量を出力する。
+ * 以下のシステムプロパティで実行条件を変更できる。
+ * <ul>
+ * <li>com.fujitsu.dc.mx.load.concurrency: 並列度(既定値 16)</li>
+ * <li>com.fujitsu.dc.mx.load.warmup: ウォームアップ時間(ミリ秒, 既定値 3000)</li>
+ * <li>com.fujitsu.dc.mx.load.duration: 計測時間(ミリ秒, 既定値 10000)</li>
+ * <li>com.fujitsu.dc.mx.load.volumes: 架空のボリューム数(既定値 1000)</li>
+ * <li>com.fujitsu.dc.mx.load.samplingInterval: 定期採取の間隔(ミリ秒, 既定値 1000)</li>
+ * <li>com.fujitsu.dc.mx.load.result: 結果の出力先(既定値 target/stats-load-result.json)</li>
+ * </ul>
+ */
+@Category({Performance.class })
+public class StatsLoadTest extends JerseyTest {
+
+    private static final String KEY_ROOT = "com.fujitsu.dc.mx.load.";
+    private static final int CONCURRENCY = Integer.getInteger(KEY_ROOT + "concurrency", 16);
+    private static final long WARMUP = Long.getLong(KEY_ROOT + "warmup", 3000L);
+    private static final long DURATION = Long.getLong(KEY_ROOT + "duration", 10000L);
+    private static final int VOLUMES = Integer.getInteger(KEY_ROOT + "volumes", 1000);
+    private static final long SAMPLING_INTERVAL = Long.getLong(KEY_ROOT + "samplingInterval", 1000L);
+    private static final String RESULT = System.getProperty(KEY_ROOT + "result",
+            "target" + File.separator + "stats-load-result.json");
+
+    static {
+        // アプリのクラスが DcMxConfigを初期化する前に設定ファイルを差し替える
+        Properties properties = new Properties();
+        properties.setProperty(DcMxConfig.MX_VOLUME_PATH, "/synthetic");
+        properties.setProperty(DcMxConfig.MX_VOLUME_STAT_PROVIDER, SyntheticVolumeStatProvider.class.getName());
+        properties.setProperty(SyntheticVolumeStatProvider.class.getName() + ".volumes", String.valueOf(VOLUMES));
+        properties.setProperty(DcMxConfig.SAMPLING_INTERVAL, String.valueOf(SAMPLING_INTERVAL));
+        try {
+            BenchmarkSupport.useConfiguration(properties);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * コンストラクタ.
+     */
+    public StatsLoadTest() {
+        super("com.fujitsu.dc.mx.rs.diskusage");
+    }
+
+    /**
+     * 定期採取を開始する.
+     * @throws Exception エラー
+     */
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        DiskUsageSampler sampler = DiskUsageSampler.getInstance();
+        sampler.sample();
+        sampler.start(DcMxConfig.getSamplingInterval());
+    }
+
+    /**
+     * 定期採取を停止する.
+     * @throws Exception エラー
+     */
+    @After
+    @Override
+    public void tearDown() throws Exception {
+        DiskUsageSampler.getInstance().stop();
+        super.tearDown();
+    }
+
+    /**
+     * 一つのスレッドから /stats を呼び出し続けるクラス.
+     */
+    static class Worker extends Thread {
+        private final URL url;
+        private final CountDownLatch start;
+        private final byte[] buffer = new byte[8192];
+        private volatile long measureFrom = Long.MAX_VALUE;
+        private volatile long measureUntil = Long.MAX_VALUE;
+        private long[] latencies = new long[65536];
+        private int count = 0;
+        private int errors = 0;
+
+        Worker(URL url, CountDownLatch start, int index) {
+            super("dc-mx-load-" + index);
+            this.url = url;
+            this.start = start;
+        }
+
+        void measure(long from, long until) {
+            this.measureFrom = from;
+            this.measureUntil = until;
+        }
+
+        @Override
+        public void run() {
+            try {
+                this.start.await();
+            } catch (InterruptedException e) {
+                return;
+            }
+            while (true) {
+                long begin = System.nanoTime();
+                if (begin >= this.measureUntil) {
+                    return;
+                }
+                boolean ok = request();
+                long end = System.nanoTime();
+                if (begin >= this.measureFrom) {
+                    if (ok) {
+                        record(end - begin);
+                    } else {
+                        this.errors++;
+                    }
+                }
+            }
+        }
+
+        private boolean request() {
+            try {
+                HttpURLConnection connection = (HttpURLConnection) this.url.openConnection();
+                int status = connection.getResponseCode();
+                InputStream input = connection.getInputStream();
+                try {
+                    // keep-aliveで接続を再利用するため、ボディを読み切る
+                    while (input.read(this.buffer) >= 0) {
+                        continue;
+                    }
+                } finally {
+                    input.close();
+                }
+                return status == HttpURLConnection.HTTP_OK;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        private void record(long latency) {
+            if (this.count == this.latencies.length) {
+                this.latencies = Arrays.copyOf(this.latencies, this.count * 2);
+            }
+            this.latencies[this.count++] = latency;
+        }
+    }
+
+    /**
+     * 指定した並列度で /stats を呼び出し、結果を出力する.
+     * @throws Exception エラー
+     */
+    @Test
+    public void statsの負荷テスト() throws Exception {
+        URL url = resource().path("stats").getURI().toURL();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Worker> workers = new ArrayList<Worker>();
+        for (int i = 0; i < CONCURRENCY; i++) {
+            Worker worker = new Worker(url, start, i);
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+        Set<Long> clientThreads = new HashSet<Long>();
+        for (Worker worker : workers) {
+            clientThreads.add(worker.getId());
+        }
+
+        long now = System.nanoTime();
+        long measureFrom = now + WARMUP * 1000000L;
+        long measureUntil = measureFrom + DURATION * 1000000L;
+        for (Worker worker : workers) {
+            worker.measure(measureFrom, measureUntil);
+        }
+        start.countDown();
+
+        sleepUntil(measureFrom);
+        long allocatedBefore = getServerAllocatedBytes(clientThreads);
+        sleepUntil(measureUntil);
+        long allocatedAfter = getServerAllocatedBytes(clientThreads);
+        for (Worker worker : workers) {
+            worker.join();
+        }
+
+        int total = 0;
+        int errors = 0;
+        for (Worker worker : workers) {
+            total += worker.count;
+            errors += worker.errors;
+        }
+        long[] latencies = new long[total];
+        int offset = 0;
+        for (Worker worker : workers) {
+            System.arraycopy(worker.latencies, 0, latencies, offset, worker.count);
+            offset += worker.count;
+        }
+        Arrays.sort(latencies);
+
+        double seconds = DURATION / 1000.0d;
+        double throughput = total / seconds;
+        long allocated = allocatedAfter - allocatedBefore;
+        String result = String.format("{\"concurrency\":%d,\"volumes\":%d,\"durationMillis\":%d,"
+                + "\"requests\":%d,\"errors\":%d,\"throughput\":%.1f,"
+                + "\"latencyMicros\":{\"p50\":%.1f,\"p99\":%.1f,\"p999\":%.1f,\"max\":%.1f},"
+                + "\"allocationBytesPerSecond\":%d,\"allocationBytesPerRequest\":%d}",
+                CONCURRENCY, VOLUMES, DURATION, total, errors, throughput,
+                percentile(latencies, 0.5d), percentile(latencies, 0.99d), percentile(latencies, 0.999d),
+                percentile(latencies, 1.0d), perUnit(allocated, seconds), perUnit(allocated, total));
+        System.out.println("/stats load test result: " + result);
+        writeResult(result);
+
+        assertEquals(0, errors);
+        assertTrue(total > 0);
+    }
+
+    private static void sleepUntil(long nanoTime) throws InterruptedException {
+        long remaining = nanoTime - System.nanoTime();
+        if (remaining > 0) {
+            Thread.sleep(remaining / 1000000L, (int) (remaining % 1000000L));
+        }
+    }
+
+    private static double percentile(long[] sorted, double ratio) {
+        if (sorted.length == 0) {
+            return 0.0d;
+        }
+        int index = (int) Math.ceil(ratio * sorted.length) - 1;
+        index = Math.max(0, Math.min(sorted.length - 1, index));
+        return sorted[index] / 1000.0d;
+    }
+
+    private static long perUnit(long value, double units) {
+        if (value < 0 || units <= 0) {
+            return -1L;
+        }
+        return (long) (value / units);
+    }
+
+    /**
+     * 負荷をかけるスレッドを除いた全スレッドのメモリ割り当て量の合計を取得する.
+     * HotSpot以外で取得できない場合は -1を返却する.
+     */
+    private static long getServerAllocatedBytes(Set<Long> clientThreads) {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return -1L;
+        }
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        if (!threadBean.isThreadAllocatedMemorySupported() || !threadBean.isThreadAllocatedMemoryEnabled()) {
+            return -1L;
+        }
+        long total = 0L;
+        for (long id : threadBean.getAllThreadIds()) {
+            if (!clientThreads.contains(id)) {
+                long bytes = threadBean.getThreadAllocatedBytes(id);
+                if (bytes > 0) {
+                    total += bytes;
+                }
+            }
+        }
+        return total;
+    }
+
+    private static void writeResult(String result) throws IOException {
+        File file = new File(RESULT);
+        if (file.getParentFile() != null) {
+            file.getParentFile().mkdirs();
+        }
+        OutputStream output = new FileOutputStream(file);
+        try {
+            output.write(result.getBytes("UTF-8"));
+        } finally {
+            output.close();
+        }
+    }
+}
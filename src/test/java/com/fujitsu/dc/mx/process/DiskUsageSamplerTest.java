@@ -0,0 +1,205 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.mx.process;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import com.fujitsu.dc.mx.DcMxConfig;
+import com.fujitsu.dc.mx.application.MockReadDeleteModeController;
+import com.fujitsu.dc.mx.control.pcs.PcsModeControlManager;
+import com.fujitsu.dc.mx.model.diskusage.DiskUsage;
+import com.fujitsu.dc.mx.model.diskusage.DiskUsages;
+
+/**
+ * DiskUsageSamplerのテスト.
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({DcMxConfig.class, PcsModeControlManager.class })
+public class DiskUsageSamplerTest {
+    String rootPath = ClassLoader.getSystemResource("").getPath() + File.separator + "diskSizeTest";
+    String volumeName = "volume1";
+
+    /**
+     * テスト前に実行する処理.
+     * @throws Exception エラー
+     */
+    @Before
+    public void before() throws Exception {
+        File testDir = new File(rootPath + File.separator + volumeName);
+        testDir.mkdirs();
+
+        PowerMockito.spy(DcMxConfig.class);
+        PowerMockito.when(DcMxConfig.class, "getMxVolumePath").thenReturn(rootPath);
+        PowerMockito.when(DcMxConfig.class, "getPcsModeController").thenReturn(
+                "com.fujitsu.dc.mx.application.MockReadDeleteModeController");
+    }
+
+    /**
+     * テスト後に実行する処理.
+     */
+    @After
+    public void after() {
+        DiskUsageSampler.getInstance().stop();
+        MockReadDeleteModeController.getInstance().setDelay(0L);
+
+        File testDir = new File(rootPath + File.separator + volumeName);
+        testDir.delete();
+        testDir = new File(rootPath);
+        testDir.delete();
+    }
+
+    /**
+     * 採取したスナップショットが最新のスナップショットとして保持されること.
+     */
+    @Test
+    public void 採取したスナップショットが最新のスナップショットとして保持されること() {
+        DiskUsageSampler sampler = DiskUsageSampler.getInstance();
+        DiskUsages diskUsages = sampler.sample();
+
+        assertNotNull(diskUsages);
+        assertTrue(diskUsages.isFrozen());
+        assertEquals(1, diskUsages.size());
+        assertSame(diskUsages, sampler.getLatest());
+    }
+
+    /**
+     * 存在しないボリュームパスを指定した場合にシステムステータスがERRORのスナップショットが保持されること.
+     * @throws Exception エラー
+     */
+    @Test
+    public void 存在しないボリュームパスを指定した場合にシステムステータスがERRORのスナップショットが保持されること() throws Exception {
+        PowerMockito.when(DcMxConfig.class, "getMxVolumePath").thenReturn("/NonExistingDir");
+
+        DiskUsageSampler sampler = DiskUsageSampler.getInstance();
+        DiskUsages diskUsages = sampler.sample();
+
+        assertEquals(DiskUsage.Status.ERROR, diskUsages.getSystemStatus());
+        assertSame(diskUsages, sampler.getLatest());
+    }
+
+    /**
+     * 定期採取を開始した場合に指定間隔でスナップショットが更新されること.
+     * @throws Exception エラー
+     */
+    @Test
+    public void 定期採取を開始した場合に指定間隔でスナップショットが更新されること() throws Exception {
+        DiskUsageSampler sampler = DiskUsageSampler.getInstance();
+        DiskUsages first = sampler.sample();
+
+        sampler.start(50L);
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (sampler.getLatest() == first && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertTrue(sampler.getLatest() != first);
+    }
+
+    /**
+     * 定期採取が停止している場合はスナップショットが古いと判定されること.
+     */
+    @Test
+    public void 定期採取が停止している場合はスナップショットが古いと判定されること() {
+        DiskUsageSampler sampler = DiskUsageSampler.getInstance();
+        DiskUsages diskUsages = sampler.sample();
+        assertTrue(sampler.isStale(diskUsages));
+
+        sampler.start(60000L);
+        assertFalse(sampler.isStale(diskUsages));
+
+        sampler.stop();
+        assertTrue(sampler.isStale(diskUsages));
+    }
+
+    /**
+     * 定期採取を停止した場合に実行中の採取の完了を待つこと.
+     * @throws Exception エラー
+     */
+    @Test
+    public void 定期採取を停止した場合に実行中の採取の完了を待つこと() throws Exception {
+        MockReadDeleteModeController.getInstance().setDelay(300L);
+        DiskUsageSampler sampler = DiskUsageSampler.getInstance();
+        long samplesBefore = sampler.getSampleCount();
+
+        sampler.start(10L);
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (!sampler.isSampling() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1L);
+        }
+        assertTrue(sampler.isSampling());
+
+        sampler.stop();
+        assertFalse(sampler.isSampling());
+        assertEquals(samplesBefore + 1, sampler.getSampleCount());
+    }
+
+    /**
+     * 同時に採取を要求した場合に一回の採取結果が共有されること.
+     * @throws Exception エラー
+     */
+    @Test
+    public void 同時に採取を要求した場合に一回の採取結果が共有されること() throws Exception {
+        final int callers = 5;
+        MockReadDeleteModeController.getInstance().setDelay(500L);
+        final DiskUsageSampler sampler = DiskUsageSampler.getInstance();
+        long coalescedBefore = sampler.getCoalescedCount();
+
+        final CountDownLatch gate = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(callers);
+        try {
+            List<Future<DiskUsages>> futures = new ArrayList<Future<DiskUsages>>();
+            for (int i = 0; i < callers; i++) {
+                futures.add(pool.submit(new Callable<DiskUsages>() {
+                    @Override
+                    public DiskUsages call() throws Exception {
+                        gate.await();
+                        return sampler.sample();
+                    }
+                }));
+            }
+            gate.countDown();
+
+            DiskUsages first = futures.get(0).get();
+            for (Future<DiskUsages> future : futures) {
+                assertSame(first, future.get());
+            }
+            assertEquals(coalescedBefore + callers - 1, sampler.getCoalescedCount());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.mx.rs.diskusage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.EntityTag;
+
+import org.junit.Test;
+
+import com.fujitsu.dc.mx.model.diskusage.DiskUsages;
+import com.fujitsu.dc.mx.model.diskusage.DiskUsages.Phase;
+
+/**
+ * DiskUsageResourceのテスト.
+ */
+public class DiskUsageResourceTest {
+
+    /**
+     * スナップショットごとに異なるETagが返却されること.
+     */
+    @Test
+    public void スナップショットごとに異なるETagが返却されること() {
+        DiskUsages first = new DiskUsages();
+        DiskUsages second = new DiskUsages();
+
+        EntityTag firstTag = DiskUsageResource.getEntityTag(first);
+        assertEquals(firstTag.getValue(), DiskUsageResource.getEntityTag(first).getValue());
+        assertFalse(firstTag.getValue().equals(DiskUsageResource.getEntityTag(second).getValue()));
+        assertFalse(firstTag.isWeak());
+    }
+
+    /**
+     * max-ageが次回の採取までの残り秒数となること.
+     */
+    @Test
+    public void max_ageが次回の採取までの残り秒数となること() {
+        CacheControl cacheControl = DiskUsageResource.getCacheControl(10000L, 2500L);
+        assertEquals(7, cacheControl.getMaxAge());
+        assertTrue(cacheControl.isMustRevalidate());
+    }
+
+    /**
+     * 採取間隔を過ぎたスナップショットのmax_ageが0となること.
+     */
+    @Test
+    public void 採取間隔を過ぎたスナップショットのmax_ageが0となること() {
+        assertEquals(0, DiskUsageResource.getCacheControl(10000L, 12000L).getMaxAge());
+    }
+
+    /**
+     * Server_Timingに各段階の処理時間がミリ秒で出力されること.
+     */
+    @Test
+    public void Server_Timingに各段階の処理時間がミリ秒で出力されること() {
+        DiskUsages diskUsages = new DiskUsages();
+        diskUsages.addPhaseTime(Phase.COLLECT, 12345678L);
+        diskUsages.addPhaseTime(Phase.DECIDE, 21000L);
+        diskUsages.addPhaseTime(Phase.MEMCACHED, 1000000L);
+        diskUsages.addPhaseTime(Phase.MEMCACHED, 2500000L);
+
+        ServerTiming timing = new ServerTiming(diskUsages, 999L, 1500000L);
+        assertEquals("collect;dur=12.345, decide;dur=0.021, memcached;dur=3.500, serialize;dur=0.000, "
+                + "total;dur=1.500", timing.toHeaderValue());
+        assertEquals("collect=12.345ms decide=0.021ms memcached=3.500ms serialize=0.000ms total=1.500ms",
+                timing.toLogString());
+    }
+
+    /**
+     * 処理時間が閾値を超えた場合にのみ内訳がログに出力されること.
+     */
+    @Test
+    public void 処理時間が閾値を超えた場合にのみ内訳がログに出力されること() {
+        DiskUsages diskUsages = new DiskUsages();
+        ServerTiming timing = new ServerTiming(diskUsages, 0L, 1500000000L);
+
+        assertTrue(DiskUsageResource.logSlowRequest(timing, diskUsages, true, 1000L));
+        assertFalse(DiskUsageResource.logSlowRequest(timing, diskUsages, true, 2000L));
+        assertFalse(DiskUsageResource.logSlowRequest(timing, diskUsages, true, 0L));
+    }
+}
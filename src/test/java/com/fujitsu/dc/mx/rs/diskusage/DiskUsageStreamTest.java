@@ -0,0 +1,233 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.mx.rs.diskusage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.WebApplicationException;
+
+import org.junit.Test;
+
+import com.fujitsu.dc.mx.DcMxConfig;
+import com.fujitsu.dc.mx.model.diskusage.DiskUsage;
+import com.fujitsu.dc.mx.model.diskusage.DiskUsages;
+import com.fujitsu.dc.mx.process.DiskUsageSampler;
+
+/**
+ * DiskUsageStreamのテスト.
+ */
+public class DiskUsageStreamTest {
+
+    private static DiskUsages createDiskUsages(long usedDiskSize) {
+        DiskUsages diskUsages = new DiskUsages();
+        diskUsages.add(new DiskUsage("elasticsearch1", 10000000L, usedDiskSize, 0.9));
+        diskUsages.freeze();
+        return diskUsages;
+    }
+
+    private static DiskUsageStream.Slot releaseTo(final CountDownLatch closed) {
+        return new DiskUsageStream.Slot() {
+            @Override
+            public void acquire() {
+            }
+
+            @Override
+            public void release() {
+                closed.countDown();
+            }
+        };
+    }
+
+    private static int countEvents(ByteArrayOutputStream output) {
+        String text = output.toString();
+        int count = 0;
+        int index = text.indexOf("event: " + DiskUsageStream.EVENT_NAME);
+        while (index >= 0) {
+            count++;
+            index = text.indexOf("event: " + DiskUsageStream.EVENT_NAME, index + 1);
+        }
+        return count;
+    }
+
+    private static void waitFor(ByteArrayOutputStream output, String expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (!output.toString().contains(expected) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertTrue(output.toString(), output.toString().contains(expected));
+    }
+
+    /**
+     * ステータスが変化した場合にのみイベントが送信されること.
+     * @throws Exception エラー
+     */
+    @Test
+    public void ステータスが変化した場合にのみイベントが送信されること() throws Exception {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final CountDownLatch closed = new CountDownLatch(1);
+        DiskUsages initial = createDiskUsages(7000000L);
+        final DiskUsageStream stream = new DiskUsageStream(DiskUsageSampler.getInstance(), initial, 0L, 60000L,
+                10000L, releaseTo(closed));
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    stream.write(output);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        thread.start();
+        try {
+            waitFor(output, "id: " + initial.getVersion());
+            assertEquals(1, countEvents(output));
+
+            // 使用量のみが変化した場合は送信しない
+            stream.sampled(createDiskUsages(7100000L));
+            Thread.sleep(200L);
+            assertEquals(1, countEvents(output));
+
+            DiskUsages full = createDiskUsages(9500000L);
+            stream.sampled(full);
+            waitFor(output, "id: " + full.getVersion());
+            assertEquals(2, countEvents(output));
+            assertTrue(output.toString().contains("\"systemStatus\":\"FULL\""));
+        } finally {
+            thread.interrupt();
+        }
+        assertTrue(closed.await(5L, TimeUnit.SECONDS));
+    }
+
+    /**
+     * イベントがない場合にハートビートが送信され最大時間の経過で接続が終了すること.
+     * @throws Exception エラー
+     */
+    @Test
+    public void イベントがない場合にハートビートが送信され最大時間の経過で接続が終了すること() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final CountDownLatch closed = new CountDownLatch(1);
+        DiskUsageStream stream = new DiskUsageStream(DiskUsageSampler.getInstance(), createDiskUsages(7000000L),
+                50L, 300L, 10000L, releaseTo(closed));
+
+        stream.write(output);
+
+        assertEquals(0L, closed.getCount());
+        String text = output.toString();
+        assertTrue(text.startsWith("retry: 10000\n\n"));
+        assertTrue(text.contains(": heartbeat "));
+        assertEquals(1, countEvents(output));
+    }
+
+    /**
+     * ステータスが変化しない採取がハートビートの間隔より短い周期で続いてもハートビートが送信されること.
+     * @throws Exception エラー
+     */
+    @Test
+    public void ステータスが変化しない採取が続いてもハートビートが送信されること() throws Exception {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final CountDownLatch closed = new CountDownLatch(1);
+        final DiskUsageStream stream = new DiskUsageStream(DiskUsageSampler.getInstance(),
+                createDiskUsages(7000000L), 200L, 60000L, 10000L, releaseTo(closed));
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    stream.write(output);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        thread.start();
+        try {
+            // ハートビートの間隔より短い周期で、ステータスが変化しない採取を通知し続ける
+            long until = System.currentTimeMillis() + 1000L;
+            while (System.currentTimeMillis() < until) {
+                stream.sampled(createDiskUsages(7100000L));
+                Thread.sleep(20L);
+            }
+            assertTrue(output.toString(), output.toString().contains(": heartbeat "));
+            assertEquals(1, countEvents(output));
+        } finally {
+            thread.interrupt();
+        }
+        assertTrue(closed.await(5L, TimeUnit.SECONDS));
+    }
+
+    /**
+     * エンティティが書き出されない場合に同時接続数の枠を消費しないこと.
+     * @throws Exception エラー
+     */
+    @Test
+    public void エンティティが書き出されない場合に同時接続数の枠を消費しないこと() throws Exception {
+        int active = DiskUsageStreamResource.getActiveStreams();
+        int maxConnections = DcMxConfig.getStreamMaxConnections();
+        DiskUsages initial = createDiskUsages(7000000L);
+
+        // HEADやレスポンスフィルタの例外などでエンティティが書き出されない場合
+        for (int i = 0; i <= maxConnections; i++) {
+            new DiskUsageStream(DiskUsageSampler.getInstance(), initial, 0L, 0L, 10000L,
+                    DiskUsageStreamResource.SLOT);
+        }
+        assertEquals(active, DiskUsageStreamResource.getActiveStreams());
+
+        // 書き出した場合は終了時に解放される
+        DiskUsageStream stream = new DiskUsageStream(DiskUsageSampler.getInstance(), initial, 0L, 0L, 10000L,
+                DiskUsageStreamResource.SLOT);
+        stream.write(new ByteArrayOutputStream());
+        assertEquals(active, DiskUsageStreamResource.getActiveStreams());
+    }
+
+    /**
+     * 書き出し時に同時接続数の上限を超えた場合に503となること.
+     * @throws Exception エラー
+     */
+    @Test
+    public void 書き出し時に同時接続数の上限を超えた場合に503となること() throws Exception {
+        int maxConnections = DcMxConfig.getStreamMaxConnections();
+        int acquired = 0;
+        try {
+            while (DiskUsageStreamResource.getActiveStreams() < maxConnections) {
+                DiskUsageStreamResource.SLOT.acquire();
+                acquired++;
+            }
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            DiskUsageStream stream = new DiskUsageStream(DiskUsageSampler.getInstance(),
+                    createDiskUsages(7000000L), 0L, 60000L, 10000L, DiskUsageStreamResource.SLOT);
+            try {
+                stream.write(output);
+                fail();
+            } catch (WebApplicationException e) {
+                assertEquals(503, e.getResponse().getStatus());
+                assertTrue(e.getResponse().getMetadata().containsKey("Retry-After"));
+            }
+            assertEquals(0, output.size());
+            assertEquals(maxConnections, DiskUsageStreamResource.getActiveStreams());
+        } finally {
+            for (int i = 0; i < acquired; i++) {
+                DiskUsageStreamResource.SLOT.release();
+            }
+        }
+    }
+}
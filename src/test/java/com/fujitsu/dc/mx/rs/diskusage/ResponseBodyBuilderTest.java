@@ -17,10 +17,15 @@
 package com.fujitsu.dc.mx.rs.diskusage;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import java.io.UnsupportedEncodingException;
+
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
 import org.junit.Test;
 
 import com.fujitsu.dc.mx.DcMxException;
@@ -33,6 +38,26 @@ import com.fujitsu.dc.mx.model.diskusage.DiskUsages;
  */
 public class ResponseBodyBuilderTest {
 
+    /**
+     * ストリーミングで生成したレスポンスボディを解析し、JSONObjectで生成した結果と一致することを確認した上で返却する.
+     * @param diskUsages 各ボリュームのディスク使用量のリスト
+     * @return 解析したレスポンスボディ
+     */
+    private static JSONObject getDiskUsage(DiskUsages diskUsages) {
+        byte[] body = ResponseBodyBuilder.getDiskUsageBody(diskUsages);
+        JSONObject expected = ResponseBodyBuilder.getDiskUsage(diskUsages);
+        JSONObject actual;
+        try {
+            actual = (JSONObject) new JSONParser().parse(new String(body, "UTF-8"));
+        } catch (ParseException e) {
+            throw new AssertionError(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+        assertEquals(expected, actual);
+        return actual;
+    }
+
     /**
      * ディスク使用量のリストが空のリストの場合にvolumeStatusが空配列となること.
      */
@@ -40,7 +65,7 @@ public class ResponseBodyBuilderTest {
     public void ディスク使用量のリストが空のリストの場合にvolumeStatusが空配列となること() {
         DiskUsages diskUsages = new DiskUsages();
 
-        JSONObject json = ResponseBodyBuilder.getDiskUsage(diskUsages);
+        JSONObject json = getDiskUsage(diskUsages);
         JSONArray volumeStatus = (JSONArray) ((JSONObject) json.get("status")).get("volumeStatus");
         assertTrue(volumeStatus.isEmpty());
     }
@@ -54,7 +79,7 @@ public class ResponseBodyBuilderTest {
         DiskUsage usage = new DiskUsage("elasticsearch1", 10000000L, 7000000L, 0.9);
         diskUsages.add(usage);
 
-        JSONObject response = ResponseBodyBuilder.getDiskUsage(diskUsages);
+        JSONObject response = getDiskUsage(diskUsages);
         JSONObject status = (JSONObject) response.get("status");
         assertEquals("OK", status.get("systemStatus"));
 
@@ -83,7 +108,7 @@ public class ResponseBodyBuilderTest {
         DiskUsage usage3 = new DiskUsage("dav", 10000000L, 5000000L, 0.9);
         diskUsages.add(usage3);
 
-        JSONObject response = ResponseBodyBuilder.getDiskUsage(diskUsages);
+        JSONObject response = getDiskUsage(diskUsages);
         JSONObject status = (JSONObject) response.get("status");
         assertEquals("OK", status.get("systemStatus"));
 
@@ -119,7 +144,7 @@ public class ResponseBodyBuilderTest {
                 new DcMxException(new DcMxMessageId("MX500-SV-0003")));
         diskUsages.add(usage);
 
-        JSONObject response = ResponseBodyBuilder.getDiskUsage(diskUsages);
+        JSONObject response = getDiskUsage(diskUsages);
         JSONObject status = (JSONObject) response.get("status");
         assertEquals("ERROR", status.get("systemStatus"));
 
@@ -146,7 +171,7 @@ public class ResponseBodyBuilderTest {
         DiskUsage usage = DiskUsage.getErrorInstance("elasticsearch1", new Exception("test message"));
         diskUsages.add(usage);
 
-        JSONObject response = ResponseBodyBuilder.getDiskUsage(diskUsages);
+        JSONObject response = getDiskUsage(diskUsages);
         JSONObject status = (JSONObject) response.get("status");
         assertEquals("ERROR", status.get("systemStatus"));
 
@@ -174,7 +199,7 @@ public class ResponseBodyBuilderTest {
         diskUsages.add(usage);
         diskUsages.setError(new DcMxException(new DcMxMessageId("MX500-SV-0002")));
 
-        JSONObject response = ResponseBodyBuilder.getDiskUsage(diskUsages);
+        JSONObject response = getDiskUsage(diskUsages);
         JSONObject status = (JSONObject) response.get("status");
         assertEquals("ERROR", status.get("systemStatus"));
         assertTrue(status.containsKey("error"));
@@ -205,7 +230,7 @@ public class ResponseBodyBuilderTest {
         diskUsages.add(usage);
         diskUsages.setError(new Exception("test message"));
 
-        JSONObject response = ResponseBodyBuilder.getDiskUsage(diskUsages);
+        JSONObject response = getDiskUsage(diskUsages);
         JSONObject status = (JSONObject) response.get("status");
         assertEquals("ERROR", status.get("systemStatus"));
         assertTrue(status.containsKey("error"));
@@ -235,7 +260,7 @@ public class ResponseBodyBuilderTest {
         DiskUsage usage = new DiskUsage("elasticsearch1", 10000000L, 9000000L, 0.9);
         diskUsages.add(usage);
 
-        JSONObject response = ResponseBodyBuilder.getDiskUsage(diskUsages);
+        JSONObject response = getDiskUsage(diskUsages);
         JSONObject status = (JSONObject) response.get("status");
         assertEquals("FULL", status.get("systemStatus"));
 
@@ -249,4 +274,39 @@ public class ResponseBodyBuilderTest {
         assertEquals("FULL", json.get("status"));
     }
 
+    /**
+     * エスケープが必要な文字を含む場合にJSONObjectと同じ内容で返却されること.
+     * @throws Exception エラー
+     */
+    @Test
+    public void エスケープが必要な文字を含む場合にJSONObjectと同じ内容で返却されること() throws Exception {
+        String volume = "vol\"/\\\b\f\n\r\t\u0001\u007f\u2028日本語\ud83d\ude00";
+        DiskUsages diskUsages = new DiskUsages();
+        diskUsages.add(new DiskUsage(volume, 10000000L, 7000000L, 0.9));
+        diskUsages.add(DiskUsage.getErrorInstance("error\nvolume", new Exception("message with \"quote\"")));
+        diskUsages.setError(new Exception(null, null));
+
+        JSONObject response = getDiskUsage(diskUsages);
+        JSONObject status = (JSONObject) response.get("status");
+        JSONArray volumeStatus = (JSONArray) status.get("volumeStatus");
+        assertEquals(volume, ((JSONObject) volumeStatus.get(0)).get("volume"));
+        assertEquals(diskUsages.toJson().toJSONString().length(), diskUsages.toJsonString().length());
+    }
+
+    /**
+     * 変更されるまで同じ変換結果が共有されること.
+     */
+    @Test
+    public void 変更されるまで同じ変換結果が共有されること() {
+        DiskUsages diskUsages = new DiskUsages();
+        diskUsages.add(new DiskUsage("elasticsearch1", 10000000L, 7000000L, 0.9));
+
+        byte[] body = ResponseBodyBuilder.getDiskUsageBody(diskUsages);
+        assertSame(body, ResponseBodyBuilder.getDiskUsageBody(diskUsages));
+        assertSame(diskUsages.toJsonString(), diskUsages.toJsonString());
+
+        diskUsages.add(new DiskUsage("_ads", 10000000L, 5000000L, 0.9));
+        JSONArray volumeStatus = (JSONArray) ((JSONObject) getDiskUsage(diskUsages).get("status")).get("volumeStatus");
+        assertEquals(2, volumeStatus.size());
+    }
 }
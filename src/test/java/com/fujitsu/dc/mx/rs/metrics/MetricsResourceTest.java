@@ -0,0 +1,125 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.mx.rs.metrics;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+
+import org.junit.Test;
+
+import com.fujitsu.dc.mx.DcMxException;
+import com.fujitsu.dc.mx.DcMxMessageId;
+import com.fujitsu.dc.mx.jersey.filter.RequestLatencies;
+import com.fujitsu.dc.mx.model.diskusage.DiskUsage;
+import com.fujitsu.dc.mx.model.diskusage.DiskUsages;
+import com.fujitsu.dc.mx.process.DiskUsageSampler;
+
+/**
+ * MetricsResourceのテスト.
+ */
+public class MetricsResourceTest {
+
+    private static String writeMetrics(DiskUsages diskUsages) throws Exception {
+        MetricsWriter writer = MetricsWriter.get();
+        MetricsResource.writeMetrics(writer, diskUsages, DiskUsageSampler.getInstance());
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        writer.writeTo(output);
+        return output.toString("UTF-8");
+    }
+
+    /**
+     * 各ボリュームのディスク使用量とステータスが出力されること.
+     * @throws Exception エラー
+     */
+    @Test
+    public void 各ボリュームのディスク使用量とステータスが出力されること() throws Exception {
+        DiskUsages diskUsages = new DiskUsages();
+        diskUsages.add(new DiskUsage("elasticsearch1", 10000000L, 9500000L, 0.9));
+
+        String text = writeMetrics(diskUsages);
+        assertTrue(text, text.contains("# TYPE dc_mx_volume_disk_size_bytes gauge\n"));
+        assertTrue(text, text.contains("dc_mx_volume_disk_size_bytes{volume=\"elasticsearch1\"} 10000000\n"));
+        assertTrue(text, text.contains("dc_mx_volume_allocated_disk_size_bytes{volume=\"elasticsearch1\"} 9000000\n"));
+        assertTrue(text, text.contains("dc_mx_volume_used_disk_size_bytes{volume=\"elasticsearch1\"} 9500000\n"));
+        assertTrue(text, text.contains("dc_mx_volume_status{volume=\"elasticsearch1\",status=\"FULL\"} 1\n"));
+        assertTrue(text, text.contains("dc_mx_volume_status{volume=\"elasticsearch1\",status=\"OK\"} 0\n"));
+        assertTrue(text, text.contains("dc_mx_system_status{status=\"FULL\"} 1\n"));
+        assertTrue(text, text.contains("dc_mx_snapshot_version " + diskUsages.getVersion() + "\n"));
+        assertTrue(text, text.contains("dc_mx_memcached_operations_total{operation=\"set\",result=\"success\"} "));
+    }
+
+    /**
+     * ERRORのボリュームのディスク使用量が出力されないこと.
+     * @throws Exception エラー
+     */
+    @Test
+    public void ERRORのボリュームのディスク使用量が出力されないこと() throws Exception {
+        DiskUsages diskUsages = new DiskUsages();
+        diskUsages.add(DiskUsage.getErrorInstance("_ads", new DcMxException(new DcMxMessageId("MX500-SV-0003"))));
+
+        String text = writeMetrics(diskUsages);
+        assertFalse(text, text.contains("dc_mx_volume_disk_size_bytes{volume=\"_ads\"}"));
+        assertTrue(text, text.contains("dc_mx_volume_status{volume=\"_ads\",status=\"ERROR\"} 1\n"));
+    }
+
+    /**
+     * ラベル値がエスケープされること.
+     * @throws Exception エラー
+     */
+    @Test
+    public void ラベル値がエスケープされること() throws Exception {
+        DiskUsages diskUsages = new DiskUsages();
+        diskUsages.add(new DiskUsage("vol\"\\\n日本語", 10000000L, 7000000L, 0.9));
+
+        String text = writeMetrics(diskUsages);
+        assertTrue(text, text.contains("dc_mx_volume_disk_size_bytes{volume=\"vol\\\"\\\\\\n日本語\"} 10000000\n"));
+    }
+
+    /**
+     * 秒に換算した値が小数点以下3桁で出力されること.
+     */
+    @Test
+    public void 秒に換算した値が小数点以下3桁で出力されること() {
+        MetricsWriter writer = MetricsWriter.get();
+        writer.family("test_seconds", "gauge", "Test.");
+        writer.sample().seconds(1005L);
+        writer.sample().seconds(42L);
+        String text = writer.toString();
+        assertTrue(text, text.contains("test_seconds 1.005\ntest_seconds 0.042\n"));
+    }
+
+    /**
+     * リクエストのレイテンシがsummaryとして出力されること.
+     * @throws Exception エラー
+     */
+    @Test
+    public void リクエストのレイテンシがsummaryとして出力されること() throws Exception {
+        RequestLatencies.record("metrics-test", 200, 1500000L);
+
+        String text = writeMetrics(new DiskUsages());
+        assertTrue(text, text.contains("# TYPE dc_mx_request_duration_seconds summary\n"));
+        assertTrue(text, text.contains(
+                "dc_mx_request_duration_seconds{resource=\"/metrics-test\",status=\"200\",quantile=\"0.99\"} 0.0015"));
+        assertTrue(text, text.contains(
+                "dc_mx_request_duration_seconds_sum{resource=\"/metrics-test\",status=\"200\"} 0.001500000\n"));
+        assertTrue(text, text.contains(
+                "dc_mx_request_duration_seconds_count{resource=\"/metrics-test\",status=\"200\"} 1\n"));
+        assertFalse(text, text.contains("# TYPE dc_mx_request_duration_seconds_count"));
+    }
+}
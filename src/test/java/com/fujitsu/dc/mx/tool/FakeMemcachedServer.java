@@ -0,0 +1,660 @@
+/**
+ * personium.io
+ * Copyright 2014 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.fujitsu.dc.mx.tool;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * テスト用のプロセス内 memcachedサーバ.
+ * spymemcachedが既定で使用するテキストプロトコルのうち、get, gets, set, add, replace, cas, delete, touch,
+ * flush_all, version, stats, stats slabs, quitに応答する。障害を再現するため、以下の操作ができる。
+ * <ul>
+ * <li>setLatency: 各コマンドの応答を指定時間遅らせる</li>
+ * <li>setFault: 指定したコマンドに任意の応答(NOT_FOUND, SERVER_ERRORなど)を返す、または接続を切断する</li>
+ * <li>dropConnections, setRefuseConnections: 接続中の接続を切断する、新しい接続を拒否する</li>
+ * <li>evict, setMaxItems: キーを追い出す、保持するキー数を制限して古いものから追い出す</li>
+ * <li>setLimitMaxBytes: statsで応答するメモリの上限を変更する</li>
+ * </ul>
+ */
+public class FakeMemcachedServer {
+
+    /** setFaultに指定すると、応答を返さずに接続を切断する. */
+    public static final String DROP_CONNECTION = "<drop connection>";
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String CRLF = "\r\n";
+    private static final String NOREPLY = "noreply";
+    private static final String VERSION = "1.4.15-fake";
+    /** これより大きい有効期限は UNIX時刻として扱う(memcachedと同じ). */
+    private static final long MAX_RELATIVE_EXPIRATION = 60L * 60L * 24L * 30L;
+    private static final long MILLIS_PER_SECOND = 1000L;
+    private static final int INITIAL_CAPACITY = 16;
+    private static final float LOAD_FACTOR = 0.75f;
+    /** ストレージコマンドの "<command> <key> <flags> <exptime> <bytes>" のトークン数. */
+    private static final int STORAGE_TOKENS = 5;
+    private static final int BYTES_INDEX = 4;
+    private static final int CAS_INDEX = 5;
+    private static final long DEFAULT_LIMIT_MAXBYTES = 64L * 1024L * 1024L;
+
+    /**
+     * 保持している値.
+     */
+    private static final class Item {
+        private final byte[] data;
+        private final int flags;
+        private final long cas;
+        private final long expiresAt;
+
+        Item(byte[] data, int flags, long cas, long expiresAt) {
+            this.data = data;
+            this.flags = flags;
+            this.cas = cas;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired(long now) {
+            return this.expiresAt != 0L && now >= this.expiresAt;
+        }
+    }
+
+    private final ServerSocket serverSocket;
+    private final Set<Socket> connections = Collections.synchronizedSet(new HashSet<Socket>());
+    private final Map<String, Item> items;
+    private final Map<String, String> faults = new ConcurrentHashMap<String, String>();
+    private final Map<String, AtomicLong> commandCounts = new ConcurrentHashMap<String, AtomicLong>();
+    private final AtomicLong casSequence = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong totalConnections = new AtomicLong();
+    private final AtomicLong getHits = new AtomicLong();
+    private final AtomicLong getMisses = new AtomicLong();
+    private final long startedAt = System.currentTimeMillis();
+
+    private volatile boolean running = false;
+    private volatile boolean refuseConnections = false;
+    private volatile long latency = 0L;
+    private volatile long clockOffset = 0L;
+    private volatile int maxItems = Integer.MAX_VALUE;
+    private volatile long limitMaxBytes = DEFAULT_LIMIT_MAXBYTES;
+    private Thread acceptor;
+
+    /**
+     * ループバックアドレスの空いているポートで待ち受けるサーバを作成する.
+     * @throws IOException 待ち受けに失敗した場合
+     */
+    public FakeMemcachedServer() throws IOException {
+        this(0);
+    }
+
+    /**
+     * ループバックアドレスの指定したポートで待ち受けるサーバを作成する.
+     * @param port ポート番号. 0の場合は空いているポート
+     * @throws IOException 待ち受けに失敗した場合
+     */
+    public FakeMemcachedServer(int port) throws IOException {
+        this.items = new LinkedHashMap<String, Item>(INITIAL_CAPACITY, LOAD_FACTOR, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Item> eldest) {
+                if (size() > FakeMemcachedServer.this.maxItems) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+        this.serverSocket = new ServerSocket();
+        this.serverSocket.setReuseAddress(true);
+        this.serverSocket.bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port));
+    }
+
+    /**
+     * 接続の受け付けを開始する.
+     * @return this
+     */
+    public synchronized FakeMemcachedServer start() {
+        if (this.running) {
+            return this;
+        }
+        this.running = true;
+        this.acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "fake-memcached-acceptor");
+        this.acceptor.setDaemon(true);
+        this.acceptor.start();
+        return this;
+    }
+
+    /**
+     * サーバを停止し、全ての接続を切断する.
+     */
+    public synchronized void stop() {
+        this.running = false;
+        try {
+            this.serverSocket.close();
+        } catch (IOException e) {
+            // 停止時のエラーは無視する
+            this.running = false;
+        }
+        dropConnections();
+    }
+
+    /**
+     * 待ち受けているホスト名を取得する.
+     * @return ホスト名
+     */
+    public String getHost() {
+        return this.serverSocket.getInetAddress().getHostAddress();
+    }
+
+    /**
+     * 待ち受けているポート番号を取得する.
+     * @return ポート番号
+     */
+    public int getPort() {
+        return this.serverSocket.getLocalPort();
+    }
+
+    /**
+     * 各コマンドの応答を遅らせる時間を設定する.
+     * @param millis 遅延時間(ミリ秒)
+     */
+    public void setLatency(long millis) {
+        this.latency = millis;
+    }
+
+    /**
+     * サーバの時計を進める. 有効期限の判定と statsの時刻に反映する.
+     * @param millis 進める時間(ミリ秒)
+     */
+    public void advanceTime(long millis) {
+        this.clockOffset += millis;
+    }
+
+    /**
+     * 指定したコマンドに対して、実際の処理の代わりに指定した応答を返すようにする.
+     * @param command コマンド名(get, set, delete など)
+     * @param reply 応答する行(CRLFは不要). DROP_CONNECTIONの場合は接続を切断する
+     */
+    public void setFault(String command, String reply) {
+        this.faults.put(command, reply);
+    }
+
+    /**
+     * setFaultで設定した応答を全て解除する.
+     */
+    public void clearFaults() {
+        this.faults.clear();
+    }
+
+    /**
+     * 新しい接続を受け付けずに切断するかどうかを設定する.
+     * @param refuse true: 切断する false: 受け付ける
+     */
+    public void setRefuseConnections(boolean refuse) {
+        this.refuseConnections = refuse;
+    }
+
+    /**
+     * 接続中の全ての接続を切断する.
+     */
+    public void dropConnections() {
+        List<Socket> sockets;
+        synchronized (this.connections) {
+            sockets = new ArrayList<Socket>(this.connections);
+            this.connections.clear();
+        }
+        for (Socket socket : sockets) {
+            closeQuietly(socket);
+        }
+    }
+
+    /**
+     * 保持するキー数の上限を設定する. 上限を超えた場合は最も長く参照されていないキーから追い出す.
+     * @param max 上限
+     */
+    public void setMaxItems(int max) {
+        synchronized (this.items) {
+            this.maxItems = max;
+            while (this.items.size() > max) {
+                String eldest = this.items.keySet().iterator().next();
+                this.items.remove(eldest);
+                this.evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * statsで応答するメモリの上限(limit_maxbytes)を設定する. 保持するキーは制限しない.
+     * @param bytes メモリの上限(バイト)
+     */
+    public void setLimitMaxBytes(long bytes) {
+        this.limitMaxBytes = bytes;
+    }
+
+    /**
+     * 指定したキーを追い出す.
+     * @param key キー
+     * @return true: 追い出した false: キーが存在しない
+     */
+    public boolean evict(String key) {
+        synchronized (this.items) {
+            if (this.items.remove(key) == null) {
+                return false;
+            }
+        }
+        this.evictions.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * 指定したキーの値を UTF-8の文字列として取得する.
+     * @param key キー
+     * @return 値. 存在しない場合は null
+     */
+    public String getValue(String key) {
+        Item item = find(key);
+        if (item == null) {
+            return null;
+        }
+        return new String(item.data, UTF_8);
+    }
+
+    /**
+     * 指定したキーの値を設定する.
+     * @param key キー
+     * @param value 値
+     */
+    public void putValue(String key, String value) {
+        store(key, new Item(value.getBytes(UTF_8), 0, this.casSequence.incrementAndGet(), 0L));
+    }
+
+    /**
+     * 受け付けたコマンドの数を取得する. setFaultによる応答も数える.
+     * @param command コマンド名
+     * @return 受け付けた数
+     */
+    public long getCommandCount(String command) {
+        AtomicLong count = this.commandCounts.get(command);
+        if (count == null) {
+            return 0L;
+        }
+        return count.get();
+    }
+
+    /**
+     * 追い出したキーの数を取得する.
+     * @return 追い出したキーの数
+     */
+    public long getEvictionCount() {
+        return this.evictions.get();
+    }
+
+    private void accept() {
+        while (this.running) {
+            final Socket socket;
+            try {
+                socket = this.serverSocket.accept();
+            } catch (IOException e) {
+                // stop()でソケットが閉じられた場合
+                return;
+            }
+            if (this.refuseConnections) {
+                closeQuietly(socket);
+                continue;
+            }
+            this.connections.add(socket);
+            this.totalConnections.incrementAndGet();
+            Thread handler = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        serve(socket);
+                    } catch (IOException e) {
+                        // クライアントまたは dropConnections()による切断
+                        return;
+                    } finally {
+                        connections.remove(socket);
+                        closeQuietly(socket);
+                    }
+                }
+            }, "fake-memcached-" + socket.getPort());
+            handler.setDaemon(true);
+            handler.start();
+        }
+    }
+
+    private void serve(Socket socket) throws IOException {
+        socket.setTcpNoDelay(true);
+        InputStream input = new BufferedInputStream(socket.getInputStream());
+        OutputStream output = new BufferedOutputStream(socket.getOutputStream());
+        while (this.running) {
+            String line = readLine(input);
+            if (line == null) {
+                return;
+            }
+            String[] tokens = line.trim().split(" +");
+            String command = tokens[0];
+            byte[] data = null;
+            if (isStorageCommand(command) && tokens.length >= STORAGE_TOKENS) {
+                data = readData(input, Integer.parseInt(tokens[BYTES_INDEX]));
+            }
+            countCommand(command);
+            if (!delay()) {
+                return;
+            }
+            String fault = this.faults.get(command);
+            if (DROP_CONNECTION.equals(fault)) {
+                return;
+            }
+            if (fault != null) {
+                writeLine(output, fault);
+            } else if ("quit".equals(command)) {
+                return;
+            } else {
+                execute(tokens, data, output);
+            }
+            // パイプラインで送信された後続のコマンドがある場合はまとめて応答する
+            if (input.available() == 0) {
+                output.flush();
+            }
+        }
+    }
+
+    private void execute(String[] tokens, byte[] data, OutputStream output) throws IOException {
+        String command = tokens[0];
+        boolean noreply = NOREPLY.equals(tokens[tokens.length - 1]);
+        String reply;
+        try {
+            reply = dispatch(command, tokens, data, output);
+        } catch (NumberFormatException e) {
+            reply = "CLIENT_ERROR bad command line format";
+            noreply = false;
+        } catch (ArrayIndexOutOfBoundsException e) {
+            reply = "ERROR";
+            noreply = false;
+        }
+        if (reply != null && !noreply) {
+            writeLine(output, reply);
+        }
+    }
+
+    private String dispatch(String command, String[] tokens, byte[] data, OutputStream output) throws IOException {
+        if ("get".equals(command) || "gets".equals(command)) {
+            for (int i = 1; i < tokens.length; i++) {
+                writeValue(output, tokens[i], "gets".equals(command));
+            }
+            return "END";
+        } else if (isStorageCommand(command)) {
+            if (data == null) {
+                return "ERROR";
+            }
+            return storeCommand(command, tokens, data);
+        } else if ("delete".equals(command)) {
+            synchronized (this.items) {
+                if (find(tokens[1]) == null) {
+                    return "NOT_FOUND";
+                }
+                this.items.remove(tokens[1]);
+            }
+            return "DELETED";
+        } else if ("touch".equals(command)) {
+            synchronized (this.items) {
+                Item item = find(tokens[1]);
+                if (item == null) {
+                    return "NOT_FOUND";
+                }
+                this.items.put(tokens[1], new Item(item.data, item.flags, item.cas, toExpiresAt(tokens[2])));
+            }
+            return "TOUCHED";
+        } else if ("flush_all".equals(command)) {
+            synchronized (this.items) {
+                this.items.clear();
+            }
+            return "OK";
+        } else if ("version".equals(command)) {
+            return "VERSION " + VERSION;
+        } else if ("stats".equals(command)) {
+            if (tokens.length == 1) {
+                writeStats(output);
+            } else if ("slabs".equals(tokens[1])) {
+                writeSlabStats(output);
+            }
+            return "END";
+        }
+        return "ERROR";
+    }
+
+    private String storeCommand(String command, String[] tokens, byte[] data) {
+        String key = tokens[1];
+        int flags = Integer.parseInt(tokens[2]);
+        long expiresAt = toExpiresAt(tokens[3]);
+        synchronized (this.items) {
+            Item current = find(key);
+            if ("add".equals(command) && current != null) {
+                return "NOT_STORED";
+            }
+            if ("replace".equals(command) && current == null) {
+                return "NOT_STORED";
+            }
+            if ("cas".equals(command)) {
+                if (tokens.length <= CAS_INDEX) {
+                    return "ERROR";
+                }
+                if (current == null) {
+                    return "NOT_FOUND";
+                }
+                if (current.cas != Long.parseLong(tokens[CAS_INDEX])) {
+                    return "EXISTS";
+                }
+            }
+            store(key, new Item(data, flags, this.casSequence.incrementAndGet(), expiresAt));
+        }
+        return "STORED";
+    }
+
+    private void writeValue(OutputStream output, String key, boolean withCas) throws IOException {
+        Item item = find(key);
+        if (item == null) {
+            this.getMisses.incrementAndGet();
+            return;
+        }
+        this.getHits.incrementAndGet();
+        StringBuilder header = new StringBuilder("VALUE ").append(key).append(' ').append(item.flags)
+                .append(' ').append(item.data.length);
+        if (withCas) {
+            header.append(' ').append(item.cas);
+        }
+        writeLine(output, header.toString());
+        output.write(item.data);
+        output.write(CRLF.getBytes(US_ASCII));
+    }
+
+    private void writeStats(OutputStream output) throws IOException {
+        long now = now();
+        int currItems;
+        synchronized (this.items) {
+            currItems = this.items.size();
+        }
+        long bytes = getBytes();
+        writeLine(output, "STAT pid 0");
+        writeLine(output, "STAT uptime " + (now - this.startedAt) / MILLIS_PER_SECOND);
+        writeLine(output, "STAT time " + now / MILLIS_PER_SECOND);
+        writeLine(output, "STAT version " + VERSION);
+        writeLine(output, "STAT curr_connections " + this.connections.size());
+        writeLine(output, "STAT total_connections " + this.totalConnections.get());
+        writeLine(output, "STAT cmd_get " + (getCommandCount("get") + getCommandCount("gets")));
+        writeLine(output, "STAT cmd_set " + getCommandCount("set"));
+        writeLine(output, "STAT get_hits " + this.getHits.get());
+        writeLine(output, "STAT get_misses " + this.getMisses.get());
+        writeLine(output, "STAT limit_maxbytes " + this.limitMaxBytes);
+        writeLine(output, "STAT curr_items " + currItems);
+        writeLine(output, "STAT bytes " + bytes);
+        writeLine(output, "STAT evictions " + this.evictions.get());
+    }
+
+    private void writeSlabStats(OutputStream output) throws IOException {
+        // slabは区別せず、保持している値の合計を割り当て済みのメモリとして応答する
+        writeLine(output, "STAT active_slabs 1");
+        writeLine(output, "STAT total_malloced " + getBytes());
+    }
+
+    private long getBytes() {
+        long bytes = 0L;
+        synchronized (this.items) {
+            for (Item item : this.items.values()) {
+                bytes += item.data.length;
+            }
+        }
+        return bytes;
+    }
+
+    private Item find(String key) {
+        synchronized (this.items) {
+            Item item = this.items.get(key);
+            if (item != null && item.isExpired(now())) {
+                this.items.remove(key);
+                return null;
+            }
+            return item;
+        }
+    }
+
+    private void store(String key, Item item) {
+        synchronized (this.items) {
+            this.items.put(key, item);
+        }
+    }
+
+    private long toExpiresAt(String exptime) {
+        long seconds = Long.parseLong(exptime);
+        if (seconds == 0L) {
+            return 0L;
+        }
+        if (seconds > MAX_RELATIVE_EXPIRATION) {
+            return seconds * MILLIS_PER_SECOND;
+        }
+        return now() + seconds * MILLIS_PER_SECOND;
+    }
+
+    private long now() {
+        return System.currentTimeMillis() + this.clockOffset;
+    }
+
+    private boolean delay() {
+        long millis = this.latency;
+        if (millis <= 0L) {
+            return true;
+        }
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void countCommand(String command) {
+        AtomicLong count = this.commandCounts.get(command);
+        if (count == null) {
+            synchronized (this.commandCounts) {
+                count = this.commandCounts.get(command);
+                if (count == null) {
+                    count = new AtomicLong();
+                    this.commandCounts.put(command, count);
+                }
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    private static boolean isStorageCommand(String command) {
+        return "set".equals(command) || "add".equals(command) || "replace".equals(command)
+                || "cas".equals(command);
+    }
+
+    private static String readLine(InputStream input) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        while (true) {
+            int b = input.read();
+            if (b < 0) {
+                return null;
+            }
+            if (b == '\n') {
+                break;
+            }
+            if (b != '\r') {
+                line.write(b);
+            }
+        }
+        return new String(line.toByteArray(), US_ASCII);
+    }
+
+    private static byte[] readData(InputStream input, int length) throws IOException {
+        // データ部の後に続く CRLFも読み捨てる
+        byte[] data = new byte[length + 2];
+        int offset = 0;
+        while (offset < data.length) {
+            int read = input.read(data, offset, data.length - offset);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            offset += read;
+        }
+        byte[] value = new byte[length];
+        System.arraycopy(data, 0, value, 0, length);
+        return value;
+    }
+
+    private static void writeLine(OutputStream output, String line) throws IOException {
+        output.write((line + CRLF).getBytes(US_ASCII));
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // 切断時のエラーは無視する
+            return;
+        }
+    }
+}
@@ -16,7 +16,18 @@
  */
 package com.fujitsu.dc.mx.tool;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -26,6 +37,7 @@ import org.powermock.modules.junit4.PowerMockRunner;
 
 import com.fujitsu.dc.mx.DcMxConfig;
 import com.fujitsu.dc.mx.DcMxException;
+import com.fujitsu.dc.mx.control.pcs.ReadDeleteModeEntry;
 
 /**
  * memcachedにReadOnlyMode設定/解除のチェックのテスト.
@@ -97,4 +109,353 @@ public class MemcachedReadDeleteModeControllerTest {
         new MemcachedReadDeleteModeController();
     }
 
+    /**
+     * memcachedに接続できない場合に以降の操作が接続を待たずにエラーとなること.
+     * @throws Exception エラー
+     */
+    @Test
+    @PrepareForTest(DcMxConfig.class)
+    public void memcachedに接続できない場合に以降の操作が接続を待たずにエラーとなること() throws Exception {
+        PowerMockito.spy(DcMxConfig.class);
+        PowerMockito.when(DcMxConfig.class, "get", MemcachedReadDeleteModeController.class.getName() + ".host")
+        .thenReturn("hoge");
+        PowerMockito.when(DcMxConfig.class, "getWaitForMemcached").thenReturn(1000L);
+
+        MemcachedReadDeleteModeController controller = new MemcachedReadDeleteModeController();
+        try {
+            controller.setReadDeleteMode("PcsReadDeleteMode", "test");
+            fail("DcMxException is not thrown.");
+        } catch (DcMxException e) {
+            assertEquals("MX500-SV-0002", e.getMessageId());
+        }
+
+        long start = System.currentTimeMillis();
+        try {
+            controller.removeReadDeleteMode("PcsReadDeleteMode");
+            fail("DcMxException is not thrown.");
+        } catch (DcMxException e) {
+            assertEquals("MX500-SV-0002", e.getMessageId());
+        }
+        assertTrue(System.currentTimeMillis() - start < 500L);
+    }
+
+    /**
+     * 条件を満たすまで待つ. 5秒以内に満たさない場合は失敗とする.
+     * @param message 失敗時のメッセージ
+     * @param condition 条件
+     * @throws Exception エラー
+     */
+    private static void waitUntil(String message, Callable<Boolean> condition) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (!condition.call()) {
+            assertTrue(message, System.currentTimeMillis() < deadline);
+            Thread.sleep(10L);
+        }
+    }
+
+    /**
+     * 呼び出しがサーキットの開放により即座に失敗することを確認する.
+     * @param controller コントローラ
+     * @throws Exception エラー
+     */
+    private static void assertUnavailable(MemcachedReadDeleteModeController controller) throws Exception {
+        try {
+            controller.getReadDeleteMode("PcsReadDeleteMode");
+            fail("DcMxException is not thrown.");
+        } catch (DcMxException e) {
+            assertEquals("MX500-SV-0002", e.getMessageId());
+        }
+    }
+
+    /**
+     * FakeMemcachedServerに接続する MemcachedReadDeleteModeControllerを作成する.
+     * @param server 接続先
+     * @return コントローラ
+     * @throws Exception エラー
+     */
+    private static MemcachedReadDeleteModeController createController(FakeMemcachedServer server) throws Exception {
+        PowerMockito.spy(DcMxConfig.class);
+        PowerMockito.when(DcMxConfig.class, "get", MemcachedReadDeleteModeController.class.getName() + ".host")
+        .thenReturn(server.getHost());
+        PowerMockito.when(DcMxConfig.class, "get", MemcachedReadDeleteModeController.class.getName() + ".port")
+        .thenReturn(String.valueOf(server.getPort()));
+        PowerMockito.when(DcMxConfig.class, "get",
+                MemcachedReadDeleteModeController.class.getName() + ".operationTimeout")
+        .thenReturn("300");
+        return new MemcachedReadDeleteModeController();
+    }
+
+    /**
+     * ReadDeleteModeの設定と取得とCASによる更新と削除ができること.
+     * @throws Exception エラー
+     */
+    @Test
+    @PrepareForTest(DcMxConfig.class)
+    public void ReadDeleteModeの設定と取得とCASによる更新と削除ができること() throws Exception {
+        FakeMemcachedServer server = new FakeMemcachedServer().start();
+        MemcachedReadDeleteModeController controller = createController(server);
+        try {
+            assertNull(controller.getReadDeleteMode("PcsReadDeleteMode"));
+
+            controller.setReadDeleteMode("PcsReadDeleteMode", "first");
+            assertEquals("first", server.getValue("PcsReadDeleteMode"));
+            ReadDeleteModeEntry entry = controller.getReadDeleteMode("PcsReadDeleteMode");
+            assertEquals("first", entry.getValue());
+
+            assertTrue(controller.compareAndSetReadDeleteMode("PcsReadDeleteMode", entry.getCas(), "second"));
+            assertEquals("second", server.getValue("PcsReadDeleteMode"));
+            // 他の書き込みで CAS値が変わっている場合は更新しない
+            assertFalse(controller.compareAndSetReadDeleteMode("PcsReadDeleteMode", entry.getCas(), "third"));
+            assertEquals("second", server.getValue("PcsReadDeleteMode"));
+
+            controller.removeReadDeleteMode("PcsReadDeleteMode");
+            assertNull(server.getValue("PcsReadDeleteMode"));
+            // 存在しないキーの削除はエラーとしない
+            controller.removeReadDeleteMode("PcsReadDeleteMode");
+        } finally {
+            controller.spyClient.shutdown();
+            server.stop();
+        }
+    }
+
+    /**
+     * memcachedの統計情報を取得できること.
+     * @throws Exception エラー
+     */
+    @Test
+    @PrepareForTest(DcMxConfig.class)
+    public void memcachedの統計情報を取得できること() throws Exception {
+        FakeMemcachedServer server = new FakeMemcachedServer().start();
+        server.setLimitMaxBytes(1024L);
+        MemcachedReadDeleteModeController controller = createController(server);
+        try {
+            controller.setReadDeleteMode("PcsReadDeleteMode", "value");
+            assertNotNull(controller.getReadDeleteMode("PcsReadDeleteMode"));
+            assertNull(controller.getReadDeleteMode("PcsReadDeleteMode:_ads"));
+
+            Map<String, String> stats = controller.getServerStats(null);
+            assertEquals("1", stats.get("get_hits"));
+            assertEquals("1", stats.get("get_misses"));
+            assertEquals("1024", stats.get("limit_maxbytes"));
+            assertEquals("0", stats.get("evictions"));
+            Map<String, String> slabs = controller.getServerStats("slabs");
+            assertEquals(stats.get("bytes"), slabs.get("total_malloced"));
+        } finally {
+            controller.spyClient.shutdown();
+            server.stop();
+        }
+    }
+
+    /**
+     * 複数のReadDeleteModeを一括で設定と削除ができること.
+     * @throws Exception エラー
+     */
+    @Test
+    @PrepareForTest(DcMxConfig.class)
+    public void 複数のReadDeleteModeを一括で設定と削除ができること() throws Exception {
+        FakeMemcachedServer server = new FakeMemcachedServer().start();
+        MemcachedReadDeleteModeController controller = createController(server);
+        try {
+            Map<String, Object> entries = new LinkedHashMap<String, Object>();
+            for (int i = 0; i < 40; i++) {
+                entries.put("PcsReadDeleteMode:volume" + i, "volume" + i);
+            }
+            controller.setReadDeleteModes(entries);
+            assertEquals(40L, server.getCommandCount("set"));
+            assertEquals("volume0", server.getValue("PcsReadDeleteMode:volume0"));
+            assertEquals("volume39", server.getValue("PcsReadDeleteMode:volume39"));
+
+            // 存在しないキーの削除はエラーとしない
+            controller.removeReadDeleteModes(Arrays.asList("PcsReadDeleteMode:volume0", "PcsReadDeleteMode:none"));
+            assertEquals(2L, server.getCommandCount("delete"));
+            assertNull(server.getValue("PcsReadDeleteMode:volume0"));
+            assertEquals("volume1", server.getValue("PcsReadDeleteMode:volume1"));
+
+            server.setFault("set", "SERVER_ERROR out of memory storing object");
+            try {
+                controller.setReadDeleteModes(entries);
+                fail("DcMxException is not thrown.");
+            } catch (DcMxException e) {
+                assertEquals("MX500-SV-0002", e.getMessageId());
+            }
+        } finally {
+            controller.spyClient.shutdown();
+            server.stop();
+        }
+    }
+
+    /**
+     * リースの有効期間が経過した場合にキーが失効すること.
+     * @throws Exception エラー
+     */
+    @Test
+    @PrepareForTest(DcMxConfig.class)
+    public void リースの有効期間が経過した場合にキーが失効すること() throws Exception {
+        FakeMemcachedServer server = new FakeMemcachedServer().start();
+        MemcachedReadDeleteModeController controller = createController(server);
+        PowerMockito.when(DcMxConfig.class, "getPcsModeLeaseTtl").thenReturn(1);
+        MemcachedReadDeleteModeController leased = new MemcachedReadDeleteModeController();
+        try {
+            controller.setReadDeleteMode("PcsReadDeleteMode.node:node1", "long");
+            leased.setReadDeleteMode("PcsReadDeleteMode", "lease");
+            assertTrue(leased.addReadDeleteMode("PcsReadDeleteMode.nodes", "node1"));
+            assertEquals("lease", server.getValue("PcsReadDeleteMode"));
+
+            // 有効期間の経過はサーバの時計を進めて再現する
+            server.advanceTime(1500L);
+            assertNull(server.getValue("PcsReadDeleteMode"));
+            assertNull(server.getValue("PcsReadDeleteMode.nodes"));
+            assertEquals("long", server.getValue("PcsReadDeleteMode.node:node1"));
+        } finally {
+            controller.spyClient.shutdown();
+            leased.spyClient.shutdown();
+            server.stop();
+        }
+    }
+
+    /**
+     * キーが追い出された場合にCASによる更新が失敗すること.
+     * @throws Exception エラー
+     */
+    @Test
+    @PrepareForTest(DcMxConfig.class)
+    public void キーが追い出された場合にCASによる更新が失敗すること() throws Exception {
+        FakeMemcachedServer server = new FakeMemcachedServer().start();
+        MemcachedReadDeleteModeController controller = createController(server);
+        try {
+            controller.setReadDeleteMode("PcsReadDeleteMode", "first");
+            ReadDeleteModeEntry entry = controller.getReadDeleteMode("PcsReadDeleteMode");
+            assertTrue(server.evict("PcsReadDeleteMode"));
+
+            assertFalse(controller.compareAndSetReadDeleteMode("PcsReadDeleteMode", entry.getCas(), "second"));
+            assertNull(controller.getReadDeleteMode("PcsReadDeleteMode"));
+        } finally {
+            controller.spyClient.shutdown();
+            server.stop();
+        }
+    }
+
+    /**
+     * memcachedがエラーを応答した場合に例外をスローすること.
+     * @throws Exception エラー
+     */
+    @Test
+    @PrepareForTest(DcMxConfig.class)
+    public void memcachedがエラーを応答した場合に例外をスローすること() throws Exception {
+        FakeMemcachedServer server = new FakeMemcachedServer().start();
+        MemcachedReadDeleteModeController controller = createController(server);
+        try {
+            server.setFault("set", "SERVER_ERROR out of memory storing object");
+            try {
+                controller.setReadDeleteMode("PcsReadDeleteMode", "test");
+                fail("DcMxException is not thrown.");
+            } catch (DcMxException e) {
+                assertEquals("MX500-SV-0002", e.getMessageId());
+            }
+            assertEquals(1L, server.getCommandCount("set"));
+            assertNull(server.getValue("PcsReadDeleteMode"));
+        } finally {
+            controller.spyClient.shutdown();
+            server.stop();
+        }
+    }
+
+    /**
+     * memcachedの応答が操作タイムアウトより遅い場合に例外をスローすること.
+     * @throws Exception エラー
+     */
+    @Test
+    @PrepareForTest(DcMxConfig.class)
+    public void memcachedの応答が操作タイムアウトより遅い場合に例外をスローすること() throws Exception {
+        FakeMemcachedServer server = new FakeMemcachedServer().start();
+        MemcachedReadDeleteModeController controller = createController(server);
+        try {
+            // 接続を確立しておく
+            controller.getReadDeleteMode("PcsReadDeleteMode");
+            server.setLatency(2000L);
+
+            long start = System.currentTimeMillis();
+            try {
+                controller.getReadDeleteMode("PcsReadDeleteMode");
+                fail("DcMxException is not thrown.");
+            } catch (DcMxException e) {
+                assertEquals("MX500-SV-0002", e.getMessageId());
+            }
+            assertTrue(System.currentTimeMillis() - start < 1500L);
+        } finally {
+            controller.spyClient.shutdown();
+            server.stop();
+        }
+    }
+
+    /**
+     * サーキットの開放期間を過ぎた後の応答の確認を呼び出し元が待たないこと.
+     * @throws Exception エラー
+     */
+    @Test
+    @PrepareForTest(DcMxConfig.class)
+    public void サーキットの開放期間を過ぎた後の応答の確認を呼び出し元が待たないこと() throws Exception {
+        FakeMemcachedServer server = new FakeMemcachedServer().start();
+        PowerMockito.spy(DcMxConfig.class);
+        PowerMockito.when(DcMxConfig.class, "get",
+                MemcachedReadDeleteModeController.class.getName() + ".circuitBreaker.threshold")
+        .thenReturn("1");
+        PowerMockito.when(DcMxConfig.class, "get",
+                MemcachedReadDeleteModeController.class.getName() + ".circuitBreaker.openTime")
+        .thenReturn("200");
+        final MemcachedReadDeleteModeController controller = createController(server);
+        final AtomicBoolean notified = new AtomicBoolean(false);
+        controller.setConnectionListener(new Runnable() {
+            @Override
+            public void run() {
+                notified.set(true);
+            }
+        });
+        try {
+            controller.getReadDeleteMode("PcsReadDeleteMode");
+            server.setLatency(2000L);
+            assertUnavailable(controller);
+
+            // 開放期間を過ぎた後は応答の確認を開始するが、確認の完了は待たない
+            waitUntil("probe is not started.", new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    assertUnavailable(controller);
+                    return controller.isProbing();
+                }
+            });
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < 3; i++) {
+                assertUnavailable(controller);
+            }
+            assertTrue(System.currentTimeMillis() - start < 100L);
+            // 確認中は重ねて確認しない
+            assertTrue(controller.isProbing());
+            assertTrue(server.getCommandCount("get") <= 1L);
+
+            // 応答が戻った後の確認が成功するとサーキットが閉じ、接続リスナに通知される
+            server.setLatency(0L);
+            waitUntil("circuit is not closed.", new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    try {
+                        controller.getReadDeleteMode("PcsReadDeleteMode");
+                        return true;
+                    } catch (DcMxException e) {
+                        return false;
+                    }
+                }
+            });
+            waitUntil("connection listener is not notified.", new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return notified.get();
+                }
+            });
+            assertNull(controller.getReadDeleteMode("PcsReadDeleteMode"));
+        } finally {
+            controller.spyClient.shutdown();
+            server.stop();
+        }
+    }
 }